@@ -0,0 +1,160 @@
+package com.trein.gtfs.csv.columnar;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import com.googlecode.jcsv.CSVStrategy;
+import com.trein.gtfs.csv.reader.CSVCharBufferTokenizer;
+import com.trein.gtfs.csv.reader.CSVHeaderData;
+
+/**
+ * Columnar, in-memory representation of a GTFS feed. Rows are read straight from
+ * {@link CSVCharBufferTokenizer} slices into primitive columns, without creating the
+ * {@link com.trein.gtfs.csv.vo} objects, and ids are dictionary encoded so each distinct trip, stop
+ * and headsign is kept only once.
+ *
+ * @author trein
+ */
+public class GtfsFeedTables {
+
+    private static final String TRIP_ID = "trip_id";
+    private static final String ARRIVAL_TIME = "arrival_time";
+    private static final String DEPARTURE_TIME = "departure_time";
+    private static final String STOP_ID = "stop_id";
+    private static final String STOP_SEQUENCE = "stop_sequence";
+    private static final String STOP_HEADSIGN = "stop_headsign";
+    private static final String PICKUP_TYPE = "pickup_type";
+    private static final String DROP_OFF_TYPE = "drop_off_type";
+    private static final String SHAPE_DIST_TRAVELED = "shape_dist_traveled";
+
+    private static final int MISSING_COLUMN = -1;
+
+    private final GtfsIdDictionary trips = new GtfsIdDictionary();
+    private final GtfsIdDictionary stops = new GtfsIdDictionary();
+    private final GtfsIdDictionary headsigns = new GtfsIdDictionary();
+    private final GtfsStopTimeTable stopTimes = new GtfsStopTimeTable();
+
+    /**
+     * Appends every row of a <code>stop_times.txt</code> file.
+     *
+     * @param reader stop times csv
+     * @throws IOException if the file can not be read
+     */
+    public void loadStopTimes(Reader reader) throws IOException {
+        CSVStrategy strategy = CSVStrategy.UK_DEFAULT;
+        CSVCharBufferTokenizer tokenizer = new CSVCharBufferTokenizer(reader, strategy);
+
+        if (!tokenizer.next()) {
+            throw new IllegalStateException("reached EOF while reading the header");
+        }
+        CSVHeaderData header = new CSVHeaderData(tokenizer.getFields());
+
+        int trip = requiredColumn(header, TRIP_ID);
+        int stop = requiredColumn(header, STOP_ID);
+        int sequence = requiredColumn(header, STOP_SEQUENCE);
+        int arrival = optionalColumn(header, ARRIVAL_TIME);
+        int departure = optionalColumn(header, DEPARTURE_TIME);
+        int headsign = optionalColumn(header, STOP_HEADSIGN);
+        int pickup = optionalColumn(header, PICKUP_TYPE);
+        int dropoff = optionalColumn(header, DROP_OFF_TYPE);
+        int distance = optionalColumn(header, SHAPE_DIST_TRAVELED);
+
+        while (tokenizer.next()) {
+            if (tokenizer.isBlankRecord() || tokenizer.isCommentRecord(strategy.getCommentIndicator())) {
+                continue;
+            }
+            char[] buffer = tokenizer.getBuffer();
+
+            this.stopTimes.add(encode(this.trips, tokenizer, trip), encode(this.stops, tokenizer, stop),
+                    time(tokenizer, buffer, arrival), time(tokenizer, buffer, departure),
+                    integer(tokenizer, buffer, sequence, 0), encode(this.headsigns, tokenizer, headsign),
+                    integer(tokenizer, buffer, pickup, 0), integer(tokenizer, buffer, dropoff, 0),
+                    decimal(tokenizer, distance));
+        }
+    }
+
+    /**
+     * @return a new cursor positioned before the first stop time
+     */
+    public GtfsStopTimeCursor stopTimeCursor() {
+        return new GtfsStopTimeCursor(this);
+    }
+
+    /**
+     * Releases spare column capacity once all files have been loaded.
+     */
+    public void trimToSize() {
+        this.stopTimes.trimToSize();
+    }
+
+    public GtfsIdDictionary getTrips() {
+        return this.trips;
+    }
+
+    public GtfsIdDictionary getStops() {
+        return this.stops;
+    }
+
+    public GtfsIdDictionary getHeadsigns() {
+        return this.headsigns;
+    }
+
+    public GtfsStopTimeTable getStopTimes() {
+        return this.stopTimes;
+    }
+
+    private static int requiredColumn(CSVHeaderData header, String column) {
+        if (!header.hasValidDataFor(column)) {
+            throw new IllegalStateException(String.format("mandatory column %s not found in file", column));
+        }
+        return header.getIndexFor(column);
+    }
+
+    private static int optionalColumn(CSVHeaderData header, String column) {
+        return header.hasValidDataFor(column) ? header.getIndexFor(column) : MISSING_COLUMN;
+    }
+
+    private static boolean hasValue(CSVCharBufferTokenizer tokenizer, int column) {
+        return (column != MISSING_COLUMN) && (column < tokenizer.getFieldCount()) && !tokenizer.isFieldEmpty(column);
+    }
+
+    private static int encode(GtfsIdDictionary dictionary, CSVCharBufferTokenizer tokenizer, int column) {
+        if (!hasValue(tokenizer, column)) {
+            return GtfsIdDictionary.UNKNOWN;
+        }
+        return dictionary.encode(tokenizer.getBuffer(), tokenizer.getFieldOffset(column), tokenizer.getFieldLength(column));
+    }
+
+    private static int time(CSVCharBufferTokenizer tokenizer, char[] buffer, int column) {
+        if (!hasValue(tokenizer, column)) {
+            return GtfsTime.NO_TIME;
+        }
+        return GtfsTime.parseSeconds(buffer, tokenizer.getFieldOffset(column), tokenizer.getFieldLength(column));
+    }
+
+    private static int integer(CSVCharBufferTokenizer tokenizer, char[] buffer, int column, int defaultValue) {
+        if (!hasValue(tokenizer, column)) {
+            return defaultValue;
+        }
+        int offset = tokenizer.getFieldOffset(column);
+        int end = offset + tokenizer.getFieldLength(column);
+        boolean negative = buffer[offset] == '-';
+        int value = 0;
+
+        for (int i = negative ? offset + 1 : offset; i < end; i++) {
+            char c = buffer[i];
+            if ((c < '0') || (c > '9')) {
+                throw new NumberFormatException(String.format("invalid integer %s", tokenizer.getField(column)));
+            }
+            value = (value * 10) + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private static double decimal(CSVCharBufferTokenizer tokenizer, int column) {
+        if (!hasValue(tokenizer, column)) {
+            return Double.NaN;
+        }
+        return Double.parseDouble(tokenizer.getField(column));
+    }
+}
@@ -0,0 +1,111 @@
+package com.trein.gtfs.csv.columnar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary encoding of GTFS identifiers. Every distinct id is stored once and referenced by a
+ * dense <code>int</code> index, assigned in order of first appearance. Not thread safe.
+ *
+ * @author trein
+ */
+public class GtfsIdDictionary {
+
+    public static final int UNKNOWN = -1;
+
+    private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+    private final List<String> ids = new ArrayList<String>();
+    private final SliceKey probe = new SliceKey();
+
+    /**
+     * Returns the index of the given id, registering it if needed.
+     *
+     * @param id identifier
+     * @return dense index of the id
+     */
+    public int encode(String id) {
+        Integer index = this.indexes.get(id);
+        if (index == null) {
+            index = Integer.valueOf(this.ids.size());
+            this.indexes.put(id, index);
+            this.ids.add(id);
+        }
+        return index.intValue();
+    }
+
+    /**
+     * Same as {@link #encode(String)} for an id that is still a slice of a tokenizer buffer. The
+     * slice only becomes a string the first time the id is seen.
+     */
+    int encode(char[] buffer, int offset, int length) {
+        this.probe.wrap(buffer, offset, length);
+        Integer index = this.indexes.get(this.probe);
+        if (index != null) {
+            return index.intValue();
+        }
+        return encode(new String(buffer, offset, length));
+    }
+
+    /**
+     * @param id identifier
+     * @return index of the id or {@link #UNKNOWN}
+     */
+    public int indexOf(String id) {
+        Integer index = this.indexes.get(id);
+        return index == null ? UNKNOWN : index.intValue();
+    }
+
+    public String decode(int index) {
+        return this.ids.get(index);
+    }
+
+    public int size() {
+        return this.ids.size();
+    }
+
+    /**
+     * Lookup key over a character slice. It hashes like the equivalent {@link String} and is equal
+     * to it, so it can probe a map keyed by strings without creating one.
+     */
+    private static class SliceKey {
+
+        private char[] buffer;
+        private int offset;
+        private int length;
+
+        void wrap(char[] buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 0;
+            for (int i = this.offset; i < (this.offset + this.length); i++) {
+                hash = (31 * hash) + this.buffer[i];
+            }
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof String)) {
+                return false;
+            }
+            String id = (String) other;
+            if (id.length() != this.length) {
+                return false;
+            }
+            for (int i = 0; i < this.length; i++) {
+                if (id.charAt(i) != this.buffer[this.offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
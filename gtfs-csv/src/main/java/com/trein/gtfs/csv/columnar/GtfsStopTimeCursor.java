@@ -0,0 +1,94 @@
+package com.trein.gtfs.csv.columnar;
+
+/**
+ * Forward cursor over the rows of a {@link GtfsStopTimeTable}, resolving dictionary encoded
+ * columns back to GTFS ids on demand. Times are seconds since the start of the service day, see
+ * {@link GtfsTime}.
+ *
+ * @author trein
+ */
+public class GtfsStopTimeCursor {
+
+    private final GtfsFeedTables tables;
+    private final GtfsStopTimeTable table;
+    private int row = -1;
+
+    GtfsStopTimeCursor(GtfsFeedTables tables) {
+        this.tables = tables;
+        this.table = tables.getStopTimes();
+    }
+
+    /**
+     * Moves to the next row.
+     *
+     * @return false if there are no more rows
+     */
+    public boolean next() {
+        if ((this.row + 1) >= this.table.size()) {
+            return false;
+        }
+        this.row++;
+        return true;
+    }
+
+    /**
+     * Moves to the given row, so the next call to {@link #next()} returns the row after it.
+     *
+     * @param row row index, -1 to restart from the beginning
+     */
+    public void moveTo(int row) {
+        if ((row < -1) || (row >= this.table.size())) {
+            throw new IndexOutOfBoundsException(String.format("invalid row %d", Integer.valueOf(row)));
+        }
+        this.row = row;
+    }
+
+    public int getRow() {
+        return this.row;
+    }
+
+    public int getTripIndex() {
+        return this.table.getTrip(this.row);
+    }
+
+    public String getTripId() {
+        return this.tables.getTrips().decode(getTripIndex());
+    }
+
+    public int getStopIndex() {
+        return this.table.getStop(this.row);
+    }
+
+    public String getStopId() {
+        return this.tables.getStops().decode(getStopIndex());
+    }
+
+    public int getArrivalTime() {
+        return this.table.getArrivalTime(this.row);
+    }
+
+    public int getDepartureTime() {
+        return this.table.getDepartureTime(this.row);
+    }
+
+    public int getStopSequence() {
+        return this.table.getStopSequence(this.row);
+    }
+
+    public String getStopHeadsign() {
+        int headsign = this.table.getHeadsign(this.row);
+        return headsign == GtfsIdDictionary.UNKNOWN ? null : this.tables.getHeadsigns().decode(headsign);
+    }
+
+    public int getPickupType() {
+        return this.table.getPickupType(this.row);
+    }
+
+    public int getDropoffType() {
+        return this.table.getDropoffType(this.row);
+    }
+
+    public double getShapeDistanceTraveled() {
+        return this.table.getShapeDistanceTraveled(this.row);
+    }
+}
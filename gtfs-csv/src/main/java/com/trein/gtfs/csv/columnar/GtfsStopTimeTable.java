@@ -0,0 +1,137 @@
+package com.trein.gtfs.csv.columnar;
+
+import java.util.Arrays;
+
+/**
+ * Columnar storage for <code>stop_times.txt</code>. Each column is a primitive array indexed by
+ * row; trips, stops and headsigns are stored as indexes into the dictionaries of the owning
+ * {@link GtfsFeedTables}. Missing times are stored as {@link GtfsTime#NO_TIME}, missing headsigns
+ * as {@link GtfsIdDictionary#UNKNOWN}, missing distances as {@link Double#NaN} and missing pickup
+ * and drop off types as 0, the GTFS default.
+ *
+ * @author trein
+ */
+public class GtfsStopTimeTable {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private int size;
+    private int[] trips = new int[DEFAULT_CAPACITY];
+    private int[] stops = new int[DEFAULT_CAPACITY];
+    private int[] arrivals = new int[DEFAULT_CAPACITY];
+    private int[] departures = new int[DEFAULT_CAPACITY];
+    private int[] sequences = new int[DEFAULT_CAPACITY];
+    private int[] headsigns = new int[DEFAULT_CAPACITY];
+    private byte[] pickupTypes = new byte[DEFAULT_CAPACITY];
+    private byte[] dropoffTypes = new byte[DEFAULT_CAPACITY];
+    private double[] distances = new double[DEFAULT_CAPACITY];
+
+    /**
+     * Appends a row.
+     *
+     * @return index of the new row
+     */
+    public int add(int trip, int stop, int arrival, int departure, int sequence, int headsign, int pickupType,
+            int dropoffType, double distance) {
+        ensureCapacity(this.size + 1);
+
+        int row = this.size++;
+        this.trips[row] = trip;
+        this.stops[row] = stop;
+        this.arrivals[row] = arrival;
+        this.departures[row] = departure;
+        this.sequences[row] = sequence;
+        this.headsigns[row] = headsign;
+        this.pickupTypes[row] = (byte) pickupType;
+        this.dropoffTypes[row] = (byte) dropoffType;
+        this.distances[row] = distance;
+        return row;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int getTrip(int row) {
+        return this.trips[checkRow(row)];
+    }
+
+    public int getStop(int row) {
+        return this.stops[checkRow(row)];
+    }
+
+    public int getArrivalTime(int row) {
+        return this.arrivals[checkRow(row)];
+    }
+
+    public int getDepartureTime(int row) {
+        return this.departures[checkRow(row)];
+    }
+
+    public int getStopSequence(int row) {
+        return this.sequences[checkRow(row)];
+    }
+
+    public int getHeadsign(int row) {
+        return this.headsigns[checkRow(row)];
+    }
+
+    public int getPickupType(int row) {
+        return this.pickupTypes[checkRow(row)];
+    }
+
+    public int getDropoffType(int row) {
+        return this.dropoffTypes[checkRow(row)];
+    }
+
+    public double getShapeDistanceTraveled(int row) {
+        return this.distances[checkRow(row)];
+    }
+
+    /**
+     * Shrinks every column to the number of rows, once loading is done.
+     */
+    public void trimToSize() {
+        this.trips = Arrays.copyOf(this.trips, this.size);
+        this.stops = Arrays.copyOf(this.stops, this.size);
+        this.arrivals = Arrays.copyOf(this.arrivals, this.size);
+        this.departures = Arrays.copyOf(this.departures, this.size);
+        this.sequences = Arrays.copyOf(this.sequences, this.size);
+        this.headsigns = Arrays.copyOf(this.headsigns, this.size);
+        this.pickupTypes = Arrays.copyOf(this.pickupTypes, this.size);
+        this.dropoffTypes = Arrays.copyOf(this.dropoffTypes, this.size);
+        this.distances = Arrays.copyOf(this.distances, this.size);
+    }
+
+    /**
+     * @return approximate heap used by the columns, excluding dictionaries
+     */
+    public long getColumnBytes() {
+        long ints = 6L * 4L * this.trips.length;
+        long bytes = 2L * this.pickupTypes.length;
+        long doubles = 8L * this.distances.length;
+        return ints + bytes + doubles;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > this.trips.length) {
+            int newCapacity = Math.max(capacity, this.trips.length + (this.trips.length >> 1));
+            this.trips = Arrays.copyOf(this.trips, newCapacity);
+            this.stops = Arrays.copyOf(this.stops, newCapacity);
+            this.arrivals = Arrays.copyOf(this.arrivals, newCapacity);
+            this.departures = Arrays.copyOf(this.departures, newCapacity);
+            this.sequences = Arrays.copyOf(this.sequences, newCapacity);
+            this.headsigns = Arrays.copyOf(this.headsigns, newCapacity);
+            this.pickupTypes = Arrays.copyOf(this.pickupTypes, newCapacity);
+            this.dropoffTypes = Arrays.copyOf(this.dropoffTypes, newCapacity);
+            this.distances = Arrays.copyOf(this.distances, newCapacity);
+        }
+    }
+
+    private int checkRow(int row) {
+        if ((row < 0) || (row >= this.size)) {
+            throw new IndexOutOfBoundsException(String.format("invalid row %d", Integer.valueOf(row)));
+        }
+        return row;
+    }
+}
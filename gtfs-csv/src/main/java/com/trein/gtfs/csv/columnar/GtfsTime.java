@@ -0,0 +1,87 @@
+package com.trein.gtfs.csv.columnar;
+
+/**
+ * Conversions between GTFS <code>HH:MM:SS</code> times and seconds since the start of the service
+ * day. Hours may exceed 23 for trips running past midnight.
+ *
+ * @author trein
+ */
+public final class GtfsTime {
+
+    /**
+     * Marker for stop times without an arrival or departure value.
+     */
+    public static final int NO_TIME = -1;
+
+    private static final int SECONDS_PER_MINUTE = 60;
+    private static final int SECONDS_PER_HOUR = 3600;
+
+    private GtfsTime() {
+    }
+
+    /**
+     * @param time GTFS time, may be null or empty
+     * @return seconds since the start of the service day, or {@link #NO_TIME}
+     */
+    public static int parseSeconds(String time) {
+        if ((time == null) || time.isEmpty()) {
+            return NO_TIME;
+        }
+        return parseSeconds(time.toCharArray(), 0, time.length());
+    }
+
+    /**
+     * Parses a time directly from a character slice.
+     *
+     * @return seconds since the start of the service day, or {@link #NO_TIME} for an empty slice
+     * @throws IllegalArgumentException if the slice is not a valid time
+     */
+    public static int parseSeconds(char[] buffer, int offset, int length) {
+        int start = offset;
+        int end = offset + length;
+
+        while ((start < end) && (buffer[start] == ' ')) {
+            start++;
+        }
+        while ((end > start) && (buffer[end - 1] == ' ')) {
+            end--;
+        }
+        if (start == end) {
+            return NO_TIME;
+        }
+
+        int seconds = 0;
+        int value = 0;
+        int parts = 0;
+
+        for (int i = start; i <= end; i++) {
+            if ((i == end) || (buffer[i] == ':')) {
+                seconds = (seconds * SECONDS_PER_MINUTE) + value;
+                value = 0;
+                parts++;
+            } else if ((buffer[i] >= '0') && (buffer[i] <= '9')) {
+                value = (value * 10) + (buffer[i] - '0');
+            } else {
+                throw new IllegalArgumentException(String.format("invalid time %s", new String(buffer, offset, length)));
+            }
+        }
+
+        if (parts != 3) {
+            throw new IllegalArgumentException(String.format("invalid time %s", new String(buffer, offset, length)));
+        }
+        return seconds;
+    }
+
+    /**
+     * @param seconds seconds since the start of the service day
+     * @return GTFS time, or null for {@link #NO_TIME}
+     */
+    public static String format(int seconds) {
+        if (seconds == NO_TIME) {
+            return null;
+        }
+        int hours = seconds / SECONDS_PER_HOUR;
+        int minutes = (seconds % SECONDS_PER_HOUR) / SECONDS_PER_MINUTE;
+        return String.format("%02d:%02d:%02d", hours, minutes, seconds % SECONDS_PER_MINUTE);
+    }
+}
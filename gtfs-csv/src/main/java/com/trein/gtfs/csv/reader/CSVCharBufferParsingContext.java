@@ -0,0 +1,60 @@
+package com.trein.gtfs.csv.reader;
+
+/**
+ * Parsing context backed by the current record of a {@link CSVCharBufferTokenizer}. A single
+ * instance is reused for every row of a file, and column values only become strings when an entry
+ * parser asks for them.
+ *
+ * @author trein
+ */
+public class CSVCharBufferParsingContext implements CSVIndexedParsingContext {
+
+    private final CSVHeaderData headerData;
+    private final CSVCharBufferTokenizer tokenizer;
+
+    public CSVCharBufferParsingContext(CSVHeaderData headerData, CSVCharBufferTokenizer tokenizer) {
+        this.headerData = headerData;
+        this.tokenizer = tokenizer;
+    }
+
+    @Override
+    public String getDataFor(Object key) {
+        return getDataForIndex(this.headerData.getIndexFor(key.toString()));
+    }
+
+    @Override
+    public boolean hasDataFor(Object key) {
+        if (this.headerData.hasValidDataFor(key.toString())) {
+            return hasDataForIndex(this.headerData.getIndexFor(key.toString()));
+        }
+        return false;
+    }
+
+    @Override
+    public CSVHeaderData getHeaderData() {
+        return this.headerData;
+    }
+
+    @Override
+    public boolean hasDataForIndex(int index) {
+        return (index >= 0) && (index < this.tokenizer.getFieldCount()) && !this.tokenizer.isFieldEmpty(index);
+    }
+
+    @Override
+    public String getDataForIndex(int index) {
+        if (!hasDataForIndex(index)) {
+            throw new IllegalArgumentException("invalid index");
+        }
+        return this.tokenizer.getField(index);
+    }
+
+    @Override
+    public String[] getRawData() {
+        String[] data = new String[this.tokenizer.getFieldCount()];
+        for (int index = 0; index < data.length; index++) {
+            data[index] = this.tokenizer.getField(index);
+        }
+        return data;
+    }
+
+}
@@ -0,0 +1,389 @@
+package com.trein.gtfs.csv.reader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.googlecode.jcsv.CSVStrategy;
+
+/**
+ * Record oriented csv tokenizer working directly on a reusable character buffer. Instead of
+ * reading lines and building a list of strings for each of them, every record is split in place
+ * and its fields are exposed as offset/length slices of {@link #getBuffer()}. Quoted fields follow
+ * the same rules as {@link com.googlecode.jcsv.reader.internal.CSVTokenizerImpl}: delimiters and
+ * line breaks are kept, and doubled quote characters are collapsed in place.
+ * <p>
+ * Slices are only valid until the next call to {@link #next()}. Callers that need to keep a value
+ * must copy it, e.g. through {@link #getField(int)}.
+ *
+ * @author trein
+ */
+public class CSVCharBufferTokenizer {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_FIELD_COUNT = 16;
+
+    private static final char NEW_LINE = '\n';
+    private static final char CARRIAGE_RETURN = '\r';
+
+    private enum State {
+        NORMAL, QUOTED
+    }
+
+    private final Reader reader;
+    private final char delimiter;
+    private final char quote;
+
+    private char[] buffer;
+    private int limit;
+    private boolean eof;
+
+    private int recordStart;
+    private int position;
+    private int write;
+    private int fieldStart;
+    private boolean skipLineFeed;
+    private long discarded;
+    private boolean trackBytePosition;
+    private long bytePosition;
+
+    private int[] fieldOffsets = new int[DEFAULT_FIELD_COUNT];
+    private int[] fieldLengths = new int[DEFAULT_FIELD_COUNT];
+    private int fieldCount;
+    private char leadingChar;
+
+    public CSVCharBufferTokenizer(Reader reader, CSVStrategy strategy) {
+        this(reader, strategy, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CSVCharBufferTokenizer(Reader reader, CSVStrategy strategy, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be positive");
+        }
+        this.reader = reader;
+        this.delimiter = strategy.getDelimiter();
+        this.quote = strategy.getQuoteCharacter();
+        this.buffer = new char[bufferSize];
+    }
+
+    /**
+     * Tokenizes characters that are already in memory, without copying them. The given array is
+     * modified in place while quoted fields are unescaped.
+     *
+     * @param data characters to tokenize
+     * @param offset position of the first character
+     * @param length number of characters
+     * @param strategy csv strategy
+     */
+    public CSVCharBufferTokenizer(char[] data, int offset, int length, CSVStrategy strategy) {
+        this.reader = null;
+        this.delimiter = strategy.getDelimiter();
+        this.quote = strategy.getQuoteCharacter();
+        this.buffer = data;
+        this.position = offset;
+        this.limit = offset + length;
+        this.eof = true;
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return false if the end of the stream has been reached
+     * @throws IOException if the underlying reader fails
+     * @throws IllegalStateException if the stream ends inside a quoted field
+     */
+    public boolean next() throws IOException {
+        this.recordStart = this.position;
+        this.write = this.position;
+        this.fieldStart = this.position;
+        this.fieldCount = 0;
+        this.leadingChar = 0;
+
+        State state = State.NORMAL;
+        boolean started = false;
+
+        while (true) {
+            if ((this.position >= this.limit) && !fill()) {
+                if (state == State.QUOTED) {
+                    throw new IllegalStateException("unexpected end of file, unclosed quotation");
+                }
+                if (!started) {
+                    return false;
+                }
+                endRecord();
+                countBytes();
+                return true;
+            }
+
+            char c = this.buffer[this.position];
+
+            if (this.skipLineFeed) {
+                this.skipLineFeed = false;
+                if (c == NEW_LINE) {
+                    this.position++;
+                    if (!started) {
+                        this.bytePosition++;
+                        this.recordStart = this.position;
+                        this.write = this.position;
+                        this.fieldStart = this.position;
+                    }
+                    continue;
+                }
+            }
+
+            if (!started) {
+                started = true;
+                this.leadingChar = c;
+            }
+
+            switch (state) {
+                case NORMAL:
+                    if (c == this.delimiter) {
+                        endField();
+                        this.position++;
+                    } else if ((c == NEW_LINE) || (c == CARRIAGE_RETURN)) {
+                        this.skipLineFeed = c == CARRIAGE_RETURN;
+                        this.position++;
+                        endRecord();
+                        countBytes();
+                        return true;
+                    } else if (c == this.quote) {
+                        if (this.write == this.fieldStart) {
+                            state = State.QUOTED;
+                            this.position++;
+                        } else if (peek() == this.quote) {
+                            this.buffer[this.write++] = c;
+                            this.position += 2;
+                        } else {
+                            state = State.QUOTED;
+                            this.position++;
+                        }
+                    } else {
+                        this.buffer[this.write++] = c;
+                        this.position++;
+                    }
+                    break;
+
+                case QUOTED:
+                    if (c == this.quote) {
+                        if (peek() == this.quote) {
+                            this.buffer[this.write++] = c;
+                            this.position += 2;
+                        } else {
+                            state = State.NORMAL;
+                            this.position++;
+                        }
+                    } else if (c == CARRIAGE_RETURN) {
+                        this.buffer[this.write++] = NEW_LINE;
+                        this.skipLineFeed = true;
+                        this.position++;
+                    } else {
+                        this.buffer[this.write++] = c;
+                        this.position++;
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return number of fields of the current record, zero for an empty line
+     */
+    public int getFieldCount() {
+        return this.fieldCount;
+    }
+
+    /**
+     * @return buffer holding the current record, to be read through field offsets and lengths
+     */
+    public char[] getBuffer() {
+        return this.buffer;
+    }
+
+    public int getFieldOffset(int index) {
+        checkIndex(index);
+        return this.recordStart + this.fieldOffsets[index];
+    }
+
+    public int getFieldLength(int index) {
+        checkIndex(index);
+        return this.fieldLengths[index];
+    }
+
+    public boolean isFieldEmpty(int index) {
+        return getFieldLength(index) == 0;
+    }
+
+    /**
+     * Materializes a single field of the current record.
+     *
+     * @param index field position
+     * @return field value
+     */
+    public String getField(int index) {
+        return new String(this.buffer, getFieldOffset(index), getFieldLength(index));
+    }
+
+    /**
+     * Materializes all fields of the current record. Meant for headers and other low volume
+     * records.
+     *
+     * @return field values
+     */
+    public List<String> getFields() {
+        List<String> fields = new ArrayList<String>(this.fieldCount);
+        for (int index = 0; index < this.fieldCount; index++) {
+            fields.add(getField(index));
+        }
+        return fields;
+    }
+
+    /**
+     * @return true if the current record is an empty or whitespace-only line
+     */
+    public boolean isBlankRecord() {
+        if (this.fieldCount == 0) {
+            return true;
+        }
+        if (this.fieldCount > 1) {
+            return false;
+        }
+        int offset = getFieldOffset(0);
+        for (int i = offset; i < (offset + this.fieldLengths[0]); i++) {
+            if (this.buffer[i] > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param indicator comment indicator of the csv strategy
+     * @return true if the raw record starts with the given indicator
+     */
+    public boolean isCommentRecord(char indicator) {
+        return this.leadingChar == indicator;
+    }
+
+    /**
+     * @return position, in characters from the beginning of the stream, where the next record
+     *         starts
+     */
+    public long getCharPosition() {
+        return this.discarded + this.position;
+    }
+
+    /**
+     * Enables {@link #getBytePosition()}. Must be called before the first record is read.
+     *
+     * @param trackBytePosition whether to count the bytes of each record
+     */
+    public void setTrackBytePosition(boolean trackBytePosition) {
+        this.trackBytePosition = trackBytePosition;
+    }
+
+    /**
+     * Returns the position, in UTF-8 bytes from the beginning of the stream, of the end of the
+     * current record. Delimiter, quote and line break characters must be single bytes. After a
+     * record ending with <code>\r\n</code>, the position points to the line feed, which is read
+     * as an empty record when parsing resumes from there.
+     *
+     * @return byte position of the end of the current record
+     * @throws IllegalStateException if byte positions are not tracked
+     */
+    public long getBytePosition() {
+        if (!this.trackBytePosition) {
+            throw new IllegalStateException("byte position is not tracked");
+        }
+        return this.bytePosition;
+    }
+
+    /**
+     * Adds the bytes of the record just read to the byte position. Characters dropped while
+     * unescaping, i.e. delimiters, quotes and line breaks, are single bytes, and the kept ones are
+     * still in the buffer, between the record start and the write position.
+     */
+    private void countBytes() {
+        if (!this.trackBytePosition) {
+            return;
+        }
+        long bytes = this.position - this.write;
+        for (int i = this.recordStart; i < this.write; i++) {
+            char c = this.buffer[i];
+            if (c < 0x80) {
+                bytes++;
+            } else if ((c < 0x800) || Character.isSurrogate(c)) {
+                bytes += 2;
+            } else {
+                bytes += 3;
+            }
+        }
+        this.bytePosition += bytes;
+    }
+
+    private void endField() {
+        if (this.fieldCount == this.fieldOffsets.length) {
+            this.fieldOffsets = Arrays.copyOf(this.fieldOffsets, this.fieldCount * 2);
+            this.fieldLengths = Arrays.copyOf(this.fieldLengths, this.fieldCount * 2);
+        }
+        this.fieldOffsets[this.fieldCount] = this.fieldStart - this.recordStart;
+        this.fieldLengths[this.fieldCount] = this.write - this.fieldStart;
+        this.fieldCount++;
+        this.fieldStart = this.write;
+    }
+
+    private void endRecord() {
+        if (!((this.fieldCount == 0) && (this.write == this.fieldStart))) {
+            endField();
+        }
+    }
+
+    /**
+     * Returns the character after the current one, reading more data if needed.
+     */
+    private int peek() throws IOException {
+        if (((this.position + 1) >= this.limit) && !fill()) {
+            return -1;
+        }
+        return this.buffer[this.position + 1];
+    }
+
+    /**
+     * Makes room for more characters by discarding already consumed records, or growing the buffer
+     * when a single record does not fit, and then reads from the underlying reader.
+     */
+    private boolean fill() throws IOException {
+        if (this.eof) {
+            return false;
+        }
+
+        int shift = this.recordStart;
+        if (shift > 0) {
+            System.arraycopy(this.buffer, shift, this.buffer, 0, this.limit - shift);
+            this.limit -= shift;
+            this.position -= shift;
+            this.write -= shift;
+            this.fieldStart -= shift;
+            this.recordStart = 0;
+            this.discarded += shift;
+        } else if (this.limit == this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+        }
+
+        int read = this.reader.read(this.buffer, this.limit, this.buffer.length - this.limit);
+        if (read < 0) {
+            this.eof = true;
+            return false;
+        }
+        this.limit += read;
+        return true;
+    }
+
+    private void checkIndex(int index) {
+        if ((index < 0) || (index >= this.fieldCount)) {
+            throw new IllegalArgumentException("invalid index");
+        }
+    }
+}
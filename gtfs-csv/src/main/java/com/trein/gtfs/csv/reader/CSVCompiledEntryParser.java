@@ -0,0 +1,195 @@
+package com.trein.gtfs.csv.reader;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.googlecode.jcsv.annotations.MapToColumn;
+import com.googlecode.jcsv.annotations.ValueProcessor;
+import com.googlecode.jcsv.annotations.internal.ValueProcessorProvider;
+import com.googlecode.jcsv.reader.CSVEntryParser;
+import com.googlecode.jcsv.reader.CSVParsingContext;
+import com.trein.gtfs.csv.annotation.GtfsColumn;
+
+/**
+ * Parses a csv entry based on a {@link GtfsColumn} annotated class, like
+ * {@link CSVHeaderAwareEntryParser}, but resolves the annotations, value processors and field
+ * setters once per class and the header-to-column indexes once per file. Parsing a row is then
+ * limited to reading the tokens, converting them and storing them through pre-bound
+ * {@link MethodHandle}s. Instances can be shared by readers parsing the same file concurrently.
+ *
+ * @author trein
+ * @param <E> the type of the csv entries
+ */
+public class CSVCompiledEntryParser<E> implements CSVEntryParser<E> {
+
+    private static final int MISSING_COLUMN = -1;
+
+    private final Class<E> clazz;
+    private final Constructor<E> constructor;
+    private final ColumnBinding[] bindings;
+
+    private volatile BoundHeader boundHeader;
+
+    /**
+     * Constructs a CSVCompiledEntryParser for type E.
+     *
+     * @param clazz the annotated class, and the class of the csv entries
+     * @param provider value processors used to convert columns
+     */
+    public CSVCompiledEntryParser(Class<E> clazz, ValueProcessorProvider provider) {
+        this.clazz = clazz;
+        this.constructor = resolveConstructor(clazz);
+        this.bindings = resolveBindings(clazz, provider);
+    }
+
+    @Override
+    public E parseEntry(CSVParsingContext context) {
+        E entry = newClassIntance();
+
+        if (context instanceof CSVIndexedParsingContext) {
+            fillObject(entry, (CSVIndexedParsingContext) context);
+        } else {
+            fillObjectByColumnName(entry, context);
+        }
+        return entry;
+    }
+
+    private void fillObject(E entry, CSVIndexedParsingContext context) {
+        int[] indexes = resolveIndexes(context.getHeaderData());
+
+        for (int i = 0; i < this.bindings.length; i++) {
+            ColumnBinding binding = this.bindings[i];
+            int index = indexes[i];
+
+            if (context.hasDataForIndex(index)) {
+                binding.set(entry, binding.processor.processValue(context.getDataForIndex(index)));
+            } else if (!binding.optional) {
+                throw new ArrayIndexOutOfBoundsException(String.format("not optional field %s not found in file",
+                        binding.field));
+            }
+        }
+    }
+
+    private void fillObjectByColumnName(E entry, CSVParsingContext context) {
+        for (ColumnBinding binding : this.bindings) {
+            if (context.hasDataFor(binding.column)) {
+                binding.set(entry, binding.processor.processValue(context.getDataFor(binding.column)));
+            } else if (!binding.optional) {
+                throw new ArrayIndexOutOfBoundsException(String.format("not optional field %s not found in file",
+                        binding.field));
+            }
+        }
+    }
+
+    /**
+     * Maps every binding to its column position in the given header. The result is kept for as
+     * long as rows of the same file are parsed, so the lookup happens once per file.
+     */
+    private int[] resolveIndexes(CSVHeaderData header) {
+        BoundHeader bound = this.boundHeader;
+
+        if ((bound == null) || (bound.header != header)) {
+            int[] indexes = new int[this.bindings.length];
+
+            for (int i = 0; i < this.bindings.length; i++) {
+                String column = this.bindings[i].column;
+                indexes[i] = header.hasValidDataFor(column) ? header.getIndexFor(column) : MISSING_COLUMN;
+            }
+            bound = new BoundHeader(header, indexes);
+            this.boundHeader = bound;
+        }
+        return bound.indexes;
+    }
+
+    private E newClassIntance() {
+        try {
+            return this.constructor.newInstance();
+        } catch (InstantiationException ie) {
+            throw new RuntimeException(String.format("can not instantiate class %s", this.clazz.getName()), ie);
+        } catch (IllegalAccessException iae) {
+            throw new RuntimeException(String.format("can not access class %s", this.clazz.getName()), iae);
+        } catch (InvocationTargetException ite) {
+            throw new RuntimeException(String.format("can not instantiate class %s", this.clazz.getName()), ite);
+        }
+    }
+
+    private static <E> Constructor<E> resolveConstructor(Class<E> clazz) {
+        try {
+            Constructor<E> constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(String.format("class %s has no default constructor", clazz.getName()), e);
+        }
+    }
+
+    private static ColumnBinding[] resolveBindings(Class<?> clazz, ValueProcessorProvider provider) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<ColumnBinding> bindings = new ArrayList<ColumnBinding>();
+
+        for (Field field : clazz.getDeclaredFields()) {
+            GtfsColumn mapAnnotation = field.getAnnotation(GtfsColumn.class);
+
+            if (mapAnnotation != null) {
+                Class<?> type = mapAnnotation.type().equals(MapToColumn.Default.class) ? field.getType() : mapAnnotation
+                        .type();
+                field.setAccessible(true);
+
+                try {
+                    MethodHandle setter = lookup.unreflectSetter(field);
+                    bindings.add(new ColumnBinding(field, mapAnnotation, provider.getValueProcessor(type), setter));
+                } catch (IllegalAccessException iae) {
+                    throw new RuntimeException(String.format("can not access field %s", field), iae);
+                }
+            }
+        }
+        return bindings.toArray(new ColumnBinding[bindings.size()]);
+    }
+
+    /**
+     * Column positions of every binding for a given file header.
+     */
+    private static class BoundHeader {
+
+        final CSVHeaderData header;
+        final int[] indexes;
+
+        BoundHeader(CSVHeaderData header, int[] indexes) {
+            this.header = header;
+            this.indexes = indexes;
+        }
+    }
+
+    /**
+     * Precomputed mapping between one annotated field and its csv column.
+     */
+    private static class ColumnBinding {
+
+        final Field field;
+        final String column;
+        final boolean optional;
+        final ValueProcessor<?> processor;
+        final MethodHandle setter;
+
+        ColumnBinding(Field field, GtfsColumn mapAnnotation, ValueProcessor<?> processor, MethodHandle setter) {
+            this.field = field;
+            this.column = mapAnnotation.column();
+            this.optional = mapAnnotation.optional();
+            this.processor = processor;
+            this.setter = setter;
+        }
+
+        void set(Object entry, Object value) {
+            try {
+                this.setter.invoke(entry, value);
+            } catch (Throwable t) {
+                throw new RuntimeException(String.format("can not set value %s for field %s", value, this.field), t);
+            }
+        }
+    }
+}
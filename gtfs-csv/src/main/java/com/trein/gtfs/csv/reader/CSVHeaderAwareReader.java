@@ -20,22 +20,33 @@ public class CSVHeaderAwareReader<E> implements CSVReader<E> {
     private final CSVEntryParser<E> entryParser;
     private final CSVEntryFilter<E> entryFilter;
     private final CSVTokenizer tokenizer;
+    private final CSVCharBufferTokenizer charBufferTokenizer;
 
     private CSVHeaderData headerData;
+    private CSVCharBufferParsingContext charBufferContext;
     private boolean firstLineRead = false;
 
     CSVHeaderAwareReader(CSVHeaderAwareReaderBuilder<E> builder) {
-        this.reader = new BufferedReader(builder.reader);
+        this.reader = new BufferedReader(builder.openReader());
         this.strategy = builder.strategy;
         this.entryParser = builder.entryParser;
         this.entryFilter = builder.entryFilter;
         this.tokenizer = builder.tokenizer;
+        this.charBufferTokenizer = builder.charBufferTokenizer ? new CSVCharBufferTokenizer(this.reader, this.strategy)
+                : null;
+        if (this.charBufferTokenizer != null) {
+            this.charBufferTokenizer.setTrackBytePosition(builder.trackBytePosition);
+        }
         
         try {
             this.headerData = createHeaderMetadata();
         } catch (IOException e) {
             throw new IllegalStateException("can not read header, readHeader() must be the first call on this reader");
         }
+        
+        if (this.charBufferTokenizer != null) {
+            this.charBufferContext = new CSVCharBufferParsingContext(this.headerData, this.charBufferTokenizer);
+        }
     }
 
     @Override
@@ -52,6 +63,8 @@ public class CSVHeaderAwareReader<E> implements CSVReader<E> {
 
     @Override
     public E readNext() throws IOException {
+        if (this.charBufferTokenizer != null) { return readNextRecord(); }
+        
         E entry = null;
         boolean validEntry = false;
         
@@ -75,6 +88,33 @@ public class CSVHeaderAwareReader<E> implements CSVReader<E> {
         return entry;
     }
 
+    /**
+     * Same as {@link #readNext()}, but tokenizing records in place. The parsing context is shared by
+     * all rows, so no per-row token list is created.
+     */
+    private E readNextRecord() throws IOException {
+        E entry = null;
+        boolean validEntry = false;
+        
+        do {
+            boolean hasRecord = this.charBufferTokenizer.next();
+            this.firstLineRead = true;
+            
+            if (!hasRecord) { return null; }
+            if (this.charBufferTokenizer.isBlankRecord() && this.strategy.isIgnoreEmptyLines()) {
+                continue;
+            }
+            if (this.charBufferTokenizer.isCommentRecord(this.strategy.getCommentIndicator())) {
+                continue;
+            }
+            
+            entry = this.entryParser.parseEntry(this.charBufferContext);
+            validEntry = isValidEntry(entry);
+        } while (!validEntry);
+        
+        return entry;
+    }
+
     private CSVHeaderData createHeaderMetadata() throws IOException {
         return new CSVHeaderData(readHeader());
     }
@@ -99,6 +139,13 @@ public class CSVHeaderAwareReader<E> implements CSVReader<E> {
         if (this.firstLineRead) { throw new IllegalStateException(
                 "can not read header, readHeader() must be the first call on this reader"); }
         
+        if (this.charBufferTokenizer != null) {
+            boolean hasRecord = this.charBufferTokenizer.next();
+            this.firstLineRead = true;
+            if (!hasRecord) { throw new IllegalStateException("reached EOF while reading the header"); }
+            return this.charBufferTokenizer.getFields();
+        }
+        
         String line = readLine();
         if (line == null) { throw new IllegalStateException("reached EOF while reading the header"); }
         
@@ -106,6 +153,21 @@ public class CSVHeaderAwareReader<E> implements CSVReader<E> {
         return header;
     }
 
+    /**
+     * Returns the position, in bytes of the underlying stream, right after the last entry or header
+     * read. A reader created over the same content and skipping to this position resumes with the
+     * next entry.
+     *
+     * @return byte position of the end of the last record read
+     * @throws IllegalStateException if the reader was not built to track byte positions
+     */
+    public long getBytePosition() {
+        if (this.charBufferTokenizer == null) {
+            throw new IllegalStateException("byte position is only tracked by the char buffer tokenizer");
+        }
+        return this.charBufferTokenizer.getBytePosition();
+    }
+
     /**
      * Returns the Iterator for this CSVReaderImpl.
      *
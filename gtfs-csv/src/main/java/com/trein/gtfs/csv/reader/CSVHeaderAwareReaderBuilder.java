@@ -1,6 +1,13 @@
 package com.trein.gtfs.csv.reader;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.concurrent.ForkJoinPool;
 
 import com.googlecode.jcsv.CSVStrategy;
 import com.googlecode.jcsv.reader.CSVEntryFilter;
@@ -12,6 +19,9 @@ import com.googlecode.jcsv.reader.internal.CSVTokenizerImpl;
 import com.googlecode.jcsv.reader.internal.CachedCSVReaderImpl;
 import com.googlecode.jcsv.reader.internal.DefaultCSVEntryParser;
 import com.googlecode.jcsv.util.Builder;
+import com.trein.gtfs.csv.annotation.GtfsFile;
+import com.trein.gtfs.csv.source.GtfsDirectorySource;
+import com.trein.gtfs.csv.source.GtfsSource;
 
 /**
  * The Builder that creates the CSVHeaderAwareReaderImpl objects.
@@ -20,17 +30,61 @@ import com.googlecode.jcsv.util.Builder;
  */
 public class CSVHeaderAwareReaderBuilder<E> implements Builder<CSVReader<E>> {
     
+    private static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    
     final Reader reader;
+    final File file;
+    final GtfsSource source;
+    final String filename;
+    Charset charset = Charset.forName("UTF-8");
     CSVEntryParser<E> entryParser;
     CSVStrategy strategy = CSVStrategy.UK_DEFAULT;
     CSVEntryFilter<E> entryFilter;
     CSVTokenizer tokenizer = new CSVTokenizerImpl();
+    boolean charBufferTokenizer = false;
+    boolean trackBytePosition = false;
+    boolean parallel = false;
+    ForkJoinPool pool;
+    boolean ordered = true;
+    int chunkSize = DEFAULT_CHUNK_SIZE;
     
     /**
      * @param reader the csv reader
      */
     public CSVHeaderAwareReaderBuilder(Reader reader) {
 	this.reader = reader;
+	this.file = null;
+	this.source = null;
+	this.filename = null;
+    }
+    
+    /**
+     * @param file the csv file, required for parallel reading
+     */
+    public CSVHeaderAwareReaderBuilder(File file) {
+	this.reader = null;
+	this.file = file;
+	this.source = null;
+	this.filename = null;
+    }
+    
+    /**
+     * Reads the file of a GTFS entity, given by its {@link GtfsFile} annotation, from a feed. Files
+     * of a zip archive are decompressed while they are read, also when reading in parallel.
+     * 
+     * @param source the GTFS feed
+     * @param entity the GTFS entity class
+     */
+    public CSVHeaderAwareReaderBuilder(GtfsSource source, Class<?> entity) {
+	GtfsFile annotation = entity.getAnnotation(GtfsFile.class);
+	if (annotation == null) {
+	    throw new IllegalArgumentException(String.format("class %s is not a GTFS file", entity.getName()));
+	}
+	this.reader = null;
+	this.source = source;
+	this.filename = annotation.value();
+	this.file = (source instanceof GtfsDirectorySource) ? ((GtfsDirectorySource) source).getFile(this.filename)
+		: null;
     }
     
     /**
@@ -80,6 +134,88 @@ public class CSVHeaderAwareReaderBuilder<E> implements Builder<CSVReader<E>> {
 	return this;
     }
     
+    /**
+     * Tokenizes rows directly from a reusable character buffer with
+     * {@link CSVCharBufferTokenizer} instead of splitting line strings. Only the columns read by the
+     * entry parser are turned into strings. When enabled, the tokenizer set through
+     * {@link #tokenizer(CSVTokenizer)} is not used.
+     * 
+     * @param charBufferTokenizer whether to use the character buffer tokenizer
+     * @return this builder
+     */
+    public CSVHeaderAwareReaderBuilder<E> charBufferTokenizer(boolean charBufferTokenizer) {
+	this.charBufferTokenizer = charBufferTokenizer;
+	return this;
+    }
+    
+    /**
+     * Tracks the byte position of the last record read, see
+     * {@link CSVHeaderAwareReader#getBytePosition()}, so reading can later resume from there. Turns
+     * on the character buffer tokenizer and requires UTF-8 content.
+     * 
+     * @param trackBytePosition whether to track the byte position
+     * @return this builder
+     */
+    public CSVHeaderAwareReaderBuilder<E> trackBytePosition(boolean trackBytePosition) {
+	this.trackBytePosition = trackBytePosition;
+	if (trackBytePosition) {
+	    this.charBufferTokenizer = true;
+	}
+	return this;
+    }
+    
+    /**
+     * Sets the charset used to decode a csv file. Defaults to UTF-8. Only used when the builder was
+     * created for a file or a GTFS feed.
+     * 
+     * @param charset the file charset
+     * @return this builder
+     */
+    public CSVHeaderAwareReaderBuilder<E> charset(Charset charset) {
+	this.charset = charset;
+	return this;
+    }
+    
+    /**
+     * Parses the file in byte ranges on the given pool, see {@link CSVParallelReader}. The entry
+     * parser and entry filter are shared by all workers and must be thread safe. If no pool is
+     * given, the reader creates its own and shuts it down on close.
+     * 
+     * @param pool the pool parsing the byte ranges, may be null
+     * @return this builder
+     */
+    public CSVHeaderAwareReaderBuilder<E> parallel(ForkJoinPool pool) {
+	this.parallel = true;
+	this.pool = pool;
+	return this;
+    }
+    
+    /**
+     * Sets whether a parallel reader returns entries in file order, which is the default, or as
+     * soon as their byte range has been parsed.
+     * 
+     * @param ordered whether entries keep the file order
+     * @return this builder
+     */
+    public CSVHeaderAwareReaderBuilder<E> ordered(boolean ordered) {
+	this.ordered = ordered;
+	return this;
+    }
+    
+    /**
+     * Sets the minimal size, in bytes, of the ranges parsed by a parallel reader.
+     * 
+     * @param chunkSize range size in bytes
+     * @return this builder
+     */
+    public CSVHeaderAwareReaderBuilder<E> chunkSize(int chunkSize) {
+	if (chunkSize <= 0) {
+	    throw new IllegalArgumentException("chunk size must be positive");
+	}
+	this.chunkSize = chunkSize;
+	return this;
+    }
+    
     /**
      * This method finally creates the CSVReaderImpl using the specified configuration.
      * 
@@ -91,9 +227,46 @@ public class CSVHeaderAwareReaderBuilder<E> implements Builder<CSVReader<E>> {
 	    throw new IllegalStateException("you have to specify a csv entry parser");
 	}
 	
+	if (this.parallel) {
+	    return buildParallel();
+	}
 	return new CSVHeaderAwareReader<E>(this);
     }
     
+    private CSVReader<E> buildParallel() {
+	if ((this.file == null) && (this.source == null)) {
+	    throw new IllegalStateException("parallel reading requires a csv file");
+	}
+	
+	try {
+	    return new CSVParallelReader<E>(this);
+	} catch (IOException e) {
+	    throw new IllegalStateException(String.format("can not open file %s", describeInput()), e);
+	}
+    }
+    
+    Reader openReader() {
+	if (this.reader != null) {
+	    return this.reader;
+	}
+	return new InputStreamReader(openStream(), this.charset);
+    }
+    
+    InputStream openStream() {
+	try {
+	    if (this.file != null) {
+		return new FileInputStream(this.file);
+	    }
+	    return this.source.open(this.filename);
+	} catch (IOException e) {
+	    throw new IllegalStateException(String.format("can not open file %s", describeInput()), e);
+	}
+    }
+    
+    private String describeInput() {
+	return (this.file != null) ? this.file.toString() : this.source + "/" + this.filename;
+    }
+    
     /**
      * Returns a default configured CSVReaderImpl<String[]>. It uses the DefaultCSVEntryParser that
      * allows you to convert a csv file into a List<String[]>.
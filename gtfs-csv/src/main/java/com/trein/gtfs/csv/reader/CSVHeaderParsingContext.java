@@ -2,9 +2,7 @@ package com.trein.gtfs.csv.reader;
 
 import java.util.List;
 
-import com.googlecode.jcsv.reader.CSVParsingContext;
-
-public class CSVHeaderParsingContext implements CSVParsingContext {
+public class CSVHeaderParsingContext implements CSVIndexedParsingContext {
     
     private final List<String> data;
     private final CSVHeaderData headerData;
@@ -40,15 +38,29 @@ public class CSVHeaderParsingContext implements CSVParsingContext {
 	}
     }
     
-    private String getDataForIndex(int index) {
+    /**
+     * Returns the raw value of the column at the given position, so callers that already resolved
+     * the header can skip the name lookup.
+     * 
+     * @param index column position in the current row
+     * @return column value
+     */
+    @Override
+    public String getDataForIndex(int index) {
 	if (!hasDataForIndex(index)) {
 	    throw new IllegalArgumentException("invalid index");
 	}
 	return this.data.get(index);
     }
     
-    private boolean hasDataForIndex(int index) {
-	return (index < this.data.size()) && !this.data.get(index).isEmpty();
+    @Override
+    public boolean hasDataForIndex(int index) {
+	return (index >= 0) && (index < this.data.size()) && !this.data.get(index).isEmpty();
+    }
+    
+    @Override
+    public CSVHeaderData getHeaderData() {
+	return this.headerData;
     }
     
     @Override
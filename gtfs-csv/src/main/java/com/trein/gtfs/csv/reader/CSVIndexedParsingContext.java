@@ -0,0 +1,19 @@
+package com.trein.gtfs.csv.reader;
+
+import com.googlecode.jcsv.reader.CSVParsingContext;
+
+/**
+ * Parsing context that exposes the file header and position based access to the columns of the
+ * current row, so entry parsers can resolve column names once per file.
+ *
+ * @author trein
+ */
+public interface CSVIndexedParsingContext extends CSVParsingContext {
+
+    CSVHeaderData getHeaderData();
+
+    boolean hasDataForIndex(int index);
+
+    String getDataForIndex(int index);
+
+}
@@ -0,0 +1,375 @@
+package com.trein.gtfs.csv.reader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.googlecode.jcsv.CSVStrategy;
+import com.googlecode.jcsv.reader.CSVEntryFilter;
+import com.googlecode.jcsv.reader.CSVEntryParser;
+import com.googlecode.jcsv.reader.CSVReader;
+import com.googlecode.jcsv.reader.internal.CSVIterator;
+
+/**
+ * Reads a single csv file using several threads. The file is split into byte ranges that always
+ * end at a record boundary, taking quoted line breaks into account, and each range is tokenized
+ * and parsed on a {@link ForkJoinPool} with the shared {@link CSVEntryParser}, which therefore
+ * must be thread safe. Entries are returned either in file order or in the order ranges finish.
+ * <p>
+ * Files are memory mapped and ranges are decoded by the workers. Content that can only be read
+ * sequentially, such as a zip archive entry, is instead read by the consuming thread, which cuts
+ * it into ranges as it decompresses and hands their bytes over to the workers.
+ * <p>
+ * Ranges are located by scanning raw bytes for line feeds and quote characters, so the charset
+ * must encode delimiter, quote and line break characters as single bytes, e.g. UTF-8 or
+ * ISO-8859-1. Boundaries are found by the same sequential byte scan as {@link CSVRecordBoundaries},
+ * which is much cheaper than tokenizing, and at most two ranges per worker are parsed ahead of the
+ * consumer.
+ *
+ * @author trein
+ * @param <E> the type of the csv entries
+ */
+public class CSVParallelReader<E> implements CSVReader<E> {
+
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private final InputStream input;
+    private byte[] pending = new byte[SCAN_BUFFER_SIZE];
+    private int pendingLength;
+    private boolean inputDone;
+    private final Charset charset;
+    private final CSVStrategy strategy;
+    private final CSVEntryParser<E> entryParser;
+    private final CSVEntryFilter<E> entryFilter;
+    private final ForkJoinPool pool;
+    private final boolean ownedPool;
+    private final boolean ordered;
+    private final int chunkSize;
+    private final int maxPendingChunks;
+    private final byte[] scanBytes = new byte[SCAN_BUFFER_SIZE];
+    private final ByteBuffer scanBuffer = ByteBuffer.wrap(this.scanBytes);
+
+    private final Deque<ForkJoinTask<List<E>>> pendingChunks = new ArrayDeque<ForkJoinTask<List<E>>>();
+    private final BlockingQueue<ChunkResult<E>> finishedChunks = new LinkedBlockingQueue<ChunkResult<E>>();
+    private int runningChunks;
+
+    private final List<String> header;
+    private final CSVHeaderData headerData;
+    private long nextChunkStart;
+    private Iterator<E> currentChunk = Collections.<E> emptyList().iterator();
+
+    CSVParallelReader(CSVHeaderAwareReaderBuilder<E> builder) throws IOException {
+        if (builder.file != null) {
+            this.file = new RandomAccessFile(builder.file, "r");
+            this.channel = this.file.getChannel();
+            this.size = this.channel.size();
+            this.input = null;
+        } else {
+            this.file = null;
+            this.channel = null;
+            this.size = -1;
+            this.input = builder.openStream();
+        }
+        this.charset = builder.charset;
+        this.strategy = builder.strategy;
+        this.entryParser = builder.entryParser;
+        this.entryFilter = builder.entryFilter;
+        this.ownedPool = builder.pool == null;
+        this.pool = this.ownedPool ? new ForkJoinPool() : builder.pool;
+        this.ordered = builder.ordered;
+        this.chunkSize = builder.chunkSize;
+        this.maxPendingChunks = 2 * this.pool.getParallelism();
+
+        CSVCharBufferTokenizer tokenizer;
+        if (this.input == null) {
+            this.nextChunkStart = findRecordEnd(0, 0);
+            tokenizer = tokenizerFor(0, this.nextChunkStart);
+        } else {
+            tokenizer = tokenizerFor(ByteBuffer.wrap(nextStreamChunk(0)));
+        }
+        if (!tokenizer.next()) {
+            close();
+            throw new IllegalStateException("reached EOF while reading the header");
+        }
+        this.header = tokenizer.getFields();
+        this.headerData = new CSVHeaderData(this.header);
+    }
+
+    @Override
+    public List<E> readAll() throws IOException {
+        List<E> entries = new ArrayList<E>();
+        E entry = null;
+
+        while ((entry = readNext()) != null) {
+            entries.add(entry);
+        }
+
+        return entries;
+    }
+
+    @Override
+    public E readNext() throws IOException {
+        while (!this.currentChunk.hasNext()) {
+            submitChunks();
+
+            List<E> chunk = nextChunk();
+            if (chunk == null) { return null; }
+            this.currentChunk = chunk.iterator();
+        }
+        return this.currentChunk.next();
+    }
+
+    /**
+     * The header is read when the reader is created, so it is available at any time.
+     */
+    @Override
+    public List<String> readHeader() throws IOException {
+        return this.header;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new CSVIterator<E>(this);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ForkJoinTask<List<E>> task : this.pendingChunks) {
+            task.cancel(true);
+        }
+        this.pendingChunks.clear();
+        if (this.ownedPool) {
+            this.pool.shutdownNow();
+        }
+        if (this.file != null) {
+            this.file.close();
+        } else {
+            this.input.close();
+        }
+    }
+
+    private void submitChunks() throws IOException {
+        while ((this.runningChunks < this.maxPendingChunks) && hasMoreChunks()) {
+            ChunkParser parser;
+            if (this.input == null) {
+                long start = this.nextChunkStart;
+                this.nextChunkStart = findRecordEnd(start, this.chunkSize);
+                parser = new ChunkParser(start, this.nextChunkStart, null);
+            } else {
+                parser = new ChunkParser(0, 0, nextStreamChunk(this.chunkSize));
+            }
+
+            ForkJoinTask<List<E>> task = this.pool.submit(parser);
+            if (this.ordered) {
+                this.pendingChunks.addLast(task);
+            }
+            this.runningChunks++;
+        }
+    }
+
+    private boolean hasMoreChunks() {
+        if (this.input == null) {
+            return this.nextChunkStart < this.size;
+        }
+        return !this.inputDone || (this.pendingLength > 0);
+    }
+
+    private List<E> nextChunk() throws IOException {
+        if (this.runningChunks == 0) { return null; }
+        this.runningChunks--;
+
+        if (this.ordered) {
+            return this.pendingChunks.removeFirst().join();
+        }
+
+        ChunkResult<E> result;
+        try {
+            result = this.finishedChunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for parsed entries", e);
+        }
+        if (result.error != null) {
+            throw new IllegalStateException("can not parse file chunk", result.error);
+        }
+        return result.entries;
+    }
+
+    /**
+     * Finds the end of the first record that finishes at least <code>minLength</code> bytes after
+     * <code>start</code>, which must be a record boundary itself.
+     *
+     * @return offset right after the record's line feed, or the file size
+     */
+    private long findRecordEnd(long start, int minLength) throws IOException {
+        CSVRecordBoundaries.Scanner scanner = new CSVRecordBoundaries.Scanner(this.strategy);
+        long position = start;
+
+        while (position < this.size) {
+            this.scanBuffer.clear();
+            int read = this.channel.read(this.scanBuffer, position);
+            if (read <= 0) {
+                break;
+            }
+            int min = (int) Math.min(Math.max((start + minLength) - position, 0), read);
+            int end = scanner.findRecordEnd(this.scanBytes, 0, read, min);
+            if (end >= 0) {
+                return position + end;
+            }
+            position += read;
+        }
+        return this.size;
+    }
+
+    /**
+     * Same as {@link #findRecordEnd(long, int)} for stream content: reads until a record finishes
+     * at least <code>minLength</code> bytes after the unconsumed input and removes the bytes up to
+     * the end of that record from it.
+     *
+     * @return bytes of whole records, or all remaining bytes at the end of the stream
+     */
+    private byte[] nextStreamChunk(int minLength) throws IOException {
+        CSVRecordBoundaries.Scanner scanner = new CSVRecordBoundaries.Scanner(this.strategy);
+        int position = 0;
+
+        while (true) {
+            int end = scanner.findRecordEnd(this.pending, position, this.pendingLength, minLength);
+            if (end >= 0) {
+                return takePending(end);
+            }
+            position = this.pendingLength;
+            if (!fillPending()) {
+                return takePending(this.pendingLength);
+            }
+        }
+    }
+
+    private boolean fillPending() throws IOException {
+        if (this.inputDone) {
+            return false;
+        }
+        if ((this.pending.length - this.pendingLength) < SCAN_BUFFER_SIZE) {
+            this.pending = Arrays.copyOf(this.pending, Math.max(this.pending.length * 2, this.pendingLength
+                    + SCAN_BUFFER_SIZE));
+        }
+        int read = this.input.read(this.pending, this.pendingLength, this.pending.length - this.pendingLength);
+        if (read < 0) {
+            this.inputDone = true;
+            return false;
+        }
+        this.pendingLength += read;
+        return true;
+    }
+
+    private byte[] takePending(int length) {
+        byte[] chunk = Arrays.copyOf(this.pending, length);
+        this.pendingLength -= length;
+        System.arraycopy(this.pending, length, this.pending, 0, this.pendingLength);
+        return chunk;
+    }
+
+    private CSVCharBufferTokenizer tokenizerFor(long start, long end) throws IOException {
+        return tokenizerFor(this.channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+    }
+
+    private CSVCharBufferTokenizer tokenizerFor(ByteBuffer bytes) {
+        CharBuffer chars = this.charset.decode(bytes);
+
+        return new CSVCharBufferTokenizer(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining(),
+                this.strategy);
+    }
+
+    private boolean isValidEntry(E entry) {
+        return this.entryFilter != null ? this.entryFilter.match(entry) : true;
+    }
+
+    /**
+     * Parses every record of a byte range, given either as file offsets or as bytes read from a
+     * stream.
+     */
+    private class ChunkParser implements Callable<List<E>> {
+
+        private final long start;
+        private final long end;
+        private final byte[] bytes;
+
+        ChunkParser(long start, long end, byte[] bytes) {
+            this.start = start;
+            this.end = end;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public List<E> call() throws Exception {
+            try {
+                List<E> entries = parse();
+                if (!CSVParallelReader.this.ordered) {
+                    CSVParallelReader.this.finishedChunks.add(new ChunkResult<E>(entries, null));
+                }
+                return entries;
+            } catch (Exception e) {
+                if (!CSVParallelReader.this.ordered) {
+                    CSVParallelReader.this.finishedChunks.add(new ChunkResult<E>(null, e));
+                }
+                throw e;
+            }
+        }
+
+        private List<E> parse() throws IOException {
+            CSVCharBufferTokenizer tokenizer = (this.bytes != null) ? tokenizerFor(ByteBuffer.wrap(this.bytes))
+                    : tokenizerFor(this.start, this.end);
+            CSVCharBufferParsingContext context = new CSVCharBufferParsingContext(CSVParallelReader.this.headerData,
+                    tokenizer);
+            CSVStrategy strategy = CSVParallelReader.this.strategy;
+            List<E> entries = new ArrayList<E>();
+
+            while (tokenizer.next()) {
+                if (tokenizer.isBlankRecord() && strategy.isIgnoreEmptyLines()) {
+                    continue;
+                }
+                if (tokenizer.isCommentRecord(strategy.getCommentIndicator())) {
+                    continue;
+                }
+
+                E entry = CSVParallelReader.this.entryParser.parseEntry(context);
+                if (isValidEntry(entry)) {
+                    entries.add(entry);
+                }
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * Outcome of a range parsed in unordered mode.
+     */
+    private static class ChunkResult<E> {
+
+        final List<E> entries;
+        final Exception error;
+
+        ChunkResult(List<E> entries, Exception error) {
+            this.entries = entries;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.trein.gtfs.csv.reader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.googlecode.jcsv.CSVStrategy;
+
+/**
+ * Splits a csv stream into byte ranges that start and end at record boundaries, so each range can
+ * be parsed on its own after the header. Quoted line breaks are taken into account by tracking
+ * quote characters while scanning, which requires delimiter, quote and line break characters to
+ * be encoded as single bytes, e.g. UTF-8 or ISO-8859-1.
+ *
+ * @author trein
+ */
+public final class CSVRecordBoundaries {
+
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+    private static final byte LINE_FEED = '\n';
+
+    private CSVRecordBoundaries() {
+    }
+
+    /**
+     * Scans the whole stream once and returns the boundaries of up to <code>parts</code> ranges.
+     * The first offset is the end of the header record and the last one is the stream size, so
+     * range <code>i</code> goes from <code>offsets[i]</code> to <code>offsets[i + 1]</code>.
+     * Fewer ranges are returned when records are too large to fill every part.
+     *
+     * @param input csv content, read up to its end but not closed
+     * @param size number of bytes of the content
+     * @param parts maximum number of ranges
+     * @param strategy csv strategy
+     * @return sorted record boundaries
+     * @throws IOException if the stream can not be read
+     */
+    public static long[] split(InputStream input, long size, int parts, CSVStrategy strategy) throws IOException {
+        if (parts <= 0) {
+            throw new IllegalArgumentException("number of parts must be positive");
+        }
+        Scanner scanner = new Scanner(strategy);
+        byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        long[] offsets = new long[parts + 1];
+        int count = 0;
+        long target = 0;
+        long chunkSize = 0;
+        long position = 0;
+        int read;
+
+        while ((read = input.read(buffer)) > 0) {
+            int from = 0;
+            while (count < parts) {
+                int min = (int) Math.min(Math.max(target - position, from), read);
+                int end = scanner.findRecordEnd(buffer, from, read, min);
+                if (end < 0) {
+                    break;
+                }
+                long boundary = position + end;
+                offsets[count++] = boundary;
+
+                if (count == 1) {
+                    chunkSize = Math.max(1, (size - boundary) / parts);
+                }
+                target = boundary + chunkSize - 1;
+                from = end;
+            }
+            position += read;
+        }
+
+        if ((count == 0) || (offsets[count - 1] < position)) {
+            offsets[count++] = position;
+        }
+        if (count == 1) {
+            offsets[count++] = position;
+        }
+        return Arrays.copyOf(offsets, count);
+    }
+
+    /**
+     * Finds the ends of records in consecutive pieces of csv content, remembering across pieces
+     * whether a quoted field is still open. Scanning must start at a record boundary.
+     */
+    static final class Scanner {
+
+        private final byte quote;
+        private boolean quoted;
+
+        Scanner(CSVStrategy strategy) {
+            this.quote = (byte) strategy.getQuoteCharacter();
+        }
+
+        /**
+         * Scans <code>bytes</code> from <code>from</code> to <code>to</code> for the first line feed
+         * outside quotes at or after <code>min</code>. Bytes are consumed up to that record end, or
+         * up to <code>to</code> if there is none, so the next call continues where this one stopped.
+         *
+         * @return index right after the line feed, or -1 if no record ends in the scanned bytes
+         */
+        int findRecordEnd(byte[] bytes, int from, int to, int min) {
+            for (int i = from; i < to; i++) {
+                byte b = bytes[i];
+                if (b == this.quote) {
+                    this.quoted = !this.quoted;
+                } else if ((b == LINE_FEED) && !this.quoted && (i >= min)) {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.trein.gtfs.csv.source;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * GTFS feed read straight from its zip archive, without extracting it. Files may be at the root of
+ * the archive or inside a single folder, as some publishers do. Entries are decompressed while
+ * they are read, never extracted to disk. The archive is opened once and every stream has its own
+ * inflater, so several entries, or ranges of the same entry, can be read concurrently.
+ *
+ * @author trein
+ */
+public class GtfsArchiveSource implements GtfsSource {
+
+    private final File archive;
+    private final ZipFile zipFile;
+    private final Map<String, ZipEntry> entries = new HashMap<String, ZipEntry>();
+
+    /**
+     * Opens the archive and indexes its entries by file name.
+     *
+     * @param archive zip file of the feed
+     * @throws IOException if the archive can not be opened
+     */
+    public GtfsArchiveSource(File archive) throws IOException {
+        this.archive = archive;
+        this.zipFile = new ZipFile(archive);
+
+        Enumeration<? extends ZipEntry> zipEntries = this.zipFile.entries();
+        while (zipEntries.hasMoreElements()) {
+            ZipEntry entry = zipEntries.nextElement();
+            if (!entry.isDirectory()) {
+                String name = entry.getName();
+                this.entries.put(name.substring(name.lastIndexOf('/') + 1), entry);
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(String filename) {
+        return this.entries.containsKey(filename);
+    }
+
+    @Override
+    public long size(String filename) throws FileNotFoundException {
+        return entry(filename).getSize();
+    }
+
+    @Override
+    public InputStream open(String filename) throws IOException {
+        return this.zipFile.getInputStream(entry(filename));
+    }
+
+    /**
+     * Compressed entries can not be positioned, so the bytes before the offset are inflated and
+     * discarded.
+     */
+    @Override
+    public InputStream open(String filename, long offset) throws IOException {
+        return SourceStreams.skip(open(filename), offset);
+    }
+
+    /**
+     * Only entries stored without compression skip bytes without reading them.
+     */
+    @Override
+    public boolean isSeekable(String filename) throws FileNotFoundException {
+        return entry(filename).getMethod() == ZipEntry.STORED;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.zipFile.close();
+    }
+
+    private ZipEntry entry(String filename) throws FileNotFoundException {
+        ZipEntry entry = this.entries.get(filename);
+        if (entry == null) {
+            throw new FileNotFoundException(String.format("file %s not found in archive %s", filename, this.archive));
+        }
+        return entry;
+    }
+
+    @Override
+    public String toString() {
+        return this.archive.toString();
+    }
+}
@@ -0,0 +1,74 @@
+package com.trein.gtfs.csv.source;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * GTFS feed bundled as class path resources under a common directory.
+ *
+ * @author trein
+ */
+public class GtfsClassPathSource implements GtfsSource {
+
+    private final String baseDir;
+    private final ClassLoader classLoader;
+
+    /**
+     * @param baseDir class path directory of the feed, ending with a slash
+     */
+    public GtfsClassPathSource(String baseDir) {
+        this(baseDir, GtfsClassPathSource.class.getClassLoader());
+    }
+
+    public GtfsClassPathSource(String baseDir, ClassLoader classLoader) {
+        this.baseDir = baseDir;
+        this.classLoader = classLoader;
+    }
+
+    @Override
+    public boolean contains(String filename) {
+        return this.classLoader.getResource(this.baseDir + filename) != null;
+    }
+
+    @Override
+    public long size(String filename) throws IOException {
+        return resource(filename).openConnection().getContentLengthLong();
+    }
+
+    @Override
+    public InputStream open(String filename) throws IOException {
+        return resource(filename).openStream();
+    }
+
+    @Override
+    public InputStream open(String filename, long offset) throws IOException {
+        return SourceStreams.skip(open(filename), offset);
+    }
+
+    /**
+     * Resources may be packed in jars, so the bytes before an offset are always read.
+     */
+    @Override
+    public boolean isSeekable(String filename) {
+        return false;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private URL resource(String filename) throws FileNotFoundException {
+        URL resource = this.classLoader.getResource(this.baseDir + filename);
+        if (resource == null) {
+            throw new FileNotFoundException(String.format("resource %s%s not found", this.baseDir, filename));
+        }
+        return resource;
+    }
+
+    @Override
+    public String toString() {
+        return "classpath:" + this.baseDir;
+    }
+}
@@ -0,0 +1,81 @@
+package com.trein.gtfs.csv.source;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * GTFS feed extracted to a directory of the file system.
+ *
+ * @author trein
+ */
+public class GtfsDirectorySource implements GtfsSource {
+
+    private final File directory;
+
+    public GtfsDirectorySource(File directory) {
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException(String.format("%s is not a directory", directory));
+        }
+        this.directory = directory;
+    }
+
+    @Override
+    public boolean contains(String filename) {
+        return getFile(filename).isFile();
+    }
+
+    @Override
+    public long size(String filename) throws FileNotFoundException {
+        return file(filename).length();
+    }
+
+    @Override
+    public InputStream open(String filename) throws FileNotFoundException {
+        return new FileInputStream(file(filename));
+    }
+
+    @Override
+    public InputStream open(String filename, long offset) throws IOException {
+        FileInputStream input = new FileInputStream(file(filename));
+        try {
+            input.getChannel().position(offset);
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+        return input;
+    }
+
+    @Override
+    public boolean isSeekable(String filename) {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @param filename name of a GTFS file
+     * @return location of the file in the directory, which may not exist
+     */
+    public File getFile(String filename) {
+        return new File(this.directory, filename);
+    }
+
+    private File file(String filename) throws FileNotFoundException {
+        File file = getFile(filename);
+        if (!file.isFile()) {
+            throw new FileNotFoundException(String.format("file %s not found", file));
+        }
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return this.directory.toString();
+    }
+}
@@ -0,0 +1,60 @@
+package com.trein.gtfs.csv.source;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Location of the files of a GTFS feed, e.g. a directory or a zip archive. Files are opened as new
+ * streams on every call, so several of them, or several ranges of the same one, can be read at the
+ * same time.
+ *
+ * @author trein
+ */
+public interface GtfsSource extends Closeable {
+
+    /**
+     * @param filename name of a GTFS file, e.g. <code>stops.txt</code>
+     * @return true if the feed has the given file
+     */
+    boolean contains(String filename);
+
+    /**
+     * @param filename name of a GTFS file
+     * @return file size in bytes, or -1 if unknown
+     * @throws IOException if the file can not be found
+     */
+    long size(String filename) throws IOException;
+
+    /**
+     * Opens a new stream over the content of a file.
+     *
+     * @param filename name of a GTFS file
+     * @return file content, to be closed by the caller
+     * @throws IOException if the file can not be found or opened
+     */
+    InputStream open(String filename) throws IOException;
+
+    /**
+     * Opens a new stream over the content of a file starting at a byte offset, e.g. to read one
+     * range of a file split at record boundaries. Sources backed by files position the stream
+     * without reading the skipped bytes.
+     *
+     * @param filename name of a GTFS file
+     * @param offset number of bytes to skip from the start of the file
+     * @return file content from the offset, to be closed by the caller
+     * @throws IOException if the file can not be opened or is shorter than the offset
+     */
+    InputStream open(String filename, long offset) throws IOException;
+
+    /**
+     * Tells whether {@link #open(String, long)} positions the stream without reading the skipped
+     * bytes, so reading a file by ranges costs no more than reading it whole.
+     *
+     * @param filename name of a GTFS file
+     * @return true if the file can be opened at any offset in constant time
+     * @throws IOException if the file can not be found
+     */
+    boolean isSeekable(String filename) throws IOException;
+
+}
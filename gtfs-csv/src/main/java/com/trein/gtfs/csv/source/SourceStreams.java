@@ -0,0 +1,44 @@
+package com.trein.gtfs.csv.source;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Helpers for sources whose streams can not be positioned.
+ *
+ * @author trein
+ */
+final class SourceStreams {
+
+    private SourceStreams() {
+    }
+
+    /**
+     * Skips the first bytes of a stream, closing it if they can not be skipped.
+     *
+     * @param input stream at the start of a file
+     * @param offset number of bytes to skip
+     * @return the same stream, positioned at the offset
+     * @throws IOException if the stream ends before the offset
+     */
+    static InputStream skip(InputStream input, long offset) throws IOException {
+        long remaining = offset;
+        try {
+            while (remaining > 0) {
+                long skipped = input.skip(remaining);
+                if (skipped <= 0) {
+                    if (input.read() < 0) {
+                        throw new EOFException(String.format("offset %d is past the end of the file", offset));
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+        return input;
+    }
+}
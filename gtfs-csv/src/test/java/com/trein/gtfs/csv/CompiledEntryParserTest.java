@@ -0,0 +1,92 @@
+package com.trein.gtfs.csv;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.googlecode.jcsv.annotations.internal.ValueProcessorProvider;
+import com.googlecode.jcsv.reader.CSVEntryParser;
+import com.googlecode.jcsv.reader.CSVReader;
+import com.trein.gtfs.csv.annotation.GtfsFile;
+import com.trein.gtfs.csv.reader.CSVCompiledEntryParser;
+import com.trein.gtfs.csv.reader.CSVHeaderAwareEntryParser;
+import com.trein.gtfs.csv.reader.CSVHeaderAwareReaderBuilder;
+import com.trein.gtfs.csv.vo.GtfsAgency;
+import com.trein.gtfs.csv.vo.GtfsCalendar;
+import com.trein.gtfs.csv.vo.GtfsCalendarDate;
+import com.trein.gtfs.csv.vo.GtfsFareAttribute;
+import com.trein.gtfs.csv.vo.GtfsFareRule;
+import com.trein.gtfs.csv.vo.GtfsFrequency;
+import com.trein.gtfs.csv.vo.GtfsRoute;
+import com.trein.gtfs.csv.vo.GtfsShape;
+import com.trein.gtfs.csv.vo.GtfsStop;
+import com.trein.gtfs.csv.vo.GtfsStopTime;
+import com.trein.gtfs.csv.vo.GtfsTransfer;
+import com.trein.gtfs.csv.vo.GtfsTrip;
+
+/**
+ * Testing that the compiled parser and the character buffer tokenizer produce the same entities as
+ * the reflective parser.
+ *
+ * @author trein
+ */
+public class CompiledEntryParserTest {
+
+    private static final List<Class<?>> ENTITIES = Arrays.<Class<?>> asList(GtfsAgency.class, GtfsCalendarDate.class,
+            GtfsCalendar.class, GtfsRoute.class, GtfsShape.class, GtfsTrip.class, GtfsStop.class, GtfsStopTime.class,
+            GtfsTransfer.class, GtfsFareAttribute.class, GtfsFareRule.class, GtfsFrequency.class);
+
+    @Test
+    public void shouldParseSameEntitiesAsReflectiveParser() throws Exception {
+        ValueProcessorProvider vpp = new ValueProcessorProvider();
+
+        for (Class<?> entity : ENTITIES) {
+            assertSameEntities(entity, vpp, false);
+        }
+    }
+
+    @Test
+    public void shouldParseSameEntitiesWithCharBufferTokenizer() throws Exception {
+        ValueProcessorProvider vpp = new ValueProcessorProvider();
+
+        for (Class<?> entity : ENTITIES) {
+            assertSameEntities(entity, vpp, true);
+        }
+    }
+
+    private <E> void assertSameEntities(Class<E> entity, ValueProcessorProvider vpp, boolean charBuffer)
+            throws Exception {
+        List<E> expected = readAll(entity, new CSVHeaderAwareEntryParser<E>(entity, vpp), false);
+        List<E> actual = readAll(entity, new CSVCompiledEntryParser<E>(entity, vpp), charBuffer);
+
+        assertThat(actual.size(), is(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            for (Field field : entity.getDeclaredFields()) {
+                field.setAccessible(true);
+                assertThat(field.toString(), field.get(actual.get(i)), is(field.get(expected.get(i))));
+            }
+        }
+    }
+
+    private <E> List<E> readAll(Class<E> entity, CSVEntryParser<E> parser, boolean charBuffer) throws IOException {
+        String input = "/sample/" + entity.getAnnotation(GtfsFile.class).value();
+        Reader csv = new InputStreamReader(getClass().getResourceAsStream(input));
+        CSVReader<E> reader = new CSVHeaderAwareReaderBuilder<E>(csv).entryParser(parser)
+                .charBufferTokenizer(charBuffer).build();
+
+        try {
+            return reader.readAll();
+        } finally {
+            reader.close();
+        }
+    }
+
+}
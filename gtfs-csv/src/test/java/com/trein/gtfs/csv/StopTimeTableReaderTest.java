@@ -0,0 +1,87 @@
+package com.trein.gtfs.csv;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.jcsv.annotations.internal.ValueProcessorProvider;
+import com.googlecode.jcsv.reader.CSVReader;
+import com.trein.gtfs.csv.columnar.GtfsFeedTables;
+import com.trein.gtfs.csv.columnar.GtfsStopTimeCursor;
+import com.trein.gtfs.csv.columnar.GtfsTime;
+import com.trein.gtfs.csv.reader.CSVCompiledEntryParser;
+import com.trein.gtfs.csv.reader.CSVHeaderAwareReaderBuilder;
+import com.trein.gtfs.csv.vo.GtfsStopTime;
+
+/**
+ * Testing GTFS CSV file parsing for stop times into columnar tables.
+ *
+ * @author trein
+ */
+public class StopTimeTableReaderTest {
+
+    private static final String EXPECTED_INPUT = "/sample/stop_times.txt";
+
+    private GtfsFeedTables tables;
+
+    @Before
+    public void setup() throws IOException {
+        Reader csv = new InputStreamReader(getClass().getResourceAsStream(EXPECTED_INPUT));
+        this.tables = new GtfsFeedTables();
+        this.tables.loadStopTimes(csv);
+        this.tables.trimToSize();
+    }
+
+    @Test
+    public void shouldParseEntityCorrectly() {
+        GtfsStopTimeCursor cursor = this.tables.stopTimeCursor();
+
+        // STBA,6:00:00,6:00:00,STAGECOACH,1,,,,
+        assertThat(cursor.next(), is(true));
+        assertThat(cursor.getTripId(), is("STBA"));
+        assertThat(cursor.getArrivalTime(), is(6 * 3600));
+        assertThat(cursor.getDepartureTime(), is(6 * 3600));
+        assertThat(cursor.getStopId(), is("STAGECOACH"));
+        assertThat(cursor.getStopSequence(), is(1));
+        assertThat(cursor.getStopHeadsign(), is(nullValue()));
+        assertThat(Double.isNaN(cursor.getShapeDistanceTraveled()), is(true));
+    }
+
+    @Test
+    public void shouldMatchEntityReader() throws IOException {
+        Reader csv = new InputStreamReader(getClass().getResourceAsStream(EXPECTED_INPUT));
+        CSVCompiledEntryParser<GtfsStopTime> parser = new CSVCompiledEntryParser<GtfsStopTime>(GtfsStopTime.class,
+                new ValueProcessorProvider());
+        CSVReader<GtfsStopTime> reader = new CSVHeaderAwareReaderBuilder<GtfsStopTime>(csv).entryParser(parser).build();
+        List<GtfsStopTime> entities = reader.readAll();
+        reader.close();
+
+        GtfsStopTimeCursor cursor = this.tables.stopTimeCursor();
+        for (GtfsStopTime entity : entities) {
+            assertThat(cursor.next(), is(true));
+            assertThat(cursor.getTripId(), is(entity.getTripId()));
+            assertThat(cursor.getStopId(), is(entity.getStopId()));
+            assertThat(cursor.getStopSequence(), is(entity.getStopSequence().intValue()));
+            assertThat(cursor.getArrivalTime(), is(GtfsTime.parseSeconds(entity.getArrivalTime())));
+            assertThat(cursor.getDepartureTime(), is(GtfsTime.parseSeconds(entity.getDepartureTime())));
+        }
+        assertThat(cursor.next(), is(false));
+        assertThat(this.tables.getStopTimes().size(), is(entities.size()));
+    }
+
+    @Test
+    public void shouldConvertTimes() {
+        assertThat(GtfsTime.parseSeconds("25:55:00"), is((25 * 3600) + (55 * 60)));
+        assertThat(GtfsTime.parseSeconds(""), is(GtfsTime.NO_TIME));
+        assertThat(GtfsTime.format((25 * 3600) + (55 * 60) + 7), is("25:55:07"));
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.trein.gtfs.csv.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.googlecode.jcsv.CSVStrategy;
+
+/**
+ * Testing in place tokenization of csv records.
+ *
+ * @author trein
+ */
+public class CSVCharBufferTokenizerTest {
+
+    private static final int SMALL_BUFFER = 4;
+
+    @Test
+    public void shouldTokenizeSimpleRecords() throws IOException {
+        assertThat(tokenize("A;B;C"), is(Arrays.asList("A", "B", "C")));
+        assertThat(tokenize("A"), is(Arrays.asList("A")));
+        assertThat(tokenize("A;"), is(Arrays.asList("A", "")));
+        assertThat(tokenize(";;"), is(Arrays.asList("", "", "")));
+        assertThat(tokenize("\n"), is(Collections.<String> emptyList()));
+    }
+
+    @Test
+    public void shouldTokenizeQuotedRecords() throws IOException {
+        assertThat(tokenize("A;B;\"C;D\""), is(Arrays.asList("A", "B", "C;D")));
+        assertThat(tokenize("A;B;\"C\"\";\"\"D\""), is(Arrays.asList("A", "B", "C\";\"D")));
+        assertThat(tokenize("A;B;\"C\"\"\n;\"\"D\""), is(Arrays.asList("A", "B", "C\"\n;\"D")));
+        assertThat(tokenize("A;B;\"C\r\nD\""), is(Arrays.asList("A", "B", "C\nD")));
+    }
+
+    @Test
+    public void shouldSplitRecordsAcrossBufferRefills() throws IOException {
+        String csv = "first;second\r\nthird;\"fou\nrth\"\n\nfifth";
+        CSVCharBufferTokenizer tokenizer = new CSVCharBufferTokenizer(new StringReader(csv), CSVStrategy.DEFAULT,
+                SMALL_BUFFER);
+
+        assertThat(tokenizer.next(), is(true));
+        assertThat(tokenizer.getFields(), is(Arrays.asList("first", "second")));
+        assertThat(tokenizer.next(), is(true));
+        assertThat(tokenizer.getFields(), is(Arrays.asList("third", "fou\nrth")));
+        assertThat(tokenizer.next(), is(true));
+        assertThat(tokenizer.isBlankRecord(), is(true));
+        assertThat(tokenizer.next(), is(true));
+        assertThat(tokenizer.getFields(), is(Arrays.asList("fifth")));
+        assertThat(tokenizer.next(), is(false));
+    }
+
+    @Test
+    public void shouldExposeFieldSlices() throws IOException {
+        CSVCharBufferTokenizer tokenizer = new CSVCharBufferTokenizer(new StringReader("ab;\"c\"\"d\""),
+                CSVStrategy.DEFAULT);
+
+        assertThat(tokenizer.next(), is(true));
+        assertThat(tokenizer.getFieldCount(), is(2));
+        assertThat(slice(tokenizer, 0), is("ab"));
+        assertThat(slice(tokenizer, 1), is("c\"d"));
+    }
+
+    @Test
+    public void shouldTrackBytePositionOfRecordEnds() throws IOException {
+        String[] records = { "h1;h2\n", "a\u00e7\u00e3o;\"x;\"\"y\"\"\"\n",
+                "\"multi\r\nline \u20ac\";\uD83D\uDE8C\r\n", "\n", "last" };
+        StringBuilder csv = new StringBuilder();
+        for (String record : records) {
+            csv.append(record);
+        }
+        byte[] data = csv.toString().getBytes("UTF-8");
+        CSVCharBufferTokenizer tokenizer = new CSVCharBufferTokenizer(new InputStreamReader(new ByteArrayInputStream(
+                data), "UTF-8"), CSVStrategy.DEFAULT, SMALL_BUFFER);
+        tokenizer.setTrackBytePosition(true);
+
+        long expected = 0;
+        for (String record : records) {
+            expected += record.getBytes("UTF-8").length;
+            assertThat(tokenizer.next(), is(true));
+            assertThat(tokenizer.getBytePosition(), is(record.endsWith("\r\n") ? expected - 1 : expected));
+        }
+        assertThat(tokenizer.next(), is(false));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRequireByteTrackingForBytePosition() {
+        new CSVCharBufferTokenizer(new StringReader("A"), CSVStrategy.DEFAULT).getBytePosition();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectUnclosedQuotation() throws IOException {
+        tokenize("A;\"B");
+    }
+
+    private static String slice(CSVCharBufferTokenizer tokenizer, int index) {
+        return String.valueOf(tokenizer.getBuffer(), tokenizer.getFieldOffset(index), tokenizer.getFieldLength(index));
+    }
+
+    private static List<String> tokenize(String line) throws IOException {
+        CSVCharBufferTokenizer tokenizer = new CSVCharBufferTokenizer(new StringReader(line), CSVStrategy.DEFAULT,
+                SMALL_BUFFER);
+        tokenizer.next();
+        return tokenizer.getFields();
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.trein.gtfs.csv.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.googlecode.jcsv.annotations.internal.ValueProcessorProvider;
+import com.googlecode.jcsv.reader.CSVReader;
+import com.trein.gtfs.csv.source.GtfsArchiveSource;
+import com.trein.gtfs.csv.source.GtfsSource;
+import com.trein.gtfs.csv.vo.GtfsStopTime;
+
+/**
+ * Testing parallel parsing of a single file.
+ *
+ * @author trein
+ */
+public class CSVParallelReaderTest {
+
+    private static final int ROWS = 5000;
+    private static final int CHUNK_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ValueProcessorProvider vpp = new ValueProcessorProvider();
+    private ForkJoinPool pool;
+    private File input;
+
+    @Before
+    public void setup() throws IOException {
+        this.pool = new ForkJoinPool(4);
+        this.input = this.folder.newFile("stop_times.txt");
+
+        PrintWriter writer = new PrintWriter(this.input, "UTF-8");
+        try {
+            writer.println("trip_id,arrival_time,departure_time,stop_id,stop_sequence,stop_headsign");
+            for (int i = 0; i < ROWS; i++) {
+                String headsign = (i % 7) == 0 ? "\"Line\nbreak, \"\"quoted\"\"\"" : "";
+                writer.println(String.format("T%d,6:%02d:00,6:%02d:00,S%d,%d,%s", i / 20, i % 60, i % 60, i, i, headsign));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        this.pool.shutdown();
+    }
+
+    @Test
+    public void shouldReadEntriesInFileOrder() throws IOException {
+        List<String> expected = readSequential();
+        List<String> actual = readParallel(true);
+
+        assertThat(actual, is(expected));
+    }
+
+    @Test
+    public void shouldReadAllEntriesUnordered() throws IOException {
+        List<String> expected = readSequential();
+        List<String> actual = readParallel(false);
+
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertThat(actual, is(expected));
+    }
+
+    @Test
+    public void shouldReadArchiveEntryWithoutExtractingIt() throws IOException {
+        List<String> expected = readSequential();
+        GtfsSource source = new GtfsArchiveSource(zipInput());
+        try {
+            assertThat(readParallel(source), is(expected));
+            assertThat(describe(new CSVHeaderAwareReaderBuilder<GtfsStopTime>(source, GtfsStopTime.class)
+                    .entryParser(new CSVCompiledEntryParser<GtfsStopTime>(GtfsStopTime.class, this.vpp)).build()),
+                    is(expected));
+        } finally {
+            source.close();
+        }
+    }
+
+    private File zipInput() throws IOException {
+        File archive = this.folder.newFile("feed.zip");
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive));
+        InputStream content = new FileInputStream(this.input);
+        try {
+            zip.putNextEntry(new ZipEntry(this.input.getName()));
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int read;
+            while ((read = content.read(buffer)) > 0) {
+                zip.write(buffer, 0, read);
+            }
+        } finally {
+            content.close();
+            zip.close();
+        }
+        return archive;
+    }
+
+    private List<String> readParallel(GtfsSource source) throws IOException {
+        CSVReader<GtfsStopTime> reader = new CSVHeaderAwareReaderBuilder<GtfsStopTime>(source, GtfsStopTime.class)
+                .entryParser(new CSVCompiledEntryParser<GtfsStopTime>(GtfsStopTime.class, this.vpp))
+                .parallel(this.pool).chunkSize(CHUNK_SIZE).build();
+        return describe(reader);
+    }
+
+    private List<String> readSequential() throws IOException {
+        CSVReader<GtfsStopTime> reader = new CSVHeaderAwareReaderBuilder<GtfsStopTime>(new FileReader(this.input))
+                .entryParser(new CSVCompiledEntryParser<GtfsStopTime>(GtfsStopTime.class, this.vpp)).build();
+        return describe(reader);
+    }
+
+    private List<String> readParallel(boolean ordered) throws IOException {
+        CSVReader<GtfsStopTime> reader = new CSVHeaderAwareReaderBuilder<GtfsStopTime>(this.input)
+                .entryParser(new CSVCompiledEntryParser<GtfsStopTime>(GtfsStopTime.class, this.vpp))
+                .parallel(this.pool).ordered(ordered).chunkSize(CHUNK_SIZE).build();
+        return describe(reader);
+    }
+
+    private static List<String> describe(CSVReader<GtfsStopTime> reader) throws IOException {
+        List<String> entries = new ArrayList<String>();
+        try {
+            for (GtfsStopTime entry : reader.readAll()) {
+                entries.add(entry.getStopId() + "::" + entry.getStopSequence() + "::" + entry.getStopHeadsign());
+            }
+        } finally {
+            reader.close();
+        }
+        return entries;
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.trein.gtfs.csv.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.googlecode.jcsv.CSVStrategy;
+
+/**
+ * Testing record aligned splitting of csv content.
+ *
+ * @author trein
+ */
+public class CSVRecordBoundariesTest {
+
+    private static final String HEADER = "trip_id,stop_id,stop_headsign\n";
+
+    @Test
+    public void shouldSplitIntoRangesOfWholeRecords() throws IOException {
+        StringBuilder csv = new StringBuilder(HEADER);
+        for (int i = 0; i < 1000; i++) {
+            String headsign = (i % 3) == 0 ? "\"multi\nline, \"\"quoted\"\"\"" : "plain";
+            csv.append(String.format("T%d,S%d,%s\n", i, i, headsign));
+        }
+        byte[] data = csv.toString().getBytes("UTF-8");
+
+        long[] offsets = split(data, 8);
+
+        assertThat(offsets.length, is(9));
+        assertThat(offsets[0], is((long) HEADER.length()));
+        assertThat(offsets[8], is((long) data.length));
+        assertThat(readRanges(data, offsets), is(readAll(data)));
+    }
+
+    @Test
+    public void shouldReturnFewerRangesForFewRecords() throws IOException {
+        byte[] data = (HEADER + "T1,S1,a\nT2,S2,b\n").getBytes("UTF-8");
+
+        long[] offsets = split(data, 8);
+
+        assertThat(offsets.length, is(3));
+        assertThat(readRanges(data, offsets), is(readAll(data)));
+    }
+
+    @Test
+    public void shouldHandleHeaderOnlyAndMissingTrailingLineBreak() throws IOException {
+        byte[] header = HEADER.getBytes("UTF-8");
+        byte[] unterminated = (HEADER + "T1,S1,a").getBytes("UTF-8");
+
+        assertThat(split(header, 4), is(new long[] { header.length, header.length }));
+        assertThat(split(unterminated, 4), is(new long[] { header.length, unterminated.length }));
+    }
+
+    private static long[] split(byte[] data, int parts) throws IOException {
+        return CSVRecordBoundaries.split(new ByteArrayInputStream(data), data.length, parts, CSVStrategy.UK_DEFAULT);
+    }
+
+    private static List<List<String>> readRanges(byte[] data, long[] offsets) throws IOException {
+        List<List<String>> records = new ArrayList<List<String>>();
+        for (int i = 0; i < (offsets.length - 1); i++) {
+            int start = (int) offsets[i];
+            records.addAll(read(new ByteArrayInputStream(data, start, (int) offsets[i + 1] - start)));
+        }
+        return records;
+    }
+
+    private static List<List<String>> readAll(byte[] data) throws IOException {
+        List<List<String>> records = read(new ByteArrayInputStream(data));
+        return records.subList(1, records.size());
+    }
+
+    private static List<List<String>> read(ByteArrayInputStream input) throws IOException {
+        CSVCharBufferTokenizer tokenizer = new CSVCharBufferTokenizer(new InputStreamReader(input, "UTF-8"),
+                CSVStrategy.UK_DEFAULT);
+        List<List<String>> records = new ArrayList<List<String>>();
+        while (tokenizer.next()) {
+            records.add(tokenizer.getFields());
+        }
+        return records;
+    }
+}
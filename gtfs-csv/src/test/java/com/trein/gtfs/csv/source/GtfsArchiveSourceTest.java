@@ -0,0 +1,130 @@
+package com.trein.gtfs.csv.source;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Testing GTFS files read from a zip archive.
+ *
+ * @author trein
+ */
+public class GtfsArchiveSourceTest {
+
+    private static final String AGENCY = "agency_id,agency_name\n1,Carris\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadFilesInsideArchiveFolder() throws IOException {
+        GtfsArchiveSource source = new GtfsArchiveSource(createArchive());
+        try {
+            assertThat(source.contains("agency.txt"), is(true));
+            assertThat(source.contains("stops.txt"), is(false));
+            assertThat(source.size("agency.txt"), is((long) AGENCY.length()));
+            assertThat(read(source.open("agency.txt")), is(AGENCY));
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void shouldOpenFilesAtOffset() throws IOException {
+        int headerEnd = AGENCY.indexOf('\n') + 1;
+        GtfsArchiveSource source = new GtfsArchiveSource(createArchive());
+        try {
+            assertThat(read(source.open("agency.txt", headerEnd)), is(AGENCY.substring(headerEnd)));
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void shouldOnlySeekStoredEntries() throws IOException {
+        GtfsArchiveSource deflated = new GtfsArchiveSource(createArchive());
+        try {
+            assertThat(deflated.isSeekable("agency.txt"), is(false));
+        } finally {
+            deflated.close();
+        }
+
+        int headerEnd = AGENCY.indexOf('\n') + 1;
+        GtfsArchiveSource stored = new GtfsArchiveSource(createStoredArchive());
+        try {
+            assertThat(stored.isSeekable("agency.txt"), is(true));
+            assertThat(read(stored.open("agency.txt", headerEnd)), is(AGENCY.substring(headerEnd)));
+        } finally {
+            stored.close();
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void shouldFailToOpenPastEndOfFile() throws IOException {
+        GtfsArchiveSource source = new GtfsArchiveSource(createArchive());
+        try {
+            source.open("agency.txt", AGENCY.length() + 1);
+        } finally {
+            source.close();
+        }
+    }
+
+    private File createArchive() throws IOException {
+        File archive = this.folder.newFile("feed.zip");
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            zip.putNextEntry(new ZipEntry("br_poa/"));
+            zip.putNextEntry(new ZipEntry("br_poa/agency.txt"));
+            zip.write(AGENCY.getBytes("UTF-8"));
+        } finally {
+            zip.close();
+        }
+        return archive;
+    }
+
+    private File createStoredArchive() throws IOException {
+        byte[] content = AGENCY.getBytes("UTF-8");
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        ZipEntry entry = new ZipEntry("agency.txt");
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCrc(crc.getValue());
+
+        File archive = this.folder.newFile("stored.zip");
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            zip.putNextEntry(entry);
+            zip.write(content);
+        } finally {
+            zip.close();
+        }
+        return archive;
+    }
+
+    static String read(InputStream input) throws IOException {
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            int b;
+            while ((b = input.read()) >= 0) {
+                content.write(b);
+            }
+            return content.toString("UTF-8");
+        } finally {
+            input.close();
+        }
+    }
+}
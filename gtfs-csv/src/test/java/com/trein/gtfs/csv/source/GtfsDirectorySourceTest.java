@@ -0,0 +1,43 @@
+package com.trein.gtfs.csv.source;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Testing GTFS files read from a directory.
+ *
+ * @author trein
+ */
+public class GtfsDirectorySourceTest {
+
+    private static final String AGENCY = "agency_id,agency_name\n1,Carris\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldOpenFilesAtOffset() throws IOException {
+        File directory = this.folder.newFolder("feed");
+        OutputStream output = new FileOutputStream(new File(directory, "agency.txt"));
+        try {
+            output.write(AGENCY.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+
+        GtfsDirectorySource source = new GtfsDirectorySource(directory);
+        int headerEnd = AGENCY.indexOf('\n') + 1;
+        assertThat(source.isSeekable("agency.txt"), is(true));
+        assertThat(GtfsArchiveSourceTest.read(source.open("agency.txt")), is(AGENCY));
+        assertThat(GtfsArchiveSourceTest.read(source.open("agency.txt", headerEnd)), is(AGENCY.substring(headerEnd)));
+    }
+}
@@ -1,8 +1,25 @@
 package com.trein.gtfs.etl;
 
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
 import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
 import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
 import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.batch.core.launch.support.RunIdIncrementer;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.context.ApplicationContext;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 
@@ -11,6 +28,13 @@ import com.trein.gtfs.etl.config.MongoEtlConfig;
 
 public class JobRunner {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(JobRunner.class);
+
+    private static final String NOTIFY_URL_PROPERTY = "gtfs.feed.notify.url";
+    private static final String FEED_TOKEN_PROPERTY = "gtfs.feed.token";
+    private static final String FEED_TOKEN_HEADER = "Feed-Token";
+    private static final int NOTIFY_TIMEOUT_MILLIS = 30000;
+
     public static void main(String[] args) throws Exception {
         // launchJpaJob();
         launchMongoJob();
@@ -18,17 +42,111 @@ public class JobRunner {
 
     protected static void launchMongoJob() throws Exception {
         try (ConfigurableApplicationContext appContext = new AnnotationConfigApplicationContext(MongoEtlConfig.class)) {
-            JobLauncher laucher = appContext.getBean(JobLauncher.class);
-            Job initJob = appContext.getBean(MongoEtlConfig.JOB_NAME, Job.class);
-            laucher.run(initJob, new JobParameters());
+            notifyFeedLoaded(launch(appContext, MongoEtlConfig.JOB_NAME));
         }
     }
 
     protected static void launchJpaJob() throws Exception {
         try (ConfigurableApplicationContext appContext = new AnnotationConfigApplicationContext(JpaEtlConfig.class)) {
-            JobLauncher laucher = appContext.getBean(JobLauncher.class);
-            Job initJob = appContext.getBean(JpaEtlConfig.JOB_NAME, Job.class);
-            laucher.run(initJob, new JobParameters());
+            notifyFeedLoaded(launch(appContext, JpaEtlConfig.JOB_NAME));
+        }
+    }
+
+    /**
+     * Restarts the last run of the job from its checkpoints if it did not complete, otherwise
+     * starts a new run. Only one runner loads a feed at a time, so a run still marked as started
+     * was interrupted by a crash and is marked as failed before being restarted.
+     */
+    private static JobExecution launch(ApplicationContext appContext, String jobName) throws Exception {
+        JobLauncher laucher = appContext.getBean(JobLauncher.class);
+        JobExplorer explorer = appContext.getBean(JobExplorer.class);
+        Job job = appContext.getBean(jobName, Job.class);
+
+        JobParameters parameters = new RunIdIncrementer().getNext(new JobParameters());
+        List<JobInstance> instances = explorer.getJobInstances(jobName, 0, 1);
+        if (!instances.isEmpty()) {
+            JobExecution last = getLastExecution(explorer, instances.get(0));
+            if (last.getStatus() == BatchStatus.COMPLETED) {
+                parameters = new RunIdIncrementer().getNext(last.getJobParameters());
+            } else {
+                LOGGER.info("Restarting job [{}] with status [{}]", jobName, last.getStatus());
+                if (last.isRunning()) {
+                    markInterrupted(appContext.getBean(JobRepository.class), last);
+                }
+                parameters = last.getJobParameters();
+            }
+        }
+        return laucher.run(job, parameters);
+    }
+
+    /**
+     * Tells the service that a new feed is in the database, so it drops the data it cached from the
+     * previous one, by a POST to the URL of the <code>gtfs.feed.notify.url</code> system property,
+     * e.g. <code>http://localhost:8080/rest/resources/feed</code>, with the secret of the
+     * <code>gtfs.feed.token</code> property, the one the service is started with. Without them the
+     * service must be notified by hand, otherwise it serves cached data of the previous feed until
+     * it expires.
+     */
+    private static void notifyFeedLoaded(JobExecution execution) {
+        if (execution.getStatus() != BatchStatus.COMPLETED) {
+            LOGGER.warn("Job ended with status [{}], service not notified", execution.getStatus());
+            return;
+        }
+        String url = System.getProperty(NOTIFY_URL_PROPERTY);
+        String token = System.getProperty(FEED_TOKEN_PROPERTY);
+        if ((url == null) || (token == null)) {
+            LOGGER.warn("{} or {} is not set, POST to the service's /resources/feed to drop its cached data",
+                    NOTIFY_URL_PROPERTY, FEED_TOKEN_PROPERTY);
+            return;
+        }
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            try {
+                connection.setRequestMethod("POST");
+                connection.setRequestProperty(FEED_TOKEN_HEADER, token);
+                connection.setConnectTimeout(NOTIFY_TIMEOUT_MILLIS);
+                connection.setReadTimeout(NOTIFY_TIMEOUT_MILLIS);
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(0);
+                connection.getOutputStream().close();
+                int status = connection.getResponseCode();
+                if (status == HttpURLConnection.HTTP_OK) {
+                    LOGGER.info("Notified service at [{}] of the new feed", url);
+                } else {
+                    LOGGER.warn("Service at [{}] refused the feed notification with status [{}]", url,
+                            Integer.valueOf(status));
+                }
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not notify service at [{}] of the new feed", url, e);
+        }
+    }
+
+    private static JobExecution getLastExecution(JobExplorer explorer, JobInstance instance) {
+        JobExecution last = null;
+        for (JobExecution execution : explorer.getJobExecutions(instance)) {
+            if ((last == null) || (execution.getId() > last.getId())) {
+                last = execution;
+            }
+        }
+        return last;
+    }
+
+    private static void markInterrupted(JobRepository repository, JobExecution execution) {
+        Date now = new Date();
+        for (StepExecution step : execution.getStepExecutions()) {
+            if (step.getStatus().isRunning()) {
+                step.setStatus(BatchStatus.FAILED);
+                step.setExitStatus(ExitStatus.FAILED);
+                step.setEndTime(now);
+                repository.update(step);
+            }
         }
+        execution.setStatus(BatchStatus.FAILED);
+        execution.setExitStatus(ExitStatus.FAILED);
+        execution.setEndTime(now);
+        repository.update(execution);
     }
 }
@@ -1,26 +1,35 @@
 package com.trein.gtfs.etl.config;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.springframework.batch.core.configuration.annotation.EnableBatchProcessing;
-import org.springframework.batch.core.launch.JobLauncher;
-import org.springframework.batch.core.launch.support.SimpleJobLauncher;
-import org.springframework.batch.core.repository.JobRepository;
-import org.springframework.batch.core.repository.dao.MapExecutionContextDao;
-import org.springframework.batch.core.repository.dao.MapJobExecutionDao;
-import org.springframework.batch.core.repository.dao.MapJobInstanceDao;
-import org.springframework.batch.core.repository.dao.MapStepExecutionDao;
-import org.springframework.batch.core.repository.support.SimpleJobRepository;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
 
+import com.trein.gtfs.csv.source.GtfsArchiveSource;
+import com.trein.gtfs.csv.source.GtfsClassPathSource;
+import com.trein.gtfs.csv.source.GtfsDirectorySource;
+import com.trein.gtfs.csv.source.GtfsSource;
+
+/**
+ * Batch infrastructure shared by the jobs. Each job configuration provides a
+ * {@link JdbcBatchConfigurer} for its job repository.
+ */
 @Configuration
 @EnableBatchProcessing
 @ComponentScan(basePackages = { "com.trein.gtfs.etl.job" })
 public class EtlConfig {
 
+    private static final String FEED_PROPERTY = "gtfs.feed";
+    private static final String DEFAULT_FEED_DIR = "gtfs-data/br_poa/";
+
     @Bean
     public static PropertySourcesPlaceholderConfigurer properties() {
         return new PropertySourcesPlaceholderConfigurer();
@@ -31,18 +40,27 @@ public class EtlConfig {
         return new ConcurrentTaskScheduler();
     }
     
+    /**
+     * Runs parallel flows and file partitions. Threads are only created for the few flows of each
+     * stage and for the partitions of a file, so they are not pooled.
+     */
     @Bean
-    public JobRepository jobRepository() throws Exception {
-        return new SimpleJobRepository(new MapJobInstanceDao(), new MapJobExecutionDao(), new MapStepExecutionDao(),
-                new MapExecutionContextDao());
+    public TaskExecutor taskExecutor() {
+        return new SimpleAsyncTaskExecutor("gtfs-etl-");
     }
     
+    /**
+     * Feed to load, given by the <code>gtfs.feed</code> system property as a directory or a zip
+     * archive. Defaults to the feed bundled in the class path.
+     */
     @Bean
-    public JobLauncher jobLauncher() throws Exception {
-        SimpleJobLauncher jobLauncher = new SimpleJobLauncher();
-        jobLauncher.setJobRepository(jobRepository());
-        jobLauncher.afterPropertiesSet();
-        return jobLauncher;
+    public GtfsSource gtfsSource() throws IOException {
+        String feed = System.getProperty(FEED_PROPERTY);
+        if (feed == null) {
+            return new GtfsClassPathSource(DEFAULT_FEED_DIR);
+        }
+        File path = new File(feed);
+        return path.isDirectory() ? new GtfsDirectorySource(path) : new GtfsArchiveSource(path);
     }
     
 }
@@ -0,0 +1,192 @@
+package com.trein.gtfs.etl.config;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.configuration.annotation.JobBuilderFactory;
+import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
+import org.springframework.batch.core.job.builder.FlowBuilder;
+import org.springframework.batch.core.job.builder.FlowJobBuilder;
+import org.springframework.batch.core.job.builder.JobBuilder;
+import org.springframework.batch.core.job.flow.Flow;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.ItemReader;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.core.task.TaskExecutor;
+
+import com.trein.gtfs.csv.annotation.GtfsFile;
+import com.trein.gtfs.csv.source.GtfsSource;
+import com.trein.gtfs.csv.vo.GtfsAgency;
+import com.trein.gtfs.csv.vo.GtfsCalendar;
+import com.trein.gtfs.csv.vo.GtfsCalendarDate;
+import com.trein.gtfs.csv.vo.GtfsFareAttribute;
+import com.trein.gtfs.csv.vo.GtfsFareRule;
+import com.trein.gtfs.csv.vo.GtfsFeedInfo;
+import com.trein.gtfs.csv.vo.GtfsFrequency;
+import com.trein.gtfs.csv.vo.GtfsRoute;
+import com.trein.gtfs.csv.vo.GtfsShape;
+import com.trein.gtfs.csv.vo.GtfsStop;
+import com.trein.gtfs.csv.vo.GtfsStopTime;
+import com.trein.gtfs.csv.vo.GtfsTransfer;
+import com.trein.gtfs.csv.vo.GtfsTrip;
+import com.trein.gtfs.etl.job.GtfsDerivedDataWriter;
+import com.trein.gtfs.etl.job.GtfsFilePartitioner;
+import com.trein.gtfs.etl.job.GtfsItem;
+import com.trein.gtfs.etl.job.GtfsItemReader;
+
+/**
+ * Builds the GTFS loading job as a flow that follows the references between files. Files are
+ * loaded in three stages, each running its independent files in parallel:
+ *
+ * <pre>
+ *     agency -> routes | shapes | stops | calendar | calendar_dates | fare_attributes | feed_info
+ *     trips
+ *     stop_times (partitioned) | frequencies | fare_rules | transfers
+ * </pre>
+ *
+ * Every file has its own chunk step, and <code>stop_times.txt</code> is split into byte ranges
+ * loaded by concurrent partitions. The writer is shared by all steps, so it must be thread safe.
+ * <p>
+ * A {@link GtfsDerivedDataWriter} may replace the shapes step by a tasklet storing packed shapes,
+ * and add tasklets storing trip schedules and the compiled service calendar once the last stage
+ * completed. The service calendar is compiled last, so it is only replaced by a job whose every
+ * other step completed.
+ *
+ * @author trein
+ */
+public class GtfsJobBuilder {
+
+    private static final String STOP_TIMES_WORKER = "_worker";
+    private static final String SHAPE_GEOMETRIES = "shape_geometries";
+    private static final String TRIP_SCHEDULES = "trip_schedules";
+    private static final String SERVICE_CALENDAR = "service_calendar";
+
+    private final JobBuilderFactory jobs;
+    private final StepBuilderFactory steps;
+    private final TaskExecutor taskExecutor;
+    private final GtfsSource source;
+    private final String prefix;
+    private int chunkSize = 1000;
+    private int gridSize = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param jobs job builder factory
+     * @param steps step builder factory
+     * @param taskExecutor executor for parallel flows and partitions
+     * @param source feed to load
+     * @param prefix prefix of step names, unique per job
+     */
+    public GtfsJobBuilder(JobBuilderFactory jobs, StepBuilderFactory steps, TaskExecutor taskExecutor,
+            GtfsSource source, String prefix) {
+        this.jobs = jobs;
+        this.steps = steps;
+        this.taskExecutor = taskExecutor;
+        this.source = source;
+        this.prefix = prefix;
+    }
+
+    public GtfsJobBuilder chunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public GtfsJobBuilder gridSize(int gridSize) {
+        this.gridSize = gridSize;
+        return this;
+    }
+
+    /**
+     * Builds the job. If the writer is a {@link JobExecutionListener} it is registered as one, and if
+     * it is a {@link GtfsDerivedDataWriter} its tasklets are added as steps.
+     *
+     * @param jobName job name
+     * @param writer writer shared by every step
+     * @param stopTimeReader step scoped reader of <code>stop_times.txt</code>, so each partition
+     *            gets its own instance
+     * @return GTFS loading job
+     */
+    public Job build(String jobName, ItemWriter<GtfsItem> writer, ItemReader<GtfsItem> stopTimeReader) {
+        JobBuilder job = this.jobs.get(jobName);
+        if (writer instanceof JobExecutionListener) {
+            job.listener((JobExecutionListener) writer);
+        }
+
+        GtfsDerivedDataWriter derived = (writer instanceof GtfsDerivedDataWriter) ? (GtfsDerivedDataWriter) writer : null;
+        Tasklet shapeGeometries = (derived != null) ? derived.getShapeGeometryTasklet() : null;
+        Tasklet tripSchedules = (derived != null) ? derived.getTripScheduleTasklet() : null;
+        Tasklet serviceCalendar = (derived != null) ? derived.getServiceCalendarTasklet() : null;
+
+        Flow referenced = split("referenced",
+                sequence(writer, GtfsAgency.class, GtfsRoute.class),
+                (shapeGeometries != null) ? tasklet(SHAPE_GEOMETRIES, shapeGeometries) : sequence(writer, GtfsShape.class),
+                sequence(writer, GtfsStop.class),
+                sequence(writer, GtfsCalendar.class),
+                sequence(writer, GtfsCalendarDate.class),
+                sequence(writer, GtfsFareAttribute.class),
+                sequence(writer, GtfsFeedInfo.class));
+        Flow trips = sequence(writer, GtfsTrip.class);
+        Flow referencing = split("referencing",
+                new FlowBuilder<Flow>(this.prefix + "stop_times_flow").start(stopTimeStep(writer, stopTimeReader))
+                        .build(),
+                sequence(writer, GtfsFrequency.class),
+                sequence(writer, GtfsFareRule.class),
+                sequence(writer, GtfsTransfer.class));
+
+        FlowBuilder<FlowJobBuilder> flow = job.start(referenced).next(trips).next(referencing);
+        if (tripSchedules != null) {
+            flow.next(taskletStep(TRIP_SCHEDULES, tripSchedules));
+        }
+        if (serviceCalendar != null) {
+            flow.next(taskletStep(SERVICE_CALENDAR, serviceCalendar));
+        }
+        return flow.end().build();
+    }
+
+    private Flow tasklet(String name, Tasklet tasklet) {
+        return new FlowBuilder<Flow>(this.prefix + name + "_flow").start(taskletStep(name, tasklet)).build();
+    }
+
+    private Step taskletStep(String name, Tasklet tasklet) {
+        return this.steps.get(this.prefix + name).tasklet(tasklet).build();
+    }
+
+    private Flow split(String name, Flow... flows) {
+        return new FlowBuilder<Flow>(this.prefix + name).split(this.taskExecutor).add(flows).build();
+    }
+
+    private Flow sequence(ItemWriter<GtfsItem> writer, Class<?>... entities) {
+        FlowBuilder<Flow> flow = new FlowBuilder<Flow>(this.prefix + stepName(entities[0]) + "_flow");
+        flow.start(fileStep(writer, entities[0]));
+        for (int i = 1; i < entities.length; i++) {
+            flow.next(fileStep(writer, entities[i]));
+        }
+        return flow.build();
+    }
+
+    private Step fileStep(ItemWriter<GtfsItem> writer, Class<?> entity) {
+        List<Class<?>> entities = Arrays.<Class<?>> asList(entity);
+        return chunkStep(stepName(entity), new GtfsItemReader(this.source, entities), writer);
+    }
+
+    private Step stopTimeStep(ItemWriter<GtfsItem> writer, ItemReader<GtfsItem> stopTimeReader) {
+        String name = stepName(GtfsStopTime.class);
+        Step worker = chunkStep(name + STOP_TIMES_WORKER, stopTimeReader, writer);
+        GtfsFilePartitioner partitioner = new GtfsFilePartitioner(this.source, GtfsStopTime.class);
+
+        return this.steps.get(this.prefix + name).partitioner(worker.getName(), partitioner).step(worker)
+                .gridSize(this.gridSize).taskExecutor(this.taskExecutor).build();
+    }
+
+    private Step chunkStep(String name, ItemReader<GtfsItem> reader, ItemWriter<GtfsItem> writer) {
+        return this.steps.get(this.prefix + name).<GtfsItem, GtfsItem> chunk(this.chunkSize).reader(reader)
+                .writer(writer).build();
+    }
+
+    private static String stepName(Class<?> entity) {
+        String filename = entity.getAnnotation(GtfsFile.class).value();
+        return filename.substring(0, filename.lastIndexOf('.'));
+    }
+}
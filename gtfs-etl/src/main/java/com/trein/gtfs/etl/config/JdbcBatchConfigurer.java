@@ -0,0 +1,112 @@
+package com.trein.gtfs.etl.config;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.configuration.annotation.BatchConfigurer;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.explore.support.JobExplorerFactoryBean;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.batch.core.launch.support.SimpleJobLauncher;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.support.JobRepositoryFactoryBean;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Keeps job and step executions, with the execution contexts holding reader offsets, in a
+ * database, so that a job stopped by a failure or a crash can be restarted from its last
+ * checkpoint. Concurrent flows and partitions update their executions in their own transactions,
+ * which the in-memory repository does not support. The Spring Batch tables are created on first
+ * use.
+ *
+ * The transaction manager given here is the one of the whole context: it is exposed as the
+ * <code>transactionManager</code> bean and used by every step, so it must also cover the writes
+ * of the job.
+ *
+ * @author trein
+ */
+public class JdbcBatchConfigurer implements BatchConfigurer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JdbcBatchConfigurer.class);
+    private static final String SCHEMA_SCRIPT = "org/springframework/batch/core/schema-%s.sql";
+    private static final String JOB_INSTANCE_TABLE = "BATCH_JOB_INSTANCE";
+
+    private final DataSource dataSource;
+    private final PlatformTransactionManager transactionManager;
+    private final String platform;
+    private JobRepository jobRepository;
+    private JobExplorer jobExplorer;
+    private JobLauncher jobLauncher;
+
+    /**
+     * @param dataSource database of the job repository
+     * @param transactionManager transaction manager of the context
+     * @param platform database platform of the Spring Batch schema script, e.g. <code>mysql</code>
+     */
+    public JdbcBatchConfigurer(DataSource dataSource, PlatformTransactionManager transactionManager, String platform) {
+        this.dataSource = dataSource;
+        this.transactionManager = transactionManager;
+        this.platform = platform;
+    }
+
+    @PostConstruct
+    public void initialize() throws Exception {
+        createSchema();
+
+        JobRepositoryFactoryBean repositoryFactory = new JobRepositoryFactoryBean();
+        repositoryFactory.setDataSource(this.dataSource);
+        repositoryFactory.setTransactionManager(this.transactionManager);
+        repositoryFactory.afterPropertiesSet();
+        this.jobRepository = repositoryFactory.getObject();
+
+        JobExplorerFactoryBean explorerFactory = new JobExplorerFactoryBean();
+        explorerFactory.setDataSource(this.dataSource);
+        explorerFactory.afterPropertiesSet();
+        this.jobExplorer = explorerFactory.getObject();
+
+        SimpleJobLauncher launcher = new SimpleJobLauncher();
+        launcher.setJobRepository(this.jobRepository);
+        launcher.afterPropertiesSet();
+        this.jobLauncher = launcher;
+    }
+
+    private void createSchema() {
+        try {
+            new JdbcTemplate(this.dataSource).queryForObject("SELECT COUNT(*) FROM " + JOB_INSTANCE_TABLE, Long.class);
+            return;
+        } catch (DataAccessException e) {
+            LOGGER.info("Creating job repository tables");
+        }
+        ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
+        populator.addScript(new ClassPathResource(String.format(SCHEMA_SCRIPT, this.platform)));
+        DatabasePopulatorUtils.execute(populator, this.dataSource);
+    }
+
+    @Override
+    public JobRepository getJobRepository() {
+        return this.jobRepository;
+    }
+
+    @Override
+    public PlatformTransactionManager getTransactionManager() {
+        return this.transactionManager;
+    }
+
+    @Override
+    public JobLauncher getJobLauncher() {
+        return this.jobLauncher;
+    }
+
+    @Override
+    public JobExplorer getJobExplorer() {
+        return this.jobExplorer;
+    }
+
+}
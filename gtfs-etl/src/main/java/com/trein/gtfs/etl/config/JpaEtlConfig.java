@@ -1,15 +1,24 @@
 package com.trein.gtfs.etl.config;
 
+import java.util.Arrays;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
 import org.springframework.batch.core.Job;
-import org.springframework.batch.core.Step;
+import org.springframework.batch.core.configuration.annotation.BatchConfigurer;
 import org.springframework.batch.core.configuration.annotation.JobBuilderFactory;
 import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
+import org.springframework.batch.core.configuration.annotation.StepScope;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.orm.jpa.JpaTransactionManager;
 
-import com.trein.gtfs.etl.job.GtfsItem;
+import com.trein.gtfs.csv.source.GtfsSource;
+import com.trein.gtfs.csv.vo.GtfsStopTime;
 import com.trein.gtfs.etl.job.GtfsItemReader;
 import com.trein.gtfs.etl.job.GtfsJpaItemWriter;
 import com.trein.gtfs.jpa.JpaRepositoryConfig;
@@ -18,8 +27,7 @@ import com.trein.gtfs.jpa.JpaRepositoryConfig;
 @Import({ JpaRepositoryConfig.class, EtlConfig.class })
 public class JpaEtlConfig {
 
-    private static final String GTFS_BASE_DIR = "gtfs-data/br_poa/";
-    public static final String STEP_NAME = "jpa_unique_step";
+    public static final String STEP_PREFIX = "jpa_";
     public static final String JOB_NAME = "jpa_parser_job";
     private static final int CHUNK_SIZE = 1000;
 
@@ -29,24 +37,37 @@ public class JpaEtlConfig {
     @Autowired
     private StepBuilderFactory steps;
 
+    @Autowired
+    private TaskExecutor taskExecutor;
+
+    @Autowired
+    private GtfsSource source;
+
+    /**
+     * Job repository in the feed database. Its JPA transaction manager replaces the one of
+     * JpaRepositoryConfig as the <code>transactionManager</code> of the context, so that chunks
+     * and repository updates share it.
+     */
+    @Bean
+    public BatchConfigurer batchConfigurer(DataSource dataSource, EntityManagerFactory entityManagerFactory) {
+        return new JdbcBatchConfigurer(dataSource, new JpaTransactionManager(entityManagerFactory), "mysql");
+    }
+
     @Bean(name = JOB_NAME)
-    public Job jpaJob(GtfsItemReader reader, GtfsJpaItemWriter writer) {
-        return this.jobs.get(JOB_NAME).flow(jpaStep(reader, writer)).end().build();
+    public Job jpaJob(GtfsJpaItemWriter writer) {
+        GtfsJobBuilder builder = new GtfsJobBuilder(this.jobs, this.steps, this.taskExecutor, this.source, STEP_PREFIX);
+        return builder.chunkSize(CHUNK_SIZE).build(JOB_NAME, writer, jpaStopTimeReader());
     }
 
     @Bean
-    public Step jpaStep(GtfsItemReader reader, GtfsJpaItemWriter writer) {
-        return this.steps.get(STEP_NAME).<Object, GtfsItem> chunk(CHUNK_SIZE).reader(reader).writer(writer).build();
+    @StepScope
+    public GtfsItemReader jpaStopTimeReader() {
+        return new GtfsItemReader(this.source, Arrays.<Class<?>> asList(GtfsStopTime.class));
     }
     
     @Bean
     public GtfsJpaItemWriter jpaWriter() {
-        return new GtfsJpaItemWriter();
-    }
-
-    @Bean
-    public GtfsItemReader reader() {
-        return new GtfsItemReader(GTFS_BASE_DIR);
+        return new GtfsJpaItemWriter(true, true);
     }
     
 }
@@ -1,15 +1,26 @@
 package com.trein.gtfs.etl.config;
 
+import java.beans.PropertyVetoException;
+import java.io.File;
+import java.util.Arrays;
+
+import javax.sql.DataSource;
+
 import org.springframework.batch.core.Job;
-import org.springframework.batch.core.Step;
+import org.springframework.batch.core.configuration.annotation.BatchConfigurer;
 import org.springframework.batch.core.configuration.annotation.JobBuilderFactory;
 import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
+import org.springframework.batch.core.configuration.annotation.StepScope;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 
-import com.trein.gtfs.etl.job.GtfsItem;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import com.trein.gtfs.csv.source.GtfsSource;
+import com.trein.gtfs.csv.vo.GtfsStopTime;
 import com.trein.gtfs.etl.job.GtfsItemReader;
 import com.trein.gtfs.etl.job.GtfsMongoItemWriter;
 import com.trein.gtfs.mongo.MongoRepositoryConfig;
@@ -18,35 +29,63 @@ import com.trein.gtfs.mongo.MongoRepositoryConfig;
 @Import({ MongoRepositoryConfig.class, EtlConfig.class })
 public class MongoEtlConfig {
     
-    private static final String GTFS_BASE_DIR = "gtfs-data/br_poa/";
-    public static final String STEP_NAME = "mongo_unique_step";
+    public static final String STEP_PREFIX = "mongo_";
     public static final String JOB_NAME = "mongo_parser_job";
     private static final int CHUNK_SIZE = 1000;
+    private static final String REPOSITORY_PROPERTY = "gtfs.batch.repository";
+    private static final String DEFAULT_REPOSITORY_DIR = "gtfs-batch";
+    private static final String HSQLDB_DRIVER = "org.hsqldb.jdbc.JDBCDriver";
     
     @Autowired
     private JobBuilderFactory jobs;
     
     @Autowired
     private StepBuilderFactory steps;
+
+    @Autowired
+    private TaskExecutor taskExecutor;
+
+    @Autowired
+    private GtfsSource source;
     
-    @Bean(name = JOB_NAME)
-    public Job mongoJob(GtfsItemReader reader, GtfsMongoItemWriter writer) {
-        return this.jobs.get(JOB_NAME).flow(mongoStep(reader, writer)).end().build();
+    /**
+     * Embedded database holding the job repository, in the directory given by the
+     * <code>gtfs.batch.repository</code> system property. Writes are flushed right away so that a
+     * crash does not lose the last checkpoints.
+     */
+    @Bean(destroyMethod = "close")
+    public DataSource batchDataSource() throws PropertyVetoException {
+        File directory = new File(System.getProperty(REPOSITORY_PROPERTY, DEFAULT_REPOSITORY_DIR));
+        ComboPooledDataSource dataSource = new ComboPooledDataSource();
+        dataSource.setDriverClass(HSQLDB_DRIVER);
+        dataSource.setJdbcUrl(String.format("jdbc:hsqldb:file:%s;hsqldb.write_delay=false",
+                new File(directory, "batch").getAbsolutePath()));
+        dataSource.setUser("SA");
+        dataSource.setPassword("");
+        return dataSource;
     }
-    
+
     @Bean
-    public Step mongoStep(GtfsItemReader reader, GtfsMongoItemWriter writer) {
-        return this.steps.get(STEP_NAME).<Object, GtfsItem> chunk(CHUNK_SIZE).reader(reader).writer(writer).build();
+    public BatchConfigurer batchConfigurer() throws PropertyVetoException {
+        DataSource dataSource = batchDataSource();
+        return new JdbcBatchConfigurer(dataSource, new DataSourceTransactionManager(dataSource), "hsqldb");
+    }
+
+    @Bean(name = JOB_NAME)
+    public Job mongoJob(GtfsMongoItemWriter writer) {
+        GtfsJobBuilder builder = new GtfsJobBuilder(this.jobs, this.steps, this.taskExecutor, this.source, STEP_PREFIX);
+        return builder.chunkSize(CHUNK_SIZE).build(JOB_NAME, writer, mongoStopTimeReader());
     }
 
     @Bean
-    public GtfsMongoItemWriter mongoWriter() {
-        return new GtfsMongoItemWriter();
+    @StepScope
+    public GtfsItemReader mongoStopTimeReader() {
+        return new GtfsItemReader(this.source, Arrays.<Class<?>> asList(GtfsStopTime.class));
     }
     
     @Bean
-    public GtfsItemReader mongoReader() {
-        return new GtfsItemReader(GTFS_BASE_DIR);
+    public GtfsMongoItemWriter mongoWriter() {
+        return new GtfsMongoItemWriter(true, true, true);
     }
 
 }
@@ -0,0 +1,34 @@
+package com.trein.gtfs.etl.job;
+
+import org.springframework.batch.core.step.tasklet.Tasklet;
+
+/**
+ * Writer that also stores data derived from whole GTFS files, which can only be built once every
+ * row of those files has been loaded. Each kind of derived data is built by a tasklet run as a
+ * step of its own, after the steps loading its files completed. A tasklet that fails is run again
+ * from the start when the job is restarted, so it must replace whatever a previous attempt stored.
+ *
+ * @author trein
+ */
+public interface GtfsDerivedDataWriter {
+
+    /**
+     * @return tasklet reading <code>shapes.txt</code> and storing each shape as a single encoded
+     *         polyline, replacing the row by row load of the file, or null if shapes are stored
+     *         one point per row
+     */
+    Tasklet getShapeGeometryTasklet();
+
+    /**
+     * @return tasklet storing the stop times of each trip as a single document once
+     *         <code>stop_times.txt</code> is loaded, or null if they are not stored
+     */
+    Tasklet getTripScheduleTasklet();
+
+    /**
+     * @return tasklet compiling the calendars just loaded and replacing the compiled calendars of
+     *         the previous feed, or null if calendars are not compiled
+     */
+    Tasklet getServiceCalendarTasklet();
+
+}
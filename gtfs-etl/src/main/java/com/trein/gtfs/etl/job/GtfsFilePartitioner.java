@@ -0,0 +1,99 @@
+package com.trein.gtfs.etl.job;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+
+import com.googlecode.jcsv.CSVStrategy;
+import com.trein.gtfs.csv.annotation.GtfsFile;
+import com.trein.gtfs.csv.reader.CSVRecordBoundaries;
+import com.trein.gtfs.csv.source.GtfsSource;
+
+/**
+ * Splits a single GTFS file into byte ranges aligned to record boundaries, one per partition. Each
+ * partition's execution context holds the end of the header and its range, which
+ * {@link GtfsItemReader} uses to read only that part of the file.
+ * <p>
+ * Files that can not be opened at an offset without reading the bytes before it, e.g. compressed
+ * zip entries, are not split: every partition would inflate the file up to its range. They are
+ * read whole by a single partition with an empty execution context.
+ *
+ * @author trein
+ */
+public class GtfsFilePartitioner implements Partitioner {
+
+    public static final String HEADER_END_KEY = "gtfs_header_end";
+    public static final String RANGE_START_KEY = "gtfs_range_start";
+    public static final String RANGE_END_KEY = "gtfs_range_end";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GtfsFilePartitioner.class);
+    private static final String PARTITION_PREFIX = "partition";
+
+    private final GtfsSource source;
+    private final Class<?> entityClass;
+
+    public GtfsFilePartitioner(GtfsSource source, Class<?> entityClass) {
+        this.source = source;
+        this.entityClass = entityClass;
+    }
+
+    @Override
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        GtfsFile annotation = this.entityClass.getAnnotation(GtfsFile.class);
+        String filename = annotation.value();
+        Map<String, ExecutionContext> partitions = new LinkedHashMap<String, ExecutionContext>();
+
+        if (!this.source.contains(filename)) {
+            if (!annotation.optional()) {
+                throw new IllegalStateException("mandatory GTFS file not found");
+            }
+            LOGGER.warn("Optional GTFS file [{}] not found in [{}]", filename, this.source);
+            return partitions;
+        }
+
+        if (!isSplittable(filename)) {
+            LOGGER.info("File [{}] can not be read by ranges, loading it in a single partition", filename);
+            partitions.put(PARTITION_PREFIX + 0, new ExecutionContext());
+            return partitions;
+        }
+
+        long[] offsets = split(filename, gridSize);
+        for (int i = 0; i < (offsets.length - 1); i++) {
+            ExecutionContext context = new ExecutionContext();
+            context.putLong(HEADER_END_KEY, offsets[0]);
+            context.putLong(RANGE_START_KEY, offsets[i]);
+            context.putLong(RANGE_END_KEY, offsets[i + 1]);
+            partitions.put(PARTITION_PREFIX + i, context);
+        }
+        LOGGER.info("Split file [{}] into [{}] partitions", filename, String.valueOf(partitions.size()));
+        return partitions;
+    }
+
+    private boolean isSplittable(String filename) {
+        try {
+            return (this.source.size(filename) >= 0) && this.source.isSeekable(filename);
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("can not split file %s", filename), e);
+        }
+    }
+
+    private long[] split(String filename, int gridSize) {
+        try {
+            long size = this.source.size(filename);
+            InputStream input = this.source.open(filename);
+            try {
+                return CSVRecordBoundaries.split(input, size, gridSize, CSVStrategy.UK_DEFAULT);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("can not split file %s", filename), e);
+        }
+    }
+}
@@ -3,7 +3,7 @@ package com.trein.gtfs.etl.job;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.SequenceInputStream;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -19,11 +19,15 @@ import org.springframework.batch.item.file.ResourceAwareItemReaderItemStream;
 import org.springframework.batch.item.support.AbstractItemStreamItemReader;
 import org.springframework.util.ClassUtils;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
 import com.googlecode.jcsv.annotations.internal.ValueProcessorProvider;
-import com.googlecode.jcsv.reader.CSVReader;
 import com.trein.gtfs.csv.annotation.GtfsFile;
-import com.trein.gtfs.csv.reader.CSVHeaderAwareEntryParser;
+import com.trein.gtfs.csv.reader.CSVCompiledEntryParser;
+import com.trein.gtfs.csv.reader.CSVHeaderAwareReader;
 import com.trein.gtfs.csv.reader.CSVHeaderAwareReaderBuilder;
+import com.trein.gtfs.csv.source.GtfsClassPathSource;
+import com.trein.gtfs.csv.source.GtfsSource;
 import com.trein.gtfs.csv.vo.GtfsAgency;
 import com.trein.gtfs.csv.vo.GtfsCalendar;
 import com.trein.gtfs.csv.vo.GtfsCalendarDate;
@@ -38,6 +42,13 @@ import com.trein.gtfs.csv.vo.GtfsStopTime;
 import com.trein.gtfs.csv.vo.GtfsTransfer;
 import com.trein.gtfs.csv.vo.GtfsTrip;
 
+/**
+ * Reads the entities of GTFS files, one file after the other. The position within the current
+ * file is saved as a byte offset and a row count at every commit, so a restarted step skips
+ * straight to the first uncommitted row instead of parsing the file again.
+ *
+ * @author trein
+ */
 public class GtfsItemReader extends AbstractItemStreamItemReader<GtfsItem> {
     
     private static final Logger LOGGER = LoggerFactory.getLogger(GtfsItemReader.class);
@@ -47,16 +58,44 @@ public class GtfsItemReader extends AbstractItemStreamItemReader<GtfsItem> {
             GtfsFareAttribute.class, GtfsFareRule.class, GtfsFrequency.class, GtfsFeedInfo.class);
 
     private static final String ENTITY_KEY = "gtfs_class";
+    private static final String HEADER_END_KEY = "gtfs_header_end";
+    private static final String OFFSET_KEY = "gtfs_offset";
+    private static final String ROW_COUNT_KEY = "gtfs_row_count";
+    private static final long END_OF_FILE = -1;
     
+    private final List<Class<?>> entities;
     private Iterator<Class<?>> entityIterator;
     private Class<Object> currentEntityClass;
-    private CSVReader<?> reader;
+    private CSVHeaderAwareReader<?> reader;
     private boolean saveState = true;
-    private final String baseDir;
+    private final GtfsSource source;
     private int currentCount;
+    private long headerEnd;
+    private long readerStart;
     
     public GtfsItemReader(String baseDir) {
-        this.baseDir = baseDir;
+        this(new GtfsClassPathSource(baseDir), ENTITIES);
+    }
+
+    public GtfsItemReader(String baseDir, List<Class<?>> entities) {
+        this(new GtfsClassPathSource(baseDir), entities);
+    }
+
+    public GtfsItemReader(GtfsSource source) {
+        this(source, ENTITIES);
+    }
+
+    /**
+     * Creates a reader for a subset of the GTFS files, read in the given order. When opened with
+     * an execution context created by {@link GtfsFilePartitioner}, only the byte range of the
+     * partition is read from the first file.
+     *
+     * @param source feed to read
+     * @param entities GTFS file classes to read
+     */
+    public GtfsItemReader(GtfsSource source, List<Class<?>> entities) {
+        this.source = source;
+        this.entities = entities;
         setExecutionContextName(ClassUtils.getShortName(MultiResourceItemReader.class));
     }
     
@@ -66,22 +105,17 @@ public class GtfsItemReader extends AbstractItemStreamItemReader<GtfsItem> {
     @SuppressWarnings("unchecked")
     @Override
     public GtfsItem read() throws Exception, UnexpectedInputException, ParseException {
-        Object parsedEntity = this.reader.readNext();
-        boolean hasReachedEndOfFile = parsedEntity == null;
+        Object parsedEntity = (this.reader != null) ? this.reader.readNext() : null;
         
         // If there is no resource, then this is the first item, set the current
         // resource to 0 and open the first delegate.
-        if (hasReachedEndOfFile) {
-            this.reader.close();
-            
-            while (this.entityIterator.hasNext()) {
-                this.currentCount = 0;
-                this.currentEntityClass = (Class<Object>) this.entityIterator.next();
-                if (isValidEntity()) {
-                    this.reader = createNextEntityReader();
-                    parsedEntity = this.reader.readNext();
-                    break;
-                }
+        while ((parsedEntity == null) && this.entityIterator.hasNext()) {
+            closeReader();
+            this.currentCount = 0;
+            this.currentEntityClass = (Class<Object>) this.entityIterator.next();
+            if (isValidEntity()) {
+                this.reader = createNextEntityReader();
+                parsedEntity = this.reader.readNext();
             }
         }
         
@@ -98,34 +132,66 @@ public class GtfsItemReader extends AbstractItemStreamItemReader<GtfsItem> {
     
     private boolean isValidEntity() {
         GtfsFile annotation = this.currentEntityClass.getAnnotation(GtfsFile.class);
-        String path = getEntityFilePath();
-        InputStream stream = getClass().getClassLoader().getResourceAsStream(path);
+        boolean exists = this.source.contains(annotation.value());
         
-        if (stream == null) {
+        if (!exists) {
             if (!annotation.optional()) {
                 throw new IllegalStateException("mandatory GTFS file not found");
             } else {
-                LOGGER.warn("Optional GTFS file [{}] not found", path);
+                LOGGER.warn("Optional GTFS file [{}] not found in [{}]", annotation.value(), this.source);
             }
         }
-        return stream != null;
+        return exists;
     }
     
-    private CSVReader<?> createNextEntityReader() {
+    private CSVHeaderAwareReader<?> createNextEntityReader() throws ItemStreamException {
         LOGGER.info("Loading file [{}]", this.currentEntityClass);
-        String path = getEntityFilePath();
-        InputStream stream = getClass().getClassLoader().getResourceAsStream(path);
-        Reader csv = new InputStreamReader(stream);
+        try {
+            CSVHeaderAwareReader<?> entityReader = createEntityReader(this.source.open(getEntityFileName()));
+            this.headerEnd = entityReader.getBytePosition();
+            this.readerStart = this.headerEnd;
+            return entityReader;
+        } catch (IOException e) {
+            throw new ItemStreamException(String.format("can not open file %s", getEntityFileName()), e);
+        }
+    }
+
+    /**
+     * Reads the header of the file followed by the bytes from <code>start</code> to
+     * <code>end</code>, or to the end of the file if <code>end</code> is {@link #END_OF_FILE}.
+     * Skipped bytes are not parsed.
+     */
+    private CSVHeaderAwareReader<?> createRangeReader(long headerEnd, long start, long end) throws IOException {
+        LOGGER.info("Loading bytes [{}-{}] of file [{}]", String.valueOf(start), (end == END_OF_FILE) ? "EOF"
+                : String.valueOf(end), this.currentEntityClass);
+        String filename = getEntityFileName();
+        InputStream header = ByteStreams.limit(this.source.open(filename), headerEnd);
+        InputStream range = this.source.open(filename, start);
+        if (end != END_OF_FILE) {
+            range = ByteStreams.limit(range, end - start);
+        }
+        this.headerEnd = headerEnd;
+        this.readerStart = start;
+        return createEntityReader(new SequenceInputStream(header, range));
+    }
+
+    private CSVHeaderAwareReader<?> createEntityReader(InputStream csv) {
         ValueProcessorProvider processor = new ValueProcessorProvider();
-        CSVHeaderAwareEntryParser<Object> entryParser = new CSVHeaderAwareEntryParser<Object>(this.currentEntityClass, processor);
-        return new CSVHeaderAwareReaderBuilder<Object>(csv).entryParser(entryParser).build();
+        CSVCompiledEntryParser<Object> entryParser = new CSVCompiledEntryParser<Object>(this.currentEntityClass, processor);
+        return (CSVHeaderAwareReader<?>) new CSVHeaderAwareReaderBuilder<Object>(new InputStreamReader(csv,
+                Charsets.UTF_8)).entryParser(entryParser).trackBytePosition(true).build();
     }
     
-    private String getEntityFilePath() {
+    private String getEntityFileName() {
         GtfsFile annotation = this.currentEntityClass.getAnnotation(GtfsFile.class);
-        String filename = annotation.value();
-        String path = this.baseDir + filename;
-        return path;
+        return annotation.value();
+    }
+
+    /**
+     * @return offset in the current file of the first byte not read yet
+     */
+    private long getFileOffset() {
+        return this.readerStart + (this.reader.getBytePosition() - this.headerEnd);
     }
     
     /**
@@ -135,23 +201,33 @@ public class GtfsItemReader extends AbstractItemStreamItemReader<GtfsItem> {
     @Override
     public void close() throws ItemStreamException {
         super.close();
+        closeReader();
+    }
+
+    private void closeReader() {
+        if (this.reader == null) {
+            return;
+        }
         try {
             this.reader.close();
+            this.reader = null;
         } catch (IOException e) {
             throw new ItemStreamException(e.getMessage());
         }
     }
     
     /**
-     * Figure out which resource to start with in case of restart, open the delegate and restore
-     * delegate's position in the resource.
+     * Figure out which resource to start with in case of restart, open the delegate and seek to
+     * the saved offset in the resource.
      */
     @SuppressWarnings("unchecked")
     @Override
     public void open(ExecutionContext executionContext) throws ItemStreamException {
         super.open(executionContext);
         this.currentCount = 0;
-        this.entityIterator = ENTITIES.iterator();
+        this.currentEntityClass = null;
+        this.entityIterator = this.entities.iterator();
+        boolean restart = false;
         
         if (executionContext.containsKey(getExecutionContextKey(ENTITY_KEY))) {
             String entityClassName = executionContext.getString(getExecutionContextKey(ENTITY_KEY));
@@ -159,27 +235,65 @@ public class GtfsItemReader extends AbstractItemStreamItemReader<GtfsItem> {
                 Class<?> entityClass = this.entityIterator.next();
                 if (entityClassName.equals(entityClass.getName())) {
                     this.currentEntityClass = (Class<Object>) entityClass;
+                    restart = executionContext.containsKey(getExecutionContextKey(OFFSET_KEY));
                     break;
                 }
             }
         }
         
         if (this.currentEntityClass == null) {
-            this.entityIterator = ENTITIES.iterator();
+            this.entityIterator = this.entities.iterator();
             this.currentEntityClass = (Class<Object>) this.entityIterator.next();
         }
         
-        this.reader = createNextEntityReader();
+        if (!isValidEntity()) {
+            return;
+        }
+        
+        boolean partition = executionContext.containsKey(GtfsFilePartitioner.RANGE_START_KEY);
+        if (!restart && !partition) {
+            this.reader = createNextEntityReader();
+            return;
+        }
+        
+        long headerEnd;
+        long start;
+        long end = partition ? executionContext.getLong(GtfsFilePartitioner.RANGE_END_KEY) : END_OF_FILE;
+        if (restart) {
+            headerEnd = executionContext.getLong(getExecutionContextKey(HEADER_END_KEY));
+            start = executionContext.getLong(getExecutionContextKey(OFFSET_KEY));
+            this.currentCount = executionContext.getInt(getExecutionContextKey(ROW_COUNT_KEY));
+            LOGGER.info("Resuming file [{}] after row [{}]", this.currentEntityClass, String.valueOf(this.currentCount));
+        } else {
+            headerEnd = executionContext.getLong(GtfsFilePartitioner.HEADER_END_KEY);
+            start = executionContext.getLong(GtfsFilePartitioner.RANGE_START_KEY);
+        }
+        
+        try {
+            this.reader = createRangeReader(headerEnd, start, end);
+        } catch (IOException e) {
+            throw new ItemStreamException(String.format("can not open file %s", getEntityFileName()), e);
+        }
     }
     
     /**
-     * Store the current resource index and position in the resource.
+     * Store the current resource and the offset and row count within it.
      */
     @Override
     public void update(ExecutionContext executionContext) throws ItemStreamException {
         super.update(executionContext);
-        if (this.saveState) {
-            executionContext.putString(getExecutionContextKey(ENTITY_KEY), this.currentEntityClass.getName());
+        if (!this.saveState) {
+            return;
+        }
+        executionContext.putString(getExecutionContextKey(ENTITY_KEY), this.currentEntityClass.getName());
+        if (this.reader != null) {
+            executionContext.putLong(getExecutionContextKey(HEADER_END_KEY), this.headerEnd);
+            executionContext.putLong(getExecutionContextKey(OFFSET_KEY), getFileOffset());
+            executionContext.putInt(getExecutionContextKey(ROW_COUNT_KEY), this.currentCount);
+        } else {
+            executionContext.remove(getExecutionContextKey(HEADER_END_KEY));
+            executionContext.remove(getExecutionContextKey(OFFSET_KEY));
+            executionContext.remove(getExecutionContextKey(ROW_COUNT_KEY));
         }
     }
     
@@ -3,14 +3,32 @@ package com.trein.gtfs.etl.job;
 import java.sql.Time;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.step.tasklet.Tasklet;
 import org.springframework.batch.item.ItemWriter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import com.trein.gtfs.csv.source.GtfsSource;
 import com.trein.gtfs.csv.vo.GtfsAgency;
 import com.trein.gtfs.csv.vo.GtfsCalendar;
 import com.trein.gtfs.csv.vo.GtfsCalendarDate;
@@ -42,6 +60,7 @@ import com.trein.gtfs.jpa.entity.PaymentType;
 import com.trein.gtfs.jpa.entity.Route;
 import com.trein.gtfs.jpa.entity.RouteType;
 import com.trein.gtfs.jpa.entity.Shape;
+import com.trein.gtfs.jpa.entity.ShapeGeometry;
 import com.trein.gtfs.jpa.entity.Stop;
 import com.trein.gtfs.jpa.entity.StopLocationType;
 import com.trein.gtfs.jpa.entity.StopTime;
@@ -57,17 +76,44 @@ import com.trein.gtfs.jpa.repository.FareRuleRepository;
 import com.trein.gtfs.jpa.repository.FeedInfoRepository;
 import com.trein.gtfs.jpa.repository.FrequencyRepository;
 import com.trein.gtfs.jpa.repository.RouteRepository;
+import com.trein.gtfs.jpa.repository.ShapeGeometryRepository;
 import com.trein.gtfs.jpa.repository.ShapeRepository;
 import com.trein.gtfs.jpa.repository.StopRepository;
 import com.trein.gtfs.jpa.repository.StopTimeRepository;
 import com.trein.gtfs.jpa.repository.TransferRepository;
 import com.trein.gtfs.jpa.repository.TripRepository;
 
-public class GtfsJpaItemWriter implements ItemWriter<GtfsItem> {
+/**
+ * Writes GTFS items into the relational database. By default every item is saved on its own and
+ * related entities are looked up through their repositories, one query per reference.
+ * <p>
+ * In batched mode agencies, routes, trips and stops are kept in memory by GTFS id as they are
+ * written, so references are resolved without querying the database, and each chunk is saved in a
+ * single transaction with one <code>save(Iterable)</code> call per repository. Only the generated
+ * ids of shape points are kept, trips refer to them through entity references. The persistence
+ * context is flushed and cleared after every chunk so it does not grow with the feed.
+ * <p>
+ * A single instance is shared by the parallel steps of the job, so caches are concurrent and the
+ * entities of the chunk being written are kept per thread.
+ * <p>
+ * With packed shapes, points are not stored one row each. <code>shapes.txt</code> is read by a step
+ * of its own that saves one {@link ShapeGeometry} holding an encoded polyline per
+ * <code>shape_id</code>, and trips only keep the shape id instead of a join table.
+ *
+ * @author trein
+ */
+public class GtfsJpaItemWriter implements ItemWriter<GtfsItem>, GtfsDerivedDataWriter {
     
-    private static final SimpleDateFormat CALENDAR_FORMAT = new SimpleDateFormat("yyyyMMdd");
+    private static final ThreadLocal<SimpleDateFormat> CALENDAR_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyyMMdd");
+        }
+    };
     private static final Logger LOGGER = LoggerFactory.getLogger(GtfsJpaItemWriter.class);
     private static final boolean DRY_RUN = false;
+    private static final int GEOMETRY_BATCH_SIZE = 1000;
 
     @Autowired
     private AgencyRepository agencyRepository;
@@ -80,6 +126,8 @@ public class GtfsJpaItemWriter implements ItemWriter<GtfsItem> {
     @Autowired
     private ShapeRepository shapeRepository;
     @Autowired
+    private ShapeGeometryRepository shapeGeometryRepository;
+    @Autowired
     private TripRepository tripRepository;
     @Autowired
     private StopRepository stopRepository;
@@ -95,20 +143,110 @@ public class GtfsJpaItemWriter implements ItemWriter<GtfsItem> {
     private FrequencyRepository frequencyRepository;
     @Autowired
     private FeedInfoRepository feedInfoRepository;
-    
-    private int currentCount;
+
+    @Autowired
+    private GtfsSource source;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final boolean batched;
+    private final boolean packedShapes;
+    private final ThreadLocal<Map<JpaRepository<?, Long>, List<Object>>> pendingEntities =
+            new ThreadLocal<Map<JpaRepository<?, Long>, List<Object>>>() {
+
+        @Override
+        protected Map<JpaRepository<?, Long>, List<Object>> initialValue() {
+            return new LinkedHashMap<JpaRepository<?, Long>, List<Object>>();
+        }
+    };
+    private final Map<String, Agency> agencies = new ConcurrentHashMap<String, Agency>();
+    private final Map<String, Route> routes = new ConcurrentHashMap<String, Route>();
+    private final Map<String, Trip> trips = new ConcurrentHashMap<String, Trip>();
+    private final Map<String, Stop> stops = new ConcurrentHashMap<String, Stop>();
+    private final ConcurrentMap<String, List<Long>> shapeIds = new ConcurrentHashMap<String, List<Long>>();
+    private TransactionTemplate chunkTransaction;
+
+    private final AtomicInteger currentCount = new AtomicInteger();
 
     public GtfsJpaItemWriter() {
+        this(false);
+    }
+
+    /**
+     * @param batched whether entities are cached by GTFS id and saved once per chunk
+     */
+    public GtfsJpaItemWriter(boolean batched) {
+        this(batched, false);
+    }
+
+    /**
+     * @param batched whether entities are cached by GTFS id and saved once per chunk
+     * @param packedShapes whether each shape is stored as a single encoded polyline
+     */
+    public GtfsJpaItemWriter(boolean batched, boolean packedShapes) {
+        this.batched = batched;
+        this.packedShapes = packedShapes;
+    }
+
+    @Override
+    public Tasklet getShapeGeometryTasklet() {
+        if (!this.packedShapes || DRY_RUN) {
+            return null;
+        }
+        return new ShapeGeometryTasklet(this.source) {
+
+            @Override
+            protected void save(Collection<ShapePoints> shapes) {
+                saveShapeGeometries(shapes);
+            }
+        };
+    }
+
+    @Override
+    public Tasklet getTripScheduleTasklet() {
+        return null;
+    }
+
+    @Override
+    public Tasklet getServiceCalendarTasklet() {
+        return null;
+    }
+
+    /**
+     * Replaces every stored geometry within the transaction of the tasklet, so a failed attempt
+     * leaves the previous geometries in place. The persistence context is cleared every chunk.
+     */
+    private void saveShapeGeometries(Collection<ShapePoints> shapes) {
+        this.shapeGeometryRepository.deleteAllInBatch();
+        List<ShapeGeometry> geometries = new ArrayList<ShapeGeometry>(GEOMETRY_BATCH_SIZE);
+        for (ShapePoints points : shapes) {
+            geometries.add(new ShapeGeometry(points.getShapeId(), points.encode(), points.size(), points.distances()));
+            if (geometries.size() == GEOMETRY_BATCH_SIZE) {
+                saveShapeGeometries(geometries);
+            }
+        }
+        saveShapeGeometries(geometries);
+    }
+
+    private void saveShapeGeometries(List<ShapeGeometry> geometries) {
+        this.shapeGeometryRepository.save(geometries);
+        this.entityManager.flush();
+        this.entityManager.clear();
+        geometries.clear();
     }
     
     @Override
     public void write(List<? extends GtfsItem> items) {
+        this.pendingEntities.get().clear();
+
         for (GtfsItem item : items) {
             
-            this.currentCount++;
+            int count = this.currentCount.incrementAndGet();
             LOGGER.debug("Received item [{}]", item);
-            if ((this.currentCount % 10000) == 0) {
-                LOGGER.info("Writing entry [{}] into database", String.valueOf(this.currentCount));
+            if ((count % 10000) == 0) {
+                LOGGER.info("Writing entry [{}] into database", String.valueOf(count));
             }
 
             if (item.getEntityClass().equals(GtfsAgency.class)) {
@@ -139,22 +277,181 @@ public class GtfsJpaItemWriter implements ItemWriter<GtfsItem> {
                 persistFeedInfo(item);
             }
         }
+
+        if (this.batched) {
+            savePendingEntities();
+        }
+    }
+
+    /**
+     * Saves the entities collected for the current chunk. Repositories were registered in the
+     * order their files are read, so referenced entities are always inserted before the entities
+     * pointing to them.
+     */
+    private void savePendingEntities() {
+        if (this.pendingEntities.get().isEmpty()) {
+            return;
+        }
+        try {
+            getChunkTransaction().execute(new TransactionCallbackWithoutResult() {
+
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    for (Map.Entry<JpaRepository<?, Long>, List<Object>> entry : GtfsJpaItemWriter.this.pendingEntities.get()
+                            .entrySet()) {
+                        saveAll(entry.getKey(), entry.getValue());
+                    }
+                    GtfsJpaItemWriter.this.entityManager.flush();
+                    GtfsJpaItemWriter.this.entityManager.clear();
+                }
+            });
+            rememberShapes(this.pendingEntities.get().get(this.shapeRepository));
+        } finally {
+            this.pendingEntities.get().clear();
+        }
+    }
+
+    private synchronized TransactionTemplate getChunkTransaction() {
+        if (this.chunkTransaction == null) {
+            this.chunkTransaction = new TransactionTemplate(this.transactionManager);
+        }
+        return this.chunkTransaction;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void saveAll(JpaRepository<T, Long> repository, List<Object> entities) {
+        repository.save((List<T>) (List<?>) entities);
+    }
+
+    private <T> void store(JpaRepository<T, Long> repository, T entity) {
+        if (DRY_RUN) {
+            return;
+        }
+        if (!this.batched) {
+            repository.save(entity);
+            return;
+        }
+
+        Map<JpaRepository<?, Long>, List<Object>> pending = this.pendingEntities.get();
+        List<Object> entities = pending.get(repository);
+        if (entities == null) {
+            entities = new ArrayList<Object>();
+            pending.put(repository, entities);
+        }
+        entities.add(entity);
+    }
+
+    private <T> void remember(Map<String, T> cache, String id, T entity) {
+        if (this.batched && (id != null) && (entity != null)) {
+            cache.put(id, entity);
+        }
+    }
+
+    /**
+     * Keeps the ids of shape points once a chunk has been saved, since ids are only generated when
+     * entities are persisted.
+     */
+    private void rememberShapes(List<Object> entities) {
+        if (entities == null) {
+            return;
+        }
+        for (Object entity : entities) {
+            Shape shape = (Shape) entity;
+            if (shape.getShapeId() != null) {
+                rememberShape(shape.getShapeId(), shape.getId());
+            }
+        }
+    }
+
+    private void rememberShape(String shapeId, long id) {
+        List<Long> points = this.shapeIds.get(shapeId);
+        if (points == null) {
+            List<Long> created = Collections.synchronizedList(new ArrayList<Long>());
+            points = this.shapeIds.putIfAbsent(shapeId, created);
+            if (points == null) {
+                points = created;
+            }
+        }
+        points.add(Long.valueOf(id));
+    }
+
+    private static <T> T cached(Map<String, T> cache, String id) {
+        return (id != null) ? cache.get(id) : null;
+    }
+
+    private Agency findAgency(String agencyId) {
+        Agency agency = cached(this.agencies, agencyId);
+        if (agency == null) {
+            agency = this.agencyRepository.findByAgencyId(agencyId);
+            remember(this.agencies, agencyId, agency);
+        }
+        return agency;
+    }
+
+    private Route findRoute(String routeId) {
+        Route route = cached(this.routes, routeId);
+        if (route == null) {
+            route = this.routeRepository.findByRouteId(routeId);
+            remember(this.routes, routeId, route);
+        }
+        return route;
+    }
+
+    private Trip findTrip(String tripId) {
+        Trip trip = cached(this.trips, tripId);
+        if (trip == null) {
+            trip = this.tripRepository.findByTripId(tripId);
+            remember(this.trips, tripId, trip);
+        }
+        return trip;
+    }
+
+    private Stop findStop(String stopId) {
+        Stop stop = cached(this.stops, stopId);
+        if (stop == null) {
+            stop = this.stopRepository.findByStopId(stopId);
+            remember(this.stops, stopId, stop);
+        }
+        return stop;
+    }
+
+    private List<Shape> findShapes(String shapeId) {
+        if (this.packedShapes) {
+            return null;
+        }
+        List<Long> ids = cached(this.shapeIds, shapeId);
+        if (ids == null) {
+            List<Shape> points = this.shapeRepository.findByShapeId(shapeId);
+            if (this.batched && (shapeId != null)) {
+                List<Long> found = new ArrayList<Long>(points.size());
+                for (Shape point : points) {
+                    found.add(Long.valueOf(point.getId()));
+                }
+                this.shapeIds.putIfAbsent(shapeId, Collections.synchronizedList(found));
+            }
+            return points;
+        }
+        List<Shape> points = new ArrayList<Shape>(ids.size());
+        synchronized (ids) {
+            for (Long id : ids) {
+                points.add(this.entityManager.getReference(Shape.class, id));
+            }
+        }
+        return points;
     }
     
     private void persistFeedInfo(GtfsItem item) {
         try {
             GtfsFeedInfo info = item.getEntity();
-            Date startDate = CALENDAR_FORMAT.parse(info.getStartDate());
-            Date endDate = CALENDAR_FORMAT.parse(info.getEndDate());
+            Date startDate = CALENDAR_FORMAT.get().parse(info.getStartDate());
+            Date endDate = CALENDAR_FORMAT.get().parse(info.getEndDate());
             String publisherName = info.getPublisherName();
             String url = info.getPusblisherUrl();
             String language = info.getLanguage();
             String version = info.getVersion();
             FeedInfo entity = new FeedInfo(publisherName, url, language, startDate, endDate, version);
             
-            if (!DRY_RUN) {
-                this.feedInfoRepository.save(entity);
-            }
+            store(this.feedInfoRepository, entity);
         } catch (ParseException e) {
             throw new IllegalStateException("Error storing feed info date", e);
         }
@@ -162,27 +459,23 @@ public class GtfsJpaItemWriter implements ItemWriter<GtfsItem> {
     
     private void persistFrequency(GtfsItem item) {
         GtfsFrequency frequency = item.getEntity();
-        Trip trip = this.tripRepository.findByTripId(frequency.getTripId());
+        Trip trip = findTrip(frequency.getTripId());
         Time start = Time.valueOf(frequency.getStartTime());
         Time end = Time.valueOf(frequency.getEndTime());
         long headway = (frequency.getHeadwaySecs() != null) ? frequency.getHeadwaySecs().longValue() : 0;
         ExactTimeType exactTime = ExactTimeType.fromCode(frequency.getExactTime());
         Frequency entity = new Frequency(trip, start, end, headway, exactTime);
 
-        if (!DRY_RUN) {
-            this.frequencyRepository.save(entity);
-        }
+        store(this.frequencyRepository, entity);
     }
 
     private void persistFareRule(GtfsItem item) {
         GtfsFareRule rule = item.getEntity();
-        Route route = this.routeRepository.findByRouteId(rule.getRouteId());
+        Route route = findRoute(rule.getRouteId());
         // TODO: save Fare
         FareRule entity = new FareRule(null, route, rule.getOriginZoneId(), rule.getDestinationZoneId(), rule.getContainsId());
 
-        if (!DRY_RUN) {
-            this.fareRuleRepository.save(entity);
-        }
+        store(this.fareRuleRepository, entity);
     }
     
     private void persistFareAttribute(GtfsItem item) {
@@ -195,28 +488,24 @@ public class GtfsJpaItemWriter implements ItemWriter<GtfsItem> {
         // TODO: save Fare
         FareAttribute entity = new FareAttribute(null, price, currencyType, paymentType, transferType, duration);
 
-        if (!DRY_RUN) {
-            this.fareAttributeRepository.save(entity);
-        }
+        store(this.fareAttributeRepository, entity);
     }
     
     private void persistTransfer(GtfsItem item) {
         GtfsTransfer transfer = item.getEntity();
-        Stop fromStop = this.stopRepository.findByStopId(transfer.getFromStopId());
-        Stop toStop = this.stopRepository.findByStopId(transfer.getToStopId());
+        Stop fromStop = findStop(transfer.getFromStopId());
+        Stop toStop = findStop(transfer.getToStopId());
         TransferType transferType = TransferType.fromCode(transfer.getTransferType());
         long transferTime = (transfer.getMinTransferTimeSecs() != null) ? transfer.getMinTransferTimeSecs().longValue() : 0;
         Transfer entity = new Transfer(fromStop, toStop, transferType, transferTime);
 
-        if (!DRY_RUN) {
-            this.transferRepository.save(entity);
-        }
+        store(this.transferRepository, entity);
     }
     
     private void persistStopTime(GtfsItem item) {
         GtfsStopTime stopTime = item.getEntity();
-        Stop innerStop = this.stopRepository.findByStopId(stopTime.getStopId());
-        Trip trip = this.tripRepository.findByTripId(stopTime.getTripId());
+        Stop innerStop = findStop(stopTime.getStopId());
+        Trip trip = findTrip(stopTime.getTripId());
         Time arrival = Time.valueOf((stopTime.getArrivalTime() == null) ? "00:00:00" : stopTime.getArrivalTime());
         Time departure = Time.valueOf((stopTime.getDepartureTime() == null) ? "00:00:00" : stopTime.getDepartureTime());
         AvailabilityType pickupType = AvailabilityType.fromCode(stopTime.getPickupType());
@@ -226,9 +515,7 @@ public class GtfsJpaItemWriter implements ItemWriter<GtfsItem> {
         String headsign = stopTime.getStopHeadsign();
         StopTime entity = new StopTime(trip, arrival, departure, innerStop, sequence, headsign, pickupType, dropoffType, distance);
         
-        if (!DRY_RUN) {
-            this.stopTimeRepository.save(entity);
-        }
+        store(this.stopTimeRepository, entity);
     }
     
     private void persistStop(GtfsItem item) {
@@ -246,26 +533,25 @@ public class GtfsJpaItemWriter implements ItemWriter<GtfsItem> {
         String zoneId = stop.getZoneId();
         Stop entity = new Stop(id, code, name, desc, location, zoneId, url, type, parentStop, timezone, wheelchairType);
         
-        if (!DRY_RUN) {
-            this.stopRepository.save(entity);
-        }
+        store(this.stopRepository, entity);
+        remember(this.stops, id, entity);
     }
 
     private void persistTrip(GtfsItem item) {
         GtfsTrip trip = item.getEntity();
-        Route route = this.routeRepository.findByRouteId(trip.getRouteId());
-        List<Shape> shapes = this.shapeRepository.findByShapeId(trip.getShapeId());
+        Route route = findRoute(trip.getRouteId());
+        List<Shape> shapes = findShapes(trip.getShapeId());
         DirectionType direction = DirectionType.fromCode(trip.getDirectionType());
         WheelchairType wheelchairType = WheelchairType.fromCode(trip.getWheelchairType());
         int blockId = (trip.getBlockId() != null) ? trip.getBlockId().intValue() : 0;
         String serviceId = trip.getServiceId();
         String headsign = trip.getHeadsign();
         String shortName = trip.getShortName();
-        Trip entity = new Trip(trip.getId(), route, serviceId, headsign, shortName, direction, blockId, shapes, wheelchairType);
+        Trip entity = new Trip(trip.getId(), route, serviceId, headsign, shortName, direction, blockId, trip.getShapeId(), shapes,
+                wheelchairType);
 
-        if (!DRY_RUN) {
-            this.tripRepository.save(entity);
-        }
+        store(this.tripRepository, entity);
+        remember(this.trips, trip.getId(), entity);
     }
     
     private void persistShape(GtfsItem item) {
@@ -274,14 +560,12 @@ public class GtfsJpaItemWriter implements ItemWriter<GtfsItem> {
         double distanceTraveled = (shape.getDistanceTraveled() != null) ? shape.getDistanceTraveled().doubleValue() : 0;
         Shape entity = new Shape(shape.getId(), location, shape.getSequence().longValue(), distanceTraveled);
 
-        if (!DRY_RUN) {
-            this.shapeRepository.save(entity);
-        }
+        store(this.shapeRepository, entity);
     }
     
     private void persistRoute(GtfsItem item) {
         GtfsRoute route = item.getEntity();
-        Agency agency = this.agencyRepository.findByAgencyId(route.getAgencyId());
+        Agency agency = findAgency(route.getAgencyId());
         RouteType type = RouteType.fromCode(route.getRouteType());
         String routeId = route.getId();
         String shortName = route.getShortName();
@@ -292,16 +576,15 @@ public class GtfsJpaItemWriter implements ItemWriter<GtfsItem> {
         String hexTextColor = route.getHexTextColor();
         Route entity = new Route(routeId, agency, shortName, longName, desc, type, url, hexPathColor, hexTextColor);
 
-        if (!DRY_RUN) {
-            this.routeRepository.save(entity);
-        }
+        store(this.routeRepository, entity);
+        remember(this.routes, routeId, entity);
     }
     
     private void persistCalendar(GtfsItem item) {
         try {
             GtfsCalendar calendar = item.getEntity();
-            Date startDate = CALENDAR_FORMAT.parse(calendar.getStartDate());
-            Date endDate = CALENDAR_FORMAT.parse(calendar.getEndDate());
+            Date startDate = CALENDAR_FORMAT.get().parse(calendar.getStartDate());
+            Date endDate = CALENDAR_FORMAT.get().parse(calendar.getEndDate());
             boolean monday = calendar.getMonday().intValue() == 1;
             boolean tuesday = calendar.getTuesday().intValue() == 1;
             boolean wednesday = calendar.getWednesday().intValue() == 1;
@@ -313,9 +596,7 @@ public class GtfsJpaItemWriter implements ItemWriter<GtfsItem> {
             Calendar entity = new Calendar(serviceId, monday, tuesday, wednesday, thursday, friday, saturday, sunday, startDate,
                     endDate);
             
-            if (!DRY_RUN) {
-                this.calendarRepository.save(entity);
-            }
+            store(this.calendarRepository, entity);
         } catch (ParseException e) {
             throw new IllegalStateException("Error storing calendar date", e);
         }
@@ -325,13 +606,11 @@ public class GtfsJpaItemWriter implements ItemWriter<GtfsItem> {
         try {
             GtfsCalendarDate calendarDate = item.getEntity();
             ExceptionType exception = ExceptionType.fromCode(calendarDate.getExceptionType());
-            Date date = CALENDAR_FORMAT.parse(calendarDate.getDate());
+            Date date = CALENDAR_FORMAT.get().parse(calendarDate.getDate());
             String serviceId = calendarDate.getServiceId();
             CalendarDate entity = new CalendarDate(serviceId, date, exception);
 
-            if (!DRY_RUN) {
-                this.calendarDateRepository.save(entity);
-            }
+            store(this.calendarDateRepository, entity);
         } catch (ParseException e) {
             throw new IllegalStateException("Error storing calendar date", e);
         }
@@ -348,8 +627,7 @@ public class GtfsJpaItemWriter implements ItemWriter<GtfsItem> {
         String fareUrl = agency.getFareUrl();
         Agency entity = new Agency(id, name, url, timezone, lang, phone, fareUrl);
 
-        if (!DRY_RUN) {
-            this.agencyRepository.save(entity);
-        }
+        store(this.agencyRepository, entity);
+        remember(this.agencies, id, entity);
     }
 }
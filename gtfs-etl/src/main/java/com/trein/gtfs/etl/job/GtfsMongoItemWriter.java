@@ -3,14 +3,50 @@ package com.trein.gtfs.etl.job;
 import java.sql.Time;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.types.ObjectId;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
 import org.springframework.batch.item.ItemWriter;
+import org.springframework.batch.repeat.RepeatStatus;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.CollectionCallback;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver.IndexDefinitionHolder;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
 
+import com.trein.gtfs.csv.source.GtfsSource;
 import com.trein.gtfs.csv.vo.GtfsAgency;
 import com.trein.gtfs.csv.vo.GtfsCalendar;
 import com.trein.gtfs.csv.vo.GtfsCalendarDate;
@@ -24,6 +60,7 @@ import com.trein.gtfs.csv.vo.GtfsStop;
 import com.trein.gtfs.csv.vo.GtfsStopTime;
 import com.trein.gtfs.csv.vo.GtfsTransfer;
 import com.trein.gtfs.csv.vo.GtfsTrip;
+import com.trein.gtfs.mongo.MongoRepositoryConfig;
 import com.trein.gtfs.mongo.entity.Agency;
 import com.trein.gtfs.mongo.entity.AvailabilityType;
 import com.trein.gtfs.mongo.entity.Calendar;
@@ -40,13 +77,16 @@ import com.trein.gtfs.mongo.entity.Frequency;
 import com.trein.gtfs.mongo.entity.PaymentType;
 import com.trein.gtfs.mongo.entity.Route;
 import com.trein.gtfs.mongo.entity.RouteType;
+import com.trein.gtfs.mongo.entity.ServiceCalendarIndex;
 import com.trein.gtfs.mongo.entity.Shape;
+import com.trein.gtfs.mongo.entity.ShapeGeometry;
 import com.trein.gtfs.mongo.entity.Stop;
 import com.trein.gtfs.mongo.entity.StopLocationType;
 import com.trein.gtfs.mongo.entity.StopTime;
 import com.trein.gtfs.mongo.entity.Transfer;
 import com.trein.gtfs.mongo.entity.TransferType;
 import com.trein.gtfs.mongo.entity.Trip;
+import com.trein.gtfs.mongo.entity.TripSchedule;
 import com.trein.gtfs.mongo.entity.WheelchairType;
 import com.trein.gtfs.mongo.repository.AgencyRepository;
 import com.trein.gtfs.mongo.repository.CalendarDateRepository;
@@ -56,17 +96,73 @@ import com.trein.gtfs.mongo.repository.FareRuleRepository;
 import com.trein.gtfs.mongo.repository.FeedInfoRepository;
 import com.trein.gtfs.mongo.repository.FrequencyRepository;
 import com.trein.gtfs.mongo.repository.RouteRepository;
+import com.trein.gtfs.mongo.repository.ServiceCalendarIndexRepository;
 import com.trein.gtfs.mongo.repository.ShapeRepository;
 import com.trein.gtfs.mongo.repository.StopRepository;
 import com.trein.gtfs.mongo.repository.StopTimeRepository;
 import com.trein.gtfs.mongo.repository.TransferRepository;
 import com.trein.gtfs.mongo.repository.TripRepository;
 
-public class GtfsMongoItemWriter implements ItemWriter<GtfsItem> {
+/**
+ * Writes GTFS items into MongoDB. By default every item is saved on its own and references are
+ * resolved by querying the referenced collection.
+ * <p>
+ * In bulk mode, meant for loading a feed into empty collections, object ids are assigned on the
+ * client and remembered by GTFS id for agencies, routes, trips, stops and shapes, so references
+ * are written as {@link DBRef}s without any query. Each chunk is sent as one unordered bulk insert
+ * per collection. Secondary indexes that the service does not query are dropped before the job and
+ * rebuilt once it finishes, while the ones it queries are kept so it keeps answering from them.
+ * Ids of the documents already loaded by a failed run are read back before a restart.
+ * <p>
+ * A single instance is shared by the parallel steps of the job, so id maps are concurrent and the
+ * documents of the chunk being written are kept per thread.
+ * <p>
+ * With packed shapes, points are not stored one document each. <code>shapes.txt</code> is read by a
+ * step of its own that upserts one {@link ShapeGeometry} holding an encoded polyline per
+ * <code>shape_id</code>, and trips only keep the shape id instead of a list of references.
+ * <p>
+ * With trip schedules, a step run once stop times are loaded reads them back sorted by trip and
+ * upserts one {@link TripSchedule} per trip, so a trip's stop times are read with a single query.
+ * Missing arrival and departure times are stored as null, so schedules keep them as
+ * {@link TripSchedule#NO_TIME}.
+ * <p>
+ * Once every other step completed, a last step compiles calendars and calendar dates into a
+ * {@link ServiceCalendarIndex}, which replaces the one of the previous feed only once stored.
+ *
+ * @author trein
+ */
+public class GtfsMongoItemWriter implements ItemWriter<GtfsItem>, JobExecutionListener, GtfsDerivedDataWriter {
+
+    private static final ThreadLocal<SimpleDateFormat> CALENDAR_FORMAT = new ThreadLocal<SimpleDateFormat>() {
 
-    private static final SimpleDateFormat CALENDAR_FORMAT = new SimpleDateFormat("yyyyMMdd");
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyyMMdd");
+        }
+    };
     private static final Logger LOGGER = LoggerFactory.getLogger(GtfsMongoItemWriter.class);
     private static final boolean DRY_RUN = false;
+    private static final String ID_FIELD = "_id";
+    private static final int UPSERT_BATCH_SIZE = 1000;
+    private static final long EPOCH_MIDNIGHT = Time.valueOf("00:00:00").getTime();
+    private static final List<Class<?>> BULK_ENTITIES = Arrays.<Class<?>> asList(Agency.class, CalendarDate.class,
+            Calendar.class, Route.class, Shape.class, ShapeGeometry.class, Trip.class, TripSchedule.class, Stop.class, StopTime.class, Transfer.class,
+            FareAttribute.class, FareRule.class, Frequency.class, FeedInfo.class);
+    /**
+     * Fields of the bulk loaded collections that the service queries by. Their indexes are kept
+     * during a bulk load, like geospatial indexes, without which geo queries fail, and the unique
+     * indexes upserts rely on.
+     */
+    private static final Map<Class<?>, List<String>> SERVED_FIELDS = new HashMap<Class<?>, List<String>>();
+
+    static {
+        SERVED_FIELDS.put(Route.class, Arrays.asList("routeId"));
+        SERVED_FIELDS.put(Trip.class, Arrays.asList("tripId", "route"));
+        SERVED_FIELDS.put(StopTime.class, Arrays.asList("trip"));
+        SERVED_FIELDS.put(Stop.class, Arrays.asList("stopId"));
+        SERVED_FIELDS.put(ShapeGeometry.class, Arrays.asList("shapeId"));
+        SERVED_FIELDS.put(TripSchedule.class, Arrays.asList("tripId"));
+    }
     
     @Autowired
     private AgencyRepository agencyRepository;
@@ -94,20 +190,217 @@ public class GtfsMongoItemWriter implements ItemWriter<GtfsItem> {
     private FrequencyRepository frequencyRepository;
     @Autowired
     private FeedInfoRepository feedInfoRepository;
+    @Autowired
+    private ServiceCalendarIndexRepository serviceCalendarIndexRepository;
+
+    @Autowired
+    private GtfsSource source;
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
+    private MongoMappingContext mappingContext;
 
-    private int currentCount;
+    private final boolean bulk;
+    private final boolean packedShapes;
+    private final boolean tripSchedules;
+    private final ThreadLocal<Map<Class<?>, List<DBObject>>> pendingDocuments =
+            new ThreadLocal<Map<Class<?>, List<DBObject>>>() {
+
+        @Override
+        protected Map<Class<?>, List<DBObject>> initialValue() {
+            return new LinkedHashMap<Class<?>, List<DBObject>>();
+        }
+    };
+    private final Map<String, ObjectId> agencyIds = new ConcurrentHashMap<String, ObjectId>();
+    private final Map<String, ObjectId> routeIds = new ConcurrentHashMap<String, ObjectId>();
+    private final Map<String, ObjectId> tripIds = new ConcurrentHashMap<String, ObjectId>();
+    private final Map<String, ObjectId> stopIds = new ConcurrentHashMap<String, ObjectId>();
+    private final ConcurrentMap<String, List<ObjectId>> shapeIds = new ConcurrentHashMap<String, List<ObjectId>>();
+
+    private final AtomicInteger currentCount = new AtomicInteger();
     
     public GtfsMongoItemWriter() {
+        this(false);
+    }
+
+    /**
+     * @param bulk whether documents are inserted in unordered bulks with client side references
+     */
+    public GtfsMongoItemWriter(boolean bulk) {
+        this(bulk, false);
+    }
+
+    /**
+     * @param bulk whether documents are inserted in unordered bulks with client side references
+     * @param packedShapes whether each shape is stored as a single encoded polyline
+     */
+    public GtfsMongoItemWriter(boolean bulk, boolean packedShapes) {
+        this(bulk, packedShapes, false);
+    }
+
+    /**
+     * @param bulk whether documents are inserted in unordered bulks with client side references
+     * @param packedShapes whether each shape is stored as a single encoded polyline
+     * @param tripSchedules whether the stop times of each trip are also stored as a single document
+     */
+    public GtfsMongoItemWriter(boolean bulk, boolean packedShapes, boolean tripSchedules) {
+        this.bulk = bulk;
+        this.packedShapes = packedShapes;
+        this.tripSchedules = tripSchedules;
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+        if (this.bulk && !DRY_RUN) {
+            LOGGER.info("Dropping secondary indexes not queried by the service before bulk load");
+            for (Class<?> entityClass : BULK_ENTITIES) {
+                dropUnservedIndexes(entityClass);
+            }
+            loadIds();
+        }
+    }
+
+    private void dropUnservedIndexes(Class<?> entityClass) {
+        final List<String> served = SERVED_FIELDS.containsKey(entityClass) ? SERVED_FIELDS.get(entityClass)
+                : Collections.<String> emptyList();
+        this.mongoTemplate.execute(entityClass, new CollectionCallback<Void>() {
+
+            @Override
+            public Void doInCollection(DBCollection collection) {
+                for (DBObject index : collection.getIndexInfo()) {
+                    if (!isServed((DBObject) index.get("key"), served)) {
+                        collection.dropIndex((String) index.get("name"));
+                    }
+                }
+                return null;
+            }
+        });
+        this.mongoTemplate.indexOps(entityClass).resetIndexCache();
+    }
+
+    /**
+     * @return true for the id index, geospatial indexes, whose key types are strings such as
+     *         <code>2dsphere</code>, and indexes on a served field
+     */
+    private static boolean isServed(DBObject key, List<String> served) {
+        for (String field : key.keySet()) {
+            if (ID_FIELD.equals(field) || served.contains(field) || (key.get(field) instanceof String)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remembers the ids of the documents already in the collections, which a restarted job
+     * references without writing them again. Collections are empty on a first run.
+     */
+    private void loadIds() {
+        loadIds(Agency.class, "agencyId", this.agencyIds);
+        loadIds(Route.class, "routeId", this.routeIds);
+        loadIds(Trip.class, "tripId", this.tripIds);
+        loadIds(Stop.class, "stopId", this.stopIds);
+        if (!this.packedShapes) {
+            for (Map.Entry<String, ObjectId> entry : findIds(Shape.class, "shapeId")) {
+                rememberShape(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void loadIds(Class<?> entityClass, String field, Map<String, ObjectId> ids) {
+        for (Map.Entry<String, ObjectId> entry : findIds(entityClass, field)) {
+            ids.put(entry.getKey(), entry.getValue());
+        }
+        if (!ids.isEmpty()) {
+            LOGGER.info("Resuming with [{}] existing [{}]", String.valueOf(ids.size()), entityClass.getSimpleName());
+        }
+    }
+
+    private List<Map.Entry<String, ObjectId>> findIds(Class<?> entityClass, final String field) {
+        return this.mongoTemplate.execute(entityClass, new CollectionCallback<List<Map.Entry<String, ObjectId>>>() {
+
+            @Override
+            public List<Map.Entry<String, ObjectId>> doInCollection(DBCollection collection) {
+                List<Map.Entry<String, ObjectId>> ids = new ArrayList<Map.Entry<String, ObjectId>>();
+                DBCursor cursor = collection.find(new BasicDBObject(), new BasicDBObject(field, 1));
+                try {
+                    for (DBObject document : cursor) {
+                        ids.add(new SimpleImmutableEntry<String, ObjectId>((String) document.get(field),
+                                (ObjectId) document.get(ID_FIELD)));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                return ids;
+            }
+        });
+    }
+
+    @Override
+    public void afterJob(JobExecution jobExecution) {
+        if (this.bulk && !DRY_RUN) {
+            LOGGER.info("Rebuilding secondary indexes after bulk load");
+            ensureIndexes();
+        }
+    }
+
+    /**
+     * Creates the indexes declared on the bulk loaded entities, and the query indexes that are
+     * not declared on them.
+     */
+    private void ensureIndexes() {
+        for (Class<?> entityClass : BULK_ENTITIES) {
+            ensureIndexes(entityClass);
+        }
+        MongoRepositoryConfig.ensureQueryIndexes(this.mongoTemplate);
+    }
+
+    private void ensureIndexes(Class<?> entityClass) {
+        MongoPersistentEntityIndexResolver resolver = new MongoPersistentEntityIndexResolver(this.mappingContext);
+        for (IndexDefinitionHolder index : resolver.resolveIndexForClass(entityClass)) {
+            this.mongoTemplate.indexOps(index.getCollection()).ensureIndex(index);
+        }
+    }
+
+    /**
+     * Replaces the documents having the same key as the given entities, inserting the missing
+     * ones, so a step run again after a failure does not store the same data twice. The key must
+     * be indexed, as each entity is looked up by it.
+     */
+    private void upsert(Class<?> entityClass, final String key, List<?> entities) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        final List<DBObject> documents = new ArrayList<DBObject>(entities.size());
+        for (Object entity : entities) {
+            DBObject document = new BasicDBObject();
+            this.mongoTemplate.getConverter().write(entity, document);
+            document.removeField(ID_FIELD);
+            documents.add(document);
+        }
+        this.mongoTemplate.execute(entityClass, new CollectionCallback<BulkWriteResult>() {
+
+            @Override
+            public BulkWriteResult doInCollection(DBCollection collection) {
+                BulkWriteOperation operation = collection.initializeUnorderedBulkOperation();
+                for (DBObject document : documents) {
+                    operation.find(new BasicDBObject(key, document.get(key))).upsert().replaceOne(document);
+                }
+                return operation.execute();
+            }
+        });
     }
 
     @Override
     public void write(List<? extends GtfsItem> items) {
+        this.pendingDocuments.get().clear();
+
         for (GtfsItem item : items) {
 
-            this.currentCount++;
+            int count = this.currentCount.incrementAndGet();
             LOGGER.debug("Received item [{}]", item);
-            if ((this.currentCount % 10000) == 0) {
-                LOGGER.info("Writing entry [{}] into database", String.valueOf(this.currentCount));
+            if ((count % 10000) == 0) {
+                LOGGER.info("Writing entry [{}] into database", String.valueOf(count));
             }
             
             if (item.getEntityClass().equals(GtfsAgency.class)) {
@@ -138,22 +431,313 @@ public class GtfsMongoItemWriter implements ItemWriter<GtfsItem> {
                 persistFeedInfo(item);
             }
         }
+
+        if (this.bulk) {
+            insertPendingDocuments();
+        }
+    }
+
+    @Override
+    public Tasklet getShapeGeometryTasklet() {
+        if (!this.packedShapes || DRY_RUN) {
+            return null;
+        }
+        return new ShapeGeometryTasklet(this.source) {
+
+            @Override
+            protected void save(Collection<ShapePoints> shapes) {
+                upsertShapeGeometries(shapes);
+            }
+        };
+    }
+
+    private void upsertShapeGeometries(Collection<ShapePoints> shapes) {
+        ensureIndexes(ShapeGeometry.class);
+        List<ShapeGeometry> geometries = new ArrayList<ShapeGeometry>(UPSERT_BATCH_SIZE);
+        for (ShapePoints points : shapes) {
+            geometries.add(new ShapeGeometry(points.getShapeId(), points.encode(), points.size(), points.distances()));
+            if (geometries.size() == UPSERT_BATCH_SIZE) {
+                upsert(ShapeGeometry.class, "shapeId", geometries);
+                geometries.clear();
+            }
+        }
+        upsert(ShapeGeometry.class, "shapeId", geometries);
+    }
+
+    @Override
+    public Tasklet getTripScheduleTasklet() {
+        if (!this.tripSchedules || DRY_RUN) {
+            return null;
+        }
+        return new Tasklet() {
+
+            @Override
+            public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                contribution.incrementWriteCount(upsertTripSchedules());
+                return RepeatStatus.FINISHED;
+            }
+        };
+    }
+
+    /**
+     * Groups the stored stop times per trip into trip schedules. Stop times are read sorted by trip,
+     * so only the stop times of one trip are held at a time, and schedules are upserted by trip id,
+     * so the step can be run again after a failure.
+     *
+     * @return number of schedules stored
+     */
+    private int upsertTripSchedules() {
+        ensureIndexes(TripSchedule.class);
+        MongoRepositoryConfig.ensureQueryIndexes(this.mongoTemplate);
+        final Map<ObjectId, String> tripIds = invert(findIds(Trip.class, "tripId"));
+        final Map<ObjectId, String> stopIds = invert(findIds(Stop.class, "stopId"));
+
+        Integer count = this.mongoTemplate.execute(StopTime.class, new CollectionCallback<Integer>() {
+
+            @Override
+            public Integer doInCollection(DBCollection collection) {
+                List<TripSchedule> schedules = new ArrayList<TripSchedule>(UPSERT_BATCH_SIZE);
+                int stored = 0;
+                Object currentTrip = null;
+                TripStopTimes stopTimes = null;
+                DBCursor cursor = collection.find().sort(new BasicDBObject("trip", 1));
+                try {
+                    for (DBObject document : cursor) {
+                        Object trip = refId(document.get("trip"));
+                        if (trip == null) {
+                            continue;
+                        }
+                        if (!trip.equals(currentTrip)) {
+                            stored += addSchedule(schedules, stopTimes);
+                            currentTrip = trip;
+                            stopTimes = new TripStopTimes(tripIds.get(trip));
+                        }
+                        stopTimes.add(stopIds.get(refId(document.get("stop"))), toSeconds(document.get("arrivalTime")),
+                                toSeconds(document.get("departureTime")), ((Number) document.get("stopSequence")).intValue(),
+                                (String) document.get("stopHeadsign"), toAvailability(document.get("pickupType")),
+                                toAvailability(document.get("dropoffType")), ((Number) document.get("shapeDistanceTraveled"))
+                                        .doubleValue());
+                    }
+                } finally {
+                    cursor.close();
+                }
+                stored += addSchedule(schedules, stopTimes);
+                upsert(TripSchedule.class, "tripId", schedules);
+                return Integer.valueOf(stored);
+            }
+        });
+        LOGGER.info("Stored [{}] trip schedules", count);
+        return count.intValue();
+    }
+
+    private int addSchedule(List<TripSchedule> schedules, TripStopTimes stopTimes) {
+        if (stopTimes == null) {
+            return 0;
+        }
+        schedules.add(stopTimes.toSchedule());
+        if (schedules.size() == UPSERT_BATCH_SIZE) {
+            upsert(TripSchedule.class, "tripId", schedules);
+            schedules.clear();
+        }
+        return 1;
+    }
+
+    private static Map<ObjectId, String> invert(List<Map.Entry<String, ObjectId>> ids) {
+        Map<ObjectId, String> inverted = new HashMap<ObjectId, String>(ids.size() * 2);
+        for (Map.Entry<String, ObjectId> entry : ids) {
+            inverted.put(entry.getValue(), entry.getKey());
+        }
+        return inverted;
+    }
+
+    private static Object refId(Object reference) {
+        if (reference instanceof DBRef) {
+            return ((DBRef) reference).getId();
+        }
+        return (reference instanceof DBObject) ? ((DBObject) reference).get("$id") : null;
+    }
+
+    /**
+     * Stop times are stored as times of the first day of the epoch in the default time zone, times
+     * past midnight rolling over to the next day, so the offset from midnight of that day gives
+     * the seconds since the start of the service day.
+     */
+    private static int toSeconds(Object time) {
+        if (time == null) {
+            return TripSchedule.NO_TIME;
+        }
+        return (int) ((((Date) time).getTime() - EPOCH_MIDNIGHT) / 1000);
+    }
+
+    private static AvailabilityType toAvailability(Object type) {
+        return (type != null) ? AvailabilityType.valueOf(type.toString()) : AvailabilityType.fromCode(null);
+    }
+
+    @Override
+    public Tasklet getServiceCalendarTasklet() {
+        if (DRY_RUN) {
+            return null;
+        }
+        return new Tasklet() {
+
+            @Override
+            public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                storeServiceCalendar();
+                contribution.incrementWriteCount(1);
+                return RepeatStatus.FINISHED;
+            }
+        };
+    }
+
+    /**
+     * Compiles the calendars just loaded over the feed validity window. The new index is stored
+     * before the ones of a previous feed are removed, so readers never find none.
+     */
+    private void storeServiceCalendar() {
+        List<FeedInfo> feedInfos = this.feedInfoRepository.findAll();
+        FeedInfo feedInfo = feedInfos.isEmpty() ? null : feedInfos.get(0);
+        ServiceCalendarIndex index = ServiceCalendarIndex.compile((feedInfo != null) ? feedInfo.getStartDate() : null,
+                (feedInfo != null) ? feedInfo.getEndDate() : null, this.calendarRepository.findAll(),
+                this.calendarDateRepository.findAll());
+        this.serviceCalendarIndexRepository.save(index);
+        this.mongoTemplate.remove(new Query(Criteria.where("_id").ne(index.getId())), ServiceCalendarIndex.class);
+        LOGGER.info("Compiled [{}] services over [{}] days", String.valueOf(index.getServiceIds().length),
+                String.valueOf(index.getDayCount()));
+    }
+
+    /**
+     * Sends the documents collected for the current chunk, one unordered bulk per collection. As
+     * ids were assigned on the client, documents do not depend on the order they are inserted.
+     */
+    private void insertPendingDocuments() {
+        try {
+            for (Map.Entry<Class<?>, List<DBObject>> entry : this.pendingDocuments.get().entrySet()) {
+                final List<DBObject> documents = entry.getValue();
+                String collectionName = this.mongoTemplate.getCollectionName(entry.getKey());
+
+                this.mongoTemplate.execute(collectionName, new CollectionCallback<BulkWriteResult>() {
+
+                    @Override
+                    public BulkWriteResult doInCollection(DBCollection collection) {
+                        BulkWriteOperation operation = collection.initializeUnorderedBulkOperation();
+                        for (DBObject document : documents) {
+                            operation.insert(document);
+                        }
+                        return operation.execute();
+                    }
+                });
+            }
+        } finally {
+            this.pendingDocuments.get().clear();
+        }
+    }
+
+    /**
+     * Saves the entity right away, or converts it into a document with a new object id and keeps it
+     * for the chunk's bulk insert.
+     *
+     * @return the pending document in bulk mode, so references can be added to it, otherwise null
+     */
+    private <T> DBObject store(MongoRepository<T, ObjectId> repository, T entity) {
+        if (DRY_RUN) {
+            return null;
+        }
+        if (!this.bulk) {
+            repository.save(entity);
+            return null;
+        }
+
+        DBObject document = new BasicDBObject();
+        this.mongoTemplate.getConverter().write(entity, document);
+        document.put(ID_FIELD, new ObjectId());
+
+        Map<Class<?>, List<DBObject>> pending = this.pendingDocuments.get();
+        List<DBObject> documents = pending.get(entity.getClass());
+        if (documents == null) {
+            documents = new ArrayList<DBObject>();
+            pending.put(entity.getClass(), documents);
+        }
+        documents.add(document);
+        return document;
+    }
+
+    private void reference(DBObject document, String field, Class<?> target, ObjectId id) {
+        if ((document != null) && (id != null)) {
+            document.put(field, new DBRef(this.mongoTemplate.getDb(), this.mongoTemplate.getCollectionName(target), id));
+        }
+    }
+
+    private void references(DBObject document, String field, Class<?> target, List<ObjectId> ids) {
+        if ((document != null) && (ids != null)) {
+            String collectionName = this.mongoTemplate.getCollectionName(target);
+            List<DBRef> refs = new ArrayList<DBRef>(ids.size());
+            for (ObjectId id : ids) {
+                refs.add(new DBRef(this.mongoTemplate.getDb(), collectionName, id));
+            }
+            document.put(field, refs);
+        }
+    }
+
+    private static <T> T idOf(Map<String, T> ids, String id) {
+        return (id != null) ? ids.get(id) : null;
+    }
+
+    private void remember(Map<String, ObjectId> ids, String id, DBObject document) {
+        if ((document != null) && (id != null)) {
+            ids.put(id, (ObjectId) document.get(ID_FIELD));
+        }
+    }
+
+    private void rememberShape(String shapeId, DBObject document) {
+        if ((document != null) && (shapeId != null)) {
+            rememberShape(shapeId, (ObjectId) document.get(ID_FIELD));
+        }
+    }
+
+    private void rememberShape(String shapeId, ObjectId id) {
+        List<ObjectId> ids = this.shapeIds.get(shapeId);
+        if (ids == null) {
+            List<ObjectId> created = Collections.synchronizedList(new ArrayList<ObjectId>());
+            ids = this.shapeIds.putIfAbsent(shapeId, created);
+            if (ids == null) {
+                ids = created;
+            }
+        }
+        ids.add(id);
+    }
+
+    private Agency findAgency(String agencyId) {
+        return this.bulk ? null : this.agencyRepository.findByAgencyId(agencyId);
+    }
+
+    private Route findRoute(String routeId) {
+        return this.bulk ? null : this.routeRepository.findByRouteId(routeId);
+    }
+
+    private Trip findTrip(String tripId) {
+        return this.bulk ? null : this.tripRepository.findByTripId(tripId);
+    }
+
+    private Stop findStop(String stopId) {
+        return this.bulk ? null : this.stopRepository.findByStopId(stopId);
+    }
+
+    private List<Shape> findShapes(String shapeId) {
+        return (this.bulk || this.packedShapes) ? null : this.shapeRepository.findByShapeId(shapeId);
     }
 
     private void persistFeedInfo(GtfsItem item) {
         try {
             GtfsFeedInfo info = item.getEntity();
-            Date startDate = CALENDAR_FORMAT.parse(info.getStartDate());
-            Date endDate = CALENDAR_FORMAT.parse(info.getEndDate());
+            Date startDate = CALENDAR_FORMAT.get().parse(info.getStartDate());
+            Date endDate = CALENDAR_FORMAT.get().parse(info.getEndDate());
             String publisherName = info.getPublisherName();
             String url = info.getPusblisherUrl();
             String language = info.getLanguage();
             String version = info.getVersion();
             FeedInfo entity = new FeedInfo(publisherName, url, language, startDate, endDate, version);
 
-            if (!DRY_RUN) {
-                this.feedInfoRepository.save(entity);
-            }
+            store(this.feedInfoRepository, entity);
         } catch (ParseException e) {
             throw new IllegalStateException("Error storing feed info date", e);
         }
@@ -161,27 +745,25 @@ public class GtfsMongoItemWriter implements ItemWriter<GtfsItem> {
 
     private void persistFrequency(GtfsItem item) {
         GtfsFrequency frequency = item.getEntity();
-        Trip trip = this.tripRepository.findByTripId(frequency.getTripId());
+        Trip trip = findTrip(frequency.getTripId());
         Time start = Time.valueOf(frequency.getStartTime());
         Time end = Time.valueOf(frequency.getEndTime());
         long headway = (frequency.getHeadwaySecs() != null) ? frequency.getHeadwaySecs().longValue() : 0;
         ExactTimeType exactTime = ExactTimeType.fromCode(frequency.getExactTime());
         Frequency entity = new Frequency(trip, start, end, headway, exactTime);
         
-        if (!DRY_RUN) {
-            this.frequencyRepository.save(entity);
-        }
+        DBObject document = store(this.frequencyRepository, entity);
+        reference(document, "trip", Trip.class, idOf(this.tripIds, frequency.getTripId()));
     }
     
     private void persistFareRule(GtfsItem item) {
         GtfsFareRule rule = item.getEntity();
-        Route route = this.routeRepository.findByRouteId(rule.getRouteId());
+        Route route = findRoute(rule.getRouteId());
         // TODO: save Fare
         FareRule entity = new FareRule(null, route, rule.getOriginZoneId(), rule.getDestinationZoneId(), rule.getContainsId());
         
-        if (!DRY_RUN) {
-            this.fareRuleRepository.save(entity);
-        }
+        DBObject document = store(this.fareRuleRepository, entity);
+        reference(document, "route", Route.class, idOf(this.routeIds, rule.getRouteId()));
     }
 
     private void persistFareAttribute(GtfsItem item) {
@@ -194,30 +776,28 @@ public class GtfsMongoItemWriter implements ItemWriter<GtfsItem> {
         // TODO: save Fare
         FareAttribute entity = new FareAttribute(null, price, currencyType, paymentType, transferType, duration);
         
-        if (!DRY_RUN) {
-            this.fareAttributeRepository.save(entity);
-        }
+        store(this.fareAttributeRepository, entity);
     }
 
     private void persistTransfer(GtfsItem item) {
         GtfsTransfer transfer = item.getEntity();
-        Stop fromStop = this.stopRepository.findByStopId(transfer.getFromStopId());
-        Stop toStop = this.stopRepository.findByStopId(transfer.getToStopId());
+        Stop fromStop = findStop(transfer.getFromStopId());
+        Stop toStop = findStop(transfer.getToStopId());
         TransferType transferType = TransferType.fromCode(transfer.getTransferType());
         long transferTime = (transfer.getMinTransferTimeSecs() != null) ? transfer.getMinTransferTimeSecs().longValue() : 0;
         Transfer entity = new Transfer(fromStop, toStop, transferType, transferTime);
         
-        if (!DRY_RUN) {
-            this.transferRepository.save(entity);
-        }
+        DBObject document = store(this.transferRepository, entity);
+        reference(document, "fromStop", Stop.class, idOf(this.stopIds, transfer.getFromStopId()));
+        reference(document, "toStop", Stop.class, idOf(this.stopIds, transfer.getToStopId()));
     }
 
     private void persistStopTime(GtfsItem item) {
         GtfsStopTime stopTime = item.getEntity();
-        Stop innerStop = this.stopRepository.findByStopId(stopTime.getStopId());
-        Trip trip = this.tripRepository.findByTripId(stopTime.getTripId());
-        Time arrival = Time.valueOf((stopTime.getArrivalTime() == null) ? "00:00:00" : stopTime.getArrivalTime());
-        Time departure = Time.valueOf((stopTime.getDepartureTime() == null) ? "00:00:00" : stopTime.getDepartureTime());
+        Stop innerStop = findStop(stopTime.getStopId());
+        Trip trip = findTrip(stopTime.getTripId());
+        Time arrival = (stopTime.getArrivalTime() == null) ? null : Time.valueOf(stopTime.getArrivalTime());
+        Time departure = (stopTime.getDepartureTime() == null) ? null : Time.valueOf(stopTime.getDepartureTime());
         AvailabilityType pickupType = AvailabilityType.fromCode(stopTime.getPickupType());
         AvailabilityType dropoffType = AvailabilityType.fromCode(stopTime.getDropoffType());
         double distance = (stopTime.getShapeDistanceTraveled() != null) ? stopTime.getShapeDistanceTraveled().doubleValue() : 0;
@@ -225,9 +805,9 @@ public class GtfsMongoItemWriter implements ItemWriter<GtfsItem> {
         String headsign = stopTime.getStopHeadsign();
         StopTime entity = new StopTime(trip, arrival, departure, innerStop, sequence, headsign, pickupType, dropoffType, distance);
 
-        if (!DRY_RUN) {
-            this.stopTimeRepository.save(entity);
-        }
+        DBObject document = store(this.stopTimeRepository, entity);
+        reference(document, "trip", Trip.class, idOf(this.tripIds, stopTime.getTripId()));
+        reference(document, "stop", Stop.class, idOf(this.stopIds, stopTime.getStopId()));
     }
 
     private void persistStop(GtfsItem item) {
@@ -245,26 +825,29 @@ public class GtfsMongoItemWriter implements ItemWriter<GtfsItem> {
         String zoneId = stop.getZoneId();
         Stop entity = new Stop(id, code, name, desc, location, zoneId, url, type, parentStop, timezone, wheelchairType);
 
-        if (!DRY_RUN) {
-            this.stopRepository.save(entity);
-        }
+        DBObject document = store(this.stopRepository, entity);
+        remember(this.stopIds, id, document);
     }
     
     private void persistTrip(GtfsItem item) {
         GtfsTrip trip = item.getEntity();
-        Route route = this.routeRepository.findByRouteId(trip.getRouteId());
-        List<Shape> shapes = this.shapeRepository.findByShapeId(trip.getShapeId());
+        Route route = findRoute(trip.getRouteId());
+        List<Shape> shapes = findShapes(trip.getShapeId());
         DirectionType direction = DirectionType.fromCode(trip.getDirectionType());
         WheelchairType wheelchairType = WheelchairType.fromCode(trip.getWheelchairType());
         int blockId = (trip.getBlockId() != null) ? trip.getBlockId().intValue() : 0;
         String serviceId = trip.getServiceId();
         String headsign = trip.getHeadsign();
         String shortName = trip.getShortName();
-        Trip entity = new Trip(trip.getId(), route, serviceId, headsign, shortName, direction, blockId, shapes, wheelchairType);
+        Trip entity = new Trip(trip.getId(), route, serviceId, headsign, shortName, direction, blockId, trip.getShapeId(), shapes,
+                wheelchairType);
         
-        if (!DRY_RUN) {
-            this.tripRepository.save(entity);
+        DBObject document = store(this.tripRepository, entity);
+        reference(document, "route", Route.class, idOf(this.routeIds, trip.getRouteId()));
+        if (!this.packedShapes) {
+            references(document, "shapes", Shape.class, idOf(this.shapeIds, trip.getShapeId()));
         }
+        remember(this.tripIds, trip.getId(), document);
     }
 
     private void persistShape(GtfsItem item) {
@@ -273,14 +856,13 @@ public class GtfsMongoItemWriter implements ItemWriter<GtfsItem> {
         double distanceTraveled = (shape.getDistanceTraveled() != null) ? shape.getDistanceTraveled().doubleValue() : 0;
         Shape entity = new Shape(shape.getId(), location, shape.getSequence().longValue(), distanceTraveled);
         
-        if (!DRY_RUN) {
-            this.shapeRepository.save(entity);
-        }
+        DBObject document = store(this.shapeRepository, entity);
+        rememberShape(shape.getId(), document);
     }
 
     private void persistRoute(GtfsItem item) {
         GtfsRoute route = item.getEntity();
-        Agency agency = this.agencyRepository.findByAgencyId(route.getAgencyId());
+        Agency agency = findAgency(route.getAgencyId());
         RouteType type = RouteType.fromCode(route.getRouteType());
         String routeId = route.getId();
         String shortName = route.getShortName();
@@ -291,16 +873,16 @@ public class GtfsMongoItemWriter implements ItemWriter<GtfsItem> {
         String hexTextColor = route.getHexTextColor();
         Route entity = new Route(routeId, agency, shortName, longName, desc, type, url, hexPathColor, hexTextColor);
         
-        if (!DRY_RUN) {
-            this.routeRepository.save(entity);
-        }
+        DBObject document = store(this.routeRepository, entity);
+        reference(document, "agency", Agency.class, idOf(this.agencyIds, route.getAgencyId()));
+        remember(this.routeIds, routeId, document);
     }
 
     private void persistCalendar(GtfsItem item) {
         try {
             GtfsCalendar calendar = item.getEntity();
-            Date startDate = CALENDAR_FORMAT.parse(calendar.getStartDate());
-            Date endDate = CALENDAR_FORMAT.parse(calendar.getEndDate());
+            Date startDate = CALENDAR_FORMAT.get().parse(calendar.getStartDate());
+            Date endDate = CALENDAR_FORMAT.get().parse(calendar.getEndDate());
             boolean monday = calendar.getMonday().intValue() == 1;
             boolean tuesday = calendar.getTuesday().intValue() == 1;
             boolean wednesday = calendar.getWednesday().intValue() == 1;
@@ -312,9 +894,7 @@ public class GtfsMongoItemWriter implements ItemWriter<GtfsItem> {
             Calendar entity = new Calendar(serviceId, monday, tuesday, wednesday, thursday, friday, saturday, sunday, startDate,
                     endDate);
 
-            if (!DRY_RUN) {
-                this.calendarRepository.save(entity);
-            }
+            store(this.calendarRepository, entity);
         } catch (ParseException e) {
             throw new IllegalStateException("Error storing calendar date", e);
         }
@@ -324,13 +904,11 @@ public class GtfsMongoItemWriter implements ItemWriter<GtfsItem> {
         try {
             GtfsCalendarDate calendarDate = item.getEntity();
             ExceptionType exception = ExceptionType.fromCode(calendarDate.getExceptionType());
-            Date date = CALENDAR_FORMAT.parse(calendarDate.getDate());
+            Date date = CALENDAR_FORMAT.get().parse(calendarDate.getDate());
             String serviceId = calendarDate.getServiceId();
             CalendarDate entity = new CalendarDate(serviceId, date, exception);
             
-            if (!DRY_RUN) {
-                this.calendarDateRepository.save(entity);
-            }
+            store(this.calendarDateRepository, entity);
         } catch (ParseException e) {
             throw new IllegalStateException("Error storing calendar date", e);
         }
@@ -347,8 +925,7 @@ public class GtfsMongoItemWriter implements ItemWriter<GtfsItem> {
         String fareUrl = agency.getFareUrl();
         Agency entity = new Agency(id, name, url, timezone, lang, phone, fareUrl);
         
-        if (!DRY_RUN) {
-            this.agencyRepository.save(entity);
-        }
+        DBObject document = store(this.agencyRepository, entity);
+        remember(this.agencyIds, id, document);
     }
 }
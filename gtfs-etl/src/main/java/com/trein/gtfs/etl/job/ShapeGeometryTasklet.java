@@ -0,0 +1,63 @@
+package com.trein.gtfs.etl.job;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.repeat.RepeatStatus;
+
+import com.trein.gtfs.csv.source.GtfsSource;
+import com.trein.gtfs.csv.vo.GtfsShape;
+
+/**
+ * Reads <code>shapes.txt</code> in one go and hands the points grouped per shape to the writer
+ * storing them packed. Points are only held while the step runs, and as the step has no
+ * checkpoint a failed attempt is read again from the start, so stores must replace geometries
+ * saved by a previous attempt.
+ *
+ * @author trein
+ */
+abstract class ShapeGeometryTasklet implements Tasklet {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShapeGeometryTasklet.class);
+
+    private final GtfsSource source;
+
+    ShapeGeometryTasklet(GtfsSource source) {
+        this.source = source;
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        ConcurrentMap<String, ShapePoints> shapes = new ConcurrentHashMap<String, ShapePoints>();
+        GtfsItemReader reader = new GtfsItemReader(this.source, Arrays.<Class<?>> asList(GtfsShape.class));
+        reader.setSaveState(false);
+        reader.open(new ExecutionContext());
+        try {
+            GtfsItem item;
+            while ((item = reader.read()) != null) {
+                ShapePoints.collect(shapes, item.<GtfsShape> getEntity());
+                contribution.incrementReadCount();
+            }
+        } finally {
+            reader.close();
+        }
+        LOGGER.info("Storing [{}] packed shapes", String.valueOf(shapes.size()));
+        save(shapes.values());
+        contribution.incrementWriteCount(shapes.size());
+        return RepeatStatus.FINISHED;
+    }
+
+    /**
+     * Stores the geometry of every shape, replacing the geometries already stored for them.
+     */
+    protected abstract void save(Collection<ShapePoints> shapes);
+
+}
@@ -0,0 +1,133 @@
+package com.trein.gtfs.etl.job;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentMap;
+
+import com.trein.gtfs.csv.vo.GtfsShape;
+import com.trein.gtfs.mongo.geometry.PolylineEncoder;
+
+/**
+ * Points of one shape collected while <code>shapes.txt</code> is read, to be stored packed as a
+ * single encoded polyline once the file has been read. Rows of a shape do not need to be
+ * contiguous nor sorted, points are ordered by <code>shape_pt_sequence</code> when encoded.
+ *
+ * @author trein
+ */
+class ShapePoints {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final String shapeId;
+    private long[] sequences = new long[INITIAL_CAPACITY];
+    private double[] lats = new double[INITIAL_CAPACITY];
+    private double[] lons = new double[INITIAL_CAPACITY];
+    private double[] distances = new double[INITIAL_CAPACITY];
+    private boolean hasDistances;
+    private int size;
+
+    ShapePoints(String shapeId) {
+        this.shapeId = shapeId;
+    }
+
+    /**
+     * Adds a shape row to the points of its shape, creating them on first use.
+     */
+    static void collect(ConcurrentMap<String, ShapePoints> shapes, GtfsShape shape) {
+        ShapePoints points = shapes.get(shape.getId());
+        if (points == null) {
+            ShapePoints created = new ShapePoints(shape.getId());
+            points = shapes.putIfAbsent(shape.getId(), created);
+            if (points == null) {
+                points = created;
+            }
+        }
+        points.add(shape);
+    }
+
+    synchronized void add(GtfsShape shape) {
+        if (this.size == this.sequences.length) {
+            int capacity = this.size * 2;
+            this.sequences = Arrays.copyOf(this.sequences, capacity);
+            this.lats = Arrays.copyOf(this.lats, capacity);
+            this.lons = Arrays.copyOf(this.lons, capacity);
+            this.distances = Arrays.copyOf(this.distances, capacity);
+        }
+        this.sequences[this.size] = shape.getSequence().longValue();
+        this.lats[this.size] = shape.getLat().doubleValue();
+        this.lons[this.size] = shape.getLng().doubleValue();
+        if (shape.getDistanceTraveled() != null) {
+            this.distances[this.size] = shape.getDistanceTraveled().doubleValue();
+            this.hasDistances = true;
+        }
+        this.size++;
+    }
+
+    String getShapeId() {
+        return this.shapeId;
+    }
+
+    synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * @return points in sequence order, in the Google encoded polyline format
+     */
+    synchronized String encode() {
+        sort();
+        return PolylineEncoder.encode(this.lats, this.lons, this.size);
+    }
+
+    /**
+     * @return shape_dist_traveled of every point in sequence order, or null if no row had one
+     */
+    synchronized double[] distances() {
+        sort();
+        return this.hasDistances ? Arrays.copyOf(this.distances, this.size) : null;
+    }
+
+    /**
+     * Sorts the points by sequence, unless they were added in order as feeds usually list them.
+     */
+    private void sort() {
+        for (int i = 1; i < this.size; i++) {
+            if (this.sequences[i] < this.sequences[i - 1]) {
+                sortBySequence();
+                return;
+            }
+        }
+    }
+
+    private void sortBySequence() {
+        Integer[] order = new Integer[this.size];
+        for (int i = 0; i < this.size; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+
+            @Override
+            public int compare(Integer a, Integer b) {
+                long left = ShapePoints.this.sequences[a.intValue()];
+                long right = ShapePoints.this.sequences[b.intValue()];
+                return (left < right) ? -1 : ((left == right) ? 0 : 1);
+            }
+        });
+
+        long[] sortedSequences = new long[this.size];
+        double[] sortedLats = new double[this.size];
+        double[] sortedLons = new double[this.size];
+        double[] sortedDistances = new double[this.size];
+        for (int i = 0; i < this.size; i++) {
+            int from = order[i].intValue();
+            sortedSequences[i] = this.sequences[from];
+            sortedLats[i] = this.lats[from];
+            sortedLons[i] = this.lons[from];
+            sortedDistances[i] = this.distances[from];
+        }
+        this.sequences = sortedSequences;
+        this.lats = sortedLats;
+        this.lons = sortedLons;
+        this.distances = sortedDistances;
+    }
+}
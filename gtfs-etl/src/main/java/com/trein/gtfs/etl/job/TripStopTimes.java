@@ -0,0 +1,109 @@
+package com.trein.gtfs.etl.job;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.trein.gtfs.mongo.entity.AvailabilityType;
+import com.trein.gtfs.mongo.entity.TripSchedule;
+
+/**
+ * Stop times of one trip read back from the stored stop times, to be stored as a single
+ * {@link TripSchedule}. Rows may come in any order, they are sorted by stop sequence when the
+ * schedule is built.
+ *
+ * @author trein
+ */
+class TripStopTimes {
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private final String tripId;
+    private String[] stopIds = new String[INITIAL_CAPACITY];
+    private int[] arrivalTimes = new int[INITIAL_CAPACITY];
+    private int[] departureTimes = new int[INITIAL_CAPACITY];
+    private int[] stopSequences = new int[INITIAL_CAPACITY];
+    private String[] stopHeadsigns = new String[INITIAL_CAPACITY];
+    private int[] pickupTypes = new int[INITIAL_CAPACITY];
+    private int[] dropoffTypes = new int[INITIAL_CAPACITY];
+    private double[] distances = new double[INITIAL_CAPACITY];
+    private boolean hasHeadsigns;
+    private int size;
+
+    TripStopTimes(String tripId) {
+        this.tripId = tripId;
+    }
+
+    /**
+     * @param arrivalTime seconds since the start of the service day, or {@link TripSchedule#NO_TIME}
+     * @param departureTime seconds since the start of the service day, or
+     *            {@link TripSchedule#NO_TIME}
+     */
+    void add(String stopId, int arrivalTime, int departureTime, int stopSequence, String stopHeadsign,
+            AvailabilityType pickupType, AvailabilityType dropoffType, double distance) {
+        if (this.size == this.stopIds.length) {
+            int capacity = this.size * 2;
+            this.stopIds = Arrays.copyOf(this.stopIds, capacity);
+            this.arrivalTimes = Arrays.copyOf(this.arrivalTimes, capacity);
+            this.departureTimes = Arrays.copyOf(this.departureTimes, capacity);
+            this.stopSequences = Arrays.copyOf(this.stopSequences, capacity);
+            this.stopHeadsigns = Arrays.copyOf(this.stopHeadsigns, capacity);
+            this.pickupTypes = Arrays.copyOf(this.pickupTypes, capacity);
+            this.dropoffTypes = Arrays.copyOf(this.dropoffTypes, capacity);
+            this.distances = Arrays.copyOf(this.distances, capacity);
+        }
+        int i = this.size;
+        this.stopIds[i] = stopId;
+        this.arrivalTimes[i] = arrivalTime;
+        this.departureTimes[i] = departureTime;
+        this.stopSequences[i] = stopSequence;
+        this.stopHeadsigns[i] = stopHeadsign;
+        this.pickupTypes[i] = pickupType.getCode();
+        this.dropoffTypes[i] = dropoffType.getCode();
+        this.distances[i] = distance;
+        this.hasHeadsigns |= (stopHeadsign != null);
+        this.size++;
+    }
+
+    /**
+     * @return stop times in sequence order, as a single document
+     */
+    TripSchedule toSchedule() {
+        Integer[] order = new Integer[this.size];
+        for (int i = 0; i < this.size; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+
+            @Override
+            public int compare(Integer a, Integer b) {
+                int left = TripStopTimes.this.stopSequences[a.intValue()];
+                int right = TripStopTimes.this.stopSequences[b.intValue()];
+                return (left < right) ? -1 : ((left == right) ? 0 : 1);
+            }
+        });
+
+        String[] sortedStopIds = new String[this.size];
+        int[] sortedArrivals = new int[this.size];
+        int[] sortedDepartures = new int[this.size];
+        int[] sortedSequences = new int[this.size];
+        String[] sortedHeadsigns = this.hasHeadsigns ? new String[this.size] : null;
+        int[] sortedPickups = new int[this.size];
+        int[] sortedDropoffs = new int[this.size];
+        double[] sortedDistances = new double[this.size];
+        for (int i = 0; i < this.size; i++) {
+            int from = order[i].intValue();
+            sortedStopIds[i] = this.stopIds[from];
+            sortedArrivals[i] = this.arrivalTimes[from];
+            sortedDepartures[i] = this.departureTimes[from];
+            sortedSequences[i] = this.stopSequences[from];
+            if (sortedHeadsigns != null) {
+                sortedHeadsigns[i] = this.stopHeadsigns[from];
+            }
+            sortedPickups[i] = this.pickupTypes[from];
+            sortedDropoffs[i] = this.dropoffTypes[from];
+            sortedDistances[i] = this.distances[from];
+        }
+        return new TripSchedule(this.tripId, sortedStopIds, sortedArrivals, sortedDepartures, sortedSequences,
+                sortedHeadsigns, sortedPickups, sortedDropoffs, sortedDistances);
+    }
+}
@@ -0,0 +1,158 @@
+package com.trein.gtfs.etl.job;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.batch.item.ExecutionContext;
+
+import com.trein.gtfs.csv.source.GtfsArchiveSource;
+import com.trein.gtfs.csv.source.GtfsDirectorySource;
+import com.trein.gtfs.csv.source.GtfsSource;
+import com.trein.gtfs.csv.vo.GtfsStop;
+import com.trein.gtfs.csv.vo.GtfsStopTime;
+
+/**
+ * Testing that a reader reopened from a saved execution context resumes right after the last row
+ * it read, as a step restarted from its last checkpoint does.
+ *
+ * @author trein
+ */
+public class GtfsItemReaderTest {
+
+    private static final String STOPS = "stop_id,stop_name,stop_lat,stop_lon\n"
+            + "1,Mercado Público,-30.0277,-51.2287\n"
+            + "2,\"Borges, Salgado Filho\",-30.0310,-51.2280\n"
+            + "3,Rodoviária,-30.0220,-51.2190\n";
+
+    private static final String STOP_TIMES = "trip_id,arrival_time,departure_time,stop_id,stop_sequence,stop_headsign\n"
+            + "T1,08:00:00,08:00:00,1,1,Centro\n"
+            + "T1,08:05:00,08:05:00,2,2,\"Centro,\nvia Borges\"\n"
+            + "T1,08:10:00,08:10:00,3,3,Centro\n"
+            + "T2,09:00:00,09:00:00,3,1,Bairro\n"
+            + "T2,09:05:00,09:05:00,2,2,Bairro\n"
+            + "T2,09:10:00,09:10:00,1,3,Bairro\n"
+            + "T3,10:00:00,10:00:00,1,1,\n"
+            + "T3,10:05:00,10:05:00,3,2,\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GtfsSource source;
+
+    @Before
+    public void setUp() throws IOException {
+        File directory = this.folder.newFolder("feed");
+        write(new File(directory, "stops.txt"), STOPS);
+        write(new File(directory, "stop_times.txt"), STOP_TIMES);
+        this.source = new GtfsDirectorySource(directory);
+    }
+
+    @Test
+    public void shouldResumeAfterLastReadRow() throws Exception {
+        List<Class<?>> entities = Arrays.<Class<?>> asList(GtfsStop.class, GtfsStopTime.class);
+        List<String> expected = readAll(new GtfsItemReader(this.source, entities), new ExecutionContext(), -1);
+        assertThat(expected.size(), is(11));
+
+        for (int stopAfter = 0; stopAfter <= expected.size(); stopAfter++) {
+            ExecutionContext context = new ExecutionContext();
+            List<String> rows = readAll(new GtfsItemReader(this.source, entities), context, stopAfter);
+            rows.addAll(readAll(new GtfsItemReader(this.source, entities), context, -1));
+            assertThat("restart after row " + stopAfter, rows, is(expected));
+        }
+    }
+
+    @Test
+    public void shouldResumeInsidePartition() throws Exception {
+        List<Class<?>> entities = Arrays.<Class<?>> asList(GtfsStopTime.class);
+        Map<String, ExecutionContext> partitions = new GtfsFilePartitioner(this.source, GtfsStopTime.class).partition(3);
+        assertThat(partitions.size() > 1, is(true));
+
+        for (ExecutionContext partition : partitions.values()) {
+            List<String> expected = readAll(new GtfsItemReader(this.source, entities), new ExecutionContext(partition), -1);
+            for (int stopAfter = 0; stopAfter <= expected.size(); stopAfter++) {
+                ExecutionContext context = new ExecutionContext(partition);
+                List<String> rows = readAll(new GtfsItemReader(this.source, entities), context, stopAfter);
+                rows.addAll(readAll(new GtfsItemReader(this.source, entities), context, -1));
+                assertThat("restart after row " + stopAfter, rows, is(expected));
+            }
+        }
+    }
+
+    @Test
+    public void shouldReadCompressedFileInSinglePartition() throws Exception {
+        File archive = this.folder.newFile("feed.zip");
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            zip.putNextEntry(new ZipEntry("stop_times.txt"));
+            zip.write(STOP_TIMES.getBytes("UTF-8"));
+        } finally {
+            zip.close();
+        }
+
+        List<Class<?>> entities = Arrays.<Class<?>> asList(GtfsStopTime.class);
+        List<String> expected = readAll(new GtfsItemReader(this.source, entities), new ExecutionContext(), -1);
+        GtfsArchiveSource zipped = new GtfsArchiveSource(archive);
+        try {
+            Map<String, ExecutionContext> partitions = new GtfsFilePartitioner(zipped, GtfsStopTime.class).partition(3);
+            assertThat(partitions.size(), is(1));
+
+            ExecutionContext partition = partitions.values().iterator().next();
+            assertThat(readAll(new GtfsItemReader(zipped, entities), partition, -1), is(expected));
+        } finally {
+            zipped.close();
+        }
+    }
+
+    /**
+     * Opens the reader with the context and reads up to <code>limit</code> rows, or all of them if
+     * the limit is negative, saving its state in the context before closing it.
+     */
+    private static List<String> readAll(GtfsItemReader reader, ExecutionContext context, int limit) throws Exception {
+        List<String> rows = new ArrayList<String>();
+        reader.open(context);
+        try {
+            GtfsItem item;
+            while (((limit < 0) || (rows.size() < limit)) && ((item = reader.read()) != null)) {
+                rows.add(describe(item));
+            }
+            reader.update(context);
+        } finally {
+            reader.close();
+        }
+        return rows;
+    }
+
+    private static String describe(GtfsItem item) {
+        if (GtfsStop.class.equals(item.getEntityClass())) {
+            GtfsStop stop = item.getEntity();
+            return String.format("stop %s %s", stop.getId(), stop.getName());
+        }
+        GtfsStopTime stopTime = item.getEntity();
+        return String.format("stop_time %s %d %s", stopTime.getTripId(), stopTime.getStopSequence(),
+                stopTime.getStopHeadsign());
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+    }
+}
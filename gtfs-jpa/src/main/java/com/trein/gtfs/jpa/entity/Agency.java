@@ -7,6 +7,7 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Index;
 import javax.persistence.Table;
+import javax.persistence.TableGenerator;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -26,7 +27,8 @@ import org.hibernate.annotations.CacheConcurrencyStrategy;
 public class Agency {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "agencies")
+    @TableGenerator(name = "agencies", table = "id_generators", pkColumnValue = "agencies", allocationSize = 1000)
     private long id;
 
     @Column(name = "o_agency_id", nullable = false)
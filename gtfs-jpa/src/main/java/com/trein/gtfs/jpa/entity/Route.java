@@ -9,6 +9,7 @@ import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
+import javax.persistence.TableGenerator;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -27,7 +28,8 @@ import org.hibernate.annotations.CacheConcurrencyStrategy;
 public class Route {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "routes")
+    @TableGenerator(name = "routes", table = "id_generators", pkColumnValue = "routes", allocationSize = 1000)
     private long id;
     
     @Column(name = "o_route_id")
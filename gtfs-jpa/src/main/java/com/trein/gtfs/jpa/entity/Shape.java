@@ -7,6 +7,7 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Index;
 import javax.persistence.Table;
+import javax.persistence.TableGenerator;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -25,7 +26,8 @@ import org.hibernate.annotations.CacheConcurrencyStrategy;
 public class Shape implements Comparable<Shape> {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "shapes")
+    @TableGenerator(name = "shapes", table = "id_generators", pkColumnValue = "shapes", allocationSize = 1000)
     private long id;
 
     @Column(name = "o_shape_id", nullable = false)
@@ -0,0 +1,102 @@
+package com.trein.gtfs.jpa.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+/**
+ * Every point of a shape packed into a single row, as a Google encoded polyline in
+ * <code>shape_pt_sequence</code> order.
+ *
+ * @author trein
+ */
+@Entity(name = "shape_geometries")
+@Table(indexes = { @Index(name = "o_shape_geometry_idx", columnList = "o_shape_id", unique = true) })
+@Cache(region = "entity", usage = CacheConcurrencyStrategy.READ_WRITE)
+public class ShapeGeometry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private long id;
+
+    @Column(name = "o_shape_id", nullable = false)
+    private String shapeId;
+
+    @Lob
+    @Column(name = "polyline", nullable = false)
+    private String polyline;
+
+    @Column(name = "point_count")
+    private int pointCount;
+
+    @Lob
+    @Column(name = "distances")
+    private double[] distancesTraveled;
+
+    ShapeGeometry() {
+
+    }
+
+    public ShapeGeometry(String shapeId, String polyline, int pointCount, double[] distancesTraveled) {
+        this.shapeId = shapeId;
+        this.polyline = polyline;
+        this.pointCount = pointCount;
+        this.distancesTraveled = distancesTraveled;
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    /**
+     * shape_id Required The shape_id field contains an ID that uniquely identifies a shape.
+     */
+    public String getShapeId() {
+        return this.shapeId;
+    }
+
+    /**
+     * @return shape points, in sequence order, in the Google encoded polyline format.
+     */
+    public String getPolyline() {
+        return this.polyline;
+    }
+
+    public int getPointCount() {
+        return this.pointCount;
+    }
+
+    /**
+     * @return shape_dist_traveled of every point, or null if the feed does not provide it.
+     */
+    public double[] getDistancesTraveled() {
+        return this.distancesTraveled;
+    }
+
+    @Override
+    public int hashCode() {
+        return HashCodeBuilder.reflectionHashCode(this);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return EqualsBuilder.reflectionEquals(this, obj);
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this).build();
+    }
+
+}
@@ -7,6 +7,7 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Index;
 import javax.persistence.Table;
+import javax.persistence.TableGenerator;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -25,7 +26,8 @@ import org.hibernate.annotations.CacheConcurrencyStrategy;
 public class Stop {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "stops")
+    @TableGenerator(name = "stops", table = "id_generators", pkColumnValue = "stops", allocationSize = 1000)
     private long id;
     
     @Column(name = "o_stop_id", nullable = false)
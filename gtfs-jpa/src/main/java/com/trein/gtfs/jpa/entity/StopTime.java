@@ -9,6 +9,7 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.TableGenerator;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -26,7 +27,8 @@ import org.hibernate.annotations.CacheConcurrencyStrategy;
 public class StopTime {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "stop_times")
+    @TableGenerator(name = "stop_times", table = "id_generators", pkColumnValue = "stop_times", allocationSize = 1000)
     private long id;
     
     @Column(name = "arrival_time", nullable = false)
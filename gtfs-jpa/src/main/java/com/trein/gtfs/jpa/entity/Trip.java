@@ -13,6 +13,7 @@ import javax.persistence.ManyToMany;
 import javax.persistence.ManyToOne;
 import javax.persistence.OrderColumn;
 import javax.persistence.Table;
+import javax.persistence.TableGenerator;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -31,7 +32,8 @@ import org.hibernate.annotations.CacheConcurrencyStrategy;
 public class Trip {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "trips")
+    @TableGenerator(name = "trips", table = "id_generators", pkColumnValue = "trips", allocationSize = 1000)
     private long id;
     
     @Column(name = "o_trip_id", nullable = false)
@@ -41,6 +43,9 @@ public class Trip {
     @JoinColumn(name = "route", nullable = false)
     private Route route;
 
+    @Column(name = "o_shape_id")
+    private String shapeId;
+
     @ManyToMany
     @OrderColumn(name = "sequence")
     private List<Shape> shapes;
@@ -68,7 +73,7 @@ public class Trip {
     }
 
     public Trip(String tripId, Route route, String serviceId, String headsign, String shortName, DirectionType directionType,
-            int blockId, List<Shape> shapes, WheelchairType wheelchairType) {
+            int blockId, String shapeId, List<Shape> shapes, WheelchairType wheelchairType) {
         this.tripId = tripId;
         this.route = route;
         this.serviceId = serviceId;
@@ -76,6 +81,7 @@ public class Trip {
         this.shortName = shortName;
         this.directionType = directionType;
         this.blockId = blockId;
+        this.shapeId = shapeId;
         this.shapes = shapes;
         this.wheelchairType = wheelchairType;
     }
@@ -183,6 +189,16 @@ public class Trip {
      * value is referenced from the shapes.txt file. The shapes.txt file allows you to define how a
      * line should be drawn on the map to represent a trip.
      *
+     * @return current trip's shape id, also the id of its packed {@link ShapeGeometry}.
+     */
+    public String getShapeId() {
+        return this.shapeId;
+    }
+
+    /**
+     * Shape points referenced one by one. Empty or null when shapes are stored packed, see
+     * {@link #getShapeId()}.
+     *
      * @return shares related to the current trip.
      */
     public List<Shape> getShapes() {
@@ -0,0 +1,11 @@
+package com.trein.gtfs.jpa.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.trein.gtfs.jpa.entity.ShapeGeometry;
+
+public interface ShapeGeometryRepository extends JpaRepository<ShapeGeometry, Long> {
+
+    ShapeGeometry findByShapeId(String shapeId);
+
+}
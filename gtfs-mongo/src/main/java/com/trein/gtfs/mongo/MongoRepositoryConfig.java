@@ -30,7 +30,15 @@ public class MongoRepositoryConfig extends AbstractMongoConfiguration {
     
     @PostConstruct
     public void initDb() throws Exception {
-        MongoTemplate mongoTemplate = mongoTemplate();
+        ensureQueryIndexes(mongoTemplate());
+    }
+
+    /**
+     * Creates the indexes used by reference queries, which are not declared on the entities.
+     *
+     * @param mongoTemplate template of the GTFS database
+     */
+    public static void ensureQueryIndexes(MongoTemplate mongoTemplate) {
         mongoTemplate.indexOps(StopTime.class).ensureIndex(new Index().on("trip", Direction.ASC));
         mongoTemplate.indexOps(Trip.class).ensureIndex(new Index().on("route", Direction.ASC));
     }
@@ -0,0 +1,256 @@
+package com.trein.gtfs.mongo.entity;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Days on which every service of the feed runs, compiled from {@link Calendar} weekdays and
+ * {@link CalendarDate} exceptions over the feed validity window. Services are numbered by sorted
+ * <code>service_id</code>, and each day of the window is a bit set over those numbers, so
+ * {@link #isActive(String, Date)} and {@link #activeServices(Date)} do not evaluate any rule.
+ * <p>
+ * Days are stored as rows of equal length in a single byte array. Dates are calendar days in the
+ * default time zone, the one GTFS dates are read in.
+ *
+ * @author trein
+ */
+@Document
+public class ServiceCalendarIndex {
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    @Id
+    private ObjectId id;
+
+    private String[] serviceIds;
+    private Date startDate;
+    private int dayCount;
+    private byte[] days;
+
+    @Transient
+    private volatile Bits bits;
+
+    ServiceCalendarIndex() {
+    }
+
+    public ServiceCalendarIndex(String[] serviceIds, Date startDate, int dayCount, byte[] days) {
+        this.serviceIds = serviceIds;
+        this.startDate = startDate;
+        this.dayCount = dayCount;
+        this.days = days;
+    }
+
+    /**
+     * Compiles the calendars of a feed. When the window is not given, e.g. the feed has no
+     * <code>feed_info.txt</code>, it spans every calendar and calendar date.
+     *
+     * @param startDate first day of the validity window, or null
+     * @param endDate last day of the validity window, or null
+     * @param calendars weekly calendars
+     * @param calendarDates added and removed dates
+     * @return compiled calendars
+     */
+    public static ServiceCalendarIndex compile(Date startDate, Date endDate, Collection<Calendar> calendars,
+            Collection<CalendarDate> calendarDates) {
+        TreeSet<String> ids = new TreeSet<String>();
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        for (Calendar calendar : calendars) {
+            ids.add(calendar.getServiceId());
+            first = Math.min(first, epochDay(calendar.getStartDate()));
+            last = Math.max(last, epochDay(calendar.getEndDate()));
+        }
+        for (CalendarDate date : calendarDates) {
+            ids.add(date.getServiceId());
+            first = Math.min(first, epochDay(date.getDate()));
+            last = Math.max(last, epochDay(date.getDate()));
+        }
+        if (startDate != null) {
+            first = epochDay(startDate);
+        }
+        if (endDate != null) {
+            last = epochDay(endDate);
+        }
+        String[] serviceIds = ids.toArray(new String[ids.size()]);
+        if (first > last) {
+            return new ServiceCalendarIndex(serviceIds, startDate, 0, new byte[0]);
+        }
+
+        Map<String, Integer> indexes = indexServices(serviceIds);
+        BitSet[] days = new BitSet[(last - first) + 1];
+        for (int day = 0; day < days.length; day++) {
+            days[day] = new BitSet(serviceIds.length);
+        }
+        for (Calendar calendar : calendars) {
+            boolean[] weekdays = weekdays(calendar);
+            int service = indexes.get(calendar.getServiceId()).intValue();
+            int from = Math.max(first, epochDay(calendar.getStartDate()));
+            int to = Math.min(last, epochDay(calendar.getEndDate()));
+            for (int day = from; day <= to; day++) {
+                if (weekdays[dayOfWeek(day)]) {
+                    days[day - first].set(service);
+                }
+            }
+        }
+        for (CalendarDate date : calendarDates) {
+            int day = epochDay(date.getDate());
+            if ((day >= first) && (day <= last)) {
+                days[day - first].set(indexes.get(date.getServiceId()).intValue(),
+                        date.getExceptionType() != ExceptionType.REMOVED_FOR_SPECIFIC_DATE);
+            }
+        }
+
+        int stride = stride(serviceIds.length);
+        byte[] packed = new byte[days.length * stride];
+        for (int day = 0; day < days.length; day++) {
+            byte[] row = days[day].toByteArray();
+            System.arraycopy(row, 0, packed, day * stride, row.length);
+        }
+        return new ServiceCalendarIndex(serviceIds, fromEpochDay(first), days.length, packed);
+    }
+
+    public ObjectId getId() {
+        return this.id;
+    }
+
+    /**
+     * @return every service id, in the order services are numbered in bit sets
+     */
+    public String[] getServiceIds() {
+        return this.serviceIds;
+    }
+
+    /**
+     * @return first day of the validity window
+     */
+    public Date getStartDate() {
+        return this.startDate;
+    }
+
+    public int getDayCount() {
+        return this.dayCount;
+    }
+
+    /**
+     * @param serviceId GTFS service id
+     * @return number of the service in bit sets, or -1 if the feed has no such service
+     */
+    public int indexOf(String serviceId) {
+        Integer index = getBits().indexes.get(serviceId);
+        return (index != null) ? index.intValue() : -1;
+    }
+
+    /**
+     * @param serviceId GTFS service id
+     * @param date day, any time of it
+     * @return true if the service runs on the day, false as well outside of the validity window
+     */
+    public boolean isActive(String serviceId, Date date) {
+        Bits current = getBits();
+        Integer service = current.indexes.get(serviceId);
+        BitSet day = current.day(date);
+        return (service != null) && (day != null) && day.get(service.intValue());
+    }
+
+    /**
+     * @param date day, any time of it
+     * @return services running on the day, by number, empty outside of the validity window
+     */
+    public BitSet activeServices(Date date) {
+        BitSet day = getBits().day(date);
+        return (day != null) ? (BitSet) day.clone() : new BitSet();
+    }
+
+    private Bits getBits() {
+        Bits current = this.bits;
+        if (current == null) {
+            current = new Bits(this);
+            this.bits = current;
+        }
+        return current;
+    }
+
+    private static Map<String, Integer> indexServices(String[] serviceIds) {
+        Map<String, Integer> indexes = new HashMap<String, Integer>(serviceIds.length * 2);
+        for (int i = 0; i < serviceIds.length; i++) {
+            indexes.put(serviceIds[i], Integer.valueOf(i));
+        }
+        return indexes;
+    }
+
+    private static int stride(int serviceCount) {
+        return (serviceCount + 7) / 8;
+    }
+
+    /**
+     * @return days since 1970-01-01 of the date's calendar day in the default time zone
+     */
+    private static int epochDay(Date date) {
+        java.util.Calendar local = java.util.Calendar.getInstance();
+        local.setTime(date);
+        long offset = local.get(java.util.Calendar.ZONE_OFFSET) + local.get(java.util.Calendar.DST_OFFSET);
+        return (int) Math.floor((date.getTime() + offset) / (double) DAY_MILLIS);
+    }
+
+    private static Date fromEpochDay(int epochDay) {
+        java.util.Calendar local = java.util.Calendar.getInstance();
+        local.clear();
+        local.set(1970, java.util.Calendar.JANUARY, 1);
+        local.add(java.util.Calendar.DAY_OF_MONTH, epochDay);
+        return local.getTime();
+    }
+
+    /**
+     * @return 0 for Monday to 6 for Sunday, 1970-01-01 being a Thursday
+     */
+    private static int dayOfWeek(int epochDay) {
+        return (((epochDay + 3) % 7) + 7) % 7;
+    }
+
+    private static boolean[] weekdays(Calendar calendar) {
+        return new boolean[] { calendar.isAvailableOnMonday(), calendar.isAvailableOnTuesday(),
+                calendar.isAvailableOnWednesday(), calendar.isAvailableOnThursday(), calendar.isAvailableOnFriday(),
+                calendar.isAvailableOnSaturday(), calendar.isAvailableOnSunday() };
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this).setExcludeFieldNames("days", "bits").build();
+    }
+
+    /**
+     * Stored rows unpacked into bit sets, built on first use.
+     */
+    private static final class Bits {
+
+        private final Map<String, Integer> indexes;
+        private final BitSet[] days;
+        private final int firstDay;
+
+        Bits(ServiceCalendarIndex index) {
+            this.indexes = indexServices(index.serviceIds);
+            this.firstDay = (index.startDate != null) ? epochDay(index.startDate) : 0;
+            this.days = new BitSet[index.dayCount];
+            int stride = stride(index.serviceIds.length);
+            for (int day = 0; day < index.dayCount; day++) {
+                this.days[day] = BitSet.valueOf(Arrays.copyOfRange(index.days, day * stride, (day + 1) * stride));
+            }
+        }
+
+        BitSet day(Date date) {
+            int day = epochDay(date) - this.firstDay;
+            return ((day >= 0) && (day < this.days.length)) ? this.days[day] : null;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.trein.gtfs.mongo.entity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import com.trein.gtfs.mongo.geometry.PolylineEncoder;
+
+/**
+ * Every point of a shape packed into a single document. Points are kept as an encoded polyline in
+ * <code>shape_pt_sequence</code> order, so the geometry of a trip is read with one query and can be
+ * served as is, while {@link #getPoints()} rebuilds the per point {@link Shape} view.
+ *
+ * @author trein
+ */
+@Document
+public class ShapeGeometry {
+
+    @Id
+    private ObjectId id;
+
+    @Indexed(unique = true)
+    private String shapeId;
+
+    private String polyline;
+    private int pointCount;
+    private double[] distancesTraveled;
+
+    ShapeGeometry() {
+    }
+
+    public ShapeGeometry(String shapeId, String polyline, int pointCount, double[] distancesTraveled) {
+        this.shapeId = shapeId;
+        this.polyline = polyline;
+        this.pointCount = pointCount;
+        this.distancesTraveled = distancesTraveled;
+    }
+
+    public ObjectId getId() {
+        return this.id;
+    }
+
+    /**
+     * shape_id Required The shape_id field contains an ID that uniquely identifies a shape.
+     */
+    public String getShapeId() {
+        return this.shapeId;
+    }
+
+    /**
+     * @return shape points, in sequence order, in the Google encoded polyline format.
+     */
+    public String getPolyline() {
+        return this.polyline;
+    }
+
+    public int getPointCount() {
+        return this.pointCount;
+    }
+
+    /**
+     * @return shape_dist_traveled of every point, or null if the feed does not provide it.
+     */
+    public double[] getDistancesTraveled() {
+        return this.distancesTraveled;
+    }
+
+    /**
+     * Decodes the polyline into shape points. Sequences are renumbered from zero, as only their
+     * order is kept.
+     *
+     * @return shape points in sequence order.
+     */
+    public List<Shape> getPoints() {
+        double[][] locations = PolylineEncoder.decode(this.polyline);
+        List<Shape> points = new ArrayList<Shape>(locations.length);
+
+        for (int i = 0; i < locations.length; i++) {
+            double distance = (this.distancesTraveled != null) ? this.distancesTraveled[i] : 0;
+            points.add(new Shape(this.shapeId, locations[i], i, distance));
+        }
+        return points;
+    }
+
+    @Override
+    public int hashCode() {
+        return HashCodeBuilder.reflectionHashCode(this);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return EqualsBuilder.reflectionEquals(this, obj);
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this).build();
+    }
+
+}
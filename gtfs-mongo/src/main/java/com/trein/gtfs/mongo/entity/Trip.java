@@ -28,6 +28,9 @@ public class Trip {
     @DBRef
     private Route route;
 
+    @Indexed
+    private String shapeId;
+
     @DBRef
     private List<Shape> shapes;
     
@@ -45,7 +48,7 @@ public class Trip {
     }
 
     public Trip(String tripId, Route route, String serviceId, String headsign, String shortName, DirectionType directionType,
-            int blockId, List<Shape> shapes, WheelchairType wheelchairType) {
+            int blockId, String shapeId, List<Shape> shapes, WheelchairType wheelchairType) {
         this.tripId = tripId;
         this.route = route;
         this.serviceId = serviceId;
@@ -53,6 +56,7 @@ public class Trip {
         this.shortName = shortName;
         this.directionType = directionType;
         this.blockId = blockId;
+        this.shapeId = shapeId;
         this.shapes = shapes;
         this.wheelchairType = wheelchairType;
     }
@@ -160,6 +164,16 @@ public class Trip {
      * value is referenced from the shapes.txt file. The shapes.txt file allows you to define how a
      * line should be drawn on the map to represent a trip.
      *
+     * @return current trip's shape id, also the id of its packed {@link ShapeGeometry}.
+     */
+    public String getShapeId() {
+        return this.shapeId;
+    }
+
+    /**
+     * Shape points referenced one by one. Empty or null when shapes are stored packed, see
+     * {@link #getShapeId()}.
+     *
      * @return shares related to the current trip.
      */
     public List<Shape> getShapes() {
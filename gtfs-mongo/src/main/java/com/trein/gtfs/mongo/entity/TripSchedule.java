@@ -0,0 +1,142 @@
+package com.trein.gtfs.mongo.entity;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Every stop time of a trip in a single document, as parallel arrays in <code>stop_sequence</code>
+ * order. Stops are kept by GTFS id rather than referenced, so the whole schedule of a trip is read
+ * with one query and no further lookups.
+ *
+ * @author trein
+ */
+@Document
+public class TripSchedule {
+
+    /**
+     * Time of a stop without arrival or departure time, i.e. not a time point.
+     */
+    public static final int NO_TIME = -1;
+
+    @Id
+    private ObjectId id;
+
+    @Indexed(unique = true)
+    private String tripId;
+
+    private String[] stopIds;
+    private int[] arrivalTimes;
+    private int[] departureTimes;
+    private int[] stopSequences;
+    private String[] stopHeadsigns;
+    private int[] pickupTypes;
+    private int[] dropoffTypes;
+    private double[] shapeDistancesTraveled;
+
+    TripSchedule() {
+    }
+
+    public TripSchedule(String tripId, String[] stopIds, int[] arrivalTimes, int[] departureTimes, int[] stopSequences,
+            String[] stopHeadsigns, int[] pickupTypes, int[] dropoffTypes, double[] shapeDistancesTraveled) {
+        this.tripId = tripId;
+        this.stopIds = stopIds;
+        this.arrivalTimes = arrivalTimes;
+        this.departureTimes = departureTimes;
+        this.stopSequences = stopSequences;
+        this.stopHeadsigns = stopHeadsigns;
+        this.pickupTypes = pickupTypes;
+        this.dropoffTypes = dropoffTypes;
+        this.shapeDistancesTraveled = shapeDistancesTraveled;
+    }
+
+    public ObjectId getId() {
+        return this.id;
+    }
+
+    /**
+     * trip_id Required The trip_id field contains an ID that identifies a trip.
+     */
+    public String getTripId() {
+        return this.tripId;
+    }
+
+    /**
+     * @return number of stop times of the trip.
+     */
+    public int size() {
+        return this.stopIds.length;
+    }
+
+    /**
+     * @return stop_id of every stop time.
+     */
+    public String[] getStopIds() {
+        return this.stopIds;
+    }
+
+    /**
+     * @return arrival_time of every stop time, in seconds since the start of the service day, or
+     *         {@link #NO_TIME}.
+     */
+    public int[] getArrivalTimes() {
+        return this.arrivalTimes;
+    }
+
+    /**
+     * @return departure_time of every stop time, in seconds since the start of the service day, or
+     *         {@link #NO_TIME}.
+     */
+    public int[] getDepartureTimes() {
+        return this.departureTimes;
+    }
+
+    public int[] getStopSequences() {
+        return this.stopSequences;
+    }
+
+    /**
+     * @return stop_headsign of every stop time, or null if no stop time of the trip has one.
+     */
+    public String[] getStopHeadsigns() {
+        return this.stopHeadsigns;
+    }
+
+    /**
+     * @return pickup_type codes, see {@link AvailabilityType#getCode()}.
+     */
+    public int[] getPickupTypes() {
+        return this.pickupTypes;
+    }
+
+    /**
+     * @return drop_off_type codes, see {@link AvailabilityType#getCode()}.
+     */
+    public int[] getDropoffTypes() {
+        return this.dropoffTypes;
+    }
+
+    public double[] getShapeDistancesTraveled() {
+        return this.shapeDistancesTraveled;
+    }
+
+    @Override
+    public int hashCode() {
+        return HashCodeBuilder.reflectionHashCode(this);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return EqualsBuilder.reflectionEquals(this, obj);
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this).build();
+    }
+
+}
@@ -1,5 +1,7 @@
 package com.trein.gtfs.mongo.entity.app;
 
+import java.util.Date;
+
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
@@ -18,6 +20,7 @@ public class Audit {
     private String requestedUri;
     private String token;
     private String comment;
+    private Date requestedAt;
 
     public ObjectId getId() {
         return this.id;
@@ -63,6 +66,18 @@ public class Audit {
         this.comment = comment;
     }
 
+    /**
+     * Records may be written some time after the request, so the time of the object id is only an
+     * approximation of it.
+     */
+    public Date getRequestedAt() {
+        return this.requestedAt;
+    }
+
+    public void setRequestedAt(Date requestedAt) {
+        this.requestedAt = requestedAt;
+    }
+
     @Override
     public int hashCode() {
         return HashCodeBuilder.reflectionHashCode(this);
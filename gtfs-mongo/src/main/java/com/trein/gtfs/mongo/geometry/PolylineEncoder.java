@@ -0,0 +1,119 @@
+package com.trein.gtfs.mongo.geometry;
+
+/**
+ * Google encoded polyline format, the same one produced by the trip planner's
+ * <code>PolylineEncoder</code>. Coordinates are rounded to 1e-5 degrees and every point is stored
+ * as the zigzag encoded delta from the previous one, five bits per character, so a typical shape
+ * point takes four to six characters instead of a whole document.
+ *
+ * @author trein
+ */
+public final class PolylineEncoder {
+
+    private static final double PRECISION = 1e5;
+    private static final int CHUNK_BITS = 5;
+    private static final int CHUNK_MASK = 0x1f;
+    private static final int CONTINUATION = 0x20;
+    private static final int OFFSET = 63;
+
+    private PolylineEncoder() {
+    }
+
+    /**
+     * @param lat latitudes, in degrees
+     * @param lon longitudes, in degrees
+     * @param count number of points to encode
+     * @return encoded polyline
+     */
+    public static String encode(double[] lat, double[] lon, int count) {
+        if ((count > lat.length) || (count > lon.length)) {
+            throw new IllegalArgumentException(String.format("can not encode %d points from %d coordinates", count,
+                    Math.min(lat.length, lon.length)));
+        }
+        StringBuilder encoded = new StringBuilder(count * 8);
+        int previousLat = 0;
+        int previousLon = 0;
+
+        for (int i = 0; i < count; i++) {
+            int late5 = round1e5(lat[i]);
+            int lone5 = round1e5(lon[i]);
+            encodeSignedNumber(encoded, late5 - previousLat);
+            encodeSignedNumber(encoded, lone5 - previousLon);
+            previousLat = late5;
+            previousLon = lone5;
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * @param polyline encoded polyline
+     * @return points as <code>[lat, lng]</code> pairs, the layout of shape locations
+     */
+    public static double[][] decode(String polyline) {
+        double[][] points = new double[countPoints(polyline)][];
+        int index = 0;
+        int lat = 0;
+        int lon = 0;
+
+        for (int i = 0; i < points.length; i++) {
+            int[] value = decodeSignedNumber(polyline, index);
+            lat += value[0];
+            value = decodeSignedNumber(polyline, value[1]);
+            lon += value[0];
+            index = value[1];
+            points[i] = new double[] { lat / PRECISION, lon / PRECISION };
+        }
+        return points;
+    }
+
+    /**
+     * Counts the points of a polyline without decoding it, from the characters ending a number.
+     */
+    public static int countPoints(String polyline) {
+        int numbers = 0;
+        for (int i = 0; i < polyline.length(); i++) {
+            if ((polyline.charAt(i) - OFFSET) < CONTINUATION) {
+                numbers++;
+            }
+        }
+        if ((numbers % 2) != 0) {
+            throw new IllegalArgumentException("polyline has an odd number of coordinates");
+        }
+        return numbers / 2;
+    }
+
+    private static int round1e5(double coordinate) {
+        return (int) Math.round(coordinate * PRECISION);
+    }
+
+    private static void encodeSignedNumber(StringBuilder encoded, int number) {
+        int value = number << 1;
+        if (number < 0) {
+            value = ~value;
+        }
+        while (value >= CONTINUATION) {
+            encoded.append((char) ((CONTINUATION | (value & CHUNK_MASK)) + OFFSET));
+            value >>>= CHUNK_BITS;
+        }
+        encoded.append((char) (value + OFFSET));
+    }
+
+    private static int[] decodeSignedNumber(String polyline, int start) {
+        int index = start;
+        int value = 0;
+        int shift = 0;
+        int chunk;
+
+        do {
+            if (index >= polyline.length()) {
+                throw new IllegalArgumentException(String.format("polyline ends inside the number at %d", start));
+            }
+            chunk = polyline.charAt(index++) - OFFSET;
+            value |= (chunk & CHUNK_MASK) << shift;
+            shift += CHUNK_BITS;
+        } while (chunk >= CONTINUATION);
+
+        int number = ((value & 1) != 0) ? ~(value >>> 1) : (value >>> 1);
+        return new int[] { number, index };
+    }
+}
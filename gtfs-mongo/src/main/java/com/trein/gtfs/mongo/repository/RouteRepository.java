@@ -1,6 +1,9 @@
 package com.trein.gtfs.mongo.repository;
 
+import java.util.List;
+
 import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
 import com.trein.gtfs.mongo.entity.Route;
@@ -8,5 +11,10 @@ import com.trein.gtfs.mongo.entity.Route;
 public interface RouteRepository extends MongoRepository<Route, ObjectId> {
 
     Route findByRouteId(String routeId);
+
+    /**
+     * Keyset page of routes, to be sorted by route id so the last one is the key of the next page.
+     */
+    List<Route> findByRouteIdGreaterThan(String routeId, Pageable pageable);
     
 }
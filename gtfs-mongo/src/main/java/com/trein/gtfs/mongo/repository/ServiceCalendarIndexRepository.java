@@ -0,0 +1,10 @@
+package com.trein.gtfs.mongo.repository;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import com.trein.gtfs.mongo.entity.ServiceCalendarIndex;
+
+public interface ServiceCalendarIndexRepository extends MongoRepository<ServiceCalendarIndex, ObjectId> {
+
+}
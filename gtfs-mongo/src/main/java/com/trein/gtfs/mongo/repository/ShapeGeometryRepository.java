@@ -0,0 +1,12 @@
+package com.trein.gtfs.mongo.repository;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import com.trein.gtfs.mongo.entity.ShapeGeometry;
+
+public interface ShapeGeometryRepository extends MongoRepository<ShapeGeometry, ObjectId> {
+
+    ShapeGeometry findByShapeId(String shapeId);
+
+}
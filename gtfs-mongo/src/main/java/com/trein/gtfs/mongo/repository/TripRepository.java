@@ -3,6 +3,7 @@ package com.trein.gtfs.mongo.repository;
 import java.util.List;
 
 import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 
@@ -13,6 +14,11 @@ public interface TripRepository extends MongoRepository<Trip, ObjectId> {
 
     Trip findByTripId(String tripId);
 
+    /**
+     * Keyset page of trips, to be sorted by trip id so the last one is the key of the next page.
+     */
+    List<Trip> findByTripIdGreaterThan(String tripId, Pageable pageable);
+
     @Query(value = "{ 'route' : ?0 }")
     List<Trip> findByRouteId(ObjectId id);
     
@@ -0,0 +1,118 @@
+package com.trein.gtfs.mongo.entity;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+import org.junit.Test;
+
+/**
+ * Testing the compilation of weekly calendars and date exceptions into per day bit sets.
+ *
+ * @author trein
+ */
+public class ServiceCalendarIndexTest {
+
+    // 2014-08-04 is a Monday
+    private static final Calendar WEEKDAYS = new Calendar("weekdays", true, true, true, true, true, false, false,
+            date(2014, 8, 1), date(2014, 8, 31));
+    private static final Calendar WEEKENDS = new Calendar("weekends", false, false, false, false, false, true, true,
+            date(2014, 8, 1), date(2014, 8, 31));
+
+    @Test
+    public void shouldFollowWeekdayRules() {
+        ServiceCalendarIndex index = ServiceCalendarIndex.compile(null, null, Arrays.asList(WEEKDAYS, WEEKENDS),
+                Collections.<CalendarDate> emptyList());
+
+        assertThat(index.getServiceIds(), is(new String[] { "weekdays", "weekends" }));
+        for (int day = 4; day <= 8; day++) {
+            assertThat(index.isActive("weekdays", date(2014, 8, day)), is(true));
+            assertThat(index.isActive("weekends", date(2014, 8, day)), is(false));
+        }
+        assertThat(index.isActive("weekdays", date(2014, 8, 9)), is(false));
+        assertThat(index.isActive("weekends", date(2014, 8, 9)), is(true));
+        assertThat(index.isActive("weekends", date(2014, 8, 10)), is(true));
+        assertThat(index.activeServices(date(2014, 8, 5)), is(bits(index.indexOf("weekdays"))));
+        assertThat(index.isActive("unknown", date(2014, 8, 5)), is(false));
+        assertThat(index.indexOf("unknown"), is(-1));
+    }
+
+    @Test
+    public void shouldApplyDateExceptions() {
+        ServiceCalendarIndex index = ServiceCalendarIndex.compile(null, null, Arrays.asList(WEEKDAYS, WEEKENDS),
+                Arrays.asList(new CalendarDate("weekdays", date(2014, 8, 15), ExceptionType.REMOVED_FOR_SPECIFIC_DATE),
+                        new CalendarDate("weekends", date(2014, 8, 15), ExceptionType.ADDED_FOR_SPECIFIC_DATE),
+                        new CalendarDate("special", date(2014, 8, 20), ExceptionType.ADDED_FOR_SPECIFIC_DATE)));
+
+        // a holiday runs the weekend service instead of the weekday one
+        assertThat(index.isActive("weekdays", date(2014, 8, 15)), is(false));
+        assertThat(index.isActive("weekends", date(2014, 8, 15)), is(true));
+        assertThat(index.activeServices(date(2014, 8, 15)), is(bits(index.indexOf("weekends"))));
+        // a service known only from calendar_dates runs on its dates only
+        assertThat(index.isActive("special", date(2014, 8, 20)), is(true));
+        assertThat(index.isActive("special", date(2014, 8, 21)), is(false));
+        assertThat(index.activeServices(date(2014, 8, 20)),
+                is(bits(index.indexOf("weekdays"), index.indexOf("special"))));
+        // other days keep the weekly rules
+        assertThat(index.isActive("weekdays", date(2014, 8, 14)), is(true));
+    }
+
+    @Test
+    public void shouldBeInactiveOutsideValidityWindow() {
+        ServiceCalendarIndex index = ServiceCalendarIndex.compile(date(2014, 8, 4), date(2014, 8, 10),
+                Arrays.asList(WEEKDAYS, WEEKENDS), Collections.<CalendarDate> emptyList());
+
+        assertThat(index.getDayCount(), is(7));
+        assertThat(index.isActive("weekdays", date(2014, 8, 4)), is(true));
+        assertThat(index.isActive("weekends", date(2014, 8, 10)), is(true));
+        // the calendars run on these days, the feed does not
+        assertThat(index.isActive("weekdays", date(2014, 8, 1)), is(false));
+        assertThat(index.isActive("weekdays", date(2014, 8, 11)), is(false));
+        assertThat(index.activeServices(date(2014, 8, 11)).isEmpty(), is(true));
+        assertThat(index.activeServices(date(2013, 8, 5)).isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldAnswerAnyTimeOfDay() {
+        ServiceCalendarIndex index = ServiceCalendarIndex.compile(null, null, Arrays.asList(WEEKDAYS),
+                Collections.<CalendarDate> emptyList());
+        GregorianCalendar evening = new GregorianCalendar(2014, 7, 8, 23, 59, 59);
+
+        assertThat(index.isActive("weekdays", evening.getTime()), is(true));
+        evening.add(java.util.Calendar.SECOND, 1);
+        assertThat(index.isActive("weekdays", evening.getTime()), is(false));
+    }
+
+    @Test
+    public void shouldHandleEmptyCalendar() {
+        ServiceCalendarIndex index = ServiceCalendarIndex.compile(null, null, Collections.<Calendar> emptyList(),
+                Collections.<CalendarDate> emptyList());
+
+        assertThat(index.getServiceIds().length, is(0));
+        assertThat(index.getDayCount(), is(0));
+        assertThat(index.isActive("weekdays", date(2014, 8, 4)), is(false));
+        assertThat(index.activeServices(date(2014, 8, 4)).isEmpty(), is(true));
+
+        ServiceCalendarIndex window = ServiceCalendarIndex.compile(date(2014, 8, 4), date(2014, 8, 10),
+                Collections.<Calendar> emptyList(), Collections.<CalendarDate> emptyList());
+        assertThat(window.getDayCount(), is(7));
+        assertThat(window.activeServices(date(2014, 8, 4)).isEmpty(), is(true));
+    }
+
+    private static Date date(int year, int month, int day) {
+        return new GregorianCalendar(year, month - 1, day).getTime();
+    }
+
+    private static BitSet bits(int... services) {
+        BitSet bits = new BitSet();
+        for (int service : services) {
+            bits.set(service);
+        }
+        return bits;
+    }
+}
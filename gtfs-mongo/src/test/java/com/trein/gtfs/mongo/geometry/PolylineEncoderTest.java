@@ -0,0 +1,51 @@
+package com.trein.gtfs.mongo.geometry;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+/**
+ * Testing the encoded polyline format against the reference polyline of the format description.
+ *
+ * @author trein
+ */
+public class PolylineEncoderTest {
+
+    private static final String POLYLINE = "_p~iF~ps|U_ulLnnqC_mqNvxq`@";
+    private static final double[] LAT = { 38.5, 40.7, 43.252 };
+    private static final double[] LON = { -120.2, -120.95, -126.453 };
+
+    @Test
+    public void shouldEncodeReferencePolyline() {
+        assertThat(PolylineEncoder.encode(LAT, LON, LAT.length), is(POLYLINE));
+    }
+
+    @Test
+    public void shouldEncodeFirstPoints() {
+        assertThat(PolylineEncoder.encode(LAT, LON, 1), is("_p~iF~ps|U"));
+    }
+
+    @Test
+    public void shouldDecodeReferencePolyline() {
+        assertThat(PolylineEncoder.decode(POLYLINE), is(new double[][] { { 38.5, -120.2 }, { 40.7, -120.95 },
+                { 43.252, -126.453 } }));
+    }
+
+    @Test
+    public void shouldCountPoints() {
+        assertThat(PolylineEncoder.countPoints(POLYLINE), is(3));
+    }
+
+    @Test
+    public void shouldHandleEmptyInput() {
+        assertThat(PolylineEncoder.encode(new double[0], new double[0], 0), is(""));
+        assertThat(PolylineEncoder.countPoints(""), is(0));
+        assertThat(PolylineEncoder.decode("").length, is(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectTruncatedPolyline() {
+        PolylineEncoder.decode(POLYLINE.substring(0, POLYLINE.length() - 1));
+    }
+}
@@ -7,6 +7,7 @@ import java.util.HashMap;
 import java.util.List;
 
 import org.opentripplanner.standalone.Graph.LoadLevel;
+import org.opentripplanner.standalone.GraphFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,6 +30,9 @@ public class GraphBuilderTask implements Runnable {
     /** Should the graph be serialized to disk after being created or not? */
     public boolean serializeGraph = true;
     
+    /** Should the graph be written in the binary GraphFile format instead of as a Java object stream? */
+    public boolean binaryGraph = false;
+    
     public void addGraphBuilder(GraphBuilder loader) {
         this._graphBuilders.add(loader);
     }
@@ -123,7 +127,11 @@ public class GraphBuilderTask implements Runnable {
         this.graph.summarizeBuilderAnnotations();
         if (this.serializeGraph) {
             try {
-                this.graph.save(this.graphFile);
+                if (this.binaryGraph) {
+                    GraphFile.save(this.graph, this.graphFile);
+                } else {
+                    this.graph.save(this.graphFile);
+                }
             } catch (Exception ex) {
                 throw new IllegalStateException(ex);
             }
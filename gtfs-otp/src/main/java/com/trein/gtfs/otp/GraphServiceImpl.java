@@ -15,7 +15,8 @@ import org.slf4j.LoggerFactory;
  * The primary implementation of the GraphService interface. It can handle multiple graphs, each
  * with its own routerId. These graphs are loaded from serialized graph files in subdirectories
  * immediately under the specified base resource/filesystem path. Delegate the file loading
- * implementation details to the GraphServiceFileImpl.
+ * implementation details to the GraphServiceFileImpl. Graph files may either be Java serialized
+ * graphs or binary GraphFiles, which Graph.load tells apart by their first bytes.
  *
  * @see GraphServiceFileImpl
  */
@@ -0,0 +1,135 @@
+package org.opentripplanner.standalone;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.opentripplanner.standalone.Graph.LoadLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures how fast the edge lists of a graph are walked, alone and within walking searches
+ * between random street vertices, so that changes to the edge list layout can be compared on a
+ * real graph. Run it with the same heap settings as the server.
+ *
+ * Usage: java -cp otp.jar org.opentripplanner.standalone.AdjacencyBenchmark Graph.bin [searches]
+ */
+public class AdjacencyBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdjacencyBenchmark.class);
+
+    private static final int DEFAULT_SEARCHES = 200;
+
+    private static final int WALK_ROUNDS = 20;
+
+    public static void main(String[] args) {
+        if ((args.length < 1) || (args.length > 2)) {
+            System.err.println("usage: AdjacencyBenchmark <graph> [searches]");
+            System.exit(1);
+        }
+        int searches = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_SEARCHES;
+        Graph graph;
+        try {
+            graph = Graph.load(new File(args[0]), LoadLevel.FULL);
+        } catch (Exception e) {
+            LOG.error("Could not load graph {}", args[0], e);
+            System.exit(1);
+            return;
+        }
+        LOG.info("Heap used after loading: {} MB", usedHeap() / (1024 * 1024));
+
+        walkEdges(graph);
+        // the first searches only warm the JIT up
+        search(graph, Math.max(1, searches / 10), new Random(1));
+        search(graph, searches, new Random(2));
+    }
+
+    /**
+     * Walks the outgoing edges of every vertex, the way searches do, then through their iterators.
+     * Frozen vertices are walked through the compressed sparse row arrays, others through the edges
+     * they hold themselves.
+     */
+    private static void walkEdges(Graph graph) {
+        List<Vertex> vertices = new ArrayList<Vertex>(graph.getVertices());
+        for (int pass = 0; pass < 2; pass++) {
+            long edges = 0;
+            long hash = 0;
+            long start = System.nanoTime();
+            for (int round = 0; round < WALK_ROUNDS; round++) {
+                for (Vertex v : vertices) {
+                    EdgeList list = v.outgoingEdges();
+                    EdgeList.Slice own = list.own();
+                    if (own != null) {
+                        for (int i = 0; i < own.size; i++) {
+                            hash += own.edges[i].getId();
+                        }
+                        edges += own.size;
+                    } else {
+                        EdgeAdjacency.Direction frozen = list.frozen();
+                        int end = frozen.end(v.getIndex());
+                        for (int i = frozen.start(v.getIndex()); i < end; i++) {
+                            hash += frozen.edges[i].getId();
+                        }
+                        edges += end - frozen.start(v.getIndex());
+                    }
+                }
+            }
+            long inPlace = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int round = 0; round < WALK_ROUNDS; round++) {
+                for (Vertex v : vertices) {
+                    for (Edge e : v.getOutgoing()) {
+                        hash -= e.getId();
+                    }
+                }
+            }
+            long iterated = System.nanoTime() - start;
+            // printing the checksum keeps the loops from being optimized away
+            LOG.info("Walked {} edges: {} M edges/s in place, {} M edges/s through iterators (checksum {}).", edges,
+                    rate(edges, inPlace) / 1e6, rate(edges, iterated) / 1e6, hash);
+        }
+    }
+
+    private static void search(Graph graph, int searches, Random random) {
+        List<Vertex> vertices = new ArrayList<Vertex>();
+        for (Vertex v : graph.getVertices()) {
+            if (v instanceof StreetVertex) {
+                vertices.add(v);
+            }
+        }
+        if (vertices.size() < 2) {
+            LOG.warn("Graph has no street vertices to search between.");
+            return;
+        }
+        GenericAStar astar = new GenericAStar();
+        long visited = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < searches; i++) {
+            RoutingRequest request = new RoutingRequest(TraverseMode.WALK);
+            Vertex from = vertices.get(random.nextInt(vertices.size()));
+            Vertex to = vertices.get(random.nextInt(vertices.size()));
+            request.setRoutingContext(graph, from, to);
+            ShortestPathTree spt = astar.getShortestPathTree(request);
+            if (spt != null) {
+                visited += spt.getVertexCount();
+            }
+            request.cleanup();
+        }
+        long elapsed = System.nanoTime() - start;
+        LOG.info("Ran {} searches: {} searches/s, {} visited vertices/s.", searches, rate(searches, elapsed),
+                rate(visited, elapsed));
+    }
+
+    private static double rate(long count, long nanos) {
+        return (count * 1e9) / Math.max(1, nanos);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
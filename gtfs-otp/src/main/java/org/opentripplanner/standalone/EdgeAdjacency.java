@@ -0,0 +1,132 @@
+package org.opentripplanner.standalone;
+
+import java.util.Collection;
+
+/**
+ * Compressed sparse row layout of the edges of a set of vertices, one per direction. The outgoing
+ * (incoming) edges of all vertices are copied one vertex after the other into a single array, and
+ * the edges of a vertex are found through an offset array indexed by Vertex.getIndex(), next to an
+ * array with the index of the vertex at the other end of each edge. The edge list of each vertex
+ * then only refers to these arrays, so the edges of a graph are held once, in two arrays, instead
+ * of in an array per vertex and direction.
+ *
+ * The arrays are never changed: a vertex whose edges change afterwards (typically with the
+ * temporary edges of a request) copies its range into an edge list of its own until the change is
+ * undone, and a vertex whose edges changed while the arrays were filled keeps its own edges. See
+ * Graph.freezeAdjacency().
+ */
+public class EdgeAdjacency {
+
+    /** Edges of all vertices in one direction. */
+    static final class Direction {
+
+        /* edges of vertex i are edges[offsets[i]] to edges[offsets[i + 1] - 1] */
+        final int[] offsets;
+
+        final Edge[] edges;
+
+        /* index of the vertex at the other end of each edge, -1 if it has none */
+        final int[] targets;
+
+        Direction(int[] offsets, Edge[] edges, int[] targets) {
+            this.offsets = offsets;
+            this.edges = edges;
+            this.targets = targets;
+        }
+
+        int start(int index) {
+            return this.offsets[index];
+        }
+
+        int end(int index) {
+            return this.offsets[index + 1];
+        }
+    }
+
+    private final Direction outgoing;
+
+    private final Direction incoming;
+
+    private int frozenVertices;
+
+    public EdgeAdjacency(Collection<Vertex> vertices) {
+        int maxIndex = -1;
+        for (Vertex v : vertices) {
+            maxIndex = Math.max(maxIndex, v.getIndex());
+        }
+        Object[] outStates = new Object[maxIndex + 1];
+        Object[] inStates = new Object[maxIndex + 1];
+        for (Vertex v : vertices) {
+            outStates[v.getIndex()] = v.outgoingEdges().state();
+            inStates[v.getIndex()] = v.incomingEdges().state();
+        }
+        this.outgoing = build(outStates, false);
+        this.incoming = build(inStates, true);
+        for (Vertex v : vertices) {
+            int index = v.getIndex();
+            boolean frozen = v.outgoingEdges().freeze(outStates[index], this.outgoing, index);
+            frozen &= v.incomingEdges().freeze(inStates[index], this.incoming, index);
+            if (frozen) {
+                this.frozenVertices++;
+            }
+        }
+    }
+
+    /* copies the edges of the given list states, indexed by vertex, into one direction */
+    private static Direction build(Object[] states, boolean incoming) {
+        int[] offsets = new int[states.length + 1];
+        for (int i = 0; i < states.length; i++) {
+            offsets[i + 1] = offsets[i] + size(states[i], i);
+        }
+        Edge[] edges = new Edge[offsets[states.length]];
+        int[] targets = new int[edges.length];
+        for (int i = 0; i < states.length; i++) {
+            copy(states[i], i, edges, offsets[i]);
+        }
+        for (int e = 0; e < edges.length; e++) {
+            Vertex target = incoming ? edges[e].getFromVertex() : edges[e].getToVertex();
+            targets[e] = (target == null) ? -1 : target.getIndex();
+        }
+        return new Direction(offsets, edges, targets);
+    }
+
+    private static int size(Object state, int index) {
+        if (state instanceof EdgeList.Slice) {
+            return ((EdgeList.Slice) state).size;
+        }
+        if (state instanceof Direction) {
+            return ((Direction) state).end(index) - ((Direction) state).start(index);
+        }
+        return 0;
+    }
+
+    private static void copy(Object state, int index, Edge[] edges, int start) {
+        if (state instanceof EdgeList.Slice) {
+            EdgeList.Slice slice = (EdgeList.Slice) state;
+            System.arraycopy(slice.edges, 0, edges, start, slice.size);
+        } else if (state instanceof Direction) {
+            Direction frozen = (Direction) state;
+            System.arraycopy(frozen.edges, frozen.start(index), edges, start, frozen.end(index) - frozen.start(index));
+        }
+    }
+
+    public int countEdges() {
+        return this.outgoing.edges.length;
+    }
+
+    /** @return the number of vertices whose edge lists refer to these arrays */
+    public int countFrozenVertices() {
+        return this.frozenVertices;
+    }
+
+    /** @return the outgoing edges of all vertices */
+    Direction getOutgoing() {
+        return this.outgoing;
+    }
+
+    /** @return the incoming edges of all vertices */
+    Direction getIncoming() {
+        return this.incoming;
+    }
+
+}
@@ -0,0 +1,208 @@
+package org.opentripplanner.standalone;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Incoming or outgoing edges of a vertex. Once the graph is frozen, the edges are the range of the
+ * vertex in the compressed sparse row arrays of its EdgeAdjacency, and the list only holds a
+ * reference to them. The first change copies the range into a small array of the list's own, such
+ * as when a request links temporary edges to the vertex, and the list goes back to the frozen range
+ * once its edges are the same again.
+ *
+ * Readers take the current edges and walk them without locking or allocating, while writers publish
+ * new ones: appending writes past the end of the own edges and publishes the longer slice, so that
+ * readers of the previous slice never see the change, and removing copies the remaining edges into
+ * a new array.
+ */
+final class EdgeList extends AbstractCollection<Edge> {
+
+    private static final Edge[] NO_EDGES = new Edge[0];
+
+    private static final int MIN_CAPACITY = 4;
+
+    /** Immutable view of the first edges of an array. */
+    static final class Slice {
+
+        final Edge[] edges;
+
+        final int size;
+
+        Slice(Edge[] edges, int size) {
+            this.edges = edges;
+            this.size = size;
+        }
+    }
+
+    /* frozen edges, set before own is cleared and never unset */
+    private volatile EdgeAdjacency.Direction frozen;
+
+    /* index of the vertex in the frozen edges */
+    private int index;
+
+    /* edges held by the list itself, or null while they are the range of the vertex in frozen */
+    private volatile Slice own = new Slice(NO_EDGES, 0);
+
+    /** @return the edges held by the list at the time of the call, or null if they are the frozen ones */
+    Slice own() {
+        return this.own;
+    }
+
+    /** @return the frozen edges, holding the edges of the vertex whenever own() is null */
+    EdgeAdjacency.Direction frozen() {
+        return this.frozen;
+    }
+
+    @Override
+    public int size() {
+        Slice current = this.own;
+        if (current != null) {
+            return current.size;
+        }
+        EdgeAdjacency.Direction edges = this.frozen;
+        return edges.end(this.index) - edges.start(this.index);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        Slice current = this.own;
+        if (current != null) {
+            return indexOf(current.edges, 0, current.size, o) >= 0;
+        }
+        EdgeAdjacency.Direction edges = this.frozen;
+        return indexOf(edges.edges, edges.start(this.index), edges.end(this.index), o) >= 0;
+    }
+
+    @Override
+    public synchronized boolean add(Edge edge) {
+        Slice current = ownEdges();
+        if (indexOf(current.edges, 0, current.size, edge) >= 0) {
+            return false;
+        }
+        Edge[] edges = current.edges;
+        if (current.size == edges.length) {
+            edges = Arrays.copyOf(edges, Math.max(MIN_CAPACITY, current.size * 2));
+        }
+        edges[current.size] = edge;
+        this.own = new Slice(edges, current.size + 1);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(Object o) {
+        Slice current = ownEdges();
+        int i = indexOf(current.edges, 0, current.size, o);
+        if (i < 0) {
+            return false;
+        }
+        int size = current.size - 1;
+        Edge[] edges = new Edge[Math.max(MIN_CAPACITY, size)];
+        System.arraycopy(current.edges, 0, edges, 0, i);
+        System.arraycopy(current.edges, i + 1, edges, i, size - i);
+        this.own = isFrozen(edges, size) ? null : new Slice(edges, size);
+        return true;
+    }
+
+    @Override
+    public synchronized void clear() {
+        this.own = new Slice(NO_EDGES, 0);
+    }
+
+    /** @return the current edges, as the list's own slice or as the frozen edges */
+    synchronized Object state() {
+        Slice current = this.own;
+        return (current != null) ? current : this.frozen;
+    }
+
+    /**
+     * Points the list at the range of a vertex in frozen edges, unless the edges changed since the
+     * given state was taken.
+     *
+     * @return whether the frozen edges are used
+     */
+    synchronized boolean freeze(Object expected, EdgeAdjacency.Direction edges, int index) {
+        if (state() != expected) {
+            return false;
+        }
+        this.frozen = edges;
+        this.index = index;
+        this.own = null;
+        return true;
+    }
+
+    /* the own edges, copied from the frozen range if needed, called while holding the lock */
+    private Slice ownEdges() {
+        Slice current = this.own;
+        if (current == null) {
+            int start = this.frozen.start(this.index);
+            int end = this.frozen.end(this.index);
+            current = new Slice(Arrays.copyOfRange(this.frozen.edges, start, Math.max(end, start + MIN_CAPACITY)),
+                    end - start);
+        }
+        return current;
+    }
+
+    /* whether the edges are the frozen range again, so the own copy can be dropped */
+    private boolean isFrozen(Edge[] edges, int size) {
+        EdgeAdjacency.Direction frozenEdges = this.frozen;
+        if (frozenEdges == null) {
+            return false;
+        }
+        int start = frozenEdges.start(this.index);
+        if ((frozenEdges.end(this.index) - start) != size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (frozenEdges.edges[start + i] != edges[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Iterator<Edge> iterator() {
+        Slice current = this.own;
+        if (current != null) {
+            return iterator(current.edges, 0, current.size);
+        }
+        EdgeAdjacency.Direction edges = this.frozen;
+        return iterator(edges.edges, edges.start(this.index), edges.end(this.index));
+    }
+
+    private static Iterator<Edge> iterator(final Edge[] edges, final int start, final int end) {
+        return new Iterator<Edge>() {
+
+            private int next = start;
+
+            @Override
+            public boolean hasNext() {
+                return this.next < end;
+            }
+
+            @Override
+            public Edge next() {
+                if (this.next >= end) {
+                    throw new NoSuchElementException();
+                }
+                return edges[this.next++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("remove edges through the vertex");
+            }
+        };
+    }
+
+    private static int indexOf(Edge[] edges, int start, int end, Object o) {
+        for (int i = start; i < end; i++) {
+            if (edges[i].equals(o)) {
+                return i - start;
+            }
+        }
+        return -1;
+    }
+}
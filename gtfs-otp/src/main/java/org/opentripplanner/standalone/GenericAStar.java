@@ -1,6 +1,5 @@
 package org.opentripplanner.standalone;
 
-import java.util.Collection;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -145,69 +144,83 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
         
         this.runState.nVisited += 1;
 
-        Collection<Edge> edges = this.runState.options.arriveBy ? this.runState.u_vertex.getIncoming() : this.runState.u_vertex
-                .getOutgoing();
-        for (Edge edge : edges) {
+        Vertex vertex = this.runState.u_vertex;
+        boolean arriveBy = this.runState.options.arriveBy;
+        // walk the current edges in place, without allocating an iterator
+        EdgeList list = arriveBy ? vertex.incomingEdges() : vertex.outgoingEdges();
+        EdgeList.Slice own = list.own();
+        if (own != null) {
+            for (int i = 0; i < own.size; i++) {
+                traverseEdge(own.edges[i]);
+            }
+        } else {
+            EdgeAdjacency.Direction frozen = list.frozen();
+            int end = frozen.end(vertex.getIndex());
+            for (int i = frozen.start(vertex.getIndex()); i < end; i++) {
+                traverseEdge(frozen.edges[i]);
+            }
+        }
+
+        return true;
+    }
+
+    private void traverseEdge(Edge edge) {
+        // Iterate over traversal results. When an edge leads nowhere (as indicated by
+        // returning NULL), the iteration is over. TODO Use this to board multiple trips.
+        for (State v = edge.traverse(this.runState.u); v != null; v = v.getNextResult()) {
+            // Could be: for (State v : traverseEdge...)
             
-            // Iterate over traversal results. When an edge leads nowhere (as indicated by
-            // returning NULL), the iteration is over. TODO Use this to board multiple trips.
-            for (State v = edge.traverse(this.runState.u); v != null; v = v.getNextResult()) {
-                // Could be: for (State v : traverseEdge...)
-                
-                if (this.traverseVisitor != null) {
-                    this.traverseVisitor.visitEdge(edge, v);
-                }
-                // TEST: uncomment to verify that all optimisticTraverse functions are actually
-                // admissible
-                // State lbs = edge.optimisticTraverse(u);
-                // if ( ! (lbs.getWeight() <= v.getWeight())) {
-                // System.out.printf("inadmissible lower bound %f vs %f on edge %s\n",
-                // lbs.getWeightDelta(), v.getWeightDelta(), edge);
-                // }
-                
-                double remaining_w = computeRemainingWeight(this.runState.heuristic, v, this.runState.rctx.target,
-                        this.runState.options);
-                
-                if ((remaining_w < 0) || Double.isInfinite(remaining_w)) {
-                    continue;
-                }
-                double estimate = v.getWeight() + (remaining_w * this.runState.options.heuristicWeight);
-                
+            if (this.traverseVisitor != null) {
+                this.traverseVisitor.visitEdge(edge, v);
+            }
+            // TEST: uncomment to verify that all optimisticTraverse functions are actually
+            // admissible
+            // State lbs = edge.optimisticTraverse(u);
+            // if ( ! (lbs.getWeight() <= v.getWeight())) {
+            // System.out.printf("inadmissible lower bound %f vs %f on edge %s\n",
+            // lbs.getWeightDelta(), v.getWeightDelta(), edge);
+            // }
+            
+            double remaining_w = computeRemainingWeight(this.runState.heuristic, v, this.runState.rctx.target,
+                    this.runState.options);
+            
+            if ((remaining_w < 0) || Double.isInfinite(remaining_w)) {
+                continue;
+            }
+            double estimate = v.getWeight() + (remaining_w * this.runState.options.heuristicWeight);
+            
+            if (this.verbose) {
+                System.out.println("      edge " + edge);
+                System.out.println("      " + this.runState.u.getWeight() + " -> " + v.getWeight() + "(w) + " + remaining_w
+                        + "(heur) = " + estimate + " vert = " + v.getVertex());
+            }
+            
+            // avoid enqueuing useless branches
+            if (estimate > this.runState.options.maxWeight) {
+                // too expensive to get here
                 if (this.verbose) {
-                    System.out.println("      edge " + edge);
-                    System.out.println("      " + this.runState.u.getWeight() + " -> " + v.getWeight() + "(w) + " + remaining_w
-                            + "(heur) = " + estimate + " vert = " + v.getVertex());
+                    System.out.println("         too expensive to reach, not enqueued. estimated weight = " + estimate);
                 }
-                
-                // avoid enqueuing useless branches
-                if (estimate > this.runState.options.maxWeight) {
-                    // too expensive to get here
-                    if (this.verbose) {
-                        System.out.println("         too expensive to reach, not enqueued. estimated weight = " + estimate);
-                    }
-                    continue;
-                }
-                if (isWorstTimeExceeded(v, this.runState.options)) {
-                    // too much time to get here
-                    if (this.verbose) {
-                        System.out.println("         too much time to reach, not enqueued. time = " + v.getTimeSeconds());
-                    }
-                    continue;
+                continue;
+            }
+            if (isWorstTimeExceeded(v, this.runState.options)) {
+                // too much time to get here
+                if (this.verbose) {
+                    System.out.println("         too much time to reach, not enqueued. time = " + v.getTimeSeconds());
                 }
+                continue;
+            }
 
-                // spt.add returns true if the state is hopeful; enqueue state if it's hopeful
-                if (this.runState.spt.add(v)) {
-                    // report to the visitor if there is one
-                    if (this.traverseVisitor != null) {
-                        this.traverseVisitor.visitEnqueue(v);
-                    }
-
-                    this.runState.pq.insert(v, estimate);
+            // spt.add returns true if the state is hopeful; enqueue state if it's hopeful
+            if (this.runState.spt.add(v)) {
+                // report to the visitor if there is one
+                if (this.traverseVisitor != null) {
+                    this.traverseVisitor.visitEnqueue(v);
                 }
+
+                this.runState.pq.insert(v, estimate);
             }
         }
-
-        return true;
     }
 
     void runSearch(long abortTime) {
@@ -0,0 +1,220 @@
+package org.opentripplanner.standalone;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Compact, read-only store of street edge geometries kept outside the Java heap, either in a
+ * direct buffer or in a memory mapped graph file. Geometries are referred to by their index in the
+ * store and decoded into a new LineString on every request, which is fine since only snapping and
+ * itinerary generation look at them: searches use the length and angles stored on the edges.
+ *
+ * Coordinates are rounded to 1e-7 degrees, the precision of OSM, and each geometry is encoded as
+ * its number of points followed by the zigzag varint encoded differences of the fixed point x and
+ * y between consecutive points, the first point being relative to (0, 0).
+ *
+ * Decoding only uses absolute reads, so a store can be shared by concurrent requests.
+ */
+public class GeometryStore {
+
+    private static final double PRECISION = 1e7;
+
+    private final ByteBuffer data;
+
+    /* start of each geometry in the data, followed by the end of the last one */
+    private final int[] offsets;
+
+    GeometryStore(ByteBuffer data, int[] offsets) {
+        this.data = data;
+        this.offsets = offsets;
+    }
+
+    public int size() {
+        return this.offsets.length - 1;
+    }
+
+    /** @return the number of bytes used by the encoded geometries */
+    public int getDataSize() {
+        return this.offsets[this.offsets.length - 1];
+    }
+
+    public LineString get(int index) {
+        int[] position = { this.offsets[index] };
+        int n = (int) readVarint(position);
+        double[] coordinates = new double[n * 2];
+        long x = 0;
+        long y = 0;
+        for (int i = 0; i < n; i++) {
+            x += unzigzag(readVarint(position));
+            y += unzigzag(readVarint(position));
+            coordinates[2 * i] = x / PRECISION;
+            coordinates[(2 * i) + 1] = y / PRECISION;
+        }
+        return GeometryUtils.getGeometryFactory().createLineString(new PackedCoordinateSequence.Double(coordinates, 2));
+    }
+
+    private long readVarint(int[] position) {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = this.data.get(position[0]++);
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes the store as the number of geometries, the offset of each of them, the size of the data
+     * and the data itself.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(size());
+        for (int offset : this.offsets) {
+            out.writeInt(offset);
+        }
+        ByteBuffer data = this.data.duplicate();
+        data.clear();
+        byte[] chunk = new byte[1 << 16];
+        for (int i = 0; i < getDataSize(); i += chunk.length) {
+            int length = Math.min(chunk.length, getDataSize() - i);
+            data.get(chunk, 0, length);
+            out.write(chunk, 0, length);
+        }
+    }
+
+    /**
+     * Reads a store written by write() without copying its data, which stays in the given buffer.
+     * The position of the buffer is moved past the store.
+     */
+    static GeometryStore read(ByteBuffer in) {
+        int[] offsets = new int[in.getInt() + 1];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = in.getInt();
+        }
+        ByteBuffer data = in.slice();
+        data.limit(offsets[offsets.length - 1]);
+        in.position(in.position() + offsets[offsets.length - 1]);
+        return new GeometryStore(data, offsets);
+    }
+
+    /**
+     * Encodes geometries one after the other, storing each distinct LineString object, or each
+     * geometry of another store, once.
+     */
+    public static class Builder {
+
+        private final Map<LineString, Integer> indexForGeometry = new IdentityHashMap<LineString, Integer>();
+
+        /* for each store copied from, the index in this builder of each of its geometries, plus one */
+        private final Map<GeometryStore, int[]> indexForStored = new IdentityHashMap<GeometryStore, int[]>();
+
+        private byte[] data = new byte[1 << 16];
+
+        private int size = 0;
+
+        private int[] offsets = new int[1024];
+
+        private int count = 0;
+
+        /** @return the index of the geometry in the store being built */
+        public int add(LineString geometry) {
+            Integer index = this.indexForGeometry.get(geometry);
+            if (index != null) {
+                return index;
+            }
+            startGeometry();
+            CoordinateSequence coordinates = geometry.getCoordinateSequence();
+            writeVarint(coordinates.size());
+            long x = 0;
+            long y = 0;
+            for (int i = 0; i < coordinates.size(); i++) {
+                long nextX = Math.round(coordinates.getX(i) * PRECISION);
+                long nextY = Math.round(coordinates.getY(i) * PRECISION);
+                writeVarint(zigzag(nextX - x));
+                writeVarint(zigzag(nextY - y));
+                x = nextX;
+                y = nextY;
+            }
+            this.indexForGeometry.put(geometry, this.count);
+            return this.count++;
+        }
+
+        /**
+         * Copies a geometry of another store without decoding it, since the LineStrings a store
+         * returns are new on every call and could not be told apart by add(LineString).
+         *
+         * @return the index of the geometry in the store being built
+         */
+        public int add(GeometryStore store, int index) {
+            int[] indexes = this.indexForStored.get(store);
+            if (indexes == null) {
+                indexes = new int[store.size()];
+                this.indexForStored.put(store, indexes);
+            }
+            if (indexes[index] > 0) {
+                return indexes[index] - 1;
+            }
+            startGeometry();
+            int length = store.offsets[index + 1] - store.offsets[index];
+            ensureCapacity(length);
+            // a duplicate, since the store may be read by concurrent requests meanwhile
+            ByteBuffer data = store.data.duplicate();
+            data.position(store.offsets[index]);
+            data.get(this.data, this.size, length);
+            this.size += length;
+            indexes[index] = this.count + 1;
+            return this.count++;
+        }
+
+        private void startGeometry() {
+            if (this.count == this.offsets.length) {
+                this.offsets = Arrays.copyOf(this.offsets, this.count * 2);
+            }
+            this.offsets[this.count] = this.size;
+        }
+
+        private void ensureCapacity(int length) {
+            while ((this.size + length) > this.data.length) {
+                if (this.data.length > (Integer.MAX_VALUE / 2)) {
+                    throw new IllegalStateException("too many geometries for one store");
+                }
+                this.data = Arrays.copyOf(this.data, this.data.length * 2);
+            }
+        }
+
+        private static long zigzag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+
+        private void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                this.data[this.size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.data[this.size++] = (byte) value;
+        }
+
+        /** @return a store holding the geometries added so far, in a direct buffer */
+        public GeometryStore build() {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(this.size);
+            buffer.put(this.data, 0, this.size);
+            int[] offsets = Arrays.copyOf(this.offsets, this.count + 1);
+            offsets[this.count] = this.size;
+            return new GeometryStore(buffer, offsets);
+        }
+    }
+
+}
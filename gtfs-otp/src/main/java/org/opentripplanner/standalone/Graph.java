@@ -87,6 +87,9 @@ public class Graph implements Serializable {
     public transient StreetVertexIndexService streetIndex;
 
     public transient GraphIndex index;
+
+    /** Flat view of the transit data for the round based search, built by RaptorPathService, null until then. */
+    public transient volatile RaptorData raptorData;
     
     private transient GeometryIndex geomIndex;
     
@@ -491,6 +494,9 @@ public class Graph implements Serializable {
     }
 
     public static Graph load(File file, LoadLevel level) throws IOException, ClassNotFoundException {
+        if (GraphFile.isGraphFile(file)) {
+            return GraphFile.load(file, level, new DefaultStreetVertexIndexFactory());
+        }
         LOG.info("Reading graph " + file.getAbsolutePath() + " ...");
         // cannot use getClassLoader() in static context
         ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
@@ -544,6 +550,22 @@ public class Graph implements Serializable {
         }
         // TODO: Move this ^ stuff into the graph index
         this.index = new GraphIndex(this);
+        freezeAdjacency();
+        compactGeometries();
+    }
+
+    /**
+     * Copies the edge lists of all vertices into compressed sparse row arrays indexed by vertex
+     * index, one set per direction, and points each list at its range of them, so that the edges
+     * are held contiguously rather than in an array per vertex. Vertices changed afterwards, such as
+     * by the temporary edges of requests, hold a copy of their range until the change is undone, so
+     * this only needs to be called again to compact the graph after larger changes.
+     */
+    public void freezeAdjacency() {
+        Collection<Vertex> vertices = getVertices();
+        EdgeAdjacency adjacency = new EdgeAdjacency(vertices);
+        LOG.debug("Froze {} edges of {} out of {} vertices.", adjacency.countEdges(),
+                adjacency.countFrozenVertices(), vertices.size());
     }
     
     /**
@@ -568,12 +590,7 @@ public class Graph implements Serializable {
             // vertex list is transient because it can be reconstructed from edges
             LOG.debug("Loading edges...");
             List<Edge> edges = (ArrayList<Edge>) in.readObject();
-            graph.vertices = new HashMap<String, Vertex>();
-            
-            for (Edge e : edges) {
-                graph.vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
-                graph.vertices.put(e.getToVertex().getLabel(), e.getToVertex());
-            }
+            graph.restoreVertices(edges);
 
             LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
             graph.index(indexFactory);
@@ -593,6 +610,47 @@ public class Graph implements Serializable {
         }
     }
 
+    /**
+     * Moves the geometries of street edges out of the heap into a GeometryStore. Geometries that
+     * are already in a store, e.g. the mapped one of a GraphFile, are left where they are.
+     */
+    public void compactGeometries() {
+        GeometryStore.Builder builder = new GeometryStore.Builder();
+        List<PlainStreetEdge> edges = new ArrayList<PlainStreetEdge>();
+        List<Integer> indexes = new ArrayList<Integer>();
+        for (Vertex v : getVertices()) {
+            for (PlainStreetEdge e : IterableLibrary.filter(v.getOutgoing(), PlainStreetEdge.class)) {
+                if (e.hasHeapGeometry()) {
+                    edges.add(e);
+                    indexes.add(builder.add(e.getGeometry()));
+                }
+            }
+        }
+        if (edges.isEmpty()) {
+            return;
+        }
+        GeometryStore store = builder.build();
+        for (int i = 0; i < edges.size(); i++) {
+            edges.get(i).setGeometry(store, indexes.get(i));
+        }
+        LOG.info("Moved {} street geometries into {} bytes outside the heap.", store.size(), store.getDataSize());
+    }
+
+    /**
+     * Rebuilds the transient vertex map of a deserialized graph from its edges.
+     */
+    void restoreVertices(Collection<Edge> edges) {
+        this.vertices = new HashMap<String, Vertex>();
+        for (Edge e : edges) {
+            this.vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
+            this.vertices.put(e.getToVertex().getLabel(), e.getToVertex());
+        }
+    }
+
+    void setBuilderAnnotations(List<GraphBuilderAnnotation> graphBuilderAnnotations) {
+        this.graphBuilderAnnotations = graphBuilderAnnotations;
+    }
+
     /**
      * Compares the OTP version number stored in the graph with that of the currently running
      * instance. Logs warnings explaining that mismatched versions can cause problems.
@@ -601,7 +659,7 @@ public class Graph implements Serializable {
      *         version of graph does not match this version of OTP or graphs are otherwise obviously
      *         incompatible.
      */
-    private boolean graphVersionMismatch() {
+    boolean graphVersionMismatch() {
         MavenVersion v = MavenVersion.VERSION;
         MavenVersion gv = this.mavenVersion;
         LOG.info("Graph version: {}", gv);
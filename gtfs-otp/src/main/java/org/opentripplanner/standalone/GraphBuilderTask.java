@@ -29,6 +29,9 @@ public class GraphBuilderTask implements Runnable {
     /** Should the graph be serialized to disk after being created or not? */
     public boolean serializeGraph = true;
     
+    /** Should the graph be written in the binary GraphFile format instead of as a Java object stream? */
+    public boolean binaryGraph = false;
+    
     public void addGraphBuilder(GraphBuilder loader) {
         this._graphBuilders.add(loader);
     }
@@ -123,7 +126,11 @@ public class GraphBuilderTask implements Runnable {
         this.graph.summarizeBuilderAnnotations();
         if (this.serializeGraph) {
             try {
-                this.graph.save(this.graphFile);
+                if (this.binaryGraph) {
+                    GraphFile.save(this.graph, this.graphFile);
+                } else {
+                    this.graph.save(this.graphFile);
+                }
             } catch (Exception ex) {
                 throw new IllegalStateException(ex);
             }
@@ -0,0 +1,39 @@
+package org.opentripplanner.standalone;
+
+import java.io.File;
+
+import org.opentripplanner.standalone.Graph.LoadLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts a serialized Graph.obj into the binary GraphFile format, so that existing graphs can be
+ * loaded faster without being rebuilt. Debug data is carried over.
+ *
+ * Usage: java -cp otp.jar org.opentripplanner.standalone.GraphConverter Graph.obj Graph.bin
+ */
+public class GraphConverter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GraphConverter.class);
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("usage: GraphConverter <serialized graph> <binary graph>");
+            System.exit(1);
+        }
+        File in = new File(args[0]);
+        File out = new File(args[1]);
+        if (in.getAbsoluteFile().equals(out.getAbsoluteFile())) {
+            LOG.error("Refusing to overwrite the graph being converted.");
+            System.exit(1);
+        }
+        try {
+            Graph graph = Graph.load(in, LoadLevel.DEBUG);
+            GraphFile.save(graph, out);
+        } catch (Exception e) {
+            LOG.error("Could not convert graph {}", in, e);
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,577 @@
+package org.opentripplanner.standalone;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opentripplanner.standalone.Graph.LoadLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Versioned, sectioned binary graph file, loaded through memory mapped sections instead of one
+ * Java object stream over the whole graph.
+ *
+ * The street network, which is most of a metro-area graph, is stored as flat records: a string
+ * table, the intersection vertices, the street geometries as a GeometryStore and the plain street
+ * edges. Geometries are not decoded when loading: edges read them from the mapped file when they
+ * are needed. Everything else (the Graph object with its services, transfer table and bundle,
+ * transit vertices and edges with their patterns and timetables, and the few street edges carrying
+ * notes, turn restrictions or elevation profiles) is written with Java serialization in its own
+ * section, where references to the flat records are replaced by their index. The builder
+ * annotations follow in the debug section as a continuation of the same object stream, so that
+ * they refer to the objects of the graph rather than to copies of them.
+ *
+ * Only the street network is flat so far. Transit patterns, timetables and service calendars are
+ * still deserialized reflectively from the objects section, and the debug section can not be read
+ * without it. Giving them sections of their own requires a new VERSION.
+ *
+ * The file starts with a header holding a magic number, the format version and a table of
+ * sections, each with its id, offset and length. All numbers are big endian. Any change to the
+ * layout of a section must increase VERSION.
+ */
+public class GraphFile {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GraphFile.class);
+
+    /** "OTPG" */
+    public static final int MAGIC = 0x4F545047;
+
+    public static final int VERSION = 3;
+
+    /* section ids, in the order they are written and read */
+    static final int STRINGS = 1;
+    static final int VERTICES = 2;
+    static final int GEOMETRIES = 3;
+    static final int STREET_EDGES = 4;
+    static final int OBJECTS = 5;
+    static final int DEBUG = 6;
+
+    private static final int[] SECTIONS = { STRINGS, VERTICES, GEOMETRIES, STREET_EDGES, OBJECTS, DEBUG };
+
+    private static final int HEADER_SIZE = 12 + (SECTIONS.length * 20);
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /* vertex flags */
+    private static final int TRAFFIC_LIGHT = 1;
+    private static final int FREE_FLOWING = 2;
+
+    /* street edge flags */
+    private static final int WHEELCHAIR_ACCESSIBLE = 1;
+    private static final int BACK = 2;
+    private static final int ROUNDABOUT = 4;
+    private static final int BOGUS_NAME = 8;
+    private static final int NO_THRU_TRAFFIC = 16;
+    private static final int STAIRS = 32;
+    private static final int TOLL = 64;
+    private static final int SLOPE_OVERRIDE = 128;
+
+    /** @return whether the file starts with the magic number of this format */
+    public static boolean isGraphFile(File file) throws IOException {
+        if (file.length() < 4) {
+            return false;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return raf.readInt() == MAGIC;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /* SAVING */
+
+    public static void save(Graph graph, File file) throws IOException {
+        LOG.info("Main graph size: |V|={} |E|={}", graph.countVertices(), graph.countEdges());
+        LOG.info("Writing binary graph " + file.getAbsolutePath() + " ...");
+        // write next to the file and rename, since a running server may have the old one mapped
+        File temporary = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(temporary, "rw");
+        try {
+            raf.setLength(0);
+            new Writer(graph).write(raf.getChannel());
+            raf.close();
+        } catch (IOException e) {
+            raf.close();
+            temporary.delete(); // remove half-written file
+            throw e;
+        } catch (RuntimeException e) {
+            raf.close();
+            temporary.delete();
+            throw e;
+        }
+        if (!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file))) {
+            throw new IOException("Cannot replace graph at path " + file);
+        }
+        LOG.info("Graph written.");
+    }
+
+    /** Splits a graph into the flat sections and the serialized remainder while writing it. */
+    private static class Writer {
+
+        private final Graph graph;
+
+        private final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+
+        private final Map<Object, Integer> vertexIndex = new IdentityHashMap<Object, Integer>();
+
+        private final Map<Object, Integer> edgeIndex = new IdentityHashMap<Object, Integer>();
+
+        private final GeometryStore.Builder geometries = new GeometryStore.Builder();
+
+        private final Map<PlainStreetEdge, Integer> geometryIndex = new IdentityHashMap<PlainStreetEdge, Integer>();
+
+        private final List<IntersectionVertex> vertices = new ArrayList<IntersectionVertex>();
+
+        private final List<PlainStreetEdge> streetEdges = new ArrayList<PlainStreetEdge>();
+
+        private final List<Edge> otherEdges = new ArrayList<Edge>();
+
+        /* object stream of the objects section, continued by the debug section */
+        private ObjectOutputStream objects;
+
+        Writer(Graph graph) {
+            this.graph = graph;
+            for (Vertex v : graph.getVertices()) {
+                // vertices without edges are not reachable from the edges and do not survive
+                if ((v.getClass() == IntersectionVertex.class) && ((v.getDegreeOut() + v.getDegreeIn()) > 0)) {
+                    this.vertexIndex.put(v, this.vertices.size());
+                    this.vertices.add((IntersectionVertex) v);
+                    stringIndex(v.getLabel());
+                    stringIndex(v.getName());
+                }
+            }
+            for (Vertex v : graph.getVertices()) {
+                // there are assumed to be no edges in an incoming list that are not
+                // in an outgoing list
+                for (Edge e : v.getOutgoing()) {
+                    if (isFlat(e)) {
+                        PlainStreetEdge pse = (PlainStreetEdge) e;
+                        this.edgeIndex.put(pse, this.streetEdges.size());
+                        this.streetEdges.add(pse);
+                        this.geometryIndex.put(pse, addGeometry(pse));
+                        stringIndex(pse.getName());
+                        stringIndex(pse.getLabel());
+                        stringIndex((pse.getPermission() == null) ? null : pse.getPermission().name());
+                    } else {
+                        this.otherEdges.add(e);
+                    }
+                }
+            }
+        }
+
+        private boolean isFlat(Edge e) {
+            if (e.getClass() != PlainStreetEdge.class) {
+                return false;
+            }
+            PlainStreetEdge pse = (PlainStreetEdge) e;
+            return this.vertexIndex.containsKey(pse.getFromVertex()) && this.vertexIndex.containsKey(pse.getToVertex())
+                    && (pse.getNotes() == null) && (pse.getWheelchairNotes() == null)
+                    && !pse.hasExplicitTurnRestrictions() && (pse.getElevationProfile() == null)
+                    && !pse.isElevationFlattened();
+        }
+
+        /* geometries already in a store are copied as they are, as decoding them would lose sharing */
+        private int addGeometry(PlainStreetEdge pse) {
+            if (pse.getGeometryStore() != null) {
+                return this.geometries.add(pse.getGeometryStore(), pse.getGeometryIndex());
+            }
+            LineString geometry = pse.getGeometry();
+            return (geometry == null) ? -1 : this.geometries.add(geometry);
+        }
+
+        private int stringIndex(String s) {
+            if (s == null) {
+                return -1;
+            }
+            Integer index = this.strings.get(s);
+            if (index == null) {
+                index = this.strings.size();
+                this.strings.put(s, index);
+            }
+            return index;
+        }
+
+        void write(FileChannel channel) throws IOException {
+            long[] offsets = new long[SECTIONS.length];
+            long[] lengths = new long[SECTIONS.length];
+            channel.position(HEADER_SIZE);
+            for (int s = 0; s < SECTIONS.length; s++) {
+                offsets[s] = channel.position();
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel),
+                        BUFFER_SIZE));
+                writeSection(SECTIONS[s], out);
+                out.flush();
+                lengths[s] = channel.position() - offsets[s];
+                if (lengths[s] > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("graph file section " + SECTIONS[s] + " is too large to be mapped");
+                }
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(SECTIONS.length);
+            for (int s = 0; s < SECTIONS.length; s++) {
+                header.putInt(SECTIONS[s]).putLong(offsets[s]).putLong(lengths[s]);
+            }
+            header.flip();
+            channel.write(header, 0);
+            LOG.info("Wrote {} intersections, {} street edges and {} other edges.", this.vertices.size(),
+                    this.streetEdges.size(), this.otherEdges.size());
+        }
+
+        private void writeSection(int section, DataOutputStream out) throws IOException {
+            switch (section) {
+            case STRINGS:
+                writeStrings(out);
+                break;
+            case VERTICES:
+                writeVertices(out);
+                break;
+            case GEOMETRIES:
+                this.geometries.build().write(out);
+                break;
+            case STREET_EDGES:
+                writeStreetEdges(out);
+                break;
+            case OBJECTS:
+                this.objects = new ReferenceOutputStream(out, this.vertexIndex, this.edgeIndex);
+                this.objects.writeObject(this.graph);
+                this.objects.writeObject(this.otherEdges);
+                this.objects.flush();
+                break;
+            case DEBUG:
+                // the stream still writes through the objects section's buffer, which is flushed to
+                // the channel at the current position, right where this section starts
+                this.objects.writeObject(this.graph.getBuilderAnnotations());
+                this.objects.flush();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown graph file section " + section);
+            }
+        }
+
+        private void writeStrings(DataOutputStream out) throws IOException {
+            out.writeInt(this.strings.size());
+            for (String s : this.strings.keySet()) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        private void writeVertices(DataOutputStream out) throws IOException {
+            out.writeInt(this.vertices.size());
+            for (IntersectionVertex v : this.vertices) {
+                out.writeInt(stringIndex(v.getLabel()));
+                out.writeInt(stringIndex(v.getName()));
+                out.writeDouble(v.getX());
+                out.writeDouble(v.getY());
+                out.writeDouble(v.getDistanceToNearestTransitStop());
+                out.writeInt(v.getGroupIndex());
+                out.writeByte((v.trafficLight ? TRAFFIC_LIGHT : 0) | (v.freeFlowing ? FREE_FLOWING : 0));
+            }
+        }
+
+        private void writeStreetEdges(DataOutputStream out) throws IOException {
+            out.writeInt(this.streetEdges.size());
+            for (PlainStreetEdge e : this.streetEdges) {
+                out.writeInt(this.vertexIndex.get(e.getFromVertex()));
+                out.writeInt(this.vertexIndex.get(e.getToVertex()));
+                out.writeInt(this.geometryIndex.get(e));
+                out.writeInt(stringIndex(e.getName()));
+                out.writeInt(stringIndex(e.getLabel()));
+                out.writeInt(stringIndex((e.getPermission() == null) ? null : e.getPermission().name()));
+                out.writeDouble(e.getLength());
+                out.writeDouble(e.getSlopeSpeedEffectiveLength());
+                out.writeDouble(e.getBicycleSafetyEffectiveLength());
+                out.writeDouble(e.getWorkCost());
+                out.writeFloat(e.getCarSpeed());
+                out.writeInt(e.getStreetClass());
+                out.writeShort(e.inAngle);
+                out.writeShort(e.outAngle);
+                int flags = 0;
+                flags |= e.isWheelchairAccessible() ? WHEELCHAIR_ACCESSIBLE : 0;
+                flags |= e.isBack() ? BACK : 0;
+                flags |= e.isRoundabout() ? ROUNDABOUT : 0;
+                flags |= e.hasBogusName() ? BOGUS_NAME : 0;
+                flags |= e.isNoThruTraffic() ? NO_THRU_TRAFFIC : 0;
+                flags |= e.isStairs() ? STAIRS : 0;
+                flags |= e.isToll() ? TOLL : 0;
+                flags |= e.getElevationProfileSegment().getSlopeOverride() ? SLOPE_OVERRIDE : 0;
+                out.writeByte(flags);
+            }
+        }
+    }
+
+    /* LOADING */
+
+    @SuppressWarnings("unchecked")
+    public static Graph load(File file, LoadLevel level, StreetVertexIndexFactory indexFactory) throws IOException,
+            ClassNotFoundException {
+        LOG.info("Reading binary graph " + file.getAbsolutePath() + " ...");
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            Map<Integer, ByteBuffer> sections = mapSections(channel);
+
+            String[] strings = readStrings(sections.get(STRINGS));
+            Vertex[] vertices = readVertices(sections.get(VERTICES), strings);
+            GeometryStore geometries = GeometryStore.read(sections.get(GEOMETRIES));
+            Edge[] streetEdges = readStreetEdges(sections.get(STREET_EDGES), strings, vertices, geometries);
+            LOG.debug("Read {} intersections and {} street edges.", vertices.length, streetEdges.length);
+
+            // the debug section continues the object stream, and is left unread below that level
+            ObjectInputStream in = new ReferenceInputStream(new SequenceInputStream(new ByteBufferInputStream(
+                    sections.get(OBJECTS)), new ByteBufferInputStream(sections.get(DEBUG))), vertices, streetEdges);
+            Graph graph = (Graph) in.readObject();
+            LOG.debug("Basic graph info read.");
+            if (graph.graphVersionMismatch()) { throw new RuntimeException("Graph version mismatch detected."); }
+            if (level == LoadLevel.BASIC) { return graph; }
+            List<Edge> edges = (List<Edge>) in.readObject();
+            edges.addAll(Arrays.asList(streetEdges));
+            graph.restoreVertices(edges);
+
+            LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
+            graph.index(indexFactory);
+
+            if (level == LoadLevel.FULL) { return graph; }
+
+            graph.setBuilderAnnotations((List<GraphBuilderAnnotation>) in.readObject());
+            LOG.debug("Debug info read.");
+            return graph;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /* The mappings stay valid once the file is closed. */
+    private static Map<Integer, ByteBuffer> mapSections(FileChannel channel) throws IOException {
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), HEADER_SIZE));
+        if ((header.remaining() < 12) || (header.getInt() != MAGIC)) {
+            throw new IllegalStateException("Not a binary graph file.");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            LOG.error("Graph file format version {} is not supported by this version of OTP ({}), please rebuild it.",
+                    version, VERSION);
+            throw new IllegalStateException("Graph file version error");
+        }
+        int nSections = header.getInt();
+        if (header.remaining() < (nSections * 20)) {
+            throw new IllegalStateException("Truncated graph file header.");
+        }
+        Map<Integer, ByteBuffer> sections = new LinkedHashMap<Integer, ByteBuffer>();
+        for (int s = 0; s < nSections; s++) {
+            int id = header.getInt();
+            long offset = header.getLong();
+            long length = header.getLong();
+            if ((offset + length) > channel.size()) {
+                throw new IllegalStateException("Graph file section " + id + " is truncated.");
+            }
+            sections.put(id, channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+        }
+        for (int id : SECTIONS) {
+            if (!sections.containsKey(id)) {
+                throw new IllegalStateException("Graph file section " + id + " is missing.");
+            }
+        }
+        return sections;
+    }
+
+    private static String[] readStrings(ByteBuffer in) {
+        String[] strings = new String[in.getInt()];
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < strings.length; i++) {
+            int length = in.getInt();
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            in.get(bytes, 0, length);
+            strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    private static Vertex[] readVertices(ByteBuffer in, String[] strings) {
+        Vertex[] vertices = new Vertex[in.getInt()];
+        for (int i = 0; i < vertices.length; i++) {
+            String label = string(strings, in.getInt());
+            String name = string(strings, in.getInt());
+            double x = in.getDouble();
+            double y = in.getDouble();
+            IntersectionVertex v = new IntersectionVertex(null, label, x, y, name);
+            v.setDistanceToNearestTransitStop(in.getDouble());
+            v.setGroupIndex(in.getInt());
+            int flags = in.get();
+            v.trafficLight = (flags & TRAFFIC_LIGHT) != 0;
+            v.freeFlowing = (flags & FREE_FLOWING) != 0;
+            vertices[i] = v;
+        }
+        return vertices;
+    }
+
+    private static Edge[] readStreetEdges(ByteBuffer in, String[] strings, Vertex[] vertices, GeometryStore geometries) {
+        Edge[] edges = new Edge[in.getInt()];
+        for (int i = 0; i < edges.length; i++) {
+            StreetVertex from = (StreetVertex) vertices[in.getInt()];
+            StreetVertex to = (StreetVertex) vertices[in.getInt()];
+            int geometry = in.getInt();
+            String name = string(strings, in.getInt());
+            String label = string(strings, in.getInt());
+            String permission = string(strings, in.getInt());
+            double length = in.getDouble();
+            double slopeSpeedEffectiveLength = in.getDouble();
+            double bicycleSafetyEffectiveLength = in.getDouble();
+            double slopeWorkCost = in.getDouble();
+            float carSpeed = in.getFloat();
+            int streetClass = in.getInt();
+            int inAngle = in.getShort();
+            int outAngle = in.getShort();
+            int flags = in.get();
+            PlainStreetEdge e = new PlainStreetEdge(from, to, null, name, length,
+                    (permission == null) ? null : StreetTraversalPermission.valueOf(permission), (flags & BACK) != 0,
+                    carSpeed);
+            if (geometry >= 0) {
+                e.setGeometry(geometries, geometry);
+            }
+            e.setLabel(label);
+            e.setSlopeSpeedEffectiveLength(slopeSpeedEffectiveLength);
+            e.setBicycleSafetyEffectiveLength(bicycleSafetyEffectiveLength);
+            e.setSlopeWorkCost(slopeWorkCost);
+            e.setStreetClass(streetClass);
+            e.inAngle = inAngle;
+            e.outAngle = outAngle;
+            e.setWheelchairAccessible((flags & WHEELCHAIR_ACCESSIBLE) != 0);
+            e.setRoundabout((flags & ROUNDABOUT) != 0);
+            e.setHasBogusName((flags & BOGUS_NAME) != 0);
+            e.setNoThruTraffic((flags & NO_THRU_TRAFFIC) != 0);
+            e.setStairs((flags & STAIRS) != 0);
+            e.setToll((flags & TOLL) != 0);
+            e.setSlopeOverride((flags & SLOPE_OVERRIDE) != 0);
+            edges[i] = e;
+        }
+        return edges;
+    }
+
+    private static String string(String[] strings, int index) {
+        return (index < 0) ? null : strings[index];
+    }
+
+    /* OBJECT SECTIONS */
+
+    /** Stands for a vertex or an edge of the flat sections inside a serialized section. */
+    private static final class Reference implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final boolean edge;
+
+        final int index;
+
+        Reference(boolean edge, int index) {
+            this.edge = edge;
+            this.index = index;
+        }
+    }
+
+    private static class ReferenceOutputStream extends ObjectOutputStream {
+
+        private final Map<Object, Integer> vertexIndex;
+
+        private final Map<Object, Integer> edgeIndex;
+
+        ReferenceOutputStream(OutputStream out, Map<Object, Integer> vertexIndex, Map<Object, Integer> edgeIndex)
+                throws IOException {
+            super(out);
+            this.vertexIndex = vertexIndex;
+            this.edgeIndex = edgeIndex;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            Integer index = this.vertexIndex.get(obj);
+            if (index != null) {
+                return new Reference(false, index);
+            }
+            index = this.edgeIndex.get(obj);
+            if (index != null) {
+                return new Reference(true, index);
+            }
+            return obj;
+        }
+    }
+
+    private static class ReferenceInputStream extends ObjectInputStream {
+
+        private final Vertex[] vertices;
+
+        private final Edge[] edges;
+
+        ReferenceInputStream(InputStream in, Vertex[] vertices, Edge[] edges) throws IOException {
+            super(in);
+            this.vertices = vertices;
+            this.edges = edges;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) {
+            if (obj instanceof Reference) {
+                Reference reference = (Reference) obj;
+                return reference.edge ? this.edges[reference.index] : this.vertices[reference.index];
+            }
+            return obj;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return this.buffer.hasRemaining() ? (this.buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(length, this.buffer.remaining());
+            this.buffer.get(bytes, offset, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return this.buffer.remaining();
+        }
+    }
+
+}
@@ -66,6 +66,20 @@ public class OTPServer {
             //        new DefaultRemainingWeightHeuristicFactoryImpl());
         }
 
+        // Optionally answer transit requests with the round based search, keeping the PathService
+        // chosen above for the requests it does not cover. Its data is built in the background,
+        // starting with the graphs already registered.
+        if (params.raptor) {
+            RaptorPathService raptorPathService = new RaptorPathService(graphService, this.pathService);
+            for (String routerId : graphService.getRouterIds()) {
+                Graph graph = graphService.getGraph(routerId);
+                if (graph != null) {
+                    raptorPathService.prepare(graph);
+                }
+            }
+            this.pathService = raptorPathService;
+        }
+
         planGenerator = new PlanGenerator(graphService, pathService);
         tileRendererManager = new TileRendererManager(graphService);
 
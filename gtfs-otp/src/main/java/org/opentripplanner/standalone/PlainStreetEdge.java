@@ -1,6 +1,7 @@
 package org.opentripplanner.standalone;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -30,7 +31,13 @@ public class PlainStreetEdge extends StreetEdge implements Cloneable {
     
     private double length;
     
-    private LineString geometry;
+    /* written by writeObject, from the store when it is not on the heap */
+    private transient LineString geometry;
+
+    /* where the geometry is kept instead, once moved out of the heap */
+    private transient GeometryStore geometryStore;
+
+    private transient int geometryIndex;
 
     private String name;
     
@@ -511,8 +518,15 @@ public class PlainStreetEdge extends StreetEdge implements Cloneable {
         return this.elevationProfileSegment.getBicycleSafetyEffectiveLength();
     }
     
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.geometry = (LineString) in.readObject();
+    }
+
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
+        // the geometry store is transient, serialize the geometry itself without touching the edge
+        out.writeObject(getGeometry());
     }
     
     @Override
@@ -621,13 +635,40 @@ public class PlainStreetEdge extends StreetEdge implements Cloneable {
         this.name = name;
     }
     
+    /** The geometry of an edge whose geometry is in a GeometryStore is decoded on every call. */
     @Override
     public LineString getGeometry() {
+        if ((this.geometry == null) && (this.geometryStore != null)) {
+            return this.geometryStore.get(this.geometryIndex);
+        }
         return this.geometry;
     }
     
     public void setGeometry(LineString geometry) {
         this.geometry = geometry;
+        this.geometryStore = null;
+    }
+
+    /** Drops the geometry of this edge from the heap, reading it from a store when needed. */
+    void setGeometry(GeometryStore geometryStore, int geometryIndex) {
+        this.geometryStore = geometryStore;
+        this.geometryIndex = geometryIndex;
+        this.geometry = null;
+    }
+
+    /** @return the store holding the geometry of this edge, or null if it is on the heap */
+    GeometryStore getGeometryStore() {
+        return this.geometryStore;
+    }
+    
+    /** @return the index of the geometry of this edge in its store */
+    int getGeometryIndex() {
+        return this.geometryIndex;
+    }
+    
+    /** @return whether the geometry of this edge is kept on the heap */
+    boolean hasHeapGeometry() {
+        return this.geometry != null;
     }
     
     @Override
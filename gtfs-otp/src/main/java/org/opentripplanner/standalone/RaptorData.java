@@ -0,0 +1,262 @@
+package org.opentripplanner.standalone;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Flat, array based view of the transit part of a graph for round based (RAPTOR) searches. Stops
+ * and trip patterns are numbered densely. The stops of each pattern, the patterns at each stop and
+ * the transfers from each stop are stored as offset and value arrays, and the scheduled departure
+ * times of each pattern are stored stop after stop, so that the departures of all trips at one
+ * stop are contiguous. The scheduled TripTimes are kept as well, to read the arrival times of the
+ * trip being ridden. Frequency based trips are not part of the scheduled TripTimes and are not
+ * seen by this view.
+ *
+ * Transfers are found once with a walk search around every stop and kept as distances, so that
+ * they can be scaled by the walk speed of each request. Stop to stop rules of the TransferTable
+ * that apply to all trips are folded into them as minimum transfer times. Every stop has a
+ * transfer to itself, which carries the minimum time to change vehicles at that stop.
+ *
+ * Instances are immutable once built and can be shared by concurrent searches.
+ */
+public class RaptorData {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorData.class);
+
+    /** Maximum walk distance of a transfer between two stops, in meters. */
+    public static final double MAX_TRANSFER_DISTANCE = 1000;
+
+    /** Timeout of the walk search around each stop, in seconds. */
+    private static final double TRANSFER_SEARCH_TIMEOUT = 5;
+
+    public final Graph graph;
+
+    public final TransitStop[] stops;
+
+    public final TripPattern[] patterns;
+
+    private final Map<TransitStop, Integer> indexForStop;
+
+    /* For each pattern, the index of the stop at each position. Positions without stop are -1. */
+    final int[] patternStopOffsets;
+    final int[] patternStops;
+
+    /* For each stop, the patterns calling at it and the position of the stop in each of them. */
+    final int[] stopPatternOffsets;
+    final int[] stopPatterns;
+    final int[] stopPatternPositions;
+
+    /* For each pattern, the scheduled departures indexed by position * number of trips + trip. */
+    final int[][] departures;
+    final int[][] serviceCodes;
+    final TripTimes[][] tripTimes;
+
+    /* For each stop, the stops within walking distance, the distance and the minimum time. */
+    final int[] transferOffsets;
+    final int[] transferStops;
+    final int[] transferDistances;
+    final int[] transferTimes;
+
+    public RaptorData(Graph graph) {
+        this.graph = graph;
+        Collection<TransitStop> stopVertices = graph.index.stopVertexForStop.values();
+        this.stops = stopVertices.toArray(new TransitStop[stopVertices.size()]);
+        this.indexForStop = Maps.newHashMapWithExpectedSize(this.stops.length);
+        for (int s = 0; s < this.stops.length; s++) {
+            this.indexForStop.put(this.stops[s], s);
+        }
+
+        List<TripPattern> scheduled = Lists.newArrayList();
+        for (TripPattern pattern : graph.index.patternForId.values()) {
+            if (!pattern.scheduledTimetable.tripTimes.isEmpty()) {
+                scheduled.add(pattern);
+            }
+        }
+        this.patterns = scheduled.toArray(new TripPattern[scheduled.size()]);
+
+        /* Stops of each pattern, counting the patterns of each stop on the way. */
+        int nPatterns = this.patterns.length;
+        this.patternStopOffsets = new int[nPatterns + 1];
+        for (int p = 0; p < nPatterns; p++) {
+            this.patternStopOffsets[p + 1] = this.patternStopOffsets[p] + this.patterns[p].stopPattern.size;
+        }
+        this.patternStops = new int[this.patternStopOffsets[nPatterns]];
+        this.stopPatternOffsets = new int[this.stops.length + 1];
+        for (int p = 0; p < nPatterns; p++) {
+            for (int i = 0; i < this.patterns[p].stopPattern.size; i++) {
+                int stop = indexOf(stopVertex(this.patterns[p], i));
+                this.patternStops[this.patternStopOffsets[p] + i] = stop;
+                if (stop >= 0) {
+                    this.stopPatternOffsets[stop + 1]++;
+                }
+            }
+        }
+
+        /* Patterns of each stop, as a prefix sum of the counts. */
+        for (int s = 0; s < this.stops.length; s++) {
+            this.stopPatternOffsets[s + 1] += this.stopPatternOffsets[s];
+        }
+        this.stopPatterns = new int[this.stopPatternOffsets[this.stops.length]];
+        this.stopPatternPositions = new int[this.stopPatterns.length];
+        int[] next = Arrays.copyOf(this.stopPatternOffsets, this.stops.length);
+        for (int p = 0; p < nPatterns; p++) {
+            for (int i = this.patternStopOffsets[p]; i < this.patternStopOffsets[p + 1]; i++) {
+                int stop = this.patternStops[i];
+                if (stop >= 0) {
+                    this.stopPatterns[next[stop]] = p;
+                    this.stopPatternPositions[next[stop]] = i - this.patternStopOffsets[p];
+                    next[stop]++;
+                }
+            }
+        }
+
+        /* Scheduled times of each pattern. */
+        this.departures = new int[nPatterns][];
+        this.serviceCodes = new int[nPatterns][];
+        this.tripTimes = new TripTimes[nPatterns][];
+        for (int p = 0; p < nPatterns; p++) {
+            List<TripTimes> trips = this.patterns[p].scheduledTimetable.tripTimes;
+            int nTrips = trips.size();
+            int nStops = this.patterns[p].stopPattern.size;
+            this.tripTimes[p] = trips.toArray(new TripTimes[nTrips]);
+            this.serviceCodes[p] = new int[nTrips];
+            this.departures[p] = new int[nStops * nTrips];
+            for (int t = 0; t < nTrips; t++) {
+                TripTimes tt = this.tripTimes[p][t];
+                this.serviceCodes[p][t] = tt.serviceCode;
+                for (int i = 0; i < nStops; i++) {
+                    this.departures[p][(i * nTrips) + t] = tt.getDepartureTime(i);
+                }
+            }
+        }
+
+        /* Transfers found by walking from each stop. */
+        this.transferOffsets = new int[this.stops.length + 1];
+        int[][] targets = new int[this.stops.length][];
+        int[][] distances = new int[this.stops.length][];
+        int[][] times = new int[this.stops.length][];
+        TransferTable transferTable = graph.getTransferTable();
+        for (int s = 0; s < this.stops.length; s++) {
+            Map<TransitStop, State> reached = findTransfers(this.stops[s]);
+            targets[s] = new int[reached.size()];
+            distances[s] = new int[reached.size()];
+            times[s] = new int[reached.size()];
+            int n = 0;
+            for (State state : reached.values()) {
+                TransitStop target = (TransitStop) state.getVertex();
+                int transferTime = transferTable.getStopTransferTime(this.stops[s].getStop(), target.getStop());
+                if ((indexOf(target) < 0) || (transferTime == StopTransfer.FORBIDDEN_TRANSFER)) {
+                    continue;
+                }
+                targets[s][n] = indexOf(target);
+                distances[s][n] = (int) Math.ceil(state.getWalkDistance());
+                times[s][n] = Math.max(0, transferTime);
+                n++;
+            }
+            this.transferOffsets[s + 1] = this.transferOffsets[s] + n;
+        }
+        int nTransfers = this.transferOffsets[this.stops.length];
+        this.transferStops = new int[nTransfers];
+        this.transferDistances = new int[nTransfers];
+        this.transferTimes = new int[nTransfers];
+        for (int s = 0; s < this.stops.length; s++) {
+            int offset = this.transferOffsets[s];
+            int n = this.transferOffsets[s + 1] - offset;
+            System.arraycopy(targets[s], 0, this.transferStops, offset, n);
+            System.arraycopy(distances[s], 0, this.transferDistances, offset, n);
+            System.arraycopy(times[s], 0, this.transferTimes, offset, n);
+        }
+        LOG.info("Built round based search data: {} stops, {} patterns, {} transfers.", this.stops.length, nPatterns,
+                nTransfers);
+    }
+
+    /** @return the index of a stop, or -1 if it is not part of this view. */
+    public int indexOf(TransitStop stop) {
+        Integer index = this.indexForStop.get(stop);
+        return index == null ? -1 : index;
+    }
+
+    /** @return the stop at a position of a pattern, i.e. the one its board and alight edges use. */
+    public TransitStop getStop(int pattern, int position) {
+        int stop = this.patternStops[this.patternStopOffsets[pattern] + position];
+        return stop < 0 ? null : this.stops[stop];
+    }
+
+    /**
+     * Board and alight edges are linked to the parent station when a stop has no vertex of its own,
+     * so the stop vertex is read from them rather than from the stops of the pattern.
+     */
+    private TransitStop stopVertex(TripPattern pattern, int position) {
+        if (pattern.boardEdges[position] != null) {
+            return ((TransitStopDepart) pattern.boardEdges[position].getFromVertex()).getStopVertex();
+        }
+        if (pattern.alightEdges[position] != null) {
+            return ((TransitStopArrive) pattern.alightEdges[position].getToVertex()).getStopVertex();
+        }
+        return this.graph.index.stopVertexForStop.get(pattern.getStops().get(position));
+    }
+
+    private Map<TransitStop, State> findTransfers(TransitStop stop) {
+        RoutingRequest rr = new RoutingRequest(TraverseMode.WALK);
+        rr.batch = true;
+        rr.setRoutingContext(this.graph, stop, null);
+        rr.worstTime = rr.dateTime + (long) (MAX_TRANSFER_DISTANCE / rr.walkSpeed);
+        StopVisitor visitor = new StopVisitor(null, MAX_TRANSFER_DISTANCE);
+        GenericAStar astar = new GenericAStar();
+        astar.setTraverseVisitor(visitor);
+        astar.getShortestPathTree(rr, TRANSFER_SEARCH_TIMEOUT);
+        rr.rctx.destroy();
+        return visitor.stops;
+    }
+
+    /**
+     * Collects the first state reaching each stop, and optionally a target vertex, during a walk
+     * search. States walking further than the maximum distance are ignored.
+     */
+    static class StopVisitor implements TraverseVisitor {
+
+        final Map<TransitStop, State> stops = Maps.newHashMap();
+
+        final Vertex target;
+
+        final double maxWalkDistance;
+
+        State targetState;
+
+        StopVisitor(Vertex target, double maxWalkDistance) {
+            this.target = target;
+            this.maxWalkDistance = maxWalkDistance;
+        }
+
+        @Override
+        public void visitEdge(Edge edge, State state) {
+        }
+
+        @Override
+        public void visitEnqueue(State state) {
+        }
+
+        @Override
+        public void visitVertex(State state) {
+            if (state.getWalkDistance() > this.maxWalkDistance) {
+                return;
+            }
+            Vertex vertex = state.getVertex();
+            if ((vertex instanceof TransitStop) && !this.stops.containsKey(vertex)) {
+                this.stops.put((TransitStop) vertex, state);
+            }
+            if ((vertex == this.target) && (this.targetState == null)) {
+                this.targetState = state;
+            }
+        }
+    }
+
+}
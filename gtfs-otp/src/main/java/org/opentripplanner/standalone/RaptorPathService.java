@@ -0,0 +1,253 @@
+package org.opentripplanner.standalone;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A PathService answering transit requests with a round based (RAPTOR) search over the flat arrays
+ * of RaptorData, instead of exploring board, hop and alight edges one State at a time. Stops near
+ * the origin and the destination are found with walk-only searches, one round is run per vehicle,
+ * and every journey of the resulting pareto set is turned back into an ordinary GraphPath by
+ * traversing its edges, so the rest of the planner sees the same states as with the A* based
+ * path services.
+ *
+ * Requests the round based search does not cover (arrive-by, no transit mode, intermediate places
+ * and departures on board) are passed to a fallback path service, as are requests on graphs without
+ * RaptorData. The data of a graph is built in the background, when the graph is prepared or on its
+ * first request, never on a request thread, so graphs loaded without this service never pay for it.
+ */
+public class RaptorPathService implements PathService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorPathService.class);
+
+    private final GraphService graphService;
+
+    private final PathService fallback;
+
+    /** Maximum duration of the walk to the first stop and from the last stop, in seconds. */
+    public int maxAccessTime = 20 * 60;
+
+    /** Maximum duration of a journey, in seconds. */
+    public int maxDuration = 4 * 60 * 60;
+
+    /** Timeout of each walk search, in seconds. */
+    public double walkTimeout = 5;
+
+    /* builds RaptorData off the request threads, one graph at a time */
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("RaptorData-%d").setDaemon(true).build());
+
+    /* graphs whose RaptorData is built or being built, dropped along with the graphs */
+    private final Set<Graph> prepared = Collections.newSetFromMap(new WeakHashMap<Graph, Boolean>());
+
+    public RaptorPathService(GraphService graphService, PathService fallback) {
+        this.graphService = graphService;
+        this.fallback = fallback;
+    }
+
+    /**
+     * Builds the RaptorData of a graph in the background, unless it is already built or being
+     * built. Requests on the graph are passed to the fallback until it is ready.
+     */
+    public void prepare(final Graph graph) {
+        synchronized (this.prepared) {
+            if (!this.prepared.add(graph)) {
+                return;
+            }
+        }
+        this.builder.execute(new Runnable() {
+            @Override
+            public void run() {
+                if ((graph.index == null) || graph.index.stopVertexForStop.isEmpty()) {
+                    return;
+                }
+                long start = System.currentTimeMillis();
+                try {
+                    graph.raptorData = new RaptorData(graph);
+                    LOG.info("Round based search data built in {} ms.", System.currentTimeMillis() - start);
+                } catch (RuntimeException e) {
+                    LOG.error("Could not build round based search data, using the fallback.", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public List<GraphPath> getPaths(RoutingRequest options) {
+        Graph graph = this.graphService.getGraph(options.routerId);
+        RaptorData data = graph.raptorData;
+        if (data == null) {
+            prepare(graph);
+        }
+        if ((data == null) || options.arriveBy || !options.modes.isTransit() || options.hasIntermediatePlaces()
+                || (options.startingTransitTripId != null)) {
+            if (this.fallback == null) {
+                throw new UnsupportedOperationException("request not supported by the round based search");
+            }
+            return this.fallback.getPaths(options);
+        }
+        options.setRoutingContext(graph);
+        RaptorSearch search = new RaptorSearch(data, options, this.maxDuration);
+
+        /* Walk to the stops around the origin, and possibly all the way to the destination. */
+        RoutingRequest access = walkOptions(options);
+        access.worstTime = options.dateTime + walkTime(options);
+        RaptorData.StopVisitor accessStops = walk(access, options.rctx.target, options.maxWalkDistance);
+        for (Entry<TransitStop, State> entry : accessStops.stops.entrySet()) {
+            int stop = data.indexOf(entry.getKey());
+            if (stop >= 0) {
+                search.setAccess(stop, (int) entry.getValue().getElapsedTimeSeconds());
+            }
+        }
+        if (accessStops.targetState != null) {
+            search.setDirect((int) accessStops.targetState.getElapsedTimeSeconds());
+        }
+
+        /* Walk backward from the destination to the stops around it. */
+        RoutingRequest egress = walkOptions(options);
+        egress.setArriveBy(true);
+        egress.worstTime = options.dateTime - walkTime(options);
+        egress.setRoutingContext(graph, options.rctx.fromVertex, options.rctx.toVertex);
+        RaptorData.StopVisitor egressStops = walk(egress, null, options.maxWalkDistance);
+        // The egress context took over the temporary edges of the endpoints, give them back.
+        for (Vertex vertex : new Vertex[] { options.rctx.fromVertex, options.rctx.toVertex }) {
+            if (vertex instanceof StreetLocation) {
+                ((StreetLocation) vertex).setTemporaryEdgeVisibility(options.rctx);
+            }
+        }
+        for (Entry<TransitStop, State> entry : egressStops.stops.entrySet()) {
+            int stop = data.indexOf(entry.getKey());
+            if (stop >= 0) {
+                search.setEgress(stop, (int) entry.getValue().getElapsedTimeSeconds());
+            }
+        }
+
+        List<GraphPath> paths = Lists.newArrayList();
+        if (accessStops.targetState != null) {
+            addPath(paths, traverse(new State(options), edgesTo(accessStops.targetState)));
+        }
+        for (RaptorSearch.Journey journey : search.run()) {
+            LOG.debug("Found journey {}", journey);
+            State state = traverse(new State(options), edgesTo(accessStops.stops.get(journey.getAccessStop())));
+            for (RaptorSearch.Ride ride : journey.rides) {
+                if (ride.walkedFrom != null) {
+                    state = traverse(state, transferEdges(options, ride.walkedFrom, ride.boardStop));
+                }
+                state = ride(state, ride);
+            }
+            state = traverse(state, edgesFrom(egressStops.stops.get(journey.getEgressStop())));
+            if (state == null) {
+                LOG.warn("Journey {} could not be traversed in the graph.", journey);
+            }
+            addPath(paths, state);
+        }
+        return paths;
+    }
+
+    private RoutingRequest walkOptions(RoutingRequest options) {
+        RoutingRequest walk = options.clone();
+        walk.setModes(new TraverseModeSet(TraverseMode.WALK));
+        walk.batch = true;
+        return walk;
+    }
+
+    private long walkTime(RoutingRequest options) {
+        return (long) Math.min(this.maxAccessTime, options.maxWalkDistance / options.walkSpeed);
+    }
+
+    private RaptorData.StopVisitor walk(RoutingRequest walk, Vertex target, double maxWalkDistance) {
+        RaptorData.StopVisitor visitor = new RaptorData.StopVisitor(target, maxWalkDistance);
+        GenericAStar astar = new GenericAStar();
+        astar.setTraverseVisitor(visitor);
+        astar.getShortestPathTree(walk, this.walkTimeout);
+        return visitor;
+    }
+
+    /** @return the edges of the shortest walk between two stops, or null if there is none */
+    private List<Edge> transferEdges(RoutingRequest options, TransitStop from, TransitStop to) {
+        RoutingRequest walk = walkOptions(options);
+        walk.batch = false;
+        walk.setRoutingContext(options.rctx.graph, from, to);
+        ShortestPathTree spt = new GenericAStar().getShortestPathTree(walk, this.walkTimeout);
+        State state = (spt == null) ? null : spt.getState(to);
+        return (state == null) ? null : edgesTo(state);
+    }
+
+    /** Boards the vehicle of a ride, travels along its pattern and alights at its last stop. */
+    private static State ride(State state, RaptorSearch.Ride ride) {
+        TripPattern pattern = ride.pattern;
+        state = traverse(state, edgeBetween(ride.boardStop, pattern.boardEdges[ride.board].getFromVertex()));
+        state = traverse(state, pattern.boardEdges[ride.board]);
+        for (int i = ride.board; i < ride.alight; i++) {
+            if (i > ride.board) {
+                state = traverse(state, pattern.dwellEdges[i]);
+            }
+            state = traverse(state, pattern.hopEdges[i]);
+        }
+        state = traverse(state, pattern.alightEdges[ride.alight]);
+        return traverse(state, edgeBetween(pattern.alightEdges[ride.alight].getToVertex(), ride.alightStop));
+    }
+
+    private static Edge edgeBetween(Vertex from, Vertex to) {
+        for (Edge edge : from.getOutgoing()) {
+            if (edge.getToVertex() == to) {
+                return edge;
+            }
+        }
+        return null;
+    }
+
+    private static State traverse(State state, Edge edge) {
+        if ((state == null) || (edge == null)) {
+            return null;
+        }
+        return edge.traverse(state);
+    }
+
+    private static State traverse(State state, List<Edge> edges) {
+        if (edges == null) {
+            return null;
+        }
+        for (Edge edge : edges) {
+            state = traverse(state, edge);
+        }
+        return state;
+    }
+
+    /** @return the edges leading to a state of a forward search, in traversal order */
+    private static List<Edge> edgesTo(State state) {
+        LinkedList<Edge> edges = new LinkedList<Edge>();
+        for (State s = state; s.getBackState() != null; s = s.getBackState()) {
+            edges.addFirst(s.getBackEdge());
+        }
+        return edges;
+    }
+
+    /** @return the edges leading to a state of a backward search, in forward traversal order */
+    private static List<Edge> edgesFrom(State state) {
+        LinkedList<Edge> edges = new LinkedList<Edge>();
+        for (State s = state; s.getBackState() != null; s = s.getBackState()) {
+            edges.addLast(s.getBackEdge());
+        }
+        return edges;
+    }
+
+    private static void addPath(List<GraphPath> paths, State state) {
+        if (state != null) {
+            paths.add(new GraphPath(state, true));
+        }
+    }
+
+}
@@ -0,0 +1,374 @@
+package org.opentripplanner.standalone;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A single round based (RAPTOR) search over a RaptorData. Round k finds the earliest arrival at
+ * every stop with exactly k vehicles: it scans each pattern once from the first stop improved in
+ * the previous round, hopping on the earliest trip that can be boarded and alighting at every
+ * following stop, then follows the transfers from the stops improved by riding. A journey is kept
+ * only if it reaches the destination strictly earlier than all journeys with fewer vehicles, so
+ * the result is the pareto set on arrival time and number of transfers.
+ *
+ * Times are seconds after the request time and include the board, alight and transfer slacks the
+ * same way PreBoardEdge and PreAlightEdge do. The trips of each service day are resolved through
+ * TripPattern.getUpdatedTimetable, so realtime updates are taken into account. Searches are not
+ * thread safe: every request uses its own instance.
+ */
+class RaptorSearch {
+
+    static final int UNREACHED = Integer.MAX_VALUE;
+
+    /** Upper bound on the number of vehicles, whatever the maximum number of transfers. */
+    private static final int MAX_ROUNDS = 8;
+
+    private final RaptorData data;
+
+    private final RoutingRequest options;
+
+    private final List<ServiceDay> serviceDays;
+
+    private final int rounds;
+
+    private final int maxDuration;
+
+    /* Arrival at each stop on board of a vehicle in each round, and the ride reaching it. */
+    private final int[][] rideArrivals;
+    private final int[][] ridePatterns;
+    private final int[][] rideBoards;
+    private final int[][] rideAlights;
+
+    /* Arrival at each stop after the transfers of each round, and the stop transferred from. */
+    private final int[][] transferArrivals;
+    private final int[][] transferSources;
+
+    /* Best arrivals over all rounds, used to prune rides and transfers that do not improve. */
+    private final int[] bestRides;
+    private final int[] bestTransfers;
+
+    private final int[] egressTimes;
+
+    private final BitSet marked;
+
+    private final int[] patternStarts;
+
+    private int bestTarget;
+
+    /* Trip found by the last call to findTrip, and the offset of its service day. */
+    private TripTimes foundTrip;
+    private int foundOffset;
+
+    /**
+     * @param maxDuration journeys arriving later than this many seconds after the request time are
+     *            not searched
+     */
+    RaptorSearch(RaptorData data, RoutingRequest options, int maxDuration) {
+        this.data = data;
+        this.options = options;
+        this.serviceDays = options.rctx.serviceDays;
+        this.rounds = Math.min(options.maxTransfers, MAX_ROUNDS - 1) + 1;
+        this.maxDuration = maxDuration;
+        this.bestTarget = maxDuration;
+
+        int nStops = data.stops.length;
+        this.rideArrivals = new int[this.rounds + 1][];
+        this.ridePatterns = new int[this.rounds + 1][];
+        this.rideBoards = new int[this.rounds + 1][];
+        this.rideAlights = new int[this.rounds + 1][];
+        this.transferArrivals = new int[this.rounds + 1][];
+        this.transferSources = new int[this.rounds + 1][];
+        for (int k = 0; k <= this.rounds; k++) {
+            this.rideArrivals[k] = unreached(nStops);
+            this.ridePatterns[k] = new int[nStops];
+            this.rideBoards[k] = new int[nStops];
+            this.rideAlights[k] = new int[nStops];
+            this.transferArrivals[k] = unreached(nStops);
+            this.transferSources[k] = new int[nStops];
+        }
+        this.bestRides = unreached(nStops);
+        this.bestTransfers = unreached(nStops);
+        this.egressTimes = unreached(nStops);
+        this.marked = new BitSet(nStops);
+        this.patternStarts = unreached(data.patterns.length);
+    }
+
+    /** Sets the time needed to reach a stop from the origin without any vehicle. */
+    void setAccess(int stop, int seconds) {
+        if (seconds < this.transferArrivals[0][stop]) {
+            this.transferArrivals[0][stop] = seconds;
+            this.transferSources[0][stop] = stop;
+            this.bestTransfers[stop] = seconds;
+            this.marked.set(stop);
+        }
+    }
+
+    /** Sets the time needed to reach the destination from a stop without any vehicle. */
+    void setEgress(int stop, int seconds) {
+        this.egressTimes[stop] = Math.min(this.egressTimes[stop], seconds);
+    }
+
+    /** Sets the arrival time of a path without any vehicle, which every journey has to beat. */
+    void setDirect(int seconds) {
+        this.bestTarget = Math.min(this.bestTarget, seconds);
+    }
+
+    /**
+     * Runs one round per vehicle until no stop improves or the maximum number of transfers is
+     * reached.
+     *
+     * @return the pareto optimal journeys, by increasing number of vehicles
+     */
+    List<Journey> run() {
+        List<Journey> journeys = Lists.newArrayList();
+        BitSet improved = new BitSet(this.data.stops.length);
+        for (int k = 1; (k <= this.rounds) && !this.marked.isEmpty(); k++) {
+            improved.clear();
+            scanPatterns(k, improved);
+            this.marked.clear();
+            int bestStop = -1;
+            for (int s = improved.nextSetBit(0); s >= 0; s = improved.nextSetBit(s + 1)) {
+                relaxTransfers(k, s);
+                if (this.egressTimes[s] != UNREACHED) {
+                    int arrival = this.rideArrivals[k][s] + this.egressTimes[s];
+                    if (arrival < this.bestTarget) {
+                        this.bestTarget = arrival;
+                        bestStop = s;
+                    }
+                }
+            }
+            if (bestStop >= 0) {
+                journeys.add(makeJourney(k, bestStop, this.bestTarget));
+            }
+        }
+        return journeys;
+    }
+
+    private void scanPatterns(int k, BitSet improved) {
+        List<Integer> queue = Lists.newArrayList();
+        for (int s = this.marked.nextSetBit(0); s >= 0; s = this.marked.nextSetBit(s + 1)) {
+            for (int j = this.data.stopPatternOffsets[s]; j < this.data.stopPatternOffsets[s + 1]; j++) {
+                int p = this.data.stopPatterns[j];
+                int position = this.data.stopPatternPositions[j];
+                if (this.patternStarts[p] == UNREACHED) {
+                    queue.add(p);
+                }
+                this.patternStarts[p] = Math.min(this.patternStarts[p], position);
+            }
+        }
+        for (int p : queue) {
+            TripPattern pattern = this.data.patterns[p];
+            if (this.options.modes.contains(pattern.mode) && !this.options.bannedRoutes.matches(pattern.route)) {
+                scanPattern(k, p, this.patternStarts[p], improved);
+            }
+            this.patternStarts[p] = UNREACHED;
+        }
+    }
+
+    private void scanPattern(int k, int p, int start, BitSet improved) {
+        TripPattern pattern = this.data.patterns[p];
+        int offset = this.data.patternStopOffsets[p];
+        int nStops = this.data.patternStopOffsets[p + 1] - offset;
+        int[] previous = this.transferArrivals[k - 1];
+        int slack = (k == 1) ? this.options.boardSlack : this.options.transferSlack - this.options.alightSlack;
+        TripTimes trip = null;
+        int dayOffset = 0;
+        int board = -1;
+        for (int i = start; i < nStops; i++) {
+            int s = this.data.patternStops[offset + i];
+            if (s < 0) {
+                continue;
+            }
+            if ((trip != null) && canUse(pattern.alightEdges[i], pattern, i)) {
+                int arrival = trip.getArrivalTime(i);
+                if (arrival >= 0) {
+                    arrival += dayOffset + this.options.alightSlack;
+                    if ((arrival < this.bestRides[s]) && (arrival < this.bestTarget)) {
+                        this.rideArrivals[k][s] = arrival;
+                        this.ridePatterns[k][s] = p;
+                        this.rideBoards[k][s] = board;
+                        this.rideAlights[k][s] = i;
+                        this.bestRides[s] = arrival;
+                        improved.set(s);
+                    }
+                }
+            }
+            if ((previous[s] != UNREACHED) && canUse(pattern.boardEdges[i], pattern, i)) {
+                int earliest = previous[s] + slack;
+                int current = (trip == null) ? UNREACHED : trip.getDepartureTime(i) + dayOffset;
+                if ((earliest < current) && findTrip(p, i, earliest, current)) {
+                    trip = this.foundTrip;
+                    dayOffset = this.foundOffset;
+                    board = i;
+                }
+            }
+        }
+    }
+
+    private boolean canUse(TransitBoardAlight edge, TripPattern pattern, int position) {
+        return (edge != null) && (!this.options.wheelchairAccessible || pattern.wheelchairAccessible(position));
+    }
+
+    /**
+     * Finds the earliest trip departing from a pattern position at or after a time, over all
+     * service days of the request.
+     *
+     * @param before only trips departing strictly before this time are considered
+     * @return whether a trip was found, in which case it is stored in foundTrip
+     */
+    private boolean findTrip(int p, int position, int earliest, int before) {
+        TripPattern pattern = this.data.patterns[p];
+        int best = before;
+        this.foundTrip = null;
+        for (ServiceDay serviceDay : this.serviceDays) {
+            if (!serviceDay.anyServiceRunning(pattern.services)) {
+                continue;
+            }
+            int dayOffset = (int) (serviceDay.time(0) - this.options.dateTime);
+            int from = earliest - dayOffset;
+            Timetable timetable = pattern.getUpdatedTimetable(this.options, serviceDay);
+            if (timetable == pattern.scheduledTimetable) {
+                int[] codes = this.data.serviceCodes[p];
+                int[] departures = this.data.departures[p];
+                int base = position * codes.length;
+                for (int t = 0; t < codes.length; t++) {
+                    int departure = departures[base + t];
+                    if ((departure >= from) && ((departure + dayOffset) < best) && serviceDay.serviceRunning(codes[t])
+                            && tripAcceptable(this.data.tripTimes[p][t], position)) {
+                        best = departure + dayOffset;
+                        this.foundTrip = this.data.tripTimes[p][t];
+                        this.foundOffset = dayOffset;
+                    }
+                }
+            } else {
+                for (TripTimes tt : timetable.tripTimes) {
+                    int departure = tt.getDepartureTime(position);
+                    // cancelled trips have UNAVAILABLE times, which from accepts when negative, as
+                    // it is on the service days after the first
+                    if (departure < 0) {
+                        continue;
+                    }
+                    if ((departure >= from) && ((departure + dayOffset) < best) && serviceDay.serviceRunning(tt.serviceCode)
+                            && tripAcceptable(tt, position)) {
+                        best = departure + dayOffset;
+                        this.foundTrip = tt;
+                        this.foundOffset = dayOffset;
+                    }
+                }
+            }
+        }
+        return this.foundTrip != null;
+    }
+
+    /** Same restrictions as TripTimes.tripAcceptable, without a State. */
+    private boolean tripAcceptable(TripTimes tt, int position) {
+        if (!this.options.bannedTrips.isEmpty()) {
+            BannedStopSet banned = this.options.bannedTrips.get(tt.trip.getId());
+            if ((banned != null) && banned.contains(position)) {
+                return false;
+            }
+        }
+        return !this.options.wheelchairAccessible || (tt.trip.getWheelchairAccessible() == 1);
+    }
+
+    private void relaxTransfers(int k, int s) {
+        int arrival = this.rideArrivals[k][s];
+        for (int j = this.data.transferOffsets[s]; j < this.data.transferOffsets[s + 1]; j++) {
+            int target = this.data.transferStops[j];
+            int walk = (int) Math.ceil(this.data.transferDistances[j] / this.options.walkSpeed);
+            int time = arrival + Math.max(walk, this.data.transferTimes[j]);
+            if ((time < this.bestTransfers[target]) && (time < this.bestTarget)) {
+                this.transferArrivals[k][target] = time;
+                this.transferSources[k][target] = s;
+                this.bestTransfers[target] = time;
+                this.marked.set(target);
+            }
+        }
+    }
+
+    private Journey makeJourney(int k, int egressStop, int arrival) {
+        LinkedList<Ride> rides = new LinkedList<Ride>();
+        int s = egressStop;
+        for (int r = k; r >= 1; r--) {
+            int p = this.ridePatterns[r][s];
+            int board = this.rideBoards[r][s];
+            int boardStop = this.data.patternStops[this.data.patternStopOffsets[p] + board];
+            int source = this.transferSources[r - 1][boardStop];
+            TransitStop walkedFrom = ((r > 1) && (source != boardStop)) ? this.data.stops[source] : null;
+            rides.addFirst(new Ride(this.data.patterns[p], board, this.rideAlights[r][s], this.data.stops[boardStop],
+                    this.data.stops[s], walkedFrom));
+            s = source;
+        }
+        return new Journey(arrival, rides);
+    }
+
+    private static int[] unreached(int size) {
+        int[] times = new int[size];
+        Arrays.fill(times, UNREACHED);
+        return times;
+    }
+
+    /** A part of a journey on board of a single trip of a pattern. */
+    static class Ride {
+
+        final TripPattern pattern;
+
+        final int board;
+
+        final int alight;
+
+        final TransitStop boardStop;
+
+        final TransitStop alightStop;
+
+        /** The stop walked from to reach the boarding stop, null if the ride starts where the previous one ended. */
+        final TransitStop walkedFrom;
+
+        Ride(TripPattern pattern, int board, int alight, TransitStop boardStop, TransitStop alightStop,
+                TransitStop walkedFrom) {
+            this.pattern = pattern;
+            this.board = board;
+            this.alight = alight;
+            this.boardStop = boardStop;
+            this.alightStop = alightStop;
+            this.walkedFrom = walkedFrom;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s from %d to %d", this.pattern, this.board, this.alight);
+        }
+    }
+
+    /** A pareto optimal journey, from the stop of the first ride to the stop of the last one. */
+    static class Journey {
+
+        /** Arrival at the destination, in seconds after the request time. */
+        final int arrival;
+
+        final List<Ride> rides;
+
+        Journey(int arrival, List<Ride> rides) {
+            this.arrival = arrival;
+            this.rides = rides;
+        }
+
+        TransitStop getAccessStop() {
+            return this.rides.get(0).boardStop;
+        }
+
+        TransitStop getEgressStop() {
+            return this.rides.get(this.rides.size() - 1).alightStop;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("arrival %s with %s", TripTimes.formatSeconds(this.arrival), this.rides);
+        }
+    }
+
+}
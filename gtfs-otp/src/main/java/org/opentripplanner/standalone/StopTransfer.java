@@ -97,6 +97,21 @@ public class StopTransfer implements Serializable {
         return transferTime;
     }
     
+    /**
+     * Get the transfer time that applies whatever the arriving and departing trips are, i.e. that
+     * of the specific transfer without route or trip.
+     * @return the transfer time in seconds, or one of the *_TRANSFER constants. UNKNOWN_TRANSFER
+     *   is returned if all specific transfers depend on routes or trips.
+     */
+    public int getStopTransferTime() {
+        for (SpecificTransfer specificTransfer : specificTransfers) {
+            if (specificTransfer.getSpecificity() == SpecificTransfer.MIN_SPECIFICITY) {
+                return specificTransfer.transferTime;
+            }
+        }
+        return UNKNOWN_TRANSFER;
+    }
+    
     /**
      * Public function for testing purposes only.
      * @return the first specific transfer time
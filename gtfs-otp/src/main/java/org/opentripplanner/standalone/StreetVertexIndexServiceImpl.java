@@ -14,6 +14,7 @@ import org.slf4j.LoggerFactory;
 import com.google.common.collect.Iterables;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.index.SpatialIndex;
 import com.vividsolutions.jts.index.quadtree.Quadtree;
 import com.vividsolutions.jts.index.strtree.STRtree;
@@ -94,10 +95,12 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
              * street edges is rather low, as most edges are street-ones anyway.
              */
             for (Edge e : gv.getOutgoing()) {
-                if (e.getGeometry() == null) {
+                // decode the geometry once, it may be kept in a GeometryStore
+                LineString geometry = e.getGeometry();
+                if (geometry == null) {
                     continue;
                 }
-                Envelope env = e.getGeometry().getEnvelopeInternal();
+                Envelope env = geometry.getEnvelopeInternal();
                 this.edgeTree.insert(env, e);
             }
             if (v instanceof TransitStop) {
@@ -64,6 +64,13 @@ public class Timetable implements Serializable {
      */
     private transient int minTime, maxTime;
 
+    /**
+     * For each stop, the TripTimes sorted by departure (arrival) time at that stop. Rows are built
+     * on first use by getNextTrip and dropped whenever the TripTimes change, so after a realtime
+     * update only the updated copy of a Timetable is indexed again.
+     */
+    private transient volatile StopTimes[] departureIndex, arrivalIndex;
+
     /** Construct an empty Timetable. */
     public Timetable(TripPattern pattern) {
         this.pattern = pattern;
@@ -120,19 +127,18 @@ public class Timetable implements Serializable {
         // the day.
         TripTimes bestTrip = null;
         Stop currentStop = this.pattern.getStop(stopIndex);
-        // Linear search through the timetable looking for the best departure.
-        // We no longer use a binary search on Timetables because:
-        // 1. we allow combining trips from different service IDs on the same tripPattern.
-        // 2. We mix frequency-based and one-off TripTimes together on tripPatterns.
-        // 3. Stoptimes may change with realtime updates, and we cannot count on them being sorted.
-        // The complexity of keeping sorted indexes up to date does not appear to be worth the
-        // apparently minor speed improvement.
+        // Binary search in the times at this stop, then walk away from the search time until a
+        // trip running on this service day passes the trip and transfer checks. Transfer rules
+        // only ever move the time away from the search time, so the first such trip is the best.
+        // Trips of different service IDs share the index, hence the service code filter.
         int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
-        // Hoping JVM JIT will distribute the loop over the if clauses as needed.
-        // We could invert this and skip some service days based on schedule overlap as in RRRR.
-        for (TripTimes tt : this.tripTimes) {
+        StopTimes stopTimes = getStopTimes(stopIndex, boarding);
+        int step = boarding ? 1 : -1;
+        int first = boarding ? stopTimes.firstAtOrAfter(time) : stopTimes.firstAtOrAfter(time + 1) - 1;
+        for (int i = first; (i >= 0) && (i < stopTimes.times.length); i += step) {
+            TripTimes tt = this.tripTimes.get(stopTimes.trips[i]);
             if (!serviceDay.serviceRunning(tt.serviceCode)) {
-                continue; // TODO merge into call on next line
+                continue;
             }
             if (!tt.tripAcceptable(s0, stopIndex)) {
                 continue;
@@ -141,24 +147,11 @@ public class Timetable implements Serializable {
             if (adjustedTime == -1) {
                 continue;
             }
-            if (boarding) {
-                int depTime = tt.getDepartureTime(stopIndex);
-                if (depTime < 0) {
-                    continue;
-                }
-                if ((depTime >= adjustedTime) && (depTime < bestTime)) {
-                    bestTrip = tt;
-                    bestTime = depTime;
-                }
-            } else {
-                int arvTime = tt.getArrivalTime(stopIndex);
-                if (arvTime < 0) {
-                    continue;
-                }
-                if ((arvTime <= adjustedTime) && (arvTime > bestTime)) {
-                    bestTrip = tt;
-                    bestTime = arvTime;
-                }
+            int stopTime = stopTimes.times[i];
+            if (boarding ? (stopTime >= adjustedTime) : (stopTime <= adjustedTime)) {
+                bestTrip = tt;
+                bestTime = stopTime;
+                break;
             }
         }
         // ACK all logic is identical to above.
@@ -207,6 +200,34 @@ public class Timetable implements Serializable {
         return bestTrip;
     }
     
+    /**
+     * @return the TripTimes sorted by departure (arrival) time at a stop, indexing that stop if
+     *         needed. Concurrent searches may index the same stop twice, which is harmless.
+     */
+    private StopTimes getStopTimes(int stopIndex, boolean boarding) {
+        StopTimes[] index = boarding ? this.departureIndex : this.arrivalIndex;
+        if (index == null) {
+            index = new StopTimes[this.pattern.stopPattern.size];
+            if (boarding) {
+                this.departureIndex = index;
+            } else {
+                this.arrivalIndex = index;
+            }
+        }
+        StopTimes stopTimes = index[stopIndex];
+        if (stopTimes == null) {
+            stopTimes = new StopTimes(this.tripTimes, stopIndex, boarding);
+            index[stopIndex] = stopTimes;
+        }
+        return stopTimes;
+    }
+
+    /** Drops the per-stop indexes after the TripTimes have changed. */
+    private void clearStopTimes() {
+        this.departureIndex = null;
+        this.arrivalIndex = null;
+    }
+
     /**
      * Check transfer table rules. Given the last alight time from the State, return the boarding
      * time t0 adjusted for this particular trip's minimum transfer time, or -1 if boarding this
@@ -251,6 +272,7 @@ public class Timetable implements Serializable {
      * compact the data structure such as trimming and deduplicating arrays.
      */
     public void finish() {
+        clearStopTimes();
         int nStops = this.pattern.stopPattern.size;
         int nHops = nStops - 1;
         /* Find lower bounds on dwell and running times at each stop. */
@@ -469,6 +491,7 @@ public class Timetable implements Serializable {
                 
                 // Update succeeded, save the new TripTimes back into this Timetable.
                 this.tripTimes.set(tripIndex, newTimes);
+                clearStopTimes();
             } catch (Exception e) { // prevent server from dying while debugging
                 e.printStackTrace();
                 return false;
@@ -488,6 +511,7 @@ public class Timetable implements Serializable {
      */
     public void addTripTimes(TripTimes tt) {
         this.tripTimes.add(tt);
+        clearStopTimes();
     }
     
     /**
@@ -538,4 +562,51 @@ public class Timetable implements Serializable {
         }
     }
     
+    /**
+     * The trips of a Timetable that stop at one stop, sorted by their departure or arrival time
+     * there. Trips with the same time keep their Timetable order from the side a search starts
+     * from, as the linear search did. Fields are final so rows can be shared between threads.
+     */
+    private static final class StopTimes {
+
+        final int[] times;
+
+        final int[] trips;
+
+        StopTimes(List<TripTimes> tripTimes, int stopIndex, boolean departures) {
+            long[] keys = new long[tripTimes.size()];
+            int n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                TripTimes tt = tripTimes.get(i);
+                int time = departures ? tt.getDepartureTime(stopIndex) : tt.getArrivalTime(stopIndex);
+                if (time >= 0) {
+                    keys[n++] = ((long) time << 32) | (departures ? i : Integer.MAX_VALUE - i);
+                }
+            }
+            Arrays.sort(keys, 0, n);
+            this.times = new int[n];
+            this.trips = new int[n];
+            for (int i = 0; i < n; i++) {
+                int low = (int) keys[i];
+                this.times[i] = (int) (keys[i] >>> 32);
+                this.trips[i] = departures ? low : Integer.MAX_VALUE - low;
+            }
+        }
+
+        /** @return the index of the first time at or after the given one, or the length if none */
+        int firstAtOrAfter(int time) {
+            int low = 0;
+            int high = this.times.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (this.times[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
 }
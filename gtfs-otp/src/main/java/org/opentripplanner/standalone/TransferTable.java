@@ -132,6 +132,27 @@ public class TransferTable implements Serializable {
         return transferTime;
     }
 
+    /**
+     * Get the transfer time between two stops that applies whatever the arriving and departing
+     * trips are. Parent stations are not looked up. Used by searches that do not track the trips
+     * of a path, such as the round based search in RaptorData.
+     * 
+     * @param fromStop is the arriving stop
+     * @param toStop is the departing stop
+     * @return the transfer time in seconds. May contain special (negative) values which meaning can
+     *         be found in the StopTransfer.*_TRANSFER constants. If no transfer is found,
+     *         StopTransfer.UNKNOWN_TRANSFER is returned.
+     */
+    public int getStopTransferTime(Stop fromStop, Stop toStop) {
+        checkNotNull(fromStop);
+        checkNotNull(toStop);
+        StopTransfer stopTransfer = this.table.get(new P2<AgencyAndId>(fromStop.getId(), toStop.getId()));
+        if (stopTransfer == null) {
+            return StopTransfer.UNKNOWN_TRANSFER;
+        }
+        return stopTransfer.getStopTransferTime();
+    }
+
     /**
      * Add a transfer time to the transfer table.
      * 
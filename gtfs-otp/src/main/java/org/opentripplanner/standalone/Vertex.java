@@ -7,8 +7,6 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 import javax.xml.bind.annotation.XmlTransient;
 
@@ -44,9 +42,9 @@ public abstract class Vertex implements Serializable, Cloneable {
 
     private double distanceToNearestTransitStop = 0;
     
-    private transient Set<Edge> incoming = new CopyOnWriteArraySet<Edge>();
+    private transient EdgeList incoming = new EdgeList();
     
-    private transient Set<Edge> outgoing = new CopyOnWriteArraySet<Edge>();
+    private transient EdgeList outgoing = new EdgeList();
     
     /* PUBLIC CONSTRUCTORS */
     
@@ -89,20 +87,15 @@ public abstract class Vertex implements Serializable, Cloneable {
     /* FIELD ACCESSOR METHODS : READ/WRITE */
     
     public void addOutgoing(Edge ee) {
-        if (this.outgoing.contains(ee)) {
+        if (!this.outgoing.add(ee)) {
             LOG.error("repeatedly added edge {} to vertex {}", ee, this);
-        } else {
-            this.outgoing.add(ee);
         }
     }
     
     public boolean removeOutgoing(Edge ee) {
-        if (!this.outgoing.contains(ee)) {
-            LOG.error("Removing edge which isn't connected to this vertex");
-        }
         boolean removed = this.outgoing.remove(ee);
-        if (this.outgoing.contains(ee)) {
-            LOG.error("edge {} still in edgelist of {} after removed. there must have been multiple copies.");
+        if (!removed) {
+            LOG.error("Removing edge which isn't connected to this vertex");
         }
         return removed;
     }
@@ -113,20 +106,15 @@ public abstract class Vertex implements Serializable, Cloneable {
     }
     
     public void addIncoming(Edge ee) {
-        if (this.incoming.contains(ee)) {
+        if (!this.incoming.add(ee)) {
             LOG.error("repeatedly added edge {} to vertex {}", ee, this);
-        } else {
-            this.incoming.add(ee);
         }
     }
     
     public boolean removeIncoming(Edge ee) {
-        if (!this.incoming.contains(ee)) {
-            LOG.error("Removing edge which isn't connected to this vertex");
-        }
         boolean removed = this.incoming.remove(ee);
-        if (this.incoming.contains(ee)) {
-            LOG.error("edge {} still in edgelist of {} after removed. there must have been multiple copies.");
+        if (!removed) {
+            LOG.error("Removing edge which isn't connected to this vertex");
         }
         return removed;
     }
@@ -136,6 +124,18 @@ public abstract class Vertex implements Serializable, Cloneable {
         return this.incoming;
     }
     
+    /** Get the outgoing edges, which searches walk in place. */
+    @XmlTransient
+    EdgeList outgoingEdges() {
+        return this.outgoing;
+    }
+    
+    /** Get the incoming edges, which searches walk in place. */
+    @XmlTransient
+    EdgeList incomingEdges() {
+        return this.incoming;
+    }
+    
     @XmlTransient
     public int getDegreeOut() {
         return this.outgoing.size();
@@ -239,8 +239,8 @@ public abstract class Vertex implements Serializable, Cloneable {
     
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
-        this.incoming = new CopyOnWriteArraySet<Edge>();
-        this.outgoing = new CopyOnWriteArraySet<Edge>();
+        this.incoming = new EdgeList();
+        this.outgoing = new EdgeList();
         this.index = maxIndex++;
     }
     
@@ -275,8 +275,8 @@ public abstract class Vertex implements Serializable, Cloneable {
                 source.removeOutgoing(e);
             }
         }
-        this.incoming = new CopyOnWriteArraySet<Edge>();
-        this.outgoing = new CopyOnWriteArraySet<Edge>();
+        this.incoming.clear();
+        this.outgoing.clear();
     }
     
     /* GRAPH COHERENCY AND TYPE CHECKING */
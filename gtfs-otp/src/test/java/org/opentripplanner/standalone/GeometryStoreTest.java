@@ -0,0 +1,98 @@
+package org.opentripplanner.standalone;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Testing that geometries read back from a GeometryStore keep their coordinates to 1e-7 degrees.
+ *
+ * @author trein
+ */
+public class GeometryStoreTest {
+
+    private static final double PRECISION = 1e-7;
+
+    /* going back west and south from the first point, so the differences are negative */
+    private static final LineString NEGATIVE_DELTAS = GeometryUtils.makeLineString(-51.2287, -30.0277, -51.2301,
+            -30.0265, -51.2290, -30.0299, -51.2290, -30.0299);
+
+    private static final LineString EXTREMES = GeometryUtils.makeLineString(-180, -90, 180, 90, -179.9999999,
+            89.9999999, 0, 0);
+
+    /* differences of 2e18 fixed point units, varints close to the size of a long */
+    private static final LineString LARGE = GeometryUtils.makeLineString(1e11, -1e11, -1e11, 1e11);
+
+    @Test
+    public void shouldRoundTripNegativeDeltasAndLargeCoordinates() {
+        GeometryStore.Builder builder = new GeometryStore.Builder();
+        assertThat(builder.add(NEGATIVE_DELTAS), is(0));
+        assertThat(builder.add(EXTREMES), is(1));
+        assertThat(builder.add(LARGE), is(2));
+        GeometryStore store = builder.build();
+
+        assertThat(store.size(), is(3));
+        assertSameCoordinates(store.get(0), NEGATIVE_DELTAS);
+        assertSameCoordinates(store.get(1), EXTREMES);
+        assertSameCoordinates(store.get(2), LARGE);
+    }
+
+    @Test
+    public void shouldStoreGeometriesOnce() {
+        GeometryStore.Builder builder = new GeometryStore.Builder();
+        builder.add(NEGATIVE_DELTAS);
+        builder.add(EXTREMES);
+        assertThat(builder.add(NEGATIVE_DELTAS), is(0));
+        GeometryStore store = builder.build();
+
+        GeometryStore.Builder copy = new GeometryStore.Builder();
+        assertThat(copy.add(store, 1), is(0));
+        assertThat(copy.add(store, 1), is(0));
+        assertThat(copy.add(store, 0), is(1));
+        GeometryStore copied = copy.build();
+
+        assertThat(copied.size(), is(2));
+        assertThat(copied.getDataSize(), is(store.getDataSize()));
+        assertSameCoordinates(copied.get(0), EXTREMES);
+        assertSameCoordinates(copied.get(1), NEGATIVE_DELTAS);
+    }
+
+    @Test
+    public void shouldReadWrittenStore() throws IOException {
+        GeometryStore.Builder builder = new GeometryStore.Builder();
+        builder.add(LARGE);
+        builder.add(NEGATIVE_DELTAS);
+        GeometryStore store = builder.build();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        store.write(out);
+        out.writeInt(42);
+        out.flush();
+        ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+        GeometryStore read = GeometryStore.read(in);
+
+        assertThat(read.size(), is(2));
+        assertSameCoordinates(read.get(0), LARGE);
+        assertSameCoordinates(read.get(1), NEGATIVE_DELTAS);
+        // the buffer is left at the end of the store
+        assertThat(in.getInt(), is(42));
+    }
+
+    private static void assertSameCoordinates(LineString actual, LineString expected) {
+        assertThat(actual.getNumPoints(), is(expected.getNumPoints()));
+        for (int i = 0; i < expected.getNumPoints(); i++) {
+            assertEquals(expected.getCoordinateN(i).x, actual.getCoordinateN(i).x, PRECISION / 2);
+            assertEquals(expected.getCoordinateN(i).y, actual.getCoordinateN(i).y, PRECISION / 2);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.trein.gtfs.service.aspect.audit;
 
+import java.util.Date;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.UriInfo;
 
@@ -12,7 +14,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.trein.gtfs.mongo.entity.app.Audit;
-import com.trein.gtfs.mongo.repository.AuditRepository;
 import com.trein.gtfs.service.endpoint.RestRequestAware;
 import com.trein.gtfs.service.exception.SecurityException;
 
@@ -26,7 +27,7 @@ public class AuditInterceptor {
     private final boolean enbaleAudit = true;
 
     @Autowired
-    private AuditRepository auditRepository;
+    private AuditSink auditSink;
 
     @Around("execution(* (@com.trein.gtfs.service.aspect.audit.ServiceEndpoint *).*(..))")
     public Object doBasicAudit(ProceedingJoinPoint pjp) throws Throwable {
@@ -51,10 +52,7 @@ public class AuditInterceptor {
     private Object auditAndBlock(RestRequestAware service, HttpServletRequest request, ServiceRequest securedRequest)
             throws SecurityException {
         
-        String pattern = "Non authorized request received for [%s] with request [%s]";
-        String message = String.format(pattern, service, request);
-        
-        LOGGER.warn(message);
+        LOGGER.warn("Non authorized request received for [{}] with request [{}]", service, request);
         
         if (this.enbaleAudit) {
             auditInsecuredRequest(securedRequest);
@@ -65,10 +63,7 @@ public class AuditInterceptor {
 
     private Object auditAndProceed(ProceedingJoinPoint pjp, RestRequestAware service, HttpServletRequest request,
             ServiceRequest securedRequest) throws Throwable {
-        String pattern = "Auditing target [%s] with request [%s]";
-        String message = String.format(pattern, service.getName(), securedRequest.toString());
-        
-        LOGGER.info(message);
+        LOGGER.info("Auditing target [{}] with request [{}]", service.getName(), securedRequest);
         
         if (this.enbaleAudit) {
             auditSecuredRequest(securedRequest);
@@ -92,8 +87,9 @@ public class AuditInterceptor {
         audit.setRequestedUri(request.getRequestUri());
         audit.setToken(request.getToken());
         audit.setComment(message);
+        audit.setRequestedAt(new Date());
         
-        this.auditRepository.save(audit);
+        this.auditSink.submit(audit);
     }
 
 }
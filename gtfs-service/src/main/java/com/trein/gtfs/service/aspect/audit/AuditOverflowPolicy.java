@@ -0,0 +1,20 @@
+package com.trein.gtfs.service.aspect.audit;
+
+/**
+ * What {@link AuditSink} does with a record when its buffer is full.
+ *
+ * @author trein
+ */
+public enum AuditOverflowPolicy {
+
+    /**
+     * The record is discarded and counted as dropped, so requests never wait for the database.
+     */
+    DROP,
+
+    /**
+     * The request thread waits for the writer to free a slot, so no record is lost while the
+     * database keeps up.
+     */
+    BLOCK;
+}
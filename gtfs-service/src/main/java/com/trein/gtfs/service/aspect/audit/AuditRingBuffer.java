@@ -0,0 +1,94 @@
+package com.trein.gtfs.service.aspect.audit;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free ring buffer for many producers and a single consumer. Each slot carries a
+ * sequence number telling whether it is free for the producer of a given lap or holds an element
+ * for the consumer, so producers only contend on a compare-and-set of the tail.
+ *
+ * @author trein
+ */
+class AuditRingBuffer<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity maximum number of elements, rounded up to a power of two
+     */
+    AuditRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format("invalid ring buffer capacity %d", capacity));
+        }
+        int size = (capacity == 1) ? 1 : (Integer.highestOneBit(capacity - 1) << 1);
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<E>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return this.mask + 1;
+    }
+
+    /**
+     * @return whether the element was added, false if the buffer is full
+     */
+    boolean offer(E element) {
+        while (true) {
+            long position = this.tail.get();
+            int index = (int) position & this.mask;
+            long sequence = this.sequences.get(index);
+
+            if (sequence == position) {
+                if (this.tail.compareAndSet(position, position + 1)) {
+                    this.elements.set(index, element);
+                    this.sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Moves up to <code>limit</code> elements into <code>target</code>. Must only be called by the
+     * consumer thread.
+     *
+     * @return number of elements moved
+     */
+    int drainTo(List<E> target, int limit) {
+        int count = 0;
+        while (count < limit) {
+            long position = this.head.get();
+            int index = (int) position & this.mask;
+            if (this.sequences.get(index) != (position + 1)) {
+                break;
+            }
+            target.add(this.elements.get(index));
+            this.elements.set(index, null);
+            this.sequences.set(index, position + this.mask + 1);
+            this.head.set(position + 1);
+            count++;
+        }
+        return count;
+    }
+
+    int size() {
+        return (int) Math.max(0, this.tail.get() - this.head.get());
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+}
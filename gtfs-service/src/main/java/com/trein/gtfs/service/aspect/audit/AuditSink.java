@@ -0,0 +1,223 @@
+package com.trein.gtfs.service.aspect.audit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.trein.gtfs.mongo.entity.app.Audit;
+
+/**
+ * Writes audit records off the request thread. Records are put on a bounded ring buffer and a
+ * single background writer inserts them in bulk, as soon as a batch is full or once the flush
+ * interval has elapsed since the first record of the batch was taken. When the buffer is full the
+ * {@link AuditOverflowPolicy} decides whether the record is dropped or the request waits.
+ * <p>
+ * An idle writer parks until a record is submitted, and a writer holding a partial batch parks
+ * until the batch is due or enough records are queued to fill one. Records submitted once the sink
+ * is stopped are dropped.
+ *
+ * @author trein
+ */
+public class AuditSink {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuditSink.class);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final AuditRingBuffer<Audit> buffer;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final AuditOverflowPolicy policy;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /* submit calls in progress, so the writer does not exit before their records are queued */
+    private final AtomicInteger submitting = new AtomicInteger();
+
+    /* records the parked writer waits for, reset to 0 by the producer waking it */
+    private final AtomicInteger writerWanted = new AtomicInteger();
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private volatile boolean running;
+    private volatile Thread writer;
+
+    /**
+     * @param capacity maximum number of records waiting to be written
+     * @param batchSize maximum number of records per bulk insert
+     * @param flushInterval maximum time a record waits for its batch to fill
+     * @param unit unit of the flush interval
+     * @param policy what to do with records when the buffer is full
+     */
+    public AuditSink(int capacity, int batchSize, long flushInterval, TimeUnit unit, AuditOverflowPolicy policy) {
+        this.buffer = new AuditRingBuffer<Audit>(capacity);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = unit.toNanos(flushInterval);
+        this.policy = policy;
+    }
+
+    @PostConstruct
+    public synchronized void start() {
+        if (this.writer == null) {
+            this.running = true;
+            this.writer = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    writeRecords();
+                }
+            }, "audit-writer");
+            this.writer.setDaemon(true);
+            this.writer.start();
+        }
+    }
+
+    /**
+     * Stops accepting records and waits for the writer to flush the ones already queued.
+     */
+    @PreDestroy
+    public synchronized void stop() throws InterruptedException {
+        if (this.writer != null) {
+            this.running = false;
+            LockSupport.unpark(this.writer);
+            this.writer.join();
+            this.writer = null;
+        }
+    }
+
+    /**
+     * Queues a record for writing, following the overflow policy when the buffer is full. Records
+     * submitted while the sink is not running are dropped.
+     *
+     * @return whether the record was queued
+     */
+    public boolean submit(Audit audit) {
+        this.submitting.incrementAndGet();
+        try {
+            boolean accepted = this.running && this.buffer.offer(audit);
+            if (!accepted && (this.policy == AuditOverflowPolicy.BLOCK)) {
+                while (!accepted && this.running && !Thread.currentThread().isInterrupted()) {
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    accepted = this.buffer.offer(audit);
+                }
+            }
+            if (accepted) {
+                this.queued.incrementAndGet();
+                wakeWriter();
+            } else {
+                this.dropped.incrementAndGet();
+            }
+            return accepted;
+        } finally {
+            this.submitting.decrementAndGet();
+        }
+    }
+
+    private void wakeWriter() {
+        int wanted = this.writerWanted.get();
+        if ((wanted > 0) && (this.buffer.size() >= wanted) && this.writerWanted.compareAndSet(wanted, 0)) {
+            LockSupport.unpark(this.writer);
+        }
+    }
+
+    public long getQueued() {
+        return this.queued.get();
+    }
+
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    public long getFlushed() {
+        return this.flushed.get();
+    }
+
+    public long getFailed() {
+        return this.failed.get();
+    }
+
+    /**
+     * @return records waiting to be written
+     */
+    public int getPending() {
+        return this.buffer.size();
+    }
+
+    private void writeRecords() {
+        List<Audit> batch = new ArrayList<Audit>(this.batchSize);
+        long batchStart = System.nanoTime();
+
+        while (this.running || (this.submitting.get() > 0) || !this.buffer.isEmpty()) {
+            boolean empty = batch.isEmpty();
+            int drained = this.buffer.drainTo(batch, this.batchSize - batch.size());
+            long now = System.nanoTime();
+            if (empty) {
+                batchStart = now;
+            }
+            long wait = this.flushIntervalNanos - (now - batchStart);
+
+            if ((batch.size() >= this.batchSize) || (!batch.isEmpty() && ((wait <= 0) || !this.running))) {
+                flush(batch);
+            } else if ((drained == 0) && this.running) {
+                if (batch.isEmpty()) {
+                    park(1, 0);
+                } else {
+                    park(Math.min(this.batchSize - batch.size(), this.buffer.capacity()), wait);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            flush(batch);
+        }
+    }
+
+    /**
+     * Parks the writer until enough records are queued to fill its batch, the sink is stopped or,
+     * if positive, the given time elapsed. The buffer is checked once the number of records
+     * wanted is published, so records queued by producers that did not see it are not left waiting.
+     */
+    private void park(int wanted, long nanos) {
+        this.writerWanted.set(wanted);
+        if ((this.buffer.size() < wanted) && this.running) {
+            if (nanos > 0) {
+                LockSupport.parkNanos(this, nanos);
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        this.writerWanted.set(0);
+    }
+
+    private void flush(List<Audit> batch) {
+        try {
+            write(batch);
+            this.flushed.addAndGet(batch.size());
+        } catch (RuntimeException e) {
+            this.failed.addAndGet(batch.size());
+            LOGGER.error("Could not write {} audit records", String.valueOf(batch.size()), e);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Inserts a batch of records.
+     */
+    void write(List<Audit> batch) {
+        this.mongoTemplate.insert(batch, Audit.class);
+    }
+}
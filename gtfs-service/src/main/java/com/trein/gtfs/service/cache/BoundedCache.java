@@ -0,0 +1,127 @@
+package com.trein.gtfs.service.cache;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Spring cache region backed by a Guava cache, bounded by weight and time to live. Entries are
+ * weighed by the number of elements of collection values, so a page of a thousand trips counts
+ * as much as a thousand single trips. Least recently used entries are evicted first once the
+ * region is full.
+ *
+ * @author trein
+ */
+public class BoundedCache implements Cache {
+
+    /**
+     * Stored in place of null values, which Guava caches do not hold.
+     */
+    protected static final Object NULL_VALUE = new Object();
+
+    private final String name;
+    private final com.google.common.cache.Cache<Object, Object> cache;
+
+    /**
+     * @param name region name
+     * @param maximumWeight maximum number of cached elements
+     * @param timeToLive time an entry is kept after being stored
+     * @param unit time to live unit
+     */
+    public BoundedCache(String name, long maximumWeight, long timeToLive, TimeUnit unit) {
+        this(name, newBuilder(maximumWeight, timeToLive, unit).build());
+    }
+
+    /**
+     * @param name region name
+     * @param cache native cache, usually built from {@link #newBuilder(long, long, TimeUnit)}
+     */
+    protected BoundedCache(String name, com.google.common.cache.Cache<Object, Object> cache) {
+        this.name = name;
+        this.cache = cache;
+    }
+
+    /**
+     * @return builder of caches bounded by element count and time to live, recording statistics
+     */
+    protected static CacheBuilder<Object, Object> newBuilder(long maximumWeight, long timeToLive, TimeUnit unit) {
+        return CacheBuilder.newBuilder().maximumWeight(maximumWeight).weigher(new ElementCountWeigher())
+                .expireAfterWrite(timeToLive, unit).recordStats();
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public com.google.common.cache.Cache<Object, Object> getNativeCache() {
+        return this.cache;
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        Object value = this.cache.getIfPresent(key);
+        return (value != null) ? new SimpleValueWrapper(fromStoreValue(value)) : null;
+    }
+
+    @Override
+    public <T> T get(Object key, Class<T> type) {
+        Object value = fromStoreValue(this.cache.getIfPresent(key));
+        if ((value != null) && (type != null) && !type.isInstance(value)) {
+            throw new IllegalStateException(String.format("cached value is not of required type [%s]: %s",
+                    type.getName(), value));
+        }
+        return type != null ? type.cast(value) : null;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        this.cache.put(key, (value != null) ? value : NULL_VALUE);
+    }
+
+    @Override
+    public void evict(Object key) {
+        this.cache.invalidate(key);
+    }
+
+    @Override
+    public void clear() {
+        this.cache.invalidateAll();
+    }
+
+    /**
+     * @return hit, miss and eviction counters since the region was created
+     */
+    public CacheStats getStatistics() {
+        return this.cache.stats();
+    }
+
+    /**
+     * @return approximate number of entries
+     */
+    public long getSize() {
+        return this.cache.size();
+    }
+
+    protected static Object fromStoreValue(Object value) {
+        return (value == NULL_VALUE) ? null : value;
+    }
+
+    /**
+     * Weighs collections by their size and any other value as a single element.
+     */
+    private static class ElementCountWeigher implements Weigher<Object, Object> {
+
+        @Override
+        public int weigh(Object key, Object value) {
+            return (value instanceof Collection) ? Math.max(1, ((Collection<?>) value).size()) : 1;
+        }
+    }
+}
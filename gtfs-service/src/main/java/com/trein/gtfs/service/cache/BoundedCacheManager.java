@@ -0,0 +1,64 @@
+package com.trein.gtfs.service.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleCacheManager;
+import org.springframework.context.ApplicationListener;
+
+import com.google.common.cache.CacheStats;
+import com.trein.gtfs.service.component.FeedLoadedEvent;
+
+/**
+ * Cache manager of {@link BoundedCache} regions. Every region is cleared when a new feed is
+ * loaded, since cached beans would otherwise keep describing the previous one.
+ *
+ * @author trein
+ */
+public class BoundedCacheManager extends SimpleCacheManager implements ApplicationListener<FeedLoadedEvent> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoundedCacheManager.class);
+
+    @Override
+    public void onApplicationEvent(FeedLoadedEvent event) {
+        invalidateAll();
+    }
+
+    /**
+     * Adds a region created after the manager, e.g. a {@link LoadingBoundedCache} whose loader is
+     * a bean using this manager.
+     *
+     * @param cache region, replacing any region of the same name
+     */
+    public void register(BoundedCache cache) {
+        addCache(cache);
+        LOGGER.info("Registered cache region [{}]", cache.getName());
+    }
+
+    /**
+     * Removes the entries of every region.
+     */
+    public void invalidateAll() {
+        for (String name : getCacheNames()) {
+            getCache(name).clear();
+        }
+        LOGGER.info("Invalidated cache regions {}", getCacheNames());
+    }
+
+    /**
+     * @return counters of each region, by region name
+     */
+    public Map<String, CacheStats> getStatistics() {
+        Map<String, CacheStats> statistics = new LinkedHashMap<String, CacheStats>();
+        for (String name : getCacheNames()) {
+            Cache cache = getCache(name);
+            if (cache instanceof BoundedCache) {
+                statistics.put(name, ((BoundedCache) cache).getStatistics());
+            }
+        }
+        return statistics;
+    }
+}
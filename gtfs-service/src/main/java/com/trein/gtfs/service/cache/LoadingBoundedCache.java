@@ -0,0 +1,210 @@
+package com.trein.gtfs.service.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * {@link BoundedCache} region that loads missing entries itself. Concurrent misses of the same key
+ * wait for a single load instead of each querying the database, and entries read after the
+ * refresh interval are reloaded in the background while the current value keeps being served, so
+ * popular entries do not expire under load.
+ * <p>
+ * Lookups through the Spring {@link org.springframework.cache.Cache} interface, e.g. from
+ * <code>@Cacheable</code>, do not load; {@link #load(Object)} does.
+ *
+ * @author trein
+ * @param <V> type of cached values
+ */
+public class LoadingBoundedCache<V> extends BoundedCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadingBoundedCache.class);
+
+    private final LoadingCache<Object, Object> loadingCache;
+    private final CountingLoader<V> loader;
+
+    /**
+     * @param name region name
+     * @param maximumWeight maximum number of cached elements
+     * @param timeToLive time an entry is kept after being stored
+     * @param refreshInterval time after which an entry is reloaded in the background on its next
+     *            read, shorter than the time to live
+     * @param unit time unit
+     * @param loader loads the value of a key
+     * @param executor runs background reloads
+     */
+    public LoadingBoundedCache(String name, long maximumWeight, long timeToLive, long refreshInterval,
+            TimeUnit unit, Loader<V> loader, Executor executor) {
+        this(name, newBuilder(maximumWeight, timeToLive, unit).refreshAfterWrite(refreshInterval, unit),
+                new CountingLoader<V>(loader, executor));
+    }
+
+    private LoadingBoundedCache(String name, CacheBuilder<Object, Object> builder,
+            CountingLoader<V> loader) {
+        super(name, builder.build(loader));
+        this.loadingCache = (LoadingCache<Object, Object>) getNativeCache();
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the cached value of the key, loading it if missing. Callers missing the same key
+     * while it is loaded wait for that load.
+     *
+     * @param key cache key
+     * @return cached or loaded value, possibly null
+     */
+    @SuppressWarnings("unchecked")
+    public V load(Object key) {
+        try {
+            return (V) fromStoreValue(read(key));
+        } catch (UncheckedExecutionException e) {
+            throw propagate(e.getCause(), e);
+        } catch (ExecutionError e) {
+            throw (Error) e.getCause();
+        }
+    }
+
+    /**
+     * Loads the keys that are not cached yet, one after the other. Keys that fail to load are
+     * skipped.
+     *
+     * @param keys keys expected to be requested
+     * @return number of keys loaded
+     */
+    public int warmUp(Iterable<?> keys) {
+        int loaded = 0;
+        for (Object key : keys) {
+            // not a lookup, so warming up does not count as hits or misses
+            if (this.loadingCache.asMap().containsKey(key)) {
+                continue;
+            }
+            try {
+                read(key);
+                loaded++;
+            } catch (UncheckedExecutionException e) {
+                LOGGER.warn("Could not warm up key [{}] of region [{}]", key, getName());
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Reads the key with a single lookup. A caller that misses the key and does not run the load
+     * itself waited for the load of another caller. Checking the key does not count as a lookup.
+     */
+    private Object read(Object key) {
+        boolean missing = !this.loadingCache.asMap().containsKey(key);
+        // restored afterwards, as a loader may read other keys while loading
+        Boolean outer = this.loader.loaded.get();
+        this.loader.loaded.set(Boolean.FALSE);
+        try {
+            return this.loadingCache.getUnchecked(key);
+        } finally {
+            if (missing && !this.loader.loaded.get().booleanValue()) {
+                this.loader.coalesced.incrementAndGet();
+            }
+            if (outer == null) {
+                this.loader.loaded.remove();
+            } else {
+                this.loader.loaded.set(outer);
+            }
+        }
+    }
+
+    /**
+     * @return number of loads run on a miss
+     */
+    public long getLoads() {
+        return this.loader.loads.get();
+    }
+
+    /**
+     * @return number of misses served by a load another caller had started
+     */
+    public long getCoalesced() {
+        return this.loader.coalesced.get();
+    }
+
+    /**
+     * @return number of background reloads
+     */
+    public long getRefreshes() {
+        return this.loader.refreshes.get();
+    }
+
+    private static RuntimeException propagate(Throwable cause, RuntimeException wrapper) {
+        return (cause instanceof RuntimeException) ? (RuntimeException) cause : wrapper;
+    }
+
+    /**
+     * Loads the value of a key.
+     *
+     * @param <V> type of values
+     */
+    public interface Loader<V> {
+
+        /**
+         * @param key cache key
+         * @return value of the key, possibly null
+         */
+        V load(Object key);
+    }
+
+    /**
+     * Counts loads, and reloads entries on the executor so readers keep the current value. A load
+     * runs in the thread of the caller that missed first, which it flags so that the caller is not
+     * counted as waiting for it.
+     */
+    private static final class CountingLoader<V> extends CacheLoader<Object, Object> {
+
+        private final Loader<V> loader;
+        private final Executor executor;
+        private final AtomicLong loads = new AtomicLong();
+        private final AtomicLong coalesced = new AtomicLong();
+        private final AtomicLong refreshes = new AtomicLong();
+        private final ThreadLocal<Boolean> loaded = new ThreadLocal<Boolean>();
+
+        CountingLoader(Loader<V> loader, Executor executor) {
+            this.loader = loader;
+            this.executor = executor;
+        }
+
+        @Override
+        public Object load(Object key) {
+            this.loads.incrementAndGet();
+            this.loaded.set(Boolean.TRUE);
+            return loadValue(key);
+        }
+
+        @Override
+        public ListenableFuture<Object> reload(final Object key, Object oldValue) {
+            this.refreshes.incrementAndGet();
+            ListenableFutureTask<Object> task = ListenableFutureTask.create(new Callable<Object>() {
+
+                @Override
+                public Object call() {
+                    return loadValue(key);
+                }
+            });
+            this.executor.execute(task);
+            return task;
+        }
+
+        private Object loadValue(Object key) {
+            V value = this.loader.load(key);
+            return (value != null) ? value : NULL_VALUE;
+        }
+    }
+}
@@ -1,46 +1,68 @@
 package com.trein.gtfs.service.component;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.annotation.Cacheable;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.geo.Distance;
-import org.springframework.data.geo.GeoResult;
-import org.springframework.data.geo.GeoResults;
-import org.springframework.data.geo.Metrics;
-import org.springframework.data.geo.Point;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.stereotype.Component;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.DBObject;
 import com.trein.gtfs.mongo.entity.DirectionType;
 import com.trein.gtfs.mongo.entity.Route;
-import com.trein.gtfs.mongo.entity.Stop;
+import com.trein.gtfs.mongo.entity.ShapeGeometry;
 import com.trein.gtfs.mongo.entity.StopTime;
 import com.trein.gtfs.mongo.entity.Trip;
+import com.trein.gtfs.mongo.entity.TripSchedule;
+import com.trein.gtfs.mongo.entity.app.Audit;
 import com.trein.gtfs.mongo.repository.RouteRepository;
-import com.trein.gtfs.mongo.repository.StopRepository;
+import com.trein.gtfs.mongo.repository.ShapeGeometryRepository;
 import com.trein.gtfs.mongo.repository.StopTimeRepository;
 import com.trein.gtfs.mongo.repository.TripRepository;
+import com.trein.gtfs.mongo.repository.TripScheduleRepository;
+import com.trein.gtfs.service.cache.BoundedCacheManager;
+import com.trein.gtfs.service.cache.LoadingBoundedCache;
 import com.trein.gtfs.service.endpoint.v1.GtfsRestServiceImpl;
+import com.trein.gtfs.service.endpoint.v1.bean.PolylineBean;
 import com.trein.gtfs.service.endpoint.v1.bean.RouteBean;
 import com.trein.gtfs.service.endpoint.v1.bean.ShapeBean;
-import com.trein.gtfs.service.endpoint.v1.bean.StopBean;
 import com.trein.gtfs.service.endpoint.v1.bean.StopTimeBean;
 import com.trein.gtfs.service.endpoint.v1.bean.TripBean;
+import com.trein.gtfs.service.endpoint.v1.columnar.ColumnarEncoder;
 
 @Component
 public class CachedRepository {
     
     private static final Logger LOGGER = LoggerFactory.getLogger(GtfsRestServiceImpl.class);
-    private static final Distance DISTANCE = new Distance(0.5, Metrics.KILOMETERS);
-    
-    @Autowired
-    private StopRepository stopRepository;
+    private static final Pattern TRIP_URI = Pattern.compile("/trips/([^/?]+)");
+    private static final long FEED_TTL_HOURS = 12;
+    private static final long REFRESH_HOURS = 11;
+    private static final int LOAD_THREADS = 2;
+    private static final int WARM_UP_DAYS = 7;
+    private static final int WARM_UP_TRIPS = 1000;
     
     @Autowired
     private TripRepository tripRepository;
@@ -51,41 +73,149 @@ public class CachedRepository {
     @Autowired
     private StopTimeRepository stopTimeRepository;
     
+    @Autowired
+    private ShapeGeometryRepository shapeGeometryRepository;
+    
+    @Autowired
+    private TripScheduleRepository tripScheduleRepository;
+    
+    @Autowired
+    private StopTable stopTable;
+    
+    @Autowired
+    private TransitIndex transitIndex;
+    
+    @Autowired
+    private BoundedCacheManager cacheManager;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    private ExecutorService loadExecutor;
+    private LoadingBoundedCache<TripBean> tripCache;
+    private LoadingBoundedCache<List<StopTimeBean>> stopTimesCache;
+    
     public CachedRepository() {
     }
+
+    /**
+     * Registers the regions of single trips and trip stop times, the most requested and costly
+     * entries, as loading regions so concurrent misses of a trip run a single query. Both are
+     * then warmed up in the background with the trips most requested in the last days.
+     */
+    @PostConstruct
+    public void initialize() {
+        this.loadExecutor = Executors.newFixedThreadPool(LOAD_THREADS,
+                new ThreadFactoryBuilder().setNameFormat("cache-load-%d").setDaemon(true).build());
+        this.tripCache = new LoadingBoundedCache<>("trip", 20000, FEED_TTL_HOURS, REFRESH_HOURS,
+                TimeUnit.HOURS, new LoadingBoundedCache.Loader<TripBean>() {
+
+                    @Override
+                    public TripBean load(Object key) {
+                        return loadTrip((String) key);
+                    }
+                }, this.loadExecutor);
+        this.stopTimesCache = new LoadingBoundedCache<>("trip_stop_times", 500000, FEED_TTL_HOURS, REFRESH_HOURS,
+                TimeUnit.HOURS, new LoadingBoundedCache.Loader<List<StopTimeBean>>() {
+
+                    @Override
+                    public List<StopTimeBean> load(Object key) {
+                        return loadStopTimesForTrip((String) key);
+                    }
+                }, this.loadExecutor);
+        this.cacheManager.register(this.tripCache);
+        this.cacheManager.register(this.stopTimesCache);
+
+        this.loadExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                warmUp();
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.loadExecutor.shutdownNow();
+    }
+
+    private void warmUp() {
+        try {
+            List<String> tripIds = findMostRequestedTrips();
+            int trips = this.tripCache.warmUp(tripIds);
+            int stopTimes = this.stopTimesCache.warmUp(tripIds);
+            LOGGER.info("Warmed up {} trips and {} trip stop times", String.valueOf(trips), String.valueOf(stopTimes));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not warm up trip caches", e);
+        }
+    }
+
+    /**
+     * Counts audited requests by URI, so a trip requested with different query strings or
+     * sub-resources counts once per distinct URI.
+     *
+     * @return ids of the trips most requested recently, most requested first
+     */
+    private List<String> findMostRequestedTrips() {
+        Date since = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(WARM_UP_DAYS));
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("requestedAt").gte(since).and("requestedUri").regex(TRIP_URI.pattern())),
+                Aggregation.group("requestedUri").count().as("count"),
+                Aggregation.sort(Direction.DESC, "count"), Aggregation.limit(WARM_UP_TRIPS));
+        AggregationResults<DBObject> results = this.mongoTemplate.aggregate(aggregation,
+                this.mongoTemplate.getCollectionName(Audit.class), DBObject.class);
+
+        Set<String> tripIds = new LinkedHashSet<>();
+        for (DBObject result : results.getMappedResults()) {
+            Matcher matcher = TRIP_URI.matcher(String.valueOf(result.get("_id")));
+            if (matcher.find()) {
+                try {
+                    tripIds.add(URLDecoder.decode(matcher.group(1), "UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException("UTF-8 not supported", e);
+                }
+            }
+        }
+        return new ArrayList<>(tripIds);
+    }
     
     @Cacheable(value = "trips")
-    public List<TripBean> getTrips(Integer page) {
-        int size = 50;
-        int requestedPage = (page == null) ? -1 : page.intValue();
-        int nextPage = (requestedPage > size) ? size : requestedPage;
-        List<TripBean> beans = new ArrayList<>();
-        Page<Trip> content = null;
-
-        if (nextPage == -1) {
-            LOGGER.info("Request all trips");
-            long maxSize = this.tripRepository.count();
-            content = this.tripRepository.findAll(new PageRequest(0, (int) maxSize));
-        } else {
-            LOGGER.info("Request page {} for trips", String.valueOf(nextPage));
-            content = this.tripRepository.findAll(new PageRequest(nextPage, size));
-        }
+    public List<TripBean> getTrips(String after, int limit) {
+        LOGGER.info("Request {} trips after [{}]", String.valueOf(limit), after);
+        List<Trip> content = this.tripRepository.findByTripIdGreaterThan(keyOf(after), keysetPage(limit, "tripId"));
+        List<TripBean> beans = new ArrayList<>(content.size());
 
-        for (Trip trip : content.getContent()) {
+        for (Trip trip : content) {
             beans.add(TripBean.fromTrip(trip));
         }
 
         return beans;
     }
     
-    @Cacheable(value = "trip")
     public TripBean getTrip(String tripId) {
-        Trip trip = this.tripRepository.findByTripId(tripId);
-        return TripBean.fromTrip(trip);
+        return this.tripCache.load(tripId);
     }
     
-    @Cacheable(value = "trip_stop_times")
     public List<StopTimeBean> getStopTimesForTrip(String tripId) {
+        return this.stopTimesCache.load(tripId);
+    }
+
+    private TripBean loadTrip(String tripId) {
+        Trip trip = this.tripRepository.findByTripId(tripId);
+        return TripBean.fromTrip(trip);
+    }
+
+    private List<StopTimeBean> loadStopTimesForTrip(String tripId) {
+        TripSchedule schedule = this.tripScheduleRepository.findByTripId(tripId);
+        if (schedule != null) {
+            List<StopTimeBean> beans = new ArrayList<>(schedule.size());
+            for (int i = 0; i < schedule.size(); i++) {
+                beans.add(StopTimeBean.fromSchedule(schedule, i, this.stopTable.getStop(schedule.getStopIds()[i])));
+            }
+            return beans;
+        }
+
         Trip trip = this.tripRepository.findByTripId(tripId);
         List<StopTime> stops = this.stopTimeRepository.findByTrip(trip.getId());
         List<StopTimeBean> beans = new ArrayList<>();
@@ -100,50 +230,75 @@ public class CachedRepository {
     public List<ShapeBean> getTripShapes(String tripId) {
         Trip trip = this.tripRepository.findByTripId(tripId);
         TripBean bean = TripBean.fromTrip(trip);
+        if (bean.getShapes().isEmpty() && (trip.getShapeId() != null)) {
+            ShapeGeometry geometry = this.shapeGeometryRepository.findByShapeId(trip.getShapeId());
+            if (geometry != null) {
+                return TripBean.fromShapes(geometry.getPoints());
+            }
+        }
         return bean.getShapes();
     }
 
+    /**
+     * Stop times of a trip in the columnar format, encoded once and then served from the cache.
+     */
+    @Cacheable(value = "trip_stop_times_columnar")
+    public byte[] getColumnarStopTimesForTrip(String tripId) {
+        return ColumnarEncoder.encodeStopTimes(getStopTimesForTrip(tripId));
+    }
+
+    /**
+     * Shapes of a trip in the columnar format, encoded once and then served from the cache.
+     */
+    @Cacheable(value = "trip_shapes_columnar")
+    public byte[] getColumnarTripShapes(String tripId) {
+        return ColumnarEncoder.encodeShapes(getTripShapes(tripId));
+    }
+
+    @Cacheable(value = "trip_polyline")
+    public PolylineBean getTripPolyline(String tripId) {
+        Trip trip = this.tripRepository.findByTripId(tripId);
+        if ((trip == null) || (trip.getShapeId() == null)) {
+            return null;
+        }
+        ShapeGeometry geometry = this.shapeGeometryRepository.findByShapeId(trip.getShapeId());
+        return (geometry != null) ? PolylineBean.fromShapeGeometry(geometry) : null;
+    }
+
     @Cacheable(value = "route_trips")
     public List<TripBean> getTripsForRoute(String routeId) {
-        Route route = this.routeRepository.findByRouteId(routeId);
-        Trip inTrip = this.tripRepository.findOneByRouteAndDirectionType(route.getId(), DirectionType.INBOUND);
-        Trip outTrip = this.tripRepository.findOneByRouteAndDirectionType(route.getId(), DirectionType.OUTBOUND);
-        return Arrays.asList(TripBean.fromTrip(inTrip), TripBean.fromTrip(outTrip));
+        List<TripBean> beans = new ArrayList<>(2);
+        for (DirectionType direction : Arrays.asList(DirectionType.INBOUND, DirectionType.OUTBOUND)) {
+            String tripId = this.transitIndex.findRepresentativeTrip(routeId, direction);
+            if (tripId != null) {
+                beans.add(TripBean.fromTrip(this.tripRepository.findByTripId(tripId)));
+            }
+        }
+        return beans;
     }
     
     @Cacheable(value = "routes")
-    public List<RouteBean> getRoutes(Integer page) {
-        int size = 50;
-        int requestedPage = (page == null) ? -1 : page.intValue();
-        int nextPage = (requestedPage > size) ? size : requestedPage;
-        List<RouteBean> beans = new ArrayList<>();
-        Page<Route> content = null;
-
-        if (nextPage == -1) {
-            LOGGER.info("Request all routes");
-            long maxSize = this.routeRepository.count();
-            content = this.routeRepository.findAll(new PageRequest(0, (int) maxSize));
-        } else {
-            LOGGER.info("Request page {} for routes", String.valueOf(nextPage));
-            content = this.routeRepository.findAll(new PageRequest(nextPage, size));
-        }
+    public List<RouteBean> getRoutes(String after, int limit) {
+        LOGGER.info("Request {} routes after [{}]", String.valueOf(limit), after);
+        List<Route> content = this.routeRepository.findByRouteIdGreaterThan(keyOf(after), keysetPage(limit, "routeId"));
+        List<RouteBean> beans = new ArrayList<>(content.size());
 
-        for (Route route : content.getContent()) {
+        for (Route route : content) {
             beans.add(RouteBean.fromRoute(route));
         }
 
         return beans;
     }
     
-    @Cacheable(value = "nearby_stops")
-    public List<StopBean> getNearbyStops(Point point) {
-        GeoResults<Stop> stops = this.stopRepository.findByLocationNear(point, DISTANCE);
-        List<StopBean> beans = new ArrayList<>();
+    /**
+     * The empty string sorts before every id, so it is the key of the first page.
+     */
+    private static String keyOf(String after) {
+        return (after == null) ? "" : after;
+    }
 
-        for (GeoResult<Stop> geoStop : stops.getContent()) {
-            beans.add(StopBean.fromStop(geoStop.getContent()));
-        }
-        return beans;
+    private static PageRequest keysetPage(int limit, String key) {
+        return new PageRequest(0, limit, Direction.ASC, key);
     }
     
 }
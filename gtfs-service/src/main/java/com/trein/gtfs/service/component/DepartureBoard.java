@@ -0,0 +1,145 @@
+package com.trein.gtfs.service.component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.BitSet;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Departures from a stop within a time window, written as a JSON array straight from the index
+ * arrays. The window covers departures of the requested service day and the late departures,
+ * past 24:00:00, of the previous one; both ranges are already sorted, so they are merged while
+ * writing. No object is created per departure.
+ *
+ * @author trein
+ */
+final class DepartureBoard implements StreamingOutput {
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final int DAY_SECONDS = 24 * 60 * 60;
+
+    static {
+        JSON.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    private final FeedIndex index;
+    private final Range today;
+    private final Range yesterday;
+
+    /**
+     * @param index feed index
+     * @param stop stop index
+     * @param from start of the window, in seconds since the start of the service day
+     * @param window length of the window, in seconds
+     * @param day service day, as <code>yyyymmdd</code>
+     * @param todayServices services running on the day, by service index
+     * @param previousDay previous service day, as <code>yyyymmdd</code>
+     * @param yesterdayServices services running on the previous day, by service index
+     */
+    DepartureBoard(FeedIndex index, int stop, int from, int window, int day, BitSet todayServices, int previousDay,
+            BitSet yesterdayServices) {
+        this.index = index;
+        this.today = new Range(index, stop, from, window, 0, day, todayServices);
+        this.yesterday = new Range(index, stop, from + DAY_SECONDS, window, DAY_SECONDS, previousDay, yesterdayServices);
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        JsonGenerator generator = JSON.createJsonGenerator(output, JsonEncoding.UTF8);
+        char[] time = new char[8];
+        int current = this.today.start;
+        int previous = this.yesterday.start;
+
+        generator.writeStartArray();
+        while (true) {
+            current = this.today.skipInactive(current);
+            previous = this.yesterday.skipInactive(previous);
+            boolean hasCurrent = current < this.today.end;
+            boolean hasPrevious = previous < this.yesterday.end;
+            if (!hasCurrent && !hasPrevious) {
+                break;
+            }
+            if (hasCurrent && (!hasPrevious || (this.today.timeOf(current) <= this.yesterday.timeOf(previous)))) {
+                writeDeparture(generator, this.today, current++, time);
+            } else {
+                writeDeparture(generator, this.yesterday, previous++, time);
+            }
+        }
+        generator.writeEndArray();
+        generator.flush();
+    }
+
+    private void writeDeparture(JsonGenerator generator, Range range, int departure, char[] time) throws IOException {
+        int trip = this.index.getDepartureTrip(departure);
+        generator.writeStartObject();
+        generator.writeStringField("trip_id", this.index.getTripId(trip));
+        generator.writeStringField("route_id", this.index.getRouteId(this.index.getTripRoute(trip)));
+        generator.writeStringField("headsign", this.index.getTripHeadsign(trip));
+        generator.writeStringField("service_date", range.day);
+        generator.writeFieldName("departure_time");
+        generator.writeString(time, 0, formatTime(this.index.getDepartureTime(departure), time));
+        generator.writeEndObject();
+    }
+
+    /**
+     * Formats GTFS HH:MM:SS into the buffer.
+     *
+     * @return number of characters written
+     */
+    private static int formatTime(int seconds, char[] buffer) {
+        int hours = seconds / 3600;
+        int minutes = (seconds / 60) % 60;
+        int secs = seconds % 60;
+        buffer[0] = (char) ('0' + (hours / 10));
+        buffer[1] = (char) ('0' + (hours % 10));
+        buffer[2] = ':';
+        buffer[3] = (char) ('0' + (minutes / 10));
+        buffer[4] = (char) ('0' + (minutes % 10));
+        buffer[5] = ':';
+        buffer[6] = (char) ('0' + (secs / 10));
+        buffer[7] = (char) ('0' + (secs % 10));
+        return 8;
+    }
+
+    /**
+     * Departures of one service day, from the first one at or after the start of the window.
+     */
+    private static final class Range {
+
+        private final FeedIndex index;
+        private final int start;
+        private final int end;
+        private final int offset;
+        private final String day;
+        private final BitSet services;
+
+        Range(FeedIndex index, int stop, int from, int window, int offset, int day, BitSet services) {
+            this.index = index;
+            this.start = index.findFirstDeparture(stop, from);
+            this.end = index.findFirstDeparture(stop, from + window);
+            this.offset = offset;
+            this.day = String.valueOf(day);
+            this.services = services;
+        }
+
+        int skipInactive(int departure) {
+            int current = departure;
+            while ((current < this.end) && !this.services.get(this.index.getTripService(this.index.getDepartureTrip(current)))) {
+                current++;
+            }
+            return current;
+        }
+
+        /**
+         * @return departure time relative to the requested service day
+         */
+        int timeOf(int departure) {
+            return this.index.getDepartureTime(departure) - this.offset;
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package com.trein.gtfs.service.component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.trein.gtfs.service.endpoint.v1.bean.RouteBean;
+
+/**
+ * Immutable relationships between routes, trips and stops of a feed, in compact array form.
+ * Routes, trips, services and stops are numbered by dictionaries, and one to many relations are
+ * kept as offset arrays over a flat array of targets: the targets of element <code>i</code> are
+ * <code>targets[offsets[i]]</code> up to <code>targets[offsets[i + 1]]</code>.
+ * <p>
+ * Trips of a route are grouped into patterns, i.e. trips visiting the same stops in the same
+ * order. Departures of each stop are sorted by time.
+ *
+ * @author trein
+ */
+class FeedIndex {
+
+    static final int NOT_FOUND = -1;
+
+    private final Dictionary routes;
+    private final RouteBean[] routeBeans;
+    private final Dictionary trips;
+    private final int[] tripRoutes;
+    private final int[] tripServices;
+    private final int[] tripDirections;
+    private final String[] tripHeadsigns;
+    private final Dictionary stops;
+
+    private final int[] routePatternOffsets;
+    private final int[] routePatterns;
+    private final int[] patternTripOffsets;
+    private final int[] patternTrips;
+    private final int[] patternStopOffsets;
+    private final int[] patternStops;
+    private final int[] stopRouteOffsets;
+    private final int[] stopRoutes;
+    private final int[] stopDepartureOffsets;
+    private final int[] departureTimes;
+    private final int[] departureTrips;
+
+    private FeedIndex(Builder builder) {
+        this.routes = builder.routes;
+        this.routeBeans = builder.routeBeans.toArray(new RouteBean[builder.routeBeans.size()]);
+        this.trips = builder.trips;
+        this.tripRoutes = builder.tripRoutes.toArray();
+        this.tripServices = builder.tripServices.toArray();
+        this.tripDirections = builder.tripDirections.toArray();
+        this.tripHeadsigns = builder.tripHeadsigns.toArray(new String[builder.tripHeadsigns.size()]);
+        this.stops = builder.stops;
+
+        int patternCount = builder.patternRoutes.size();
+        int[] patternRouteArray = builder.patternRoutes.toArray();
+        this.routePatternOffsets = new int[this.routes.size() + 1];
+        this.routePatterns = new int[patternCount];
+        groupBy(patternRouteArray, identity(patternCount), this.routePatternOffsets, this.routePatterns);
+
+        this.patternTripOffsets = new int[patternCount + 1];
+        this.patternTrips = new int[builder.patternTrips.size()];
+        groupBy(builder.patternTripPatterns.toArray(), builder.patternTrips.toArray(), this.patternTripOffsets,
+                this.patternTrips);
+
+        this.patternStopOffsets = new int[patternCount + 1];
+        this.patternStops = builder.patternStops.toArray();
+        int offset = 0;
+        for (int pattern = 0; pattern < patternCount; pattern++) {
+            this.patternStopOffsets[pattern] = offset;
+            offset += builder.patternLengths.get(pattern);
+        }
+        this.patternStopOffsets[patternCount] = offset;
+
+        int stopCount = this.stops.size();
+        this.stopDepartureOffsets = new int[stopCount + 1];
+        int[] eventIndexes = new int[builder.eventStops.size()];
+        groupBy(builder.eventStops.toArray(), identity(eventIndexes.length), this.stopDepartureOffsets, eventIndexes);
+        this.departureTimes = new int[eventIndexes.length];
+        this.departureTrips = new int[eventIndexes.length];
+        sortDepartures(builder, eventIndexes);
+
+        this.stopRouteOffsets = new int[stopCount + 1];
+        IntArray stopRouteList = new IntArray(stopCount * 2);
+        for (int stop = 0; stop < stopCount; stop++) {
+            this.stopRouteOffsets[stop] = stopRouteList.size();
+            int start = this.stopDepartureOffsets[stop];
+            int end = this.stopDepartureOffsets[stop + 1];
+            int[] servingRoutes = new int[end - start];
+            for (int i = start; i < end; i++) {
+                servingRoutes[i - start] = this.tripRoutes[this.departureTrips[i]];
+            }
+            Arrays.sort(servingRoutes);
+            for (int i = 0; i < servingRoutes.length; i++) {
+                if ((i == 0) || (servingRoutes[i] != servingRoutes[i - 1])) {
+                    stopRouteList.add(servingRoutes[i]);
+                }
+            }
+        }
+        this.stopRouteOffsets[stopCount] = stopRouteList.size();
+        this.stopRoutes = stopRouteList.toArray();
+    }
+
+    /**
+     * Orders the departures of each stop by time, breaking ties by trip.
+     */
+    private void sortDepartures(Builder builder, int[] eventIndexes) {
+        long[] keys = new long[eventIndexes.length];
+        for (int i = 0; i < eventIndexes.length; i++) {
+            int event = eventIndexes[i];
+            keys[i] = ((long) builder.eventTimes.get(event) << 32) | builder.eventTrips.get(event);
+        }
+        for (int stop = 0; stop < this.stops.size(); stop++) {
+            Arrays.sort(keys, this.stopDepartureOffsets[stop], this.stopDepartureOffsets[stop + 1]);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            this.departureTimes[i] = (int) (keys[i] >>> 32);
+            this.departureTrips[i] = (int) keys[i];
+        }
+    }
+
+    int findStop(String stopId) {
+        return this.stops.indexOf(stopId);
+    }
+
+    int findRoute(String routeId) {
+        return this.routes.indexOf(routeId);
+    }
+
+    /**
+     * @return routes of the trips calling at the stop, by route index
+     */
+    List<RouteBean> getRoutesAt(int stop) {
+        List<RouteBean> beans = new ArrayList<>(this.stopRouteOffsets[stop + 1] - this.stopRouteOffsets[stop]);
+        for (int i = this.stopRouteOffsets[stop]; i < this.stopRouteOffsets[stop + 1]; i++) {
+            beans.add(this.routeBeans[this.stopRoutes[i]]);
+        }
+        return beans;
+    }
+
+    /**
+     * @return id of the first trip of the route's first pattern running in the direction, or null
+     */
+    String findFirstTrip(int route, int direction) {
+        for (int p = this.routePatternOffsets[route]; p < this.routePatternOffsets[route + 1]; p++) {
+            int pattern = this.routePatterns[p];
+            for (int t = this.patternTripOffsets[pattern]; t < this.patternTripOffsets[pattern + 1]; t++) {
+                int trip = this.patternTrips[t];
+                if (this.tripDirections[trip] == direction) {
+                    return this.trips.get(trip);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Binary search of the stop's departures.
+     *
+     * @return position of the stop's first departure at or after the time, or the end of its
+     *         departures if there is none
+     */
+    int findFirstDeparture(int stop, int seconds) {
+        int low = this.stopDepartureOffsets[stop];
+        int high = this.stopDepartureOffsets[stop + 1];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.departureTimes[middle] < seconds) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return departure time of a departure position, in seconds since the start of the service day
+     */
+    int getDepartureTime(int departure) {
+        return this.departureTimes[departure];
+    }
+
+    int getDepartureTrip(int departure) {
+        return this.departureTrips[departure];
+    }
+
+    String getTripId(int trip) {
+        return this.trips.get(trip);
+    }
+
+    String getTripHeadsign(int trip) {
+        return this.tripHeadsigns[trip];
+    }
+
+    int getTripService(int trip) {
+        return this.tripServices[trip];
+    }
+
+    String getRouteId(int route) {
+        return this.routes.get(route);
+    }
+
+    int getTripRoute(int trip) {
+        return this.tripRoutes[trip];
+    }
+
+    int getStopCount() {
+        return this.stops.size();
+    }
+
+    int getTripCount() {
+        return this.trips.size();
+    }
+
+    private static int[] identity(int size) {
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = i;
+        }
+        return values;
+    }
+
+    /**
+     * Counting sort of <code>values</code> by <code>keys</code> into offset form, keeping the
+     * original order within each key.
+     */
+    private static void groupBy(int[] keys, int[] values, int[] offsets, int[] grouped) {
+        for (int key : keys) {
+            offsets[key + 1]++;
+        }
+        for (int i = 1; i < offsets.length; i++) {
+            offsets[i] += offsets[i - 1];
+        }
+        int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+        for (int i = 0; i < keys.length; i++) {
+            grouped[next[keys[i]]++] = values[i];
+        }
+    }
+
+    /**
+     * Collects the feed's routes, trips and trip schedules, in any order, and builds the index.
+     */
+    static class Builder {
+
+        private final Dictionary routes = new Dictionary();
+        private final List<RouteBean> routeBeans = new ArrayList<>();
+        private final Dictionary trips = new Dictionary();
+        private final IntArray tripRoutes = new IntArray(1024);
+        private final IntArray tripServices = new IntArray(1024);
+        private final IntArray tripDirections = new IntArray(1024);
+        private final List<String> tripHeadsigns = new ArrayList<>();
+        private final Dictionary services = new Dictionary();
+        private final Dictionary stops = new Dictionary();
+
+        private final Map<String, Integer> patterns = new HashMap<>();
+        private final IntArray patternRoutes = new IntArray(256);
+        private final IntArray patternLengths = new IntArray(256);
+        private final IntArray patternStops = new IntArray(4096);
+        private final IntArray patternTripPatterns = new IntArray(1024);
+        private final IntArray patternTrips = new IntArray(1024);
+
+        private final IntArray eventStops = new IntArray(4096);
+        private final IntArray eventTimes = new IntArray(4096);
+        private final IntArray eventTrips = new IntArray(4096);
+
+        void addRoute(String routeId, RouteBean bean) {
+            if (this.routes.indexOf(routeId) == NOT_FOUND) {
+                this.routes.add(routeId);
+                this.routeBeans.add(bean);
+            }
+        }
+
+        /**
+         * Numbers a service ahead of the trips, so services can be numbered as elsewhere, e.g. in
+         * the service calendar. Services first seen on trips are numbered after these.
+         */
+        void addService(String serviceId) {
+            this.services.add(serviceId);
+        }
+
+        /**
+         * Trips of unknown routes are ignored.
+         */
+        void addTrip(String tripId, String routeId, String serviceId, int direction, String headsign) {
+            int route = this.routes.indexOf(routeId);
+            if ((route == NOT_FOUND) || (this.trips.indexOf(tripId) != NOT_FOUND)) {
+                return;
+            }
+            this.trips.add(tripId);
+            this.tripRoutes.add(route);
+            this.tripServices.add(this.services.add(serviceId));
+            this.tripDirections.add(direction);
+            this.tripHeadsigns.add(headsign);
+        }
+
+        /**
+         * Adds the stop times of a trip, in stop sequence order. Stop times of unknown trips are
+         * ignored, and stops without departure time are part of the pattern but are not
+         * departures.
+         *
+         * @param departureTimes seconds since the start of the service day, negative if unknown
+         */
+        void addSchedule(String tripId, String[] stopIds, int[] departureTimes) {
+            int trip = this.trips.indexOf(tripId);
+            if (trip == NOT_FOUND) {
+                return;
+            }
+            int route = this.tripRoutes.get(trip);
+            int[] stopIndexes = new int[stopIds.length];
+            StringBuilder key = new StringBuilder().append(route);
+            for (int i = 0; i < stopIds.length; i++) {
+                stopIndexes[i] = this.stops.add(stopIds[i]);
+                key.append(',').append(stopIndexes[i]);
+                if (departureTimes[i] >= 0) {
+                    this.eventStops.add(stopIndexes[i]);
+                    this.eventTimes.add(departureTimes[i]);
+                    this.eventTrips.add(trip);
+                }
+            }
+
+            Integer pattern = this.patterns.get(key.toString());
+            if (pattern == null) {
+                pattern = Integer.valueOf(this.patternRoutes.size());
+                this.patterns.put(key.toString(), pattern);
+                this.patternRoutes.add(route);
+                this.patternLengths.add(stopIndexes.length);
+                for (int stop : stopIndexes) {
+                    this.patternStops.add(stop);
+                }
+            }
+            this.patternTripPatterns.add(pattern.intValue());
+            this.patternTrips.add(trip);
+        }
+
+        FeedIndex build() {
+            return new FeedIndex(this);
+        }
+    }
+
+    /**
+     * Numbers distinct ids in the order they are first added.
+     */
+    static final class Dictionary {
+
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> ids = new ArrayList<>();
+
+        int add(String id) {
+            Integer index = this.indexes.get(id);
+            if (index == null) {
+                index = Integer.valueOf(this.ids.size());
+                this.indexes.put(id, index);
+                this.ids.add(id);
+            }
+            return index.intValue();
+        }
+
+        int indexOf(String id) {
+            Integer index = (id != null) ? this.indexes.get(id) : null;
+            return (index != null) ? index.intValue() : NOT_FOUND;
+        }
+
+        String get(int index) {
+            return this.ids.get(index);
+        }
+
+        int size() {
+            return this.ids.size();
+        }
+    }
+
+    /**
+     * Growable array of primitive ints.
+     */
+    static final class IntArray {
+
+        private int[] values;
+        private int size;
+
+        IntArray(int capacity) {
+            this.values = new int[Math.max(1, capacity)];
+        }
+
+        void add(int value) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.values[this.size++] = value;
+        }
+
+        int get(int index) {
+            return this.values[index];
+        }
+
+        int size() {
+            return this.size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(this.values, this.size);
+        }
+    }
+}
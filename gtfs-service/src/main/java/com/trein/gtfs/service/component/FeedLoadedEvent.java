@@ -0,0 +1,18 @@
+package com.trein.gtfs.service.component;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published once a new GTFS feed has been loaded into the database, so that caches and in-memory
+ * data derived from the previous feed are dropped.
+ *
+ * @author trein
+ */
+public class FeedLoadedEvent extends ApplicationEvent {
+
+    private static final long serialVersionUID = -2914263094582017445L;
+
+    public FeedLoadedEvent(Object source) {
+        super(source);
+    }
+}
@@ -0,0 +1,234 @@
+package com.trein.gtfs.service.component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import com.trein.gtfs.service.endpoint.v1.bean.StopBean;
+
+/**
+ * Immutable k-d tree of stops kept in packed arrays. Stops are placed on the unit sphere, where the
+ * straight line distance between two points grows with their great circle distance, so nearest
+ * neighbors are exact anywhere on the globe. The tree is implicit: the node of a range of the
+ * arrays is its middle element, and the halves on each side are its children.
+ *
+ * @author trein
+ */
+class StopSpatialIndex {
+
+    private static final double EARTH_RADIUS_METERS = 6371008.8;
+    private static final int DIMENSIONS = 3;
+
+    private final double[] coordinates;
+    private final StopBean[] stops;
+
+    StopSpatialIndex(Collection<StopBean> stops) {
+        int size = stops.size();
+        double[] points = new double[size * DIMENSIONS];
+        StopBean[] beans = stops.toArray(new StopBean[size]);
+        int[] order = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            double[] location = beans[i].getLocation();
+            toUnitVector(location[0], location[1], points, i * DIMENSIONS);
+            order[i] = i;
+        }
+        build(order, points, 0, size, 0);
+
+        this.coordinates = new double[size * DIMENSIONS];
+        this.stops = new StopBean[size];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(points, order[i] * DIMENSIONS, this.coordinates, i * DIMENSIONS, DIMENSIONS);
+            this.stops[i] = beans[order[i]];
+        }
+    }
+
+    int size() {
+        return this.stops.length;
+    }
+
+    /**
+     * @param latitude latitude of the center, in degrees
+     * @param longitude longitude of the center, in degrees
+     * @param radiusMeters maximum distance from the center
+     * @param limit maximum number of stops
+     * @return closest stops within the radius, nearest first
+     */
+    List<StopBean> findNearest(double latitude, double longitude, double radiusMeters, int limit) {
+        if ((limit <= 0) || (this.stops.length == 0)) {
+            return new ArrayList<>();
+        }
+        double[] center = new double[DIMENSIONS];
+        toUnitVector(latitude, longitude, center, 0);
+        double chord = 2 * Math.sin(Math.min(radiusMeters / EARTH_RADIUS_METERS, Math.PI) / 2);
+        Neighbors neighbors = new Neighbors(Math.min(limit, this.stops.length), chord * chord);
+
+        search(center, 0, this.stops.length, 0, neighbors);
+        return neighbors.toList(this.stops);
+    }
+
+    private void search(double[] center, int low, int high, int axis, Neighbors neighbors) {
+        if (low >= high) {
+            return;
+        }
+        int node = (low + high) >>> 1;
+        int offset = node * DIMENSIONS;
+        double dx = center[0] - this.coordinates[offset];
+        double dy = center[1] - this.coordinates[offset + 1];
+        double dz = center[2] - this.coordinates[offset + 2];
+        neighbors.offer(node, (dx * dx) + (dy * dy) + (dz * dz));
+
+        double split = center[axis] - this.coordinates[offset + axis];
+        int next = (axis + 1) % DIMENSIONS;
+        if (split < 0) {
+            search(center, low, node, next, neighbors);
+            if ((split * split) <= neighbors.bound()) {
+                search(center, node + 1, high, next, neighbors);
+            }
+        } else {
+            search(center, node + 1, high, next, neighbors);
+            if ((split * split) <= neighbors.bound()) {
+                search(center, low, node, next, neighbors);
+            }
+        }
+    }
+
+    /**
+     * Reorders the range so that its middle element is the median on the axis, then builds both
+     * halves on the next axis.
+     */
+    private static void build(int[] order, double[] points, int low, int high, int axis) {
+        if ((high - low) <= 1) {
+            return;
+        }
+        int middle = (low + high) >>> 1;
+        select(order, points, low, high - 1, middle, axis);
+        int next = (axis + 1) % DIMENSIONS;
+        build(order, points, low, middle, next);
+        build(order, points, middle + 1, high, next);
+    }
+
+    private static void select(int[] order, double[] points, int left, int right, int target, int axis) {
+        int low = left;
+        int high = right;
+        while (low < high) {
+            double pivot = points[(order[(low + high) >>> 1] * DIMENSIONS) + axis];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (points[(order[i] * DIMENSIONS) + axis] < pivot) {
+                    i++;
+                }
+                while (points[(order[j] * DIMENSIONS) + axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i++] = order[j];
+                    order[j--] = swap;
+                }
+            }
+            if (target <= j) {
+                high = j;
+            } else if (target >= i) {
+                low = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static void toUnitVector(double latitude, double longitude, double[] target, int offset) {
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        double cosLat = Math.cos(lat);
+        target[offset] = cosLat * Math.cos(lon);
+        target[offset + 1] = cosLat * Math.sin(lon);
+        target[offset + 2] = Math.sin(lat);
+    }
+
+    /**
+     * Bounded max-heap of the closest nodes found so far, by squared chord distance.
+     */
+    private static final class Neighbors {
+
+        private final int[] nodes;
+        private final double[] distances;
+        private final double radius;
+        private int size;
+
+        Neighbors(int capacity, double radius) {
+            this.nodes = new int[capacity];
+            this.distances = new double[capacity];
+            this.radius = radius;
+        }
+
+        double bound() {
+            return (this.size < this.nodes.length) ? this.radius : this.distances[0];
+        }
+
+        void offer(int node, double distance) {
+            if (distance > bound()) {
+                return;
+            }
+            if (this.size < this.nodes.length) {
+                int i = this.size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (this.distances[parent] >= distance) {
+                        break;
+                    }
+                    this.nodes[i] = this.nodes[parent];
+                    this.distances[i] = this.distances[parent];
+                    i = parent;
+                }
+                this.nodes[i] = node;
+                this.distances[i] = distance;
+            } else {
+                siftDown(node, distance);
+            }
+        }
+
+        private void siftDown(int node, double distance) {
+            int i = 0;
+            while (true) {
+                int child = (2 * i) + 1;
+                if (child >= this.size) {
+                    break;
+                }
+                if (((child + 1) < this.size) && (this.distances[child + 1] > this.distances[child])) {
+                    child++;
+                }
+                if (this.distances[child] <= distance) {
+                    break;
+                }
+                this.nodes[i] = this.nodes[child];
+                this.distances[i] = this.distances[child];
+                i = child;
+            }
+            this.nodes[i] = node;
+            this.distances[i] = distance;
+        }
+
+        List<StopBean> toList(StopBean[] stops) {
+            Integer[] positions = new Integer[this.size];
+            for (int i = 0; i < this.size; i++) {
+                positions[i] = Integer.valueOf(i);
+            }
+            Arrays.sort(positions, new Comparator<Integer>() {
+
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(Neighbors.this.distances[a.intValue()], Neighbors.this.distances[b.intValue()]);
+                }
+            });
+            List<StopBean> nearest = new ArrayList<>(this.size);
+            for (Integer position : positions) {
+                nearest.add(stops[this.nodes[position.intValue()]]);
+            }
+            return nearest;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.trein.gtfs.service.component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import com.trein.gtfs.mongo.entity.Stop;
+import com.trein.gtfs.mongo.repository.StopRepository;
+import com.trein.gtfs.service.endpoint.v1.bean.StopBean;
+
+/**
+ * Every stop of the feed kept in memory, by GTFS id and in a spatial index, so documents referring
+ * to stops by id are joined and nearby stops are found without querying the database. The table
+ * is read at startup and rebuilt when a new feed is loaded; the previous table keeps answering
+ * until the new one replaces it as a whole.
+ *
+ * @author trein
+ */
+@Component
+public class StopTable implements ApplicationListener<FeedLoadedEvent> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StopTable.class);
+
+    @Autowired
+    private StopRepository stopRepository;
+
+    private volatile Snapshot snapshot;
+
+    @PostConstruct
+    public void initialize() {
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not load stops at startup, loading them on first use", e);
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(FeedLoadedEvent event) {
+        reload();
+    }
+
+    /**
+     * @param stopId GTFS stop id
+     * @return the stop, or null if the feed has no such stop
+     */
+    public StopBean getStop(String stopId) {
+        return getSnapshot().stops.get(stopId);
+    }
+
+    /**
+     * @return every stop of the feed
+     */
+    public Collection<StopBean> getStops() {
+        return getSnapshot().stops.values();
+    }
+
+    /**
+     * @param latitude latitude of the center, in degrees
+     * @param longitude longitude of the center, in degrees
+     * @param radiusMeters maximum distance from the center
+     * @param limit maximum number of stops
+     * @return closest stops within the radius, nearest first
+     */
+    public List<StopBean> getNearbyStops(double latitude, double longitude, double radiusMeters, int limit) {
+        return getSnapshot().index.findNearest(latitude, longitude, radiusMeters, limit);
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot current = this.snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (this.snapshot == null) {
+                    reload();
+                }
+                current = this.snapshot;
+            }
+        }
+        return current;
+    }
+
+    private synchronized void reload() {
+        List<Stop> entities = this.stopRepository.findAll();
+        Map<String, StopBean> stops = new HashMap<>(entities.size() * 2);
+        for (Stop stop : entities) {
+            stops.put(stop.getStopId(), StopBean.fromStop(stop));
+        }
+        this.snapshot = new Snapshot(Collections.unmodifiableMap(stops), new StopSpatialIndex(stops.values()));
+        LOGGER.info("Loaded {} stops into the stop table", String.valueOf(stops.size()));
+    }
+
+    private static final class Snapshot {
+
+        private final Map<String, StopBean> stops;
+        private final StopSpatialIndex index;
+
+        Snapshot(Map<String, StopBean> stops, StopSpatialIndex index) {
+            this.stops = stops;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.trein.gtfs.service.component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.AnnotationIntrospector;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
+import org.codehaus.jackson.map.introspect.JacksonAnnotationIntrospector;
+import org.codehaus.jackson.xc.JaxbAnnotationIntrospector;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.DocumentCallbackHandler;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+import com.trein.gtfs.mongo.entity.Route;
+import com.trein.gtfs.mongo.entity.Shape;
+import com.trein.gtfs.mongo.entity.Trip;
+import com.trein.gtfs.service.endpoint.v1.bean.RouteBean;
+import com.trein.gtfs.service.endpoint.v1.bean.ShapeBean;
+import com.trein.gtfs.service.endpoint.v1.bean.TripBean;
+
+/**
+ * Writes whole collections as JSON arrays straight from a database cursor. Each document is
+ * converted and written as soon as it is read, so memory per request does not depend on the size
+ * of the feed. Beans are written with the same Jackson and JAXB annotations as the REST provider.
+ * <p>
+ * Documents are converted by pages, so the documents they refer to are loaded with one query per
+ * page instead of one query per reference.
+ *
+ * @author trein
+ */
+@Component
+public class StreamingRepository {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final int PAGE_SIZE = 100;
+
+    static {
+        MAPPER.setAnnotationIntrospector(new AnnotationIntrospector.Pair(new JacksonAnnotationIntrospector(),
+                new JaxbAnnotationIntrospector()));
+        MAPPER.configure(SerializationConfig.Feature.FLUSH_AFTER_WRITE_VALUE, false);
+        MAPPER.getJsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * @return every trip, sorted by trip id
+     */
+    public StreamingOutput streamTrips() {
+        return new CursorOutput<Trip>(Trip.class, "tripId") {
+
+            /* routes are few and shared by many trips, so they are kept for the whole stream */
+            private final Map<Object, RouteBean> routes = new HashMap<>();
+
+            private final Map<Object, ShapeBean> shapes = new HashMap<>();
+
+            @Override
+            protected void prepare(List<DBObject> page) {
+                Set<Object> routeIds = new HashSet<>();
+                Set<Object> shapeIds = new HashSet<>();
+                for (DBObject document : page) {
+                    DBRef route = (DBRef) document.get("route");
+                    if ((route != null) && !this.routes.containsKey(route.getId())) {
+                        routeIds.add(route.getId());
+                    }
+                    for (DBRef shape : refs(document.get("shapes"))) {
+                        shapeIds.add(shape.getId());
+                    }
+                }
+                for (Route route : findAll(Route.class, routeIds)) {
+                    this.routes.put(route.getId(), RouteBean.fromRoute(route));
+                }
+                this.shapes.clear();
+                for (Shape shape : findAll(Shape.class, shapeIds)) {
+                    this.shapes.put(shape.getId(), ShapeBean.fromShape(shape));
+                }
+            }
+
+            @Override
+            protected Object toBean(DBObject document) {
+                DBRef route = (DBRef) document.removeField("route");
+                List<ShapeBean> shapeBeans = new ArrayList<>();
+                for (DBRef shape : refs(document.removeField("shapes"))) {
+                    ShapeBean bean = this.shapes.get(shape.getId());
+                    if (bean != null) {
+                        shapeBeans.add(bean);
+                    }
+                }
+                return TripBean.fromTrip(read(document), (route != null) ? this.routes.get(route.getId()) : null,
+                        shapeBeans);
+            }
+        };
+    }
+
+    /**
+     * @return every route, sorted by route id
+     */
+    public StreamingOutput streamRoutes() {
+        return new CursorOutput<Route>(Route.class, "routeId") {
+
+            @Override
+            protected Object toBean(DBObject document) {
+                return RouteBean.fromRoute(read(document));
+            }
+        };
+    }
+
+    /**
+     * @return the documents of the given class having one of the given ids
+     */
+    private <T> List<T> findAll(Class<T> entityClass, Set<Object> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return this.mongoTemplate.find(new Query(Criteria.where("_id").in(ids)), entityClass);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<DBRef> refs(Object value) {
+        return (value != null) ? (List<DBRef>) value : new ArrayList<DBRef>();
+    }
+
+    private abstract class CursorOutput<T> implements StreamingOutput {
+
+        private final Class<T> entityClass;
+        private final String sortKey;
+
+        CursorOutput(Class<T> entityClass, String sortKey) {
+            this.entityClass = entityClass;
+            this.sortKey = sortKey;
+        }
+
+        /**
+         * Called with each page of documents before they are converted, to load what they refer to.
+         */
+        protected void prepare(List<DBObject> page) {
+        }
+
+        protected abstract Object toBean(DBObject document);
+
+        protected T read(DBObject document) {
+            return StreamingRepository.this.mongoTemplate.getConverter().read(this.entityClass, document);
+        }
+
+        @Override
+        public void write(OutputStream output) throws IOException {
+            final JsonGenerator generator = MAPPER.getJsonFactory().createJsonGenerator(output, JsonEncoding.UTF8);
+            final MongoTemplate template = StreamingRepository.this.mongoTemplate;
+            final List<DBObject> page = new ArrayList<>(PAGE_SIZE);
+            Query query = new Query().with(new Sort(Direction.ASC, this.sortKey));
+
+            generator.writeStartArray();
+            try {
+                template.executeQuery(query, template.getCollectionName(this.entityClass), new DocumentCallbackHandler() {
+
+                    @Override
+                    public void processDocument(DBObject document) {
+                        page.add(document);
+                        if (page.size() == PAGE_SIZE) {
+                            writePage(generator, page);
+                        }
+                    }
+                });
+                writePage(generator, page);
+            } catch (IllegalStateException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e;
+            }
+            generator.writeEndArray();
+            generator.flush();
+        }
+
+        private void writePage(JsonGenerator generator, List<DBObject> page) {
+            if (page.isEmpty()) {
+                return;
+            }
+            prepare(page);
+            try {
+                for (DBObject document : page) {
+                    MAPPER.writeValue(generator, toBean(document));
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("can not write streamed document", e);
+            }
+            page.clear();
+        }
+    }
+}
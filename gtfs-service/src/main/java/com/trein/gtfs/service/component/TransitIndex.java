@@ -0,0 +1,234 @@
+package com.trein.gtfs.service.component;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.DocumentCallbackHandler;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+import com.trein.gtfs.mongo.entity.DirectionType;
+import com.trein.gtfs.mongo.entity.FeedInfo;
+import com.trein.gtfs.mongo.entity.Route;
+import com.trein.gtfs.mongo.entity.ServiceCalendarIndex;
+import com.trein.gtfs.mongo.entity.Trip;
+import com.trein.gtfs.mongo.entity.TripSchedule;
+import com.trein.gtfs.mongo.repository.CalendarDateRepository;
+import com.trein.gtfs.mongo.repository.CalendarRepository;
+import com.trein.gtfs.mongo.repository.FeedInfoRepository;
+import com.trein.gtfs.mongo.repository.RouteRepository;
+import com.trein.gtfs.mongo.repository.ServiceCalendarIndexRepository;
+import com.trein.gtfs.service.endpoint.v1.bean.RouteBean;
+
+/**
+ * Relationships between routes, trips and stops of the feed kept in memory, so route trips, stop
+ * routes and stop departure boards are answered without querying the database. Like {@link StopTable},
+ * the index is built at startup and rebuilt when a new feed is loaded, and the previous index
+ * keeps answering until the new one replaces it as a whole.
+ *
+ * @author trein
+ */
+@Component
+public class TransitIndex implements ApplicationListener<FeedLoadedEvent> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransitIndex.class);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private RouteRepository routeRepository;
+
+    @Autowired
+    private CalendarRepository calendarRepository;
+
+    @Autowired
+    private CalendarDateRepository calendarDateRepository;
+
+    @Autowired
+    private FeedInfoRepository feedInfoRepository;
+
+    @Autowired
+    private ServiceCalendarIndexRepository serviceCalendarIndexRepository;
+
+    private volatile Snapshot snapshot;
+
+    @PostConstruct
+    public void initialize() {
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not build the transit index at startup, building it on first use", e);
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(FeedLoadedEvent event) {
+        reload();
+    }
+
+    /**
+     * @param stopId GTFS stop id
+     * @return true if some trip calls at the stop
+     */
+    public boolean hasStop(String stopId) {
+        return getSnapshot().index.findStop(stopId) != FeedIndex.NOT_FOUND;
+    }
+
+    /**
+     * @param stopId GTFS stop id
+     * @return routes of the trips calling at the stop, empty if no trip calls at it
+     */
+    public List<RouteBean> getRoutesAtStop(String stopId) {
+        FeedIndex current = getSnapshot().index;
+        int stop = current.findStop(stopId);
+        return (stop == FeedIndex.NOT_FOUND) ? Collections.<RouteBean> emptyList() : current.getRoutesAt(stop);
+    }
+
+    /**
+     * @param stopId GTFS stop id
+     * @param day requested service day
+     * @param from start of the window, in seconds since the start of the service day
+     * @param window length of the window, in seconds
+     * @return departures from the stop within the window, by departure time, written as JSON
+     */
+    public StreamingOutput getDepartureBoard(String stopId, java.util.Calendar day, int from, int window) {
+        Snapshot current = getSnapshot();
+        int stop = current.index.findStop(stopId);
+        if (stop == FeedIndex.NOT_FOUND) {
+            throw new IllegalArgumentException(String.format("no trip calls at stop %s", stopId));
+        }
+        java.util.Calendar previous = (java.util.Calendar) day.clone();
+        previous.add(java.util.Calendar.DAY_OF_MONTH, -1);
+        return new DepartureBoard(current.index, stop, from, window, toDay(day),
+                current.calendar.activeServices(day.getTime()), toDay(previous),
+                current.calendar.activeServices(previous.getTime()));
+    }
+
+    /**
+     * @param routeId GTFS route id
+     * @param direction direction of travel
+     * @return id of a trip representing the route in the direction, or null if there is none
+     */
+    public String findRepresentativeTrip(String routeId, DirectionType direction) {
+        FeedIndex current = getSnapshot().index;
+        int route = current.findRoute(routeId);
+        return (route == FeedIndex.NOT_FOUND) ? null : current.findFirstTrip(route, direction.getCode());
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot current = this.snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (this.snapshot == null) {
+                    reload();
+                }
+                current = this.snapshot;
+            }
+        }
+        return current;
+    }
+
+    private synchronized void reload() {
+        long start = System.currentTimeMillis();
+        final FeedIndex.Builder builder = new FeedIndex.Builder();
+        ServiceCalendarIndex calendar = loadServiceCalendar();
+        for (String serviceId : calendar.getServiceIds()) {
+            builder.addService(serviceId);
+        }
+        final Map<ObjectId, String> routeIds = new HashMap<>();
+
+        for (Route route : this.routeRepository.findAll()) {
+            routeIds.put(route.getId(), route.getRouteId());
+            builder.addRoute(route.getRouteId(), RouteBean.fromRoute(route));
+        }
+
+        // trips are read as raw documents, so their route references are not resolved one by one
+        Query trips = new Query();
+        trips.fields().include("tripId").include("route").include("serviceId").include("headsign")
+                .include("directionType");
+        this.mongoTemplate.executeQuery(trips, this.mongoTemplate.getCollectionName(Trip.class),
+                new DocumentCallbackHandler() {
+
+                    @Override
+                    public void processDocument(DBObject trip) {
+                        DBRef route = (DBRef) trip.get("route");
+                        Object direction = trip.get("directionType");
+                        builder.addTrip((String) trip.get("tripId"),
+                                (route != null) ? routeIds.get(route.getId()) : null, (String) trip.get("serviceId"),
+                                (direction != null) ? DirectionType.valueOf(direction.toString()).getCode()
+                                        : DirectionType.INBOUND.getCode(), (String) trip.get("headsign"));
+                    }
+                });
+
+        final MongoConverter converter = this.mongoTemplate.getConverter();
+        this.mongoTemplate.executeQuery(new Query(), this.mongoTemplate.getCollectionName(TripSchedule.class),
+                new DocumentCallbackHandler() {
+
+                    @Override
+                    public void processDocument(DBObject document) {
+                        TripSchedule schedule = converter.read(TripSchedule.class, document);
+                        builder.addSchedule(schedule.getTripId(), schedule.getStopIds(), schedule.getDepartureTimes());
+                    }
+                });
+
+        FeedIndex built = builder.build();
+        this.snapshot = new Snapshot(built, calendar);
+        LOGGER.info("Indexed {} trips calling at {} stops in {} ms", String.valueOf(built.getTripCount()),
+                String.valueOf(built.getStopCount()), String.valueOf(System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Calendars are compiled by the loader, which stores the new index before removing the previous
+     * one, so the newest index is used. Feeds loaded before the loader compiled them are compiled
+     * here.
+     */
+    private ServiceCalendarIndex loadServiceCalendar() {
+        List<ServiceCalendarIndex> stored = this.serviceCalendarIndexRepository.findAll(new Sort(Direction.DESC, "id"));
+        if (!stored.isEmpty()) {
+            return stored.get(0);
+        }
+        LOGGER.warn("No compiled service calendar found, compiling calendars of the feed");
+        List<FeedInfo> feedInfos = this.feedInfoRepository.findAll();
+        FeedInfo feedInfo = feedInfos.isEmpty() ? null : feedInfos.get(0);
+        return ServiceCalendarIndex.compile((feedInfo != null) ? feedInfo.getStartDate() : null,
+                (feedInfo != null) ? feedInfo.getEndDate() : null, this.calendarRepository.findAll(),
+                this.calendarDateRepository.findAll());
+    }
+
+    private static int toDay(java.util.Calendar calendar) {
+        return (calendar.get(java.util.Calendar.YEAR) * 10000) + ((calendar.get(java.util.Calendar.MONTH) + 1) * 100)
+                + calendar.get(java.util.Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Services are numbered alike in the feed index and the calendar, so the calendar's bit sets
+     * of active services apply to the index as they are.
+     */
+    private static final class Snapshot {
+
+        private final FeedIndex index;
+        private final ServiceCalendarIndex calendar;
+
+        Snapshot(FeedIndex index, ServiceCalendarIndex calendar) {
+            this.index = index;
+            this.calendar = calendar;
+        }
+    }
+}
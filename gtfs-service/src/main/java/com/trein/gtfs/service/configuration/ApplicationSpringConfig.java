@@ -2,11 +2,9 @@ package com.trein.gtfs.service.configuration;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
-import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
-import org.springframework.cache.concurrent.ConcurrentMapCache;
-import org.springframework.cache.support.SimpleCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
@@ -15,6 +13,11 @@ import org.springframework.context.annotation.Import;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
 import com.trein.gtfs.mongo.MongoRepositoryConfig;
+import com.trein.gtfs.service.aspect.audit.AuditOverflowPolicy;
+import com.trein.gtfs.service.aspect.audit.AuditSink;
+import com.trein.gtfs.service.cache.BoundedCache;
+import com.trein.gtfs.service.cache.BoundedCacheManager;
+import com.trein.gtfs.service.component.CachedRepository;
 
 @Configuration
 @EnableTransactionManagement
@@ -24,20 +27,39 @@ import com.trein.gtfs.mongo.MongoRepositoryConfig;
 @ComponentScan(basePackages = { "com.trein.gtfs.service" })
 public class ApplicationSpringConfig {
 
+    private static final long FEED_TTL_HOURS = 12;
+    private static final String AUDIT_OVERFLOW_PROPERTY = "gtfs.audit.overflow";
+
+    /**
+     * Cache regions are bounded by the number of cached beans. Feed data only changes when a new
+     * feed is loaded, which clears every region, so its time to live is long. The loading regions
+     * <code>trip</code> and <code>trip_stop_times</code> are registered by {@link CachedRepository}.
+     */
     @Bean
-    public CacheManager cacheManager() {
-        SimpleCacheManager cacheManager = new SimpleCacheManager();
-        Collection<ConcurrentMapCache> caches = new ArrayList<ConcurrentMapCache>();
-        caches.add(new ConcurrentMapCache("default"));
-        caches.add(new ConcurrentMapCache("trip"));
-        caches.add(new ConcurrentMapCache("trips"));
-        caches.add(new ConcurrentMapCache("trip_stop_times"));
-        caches.add(new ConcurrentMapCache("trip_shapes"));
-        caches.add(new ConcurrentMapCache("route_trips"));
-        caches.add(new ConcurrentMapCache("route"));
-        caches.add(new ConcurrentMapCache("routes"));
-        caches.add(new ConcurrentMapCache("nearby_stops"));
+    public BoundedCacheManager cacheManager() {
+        BoundedCacheManager cacheManager = new BoundedCacheManager();
+        Collection<BoundedCache> caches = new ArrayList<BoundedCache>();
+        caches.add(new BoundedCache("default", 10000, FEED_TTL_HOURS, TimeUnit.HOURS));
+        caches.add(new BoundedCache("trips", 100000, FEED_TTL_HOURS, TimeUnit.HOURS));
+        caches.add(new BoundedCache("trip_shapes", 500000, FEED_TTL_HOURS, TimeUnit.HOURS));
+        caches.add(new BoundedCache("trip_polyline", 20000, FEED_TTL_HOURS, TimeUnit.HOURS));
+        caches.add(new BoundedCache("trip_stop_times_columnar", 20000, FEED_TTL_HOURS, TimeUnit.HOURS));
+        caches.add(new BoundedCache("trip_shapes_columnar", 20000, FEED_TTL_HOURS, TimeUnit.HOURS));
+        caches.add(new BoundedCache("route_trips", 20000, FEED_TTL_HOURS, TimeUnit.HOURS));
+        caches.add(new BoundedCache("route", 5000, FEED_TTL_HOURS, TimeUnit.HOURS));
+        caches.add(new BoundedCache("routes", 20000, FEED_TTL_HOURS, TimeUnit.HOURS));
         cacheManager.setCaches(caches);
         return cacheManager;
     }
+
+    /**
+     * Audit records are written in bulks of up to 500, at least once a second. Records are dropped
+     * when 16k of them are waiting, unless the <code>gtfs.audit.overflow</code> system property is
+     * set to <code>BLOCK</code>.
+     */
+    @Bean
+    public AuditSink auditSink() {
+        String policy = System.getProperty(AUDIT_OVERFLOW_PROPERTY, AuditOverflowPolicy.DROP.name());
+        return new AuditSink(16384, 500, 1, TimeUnit.SECONDS, AuditOverflowPolicy.valueOf(policy.toUpperCase()));
+    }
 }
@@ -1,6 +1,7 @@
 package com.trein.gtfs.service.endpoint;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
@@ -8,6 +9,8 @@ import javax.ws.rs.core.Response;
 
 import org.jboss.resteasy.annotations.GZIP;
 
+import com.trein.gtfs.service.exception.SecurityException;
+
 @Path("/resources")
 public interface ResourcesService {
     
@@ -23,4 +26,26 @@ public interface ResourcesService {
     @GZIP
     Response terms();
     
+    @GET
+    @Path("/caches")
+    @Produces(MediaType.APPLICATION_JSON)
+    @GZIP
+    Response caches();
+    
+    @GET
+    @Path("/audit")
+    @Produces(MediaType.APPLICATION_JSON)
+    @GZIP
+    Response audit();
+    
+    /**
+     * Called by the loader once a new feed is in the database, when it is given this endpoint in
+     * its <code>gtfs.feed.notify.url</code> system property. Only accepted with the secret of the
+     * <code>gtfs.feed.token</code> system property in the <code>Feed-Token</code> header.
+     */
+    @POST
+    @Path("/feed")
+    @Produces(MediaType.APPLICATION_JSON)
+    Response feedLoaded() throws SecurityException;
+    
 }
@@ -1,5 +1,10 @@
 package com.trein.gtfs.service.endpoint;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
@@ -8,20 +13,39 @@ import javax.ws.rs.core.Response.Status;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
+import com.google.common.cache.CacheStats;
+import com.trein.gtfs.service.aspect.audit.AuditSink;
+import com.trein.gtfs.service.cache.BoundedCacheManager;
+import com.trein.gtfs.service.cache.LoadingBoundedCache;
+import com.trein.gtfs.service.component.FeedLoadedEvent;
 import com.trein.gtfs.service.component.StaticResources;
+import com.trein.gtfs.service.exception.SecurityException;
 
 @Service
 public class ResourcesServiceImpl implements ResourcesService {
     
     private static final Logger LOGGER = LoggerFactory.getLogger(ResourcesServiceImpl.class);
+    private static final String FEED_TOKEN_PROPERTY = "gtfs.feed.token";
+    private static final String FEED_TOKEN_HEADER = "Feed-Token";
     
     @Context
     private HttpServletRequest request;
 
     @Autowired
     private StaticResources resources;
+
+    @Autowired
+    private BoundedCacheManager cacheManager;
+
+    @Autowired
+    private AuditSink auditSink;
+
+    @Autowired
+    private ApplicationEventPublisher publisher;
     
     @Override
     public Response ping() {
@@ -33,4 +57,63 @@ public class ResourcesServiceImpl implements ResourcesService {
     public Response terms() {
         return Response.ok(this.resources.getTermsOfUse()).build();
     }
+    
+    @Override
+    public Response caches() {
+        Map<String, Map<String, Long>> regions = new LinkedHashMap<String, Map<String, Long>>();
+        for (Map.Entry<String, CacheStats> region : this.cacheManager.getStatistics().entrySet()) {
+            CacheStats stats = region.getValue();
+            Map<String, Long> counters = new LinkedHashMap<String, Long>();
+            counters.put("hits", Long.valueOf(stats.hitCount()));
+            counters.put("misses", Long.valueOf(stats.missCount()));
+            counters.put("evictions", Long.valueOf(stats.evictionCount()));
+            Cache cache = this.cacheManager.getCache(region.getKey());
+            if (cache instanceof LoadingBoundedCache) {
+                LoadingBoundedCache<?> loading = (LoadingBoundedCache<?>) cache;
+                counters.put("loads", Long.valueOf(loading.getLoads()));
+                counters.put("coalesced", Long.valueOf(loading.getCoalesced()));
+                counters.put("refreshes", Long.valueOf(loading.getRefreshes()));
+            }
+            regions.put(region.getKey(), counters);
+        }
+        return Response.status(Status.OK).entity(regions).build();
+    }
+    
+    @Override
+    public Response audit() {
+        Map<String, Long> counters = new LinkedHashMap<String, Long>();
+        counters.put("queued", Long.valueOf(this.auditSink.getQueued()));
+        counters.put("dropped", Long.valueOf(this.auditSink.getDropped()));
+        counters.put("flushed", Long.valueOf(this.auditSink.getFlushed()));
+        counters.put("failed", Long.valueOf(this.auditSink.getFailed()));
+        counters.put("pending", Long.valueOf(this.auditSink.getPending()));
+        return Response.status(Status.OK).entity(counters).build();
+    }
+    
+    @Override
+    public Response feedLoaded() throws SecurityException {
+        if (!isFeedTokenValid()) {
+            throw new SecurityException(String.format("feed notification without a valid token from %s",
+                    this.request.getRemoteAddr()));
+        }
+        LOGGER.info("New feed loaded, dropping cached data");
+        this.publisher.publishEvent(new FeedLoadedEvent(this));
+        return Response.status(Status.OK).entity("Feed reloaded").build();
+    }
+    
+    /**
+     * Checks the <code>Feed-Token</code> header against the secret shared with the loader in the
+     * <code>gtfs.feed.token</code> system property. Notifications are refused when no secret is
+     * configured. The remote address is not used, since behind a proxy every request comes from it.
+     */
+    private boolean isFeedTokenValid() {
+        String expected = System.getProperty(FEED_TOKEN_PROPERTY);
+        String token = this.request.getHeader(FEED_TOKEN_HEADER);
+        if ((expected == null) || expected.isEmpty()) {
+            LOGGER.warn("Feed notifications are disabled, {} is not set", FEED_TOKEN_PROPERTY);
+            return false;
+        }
+        return (token != null)
+                && MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
 }
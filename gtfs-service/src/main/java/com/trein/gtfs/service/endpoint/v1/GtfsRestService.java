@@ -10,6 +10,8 @@ import javax.ws.rs.core.Response;
 
 import org.jboss.resteasy.annotations.GZIP;
 
+import com.trein.gtfs.service.endpoint.v1.columnar.ColumnarWriter;
+
 @Path("/gtfs/v1")
 public interface GtfsRestService {
 
@@ -17,7 +19,7 @@ public interface GtfsRestService {
     @Path("/trips")
     @Produces(MediaType.APPLICATION_JSON)
     @GZIP
-    Response getTrips(@QueryParam("page") Integer page) throws Exception;
+    Response getTrips(@QueryParam("after") String after, @QueryParam("limit") Integer limit) throws Exception;
 
     @GET
     @Path("/trips/{trip_id}")
@@ -31,17 +33,37 @@ public interface GtfsRestService {
     @GZIP
     Response getTripStopTimes(@PathParam("trip_id") String tripId) throws Exception;
     
+    /**
+     * Same stop times in the columnar format, for clients asking for it. Responses are compressed
+     * by the format itself, so they are not gzipped again.
+     */
+    @GET
+    @Path("/trips/{trip_id}/stops")
+    @Produces(ColumnarWriter.MEDIA_TYPE + ";qs=0.5")
+    Response getColumnarTripStopTimes(@PathParam("trip_id") String tripId) throws Exception;
+    
     @GET
     @Path("/trips/{trip_id}/shapes")
     @Produces(MediaType.APPLICATION_JSON)
     @GZIP
     Response getTripShapes(@PathParam("trip_id") String tripId) throws Exception;
     
+    @GET
+    @Path("/trips/{trip_id}/shapes")
+    @Produces(ColumnarWriter.MEDIA_TYPE + ";qs=0.5")
+    Response getColumnarTripShapes(@PathParam("trip_id") String tripId) throws Exception;
+    
+    @GET
+    @Path("/trips/{trip_id}/polyline")
+    @Produces(MediaType.APPLICATION_JSON)
+    @GZIP
+    Response getTripPolyline(@PathParam("trip_id") String tripId) throws Exception;
+    
     @GET
     @Path("/routes")
     @Produces(MediaType.APPLICATION_JSON)
     @GZIP
-    Response getRoutes(@QueryParam("page") Integer page) throws Exception;
+    Response getRoutes(@QueryParam("after") String after, @QueryParam("limit") Integer limit) throws Exception;
 
     @GET
     @Path("/routes/{route_id}/trips")
@@ -49,11 +71,26 @@ public interface GtfsRestService {
     @GZIP
     Response getRouteTrips(@PathParam("route_id") String routeId) throws Exception;
     
+    @GET
+    @Path("/stops/{stop_id}/routes")
+    @Produces(MediaType.APPLICATION_JSON)
+    @GZIP
+    Response getStopRoutes(@PathParam("stop_id") String stopId) throws Exception;
+
+    @GET
+    @Path("/stops/{stop_id}/departures")
+    @Produces(MediaType.APPLICATION_JSON)
+    @GZIP
+    // http://localhost:8080/rest/gtfs/v1/stops/1234/departures?date=20140801&from=08:00&window=30
+    Response getStopDepartures(@PathParam("stop_id") String stopId, @QueryParam("date") String date,
+            @QueryParam("from") String from, @QueryParam("window") Integer window) throws Exception;
+
     @GET
     @Path("/nearby/stops")
     @Produces(MediaType.APPLICATION_JSON)
     @GZIP
-    // http://localhost:8080/rest/gtfs/v1/nearby/stops?lat=-30.030277&lng=-51.230339
-    Response getNearbyStops(@QueryParam("lat") String latitude, @QueryParam("lng") String longitude) throws Exception;
+    // http://localhost:8080/rest/gtfs/v1/nearby/stops?lat=-30.030277&lng=-51.230339&radius=500&limit=20
+    Response getNearbyStops(@QueryParam("lat") String latitude, @QueryParam("lng") String longitude,
+            @QueryParam("radius") Double radius, @QueryParam("limit") Integer limit) throws Exception;
 
 }
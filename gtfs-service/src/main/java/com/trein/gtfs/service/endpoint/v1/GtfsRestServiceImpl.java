@@ -1,30 +1,40 @@
 package com.trein.gtfs.service.endpoint.v1;
 
 import java.io.UnsupportedEncodingException;
+import java.net.URI;
 import java.net.URLDecoder;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.geo.Point;
 import org.springframework.stereotype.Service;
 
 import com.trein.gtfs.service.aspect.audit.ServiceEndpoint;
 import com.trein.gtfs.service.component.CachedRepository;
+import com.trein.gtfs.service.component.StopTable;
+import com.trein.gtfs.service.component.StreamingRepository;
+import com.trein.gtfs.service.component.TransitIndex;
 import com.trein.gtfs.service.endpoint.RestRequestAware;
+import com.trein.gtfs.service.endpoint.v1.bean.PolylineBean;
 import com.trein.gtfs.service.endpoint.v1.bean.RouteBean;
 import com.trein.gtfs.service.endpoint.v1.bean.ShapeBean;
 import com.trein.gtfs.service.endpoint.v1.bean.StopBean;
 import com.trein.gtfs.service.endpoint.v1.bean.StopTimeBean;
 import com.trein.gtfs.service.endpoint.v1.bean.TripBean;
+import com.trein.gtfs.service.endpoint.v1.columnar.ColumnarWriter;
 import com.trein.gtfs.service.exception.ResourceNotFoundException;
 
 @Service
@@ -32,6 +42,14 @@ import com.trein.gtfs.service.exception.ResourceNotFoundException;
 public class GtfsRestServiceImpl implements GtfsRestService, RestRequestAware {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(GtfsRestServiceImpl.class);
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final double DEFAULT_RADIUS_METERS = 500;
+    private static final double MAX_RADIUS_METERS = 5000;
+    private static final int DEFAULT_NEARBY_STOPS = 50;
+    private static final int MAX_NEARBY_STOPS = 500;
+    private static final int DEFAULT_WINDOW_MINUTES = 30;
+    private static final int MAX_WINDOW_MINUTES = 24 * 60;
 
     @Context
     private HttpServletRequest request;
@@ -42,6 +60,15 @@ public class GtfsRestServiceImpl implements GtfsRestService, RestRequestAware {
     @Autowired
     private CachedRepository repository;
 
+    @Autowired
+    private StreamingRepository streams;
+
+    @Autowired
+    private StopTable stopTable;
+
+    @Autowired
+    private TransitIndex transitIndex;
+
     @Override
     public HttpServletRequest getRequest() {
         return this.request;
@@ -53,9 +80,17 @@ public class GtfsRestServiceImpl implements GtfsRestService, RestRequestAware {
     }
     
     @Override
-    public Response getTrips(Integer page) throws ResourceNotFoundException {
-        List<TripBean> trips = this.repository.getTrips(page);
-        return Response.status(Status.OK).entity(trips).build();
+    public Response getTrips(String after, Integer limit) throws ResourceNotFoundException {
+        if ((after == null) && (limit == null)) {
+            return Response.status(Status.OK).entity(this.streams.streamTrips()).build();
+        }
+        int size = pageSize(limit);
+        List<TripBean> trips = this.repository.getTrips(after, size);
+        ResponseBuilder response = Response.status(Status.OK).entity(trips);
+        if (trips.size() == size) {
+            response.link(nextPage(trips.get(size - 1).getTripId(), size), "next");
+        }
+        return response.build();
     }
 
     @Override
@@ -76,6 +111,12 @@ public class GtfsRestServiceImpl implements GtfsRestService, RestRequestAware {
         return Response.status(Status.OK).entity(stops).build();
     }
 
+    @Override
+    public Response getColumnarTripStopTimes(String tripId) throws UnsupportedEncodingException {
+        byte[] stops = this.repository.getColumnarStopTimesForTrip(decodeParam(tripId));
+        return Response.status(Status.OK).entity(stops).type(ColumnarWriter.MEDIA_TYPE).build();
+    }
+
     @Override
     public Response getTripShapes(String tripId) throws ResourceNotFoundException, UnsupportedEncodingException {
         String decodedTripId = decodeParam(tripId);
@@ -84,9 +125,33 @@ public class GtfsRestServiceImpl implements GtfsRestService, RestRequestAware {
     }
 
     @Override
-    public Response getRoutes(Integer page) throws ResourceNotFoundException {
-        List<RouteBean> routes = this.repository.getRoutes(page);
-        return Response.status(Status.OK).entity(routes).build();
+    public Response getColumnarTripShapes(String tripId) throws UnsupportedEncodingException {
+        byte[] shapes = this.repository.getColumnarTripShapes(decodeParam(tripId));
+        return Response.status(Status.OK).entity(shapes).type(ColumnarWriter.MEDIA_TYPE).build();
+    }
+
+    @Override
+    public Response getTripPolyline(String tripId) throws ResourceNotFoundException, UnsupportedEncodingException {
+        String decodedTripId = decodeParam(tripId);
+        PolylineBean polyline = this.repository.getTripPolyline(decodedTripId);
+        if (polyline == null) {
+            throw new ResourceNotFoundException(String.format("no packed shape for trip %s", decodedTripId));
+        }
+        return Response.status(Status.OK).entity(polyline).build();
+    }
+
+    @Override
+    public Response getRoutes(String after, Integer limit) throws ResourceNotFoundException {
+        if ((after == null) && (limit == null)) {
+            return Response.status(Status.OK).entity(this.streams.streamRoutes()).build();
+        }
+        int size = pageSize(limit);
+        List<RouteBean> routes = this.repository.getRoutes(after, size);
+        ResponseBuilder response = Response.status(Status.OK).entity(routes);
+        if (routes.size() == size) {
+            response.link(nextPage(routes.get(size - 1).getRouteId(), size), "next");
+        }
+        return response.build();
     }
     
     @Override
@@ -98,9 +163,43 @@ public class GtfsRestServiceImpl implements GtfsRestService, RestRequestAware {
     }
 
     @Override
-    public Response getNearbyStops(String latitude, String longitude) throws ResourceNotFoundException {
-        Point point = new Point(Double.parseDouble(latitude), Double.parseDouble(longitude));
-        List<StopBean> stops = this.repository.getNearbyStops(point);
+    public Response getStopRoutes(String stopId) throws ResourceNotFoundException, UnsupportedEncodingException {
+        String decodedStopId = decodeParam(stopId);
+        if (!this.transitIndex.hasStop(decodedStopId)) {
+            throw new ResourceNotFoundException(String.format("no trip calls at stop %s", decodedStopId));
+        }
+        List<RouteBean> routes = this.transitIndex.getRoutesAtStop(decodedStopId);
+        LOGGER.info("Found {} routes for stop [{}]", String.valueOf(routes.size()), decodedStopId);
+        return Response.status(Status.OK).entity(routes).build();
+    }
+
+    /**
+     * Departures within <code>window</code> minutes of <code>from</code>, HH:MM[:SS], on the
+     * service day <code>date</code>, yyyyMMdd. The window starts now when no time is given.
+     */
+    @Override
+    public Response getStopDepartures(String stopId, String date, String from, Integer window)
+            throws ResourceNotFoundException, UnsupportedEncodingException {
+        String decodedStopId = decodeParam(stopId);
+        if (!this.transitIndex.hasStop(decodedStopId)) {
+            throw new ResourceNotFoundException(String.format("no trip calls at stop %s", decodedStopId));
+        }
+        Calendar now = Calendar.getInstance();
+        Calendar day = (date == null) ? now : parseDate(date);
+        int seconds = (from == null) ? secondsOfDay(now) : parseTime(from);
+        int minutes = (window == null) ? DEFAULT_WINDOW_MINUTES : Math.max(1, Math.min(window.intValue(),
+                MAX_WINDOW_MINUTES));
+        StreamingOutput departures = this.transitIndex.getDepartureBoard(decodedStopId, day, seconds, minutes * 60);
+        return Response.status(Status.OK).entity(departures).build();
+    }
+
+    @Override
+    public Response getNearbyStops(String latitude, String longitude, Double radius, Integer limit)
+            throws ResourceNotFoundException {
+        double meters = (radius == null) ? DEFAULT_RADIUS_METERS : Math.max(0, Math.min(radius.doubleValue(), MAX_RADIUS_METERS));
+        int count = (limit == null) ? DEFAULT_NEARBY_STOPS : Math.max(1, Math.min(limit.intValue(), MAX_NEARBY_STOPS));
+        List<StopBean> stops = this.stopTable.getNearbyStops(Double.parseDouble(latitude), Double.parseDouble(longitude),
+                meters, count);
         LOGGER.info("Found {} stops for location [{} {}]", String.valueOf(stops.size()), latitude, longitude);
         return Response.status(Status.OK).entity(stops).build();
     }
@@ -110,6 +209,57 @@ public class GtfsRestServiceImpl implements GtfsRestService, RestRequestAware {
         return "GTFS Rest Service";
     }
 
+    private static int pageSize(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        return Math.max(1, Math.min(limit.intValue(), MAX_PAGE_SIZE));
+    }
+
+    /**
+     * Link to the page following the given key, with the page size actually used.
+     */
+    private URI nextPage(String lastKey, int size) {
+        return this.uriInfo.getRequestUriBuilder().replaceQueryParam("after", "{after}")
+                .replaceQueryParam("limit", Integer.valueOf(size)).build(lastKey);
+    }
+
+    private static Calendar parseDate(String date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+        format.setLenient(false);
+        try {
+            Calendar day = Calendar.getInstance();
+            day.setTime(format.parse(date));
+            return day;
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(String.format("invalid date %s, expected yyyyMMdd", date), e);
+        }
+    }
+
+    /**
+     * Parses GTFS times, which go past 24:00:00 for service continuing after midnight.
+     */
+    private static int parseTime(String time) {
+        String[] fields = time.split(":");
+        if ((fields.length < 2) || (fields.length > 3)) {
+            throw new IllegalArgumentException(String.format("invalid time %s, expected HH:MM[:SS]", time));
+        }
+        int seconds = 0;
+        for (int i = 0; i < 3; i++) {
+            int value = (i < fields.length) ? Integer.parseInt(fields[i]) : 0;
+            if ((value < 0) || ((i > 0) && (value > 59))) {
+                throw new IllegalArgumentException(String.format("invalid time %s, expected HH:MM[:SS]", time));
+            }
+            seconds = (seconds * 60) + value;
+        }
+        return seconds;
+    }
+
+    private static int secondsOfDay(Calendar calendar) {
+        return (calendar.get(Calendar.HOUR_OF_DAY) * 3600) + (calendar.get(Calendar.MINUTE) * 60)
+                + calendar.get(Calendar.SECOND);
+    }
+
     private String decodeParam(String param) throws UnsupportedEncodingException {
         return URLDecoder.decode(param, "UTF-8");
     }
@@ -0,0 +1,46 @@
+package com.trein.gtfs.service.endpoint.v1.bean;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.trein.gtfs.mongo.entity.ShapeGeometry;
+
+/**
+ * Shape of a trip as stored, in the Google encoded polyline format, so it is served without
+ * decoding its points.
+ */
+@XmlRootElement
+public class PolylineBean {
+
+    @XmlAttribute(name = "shape_id")
+    private String shapeId;
+
+    @XmlAttribute(name = "points")
+    private String points;
+
+    @XmlAttribute(name = "length")
+    private int length;
+
+    private PolylineBean() {
+    }
+
+    public String getShapeId() {
+        return this.shapeId;
+    }
+
+    public String getPoints() {
+        return this.points;
+    }
+
+    public int getLength() {
+        return this.length;
+    }
+
+    public static PolylineBean fromShapeGeometry(ShapeGeometry geometry) {
+        PolylineBean bean = new PolylineBean();
+        bean.shapeId = geometry.getShapeId();
+        bean.points = geometry.getPolyline();
+        bean.length = geometry.getPointCount();
+        return bean;
+    }
+}
@@ -46,6 +46,18 @@ public class StopBean {
     private StopBean() {
     }
 
+    public String getStopId() {
+        return this.stopId;
+    }
+
+    public double[] getLocation() {
+        return this.location;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
     public static StopBean fromStop(Stop stop) {
         StopBean bean = new StopBean();
         bean.stopId = stop.getStopId();
@@ -7,6 +7,7 @@ import javax.xml.bind.annotation.XmlRootElement;
 
 import com.trein.gtfs.mongo.entity.AvailabilityType;
 import com.trein.gtfs.mongo.entity.StopTime;
+import com.trein.gtfs.mongo.entity.TripSchedule;
 
 @XmlRootElement
 public class StopTimeBean {
@@ -73,8 +74,8 @@ public class StopTimeBean {
     public static StopTimeBean fromStopTime(StopTime stopTime) {
         StopTimeBean bean = new StopTimeBean();
         bean.stop = StopBean.fromStop(stopTime.getStop());
-        bean.arrivalTime = stopTime.getArrivalTime();
-        bean.departureTime = stopTime.getDepartureTime();
+        bean.arrivalTime = orMidnight(stopTime.getArrivalTime());
+        bean.departureTime = orMidnight(stopTime.getDepartureTime());
         bean.stopSequence = stopTime.getStopSequence();
         bean.stopHeadsign = stopTime.getStopHeadsign();
         bean.pickupType = stopTime.getPickupType();
@@ -82,4 +83,37 @@ public class StopTimeBean {
         bean.shapeDistanceTraveled = stopTime.getShapeDistanceTraveled();
         return bean;
     }
+
+    /**
+     * @param schedule stop times of a trip
+     * @param index position of the stop time in the schedule
+     * @param stop stop joined by the caller from the schedule's stop id
+     */
+    public static StopTimeBean fromSchedule(TripSchedule schedule, int index, StopBean stop) {
+        StopTimeBean bean = new StopTimeBean();
+        bean.stop = stop;
+        bean.arrivalTime = toTime(schedule.getArrivalTimes()[index]);
+        bean.departureTime = toTime(schedule.getDepartureTimes()[index]);
+        bean.stopSequence = schedule.getStopSequences()[index];
+        bean.stopHeadsign = (schedule.getStopHeadsigns() != null) ? schedule.getStopHeadsigns()[index] : null;
+        bean.pickupType = AvailabilityType.fromCode(Integer.valueOf(schedule.getPickupTypes()[index]));
+        bean.dropoffType = AvailabilityType.fromCode(Integer.valueOf(schedule.getDropoffTypes()[index]));
+        bean.shapeDistanceTraveled = schedule.getShapeDistancesTraveled()[index];
+        return bean;
+    }
+
+    /**
+     * Same conversion as the per stop time documents, where times past midnight roll over.
+     */
+    private static Time toTime(int seconds) {
+        int time = (seconds == TripSchedule.NO_TIME) ? 0 : seconds;
+        return Time.valueOf(String.format("%02d:%02d:%02d", time / 3600, (time / 60) % 60, time % 60));
+    }
+
+    /**
+     * Stop times without a time are stored as null, and still shown as midnight.
+     */
+    private static Time orMidnight(Time time) {
+        return (time != null) ? time : toTime(TripSchedule.NO_TIME);
+    }
 }
@@ -20,6 +20,9 @@ public class TripBean {
     @XmlAttribute(name = "route")
     private RouteBean route;
     
+    @XmlAttribute(name = "shape_id")
+    private String shapeId;
+
     @XmlAttribute(name = "shapes")
     private List<ShapeBean> shapes;
     
@@ -52,6 +55,10 @@ public class TripBean {
         return this.route;
     }
 
+    public String getShapeId() {
+        return this.shapeId;
+    }
+
     public List<ShapeBean> getShapes() {
         return this.shapes;
     }
@@ -81,21 +88,35 @@ public class TripBean {
     }
 
     public static TripBean fromTrip(Trip trip) {
+        return fromTrip(trip, RouteBean.fromRoute(trip.getRoute()),
+                (trip.getShapes() != null) ? fromShapes(trip.getShapes()) : new ArrayList<ShapeBean>());
+    }
+
+    /**
+     * Converts a trip whose route and shapes were resolved separately, e.g. for a whole page of
+     * trips at once.
+     */
+    public static TripBean fromTrip(Trip trip, RouteBean route, List<ShapeBean> shapes) {
         TripBean bean = new TripBean();
         bean.tripId = trip.getTripId();
-        bean.route = RouteBean.fromRoute(trip.getRoute());
+        bean.route = route;
         bean.serviceId = trip.getServiceId();
         bean.headsign = trip.getHeadsign();
         bean.shortName = trip.getShortName();
         bean.blockId = trip.getBlockId();
         bean.directionType = trip.getDirectionType();
         bean.wheelchairType = trip.getWheelchairType();
+        bean.shapeId = trip.getShapeId();
+        bean.shapes = shapes;
+        return bean;
+    }
+
+    public static List<ShapeBean> fromShapes(List<Shape> points) {
         List<ShapeBean> shapes = new ArrayList<>();
-        for (Shape shape : trip.getShapes()) {
+        for (Shape shape : points) {
             shapes.add(ShapeBean.fromShape(shape));
         }
-        bean.shapes = shapes;
-        return bean;
+        return shapes;
     }
 
 }
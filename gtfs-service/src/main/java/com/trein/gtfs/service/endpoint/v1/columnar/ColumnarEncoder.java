@@ -0,0 +1,93 @@
+package com.trein.gtfs.service.endpoint.v1.columnar;
+
+import java.sql.Time;
+import java.util.List;
+
+import com.trein.gtfs.mongo.entity.AvailabilityType;
+import com.trein.gtfs.service.endpoint.v1.bean.ShapeBean;
+import com.trein.gtfs.service.endpoint.v1.bean.StopBean;
+import com.trein.gtfs.service.endpoint.v1.bean.StopTimeBean;
+
+/**
+ * Encodes response beans in the {@link ColumnarWriter} format. Columns are named after the JSON
+ * properties of the beans, nested properties being flattened, e.g. <code>stop.stop_id</code>.
+ * Times are seconds since midnight and enumerations are their GTFS codes.
+ *
+ * @author trein
+ */
+public final class ColumnarEncoder {
+
+    private ColumnarEncoder() {
+    }
+
+    public static byte[] encodeStopTimes(List<StopTimeBean> stopTimes) {
+        int size = stopTimes.size();
+        String[] stopIds = new String[size];
+        String[] stopNames = new String[size];
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        long[] arrivals = new long[size];
+        long[] departures = new long[size];
+        long[] sequences = new long[size];
+        String[] headsigns = new String[size];
+        long[] pickups = new long[size];
+        long[] dropoffs = new long[size];
+        double[] distances = new double[size];
+
+        for (int i = 0; i < size; i++) {
+            StopTimeBean stopTime = stopTimes.get(i);
+            StopBean stop = stopTime.getStop();
+            if (stop != null) {
+                stopIds[i] = stop.getStopId();
+                stopNames[i] = stop.getName();
+                latitudes[i] = stop.getLocation()[0];
+                longitudes[i] = stop.getLocation()[1];
+            }
+            arrivals[i] = seconds(stopTime.getArrivalTime());
+            departures[i] = seconds(stopTime.getDepartureTime());
+            sequences[i] = stopTime.getStopSequence();
+            headsigns[i] = stopTime.getStopHeadsign();
+            pickups[i] = code(stopTime.getPickupType());
+            dropoffs[i] = code(stopTime.getDropoffType());
+            distances[i] = stopTime.getShapeDistanceTraveled();
+        }
+
+        return new ColumnarWriter(size).stringColumn("stop.stop_id", stopIds).stringColumn("stop.name", stopNames)
+                .decimal6Column("stop.location.lat", latitudes).decimal6Column("stop.location.lng", longitudes)
+                .integerColumn("arrival_time", arrivals).integerColumn("departure_time", departures)
+                .integerColumn("sequence", sequences).stringColumn("headsign", headsigns)
+                .integerColumn("pickup_type", pickups).integerColumn("dropoff_type", dropoffs)
+                .doubleColumn("shape_distance_traveled", distances).toByteArray(true);
+    }
+
+    public static byte[] encodeShapes(List<ShapeBean> shapes) {
+        int size = shapes.size();
+        String[] shapeIds = new String[size];
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        long[] sequences = new long[size];
+        double[] distances = new double[size];
+
+        for (int i = 0; i < size; i++) {
+            ShapeBean shape = shapes.get(i);
+            shapeIds[i] = shape.getShapeId();
+            latitudes[i] = shape.getLocation()[0];
+            longitudes[i] = shape.getLocation()[1];
+            sequences[i] = shape.getSequence();
+            distances[i] = shape.getDistanceTraveled();
+        }
+
+        return new ColumnarWriter(size).stringColumn("shape_id", shapeIds).decimal6Column("location.lat", latitudes)
+                .decimal6Column("location.lng", longitudes).integerColumn("sequence", sequences)
+                .doubleColumn("distance_traveled", distances).toByteArray(true);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long seconds(Time time) {
+        return (time == null) ? -1 : (time.getHours() * 3600L) + (time.getMinutes() * 60L) + time.getSeconds();
+    }
+
+    private static long code(AvailabilityType type) {
+        return (type == null) ? 0 : type.getCode();
+    }
+}
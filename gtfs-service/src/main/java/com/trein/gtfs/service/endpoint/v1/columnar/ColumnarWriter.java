@@ -0,0 +1,189 @@
+package com.trein.gtfs.service.endpoint.v1.columnar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes rows of beans column by column in the <code>application/x-gtfs-columnar</code> format, a
+ * compact alternative to JSON for clients that parse large payloads:
+ *
+ * <pre>
+ *     response := "GTFC" version:u8 flags:u8 length:varint body
+ *     body     := rows:varint columns:varint column*
+ *     column   := name:string type:u8 values
+ *     string   := length:varint UTF-8 bytes
+ * </pre>
+ *
+ * Version is 1. When flag bit 0 is set the body is zlib (RFC 1950) compressed and length is its
+ * inflated size, otherwise length is the size of the body as is. Values of a column are, by type:
+ *
+ * <pre>
+ *     1 STRING   dictionary size:varint, dictionary string*, then for each row the varint
+ *                position of its value in the dictionary plus one, 0 for null
+ *     2 INTEGER  for each row the zigzag varint of its difference with the previous row,
+ *                the first row being compared to 0
+ *     3 DECIMAL6 as INTEGER, of the value times 10^6 rounded, used for coordinates
+ *     4 DOUBLE   for each row the IEEE 754 value, 8 bytes big endian
+ * </pre>
+ *
+ * Varints are unsigned LEB128 and zigzag maps signed values to unsigned ones, both as in Protocol
+ * Buffers. Columns must be added with exactly one value per row.
+ *
+ * @author trein
+ */
+public class ColumnarWriter {
+
+    public static final String MEDIA_TYPE = "application/x-gtfs-columnar";
+
+    static final byte[] MAGIC = { 'G', 'T', 'F', 'C' };
+    static final int VERSION = 1;
+    static final int FLAG_DEFLATED = 1;
+    static final int TYPE_STRING = 1;
+    static final int TYPE_INTEGER = 2;
+    static final int TYPE_DECIMAL6 = 3;
+    static final int TYPE_DOUBLE = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final double DECIMAL6_SCALE = 1e6;
+
+    private final int rows;
+    private final ByteArrayOutputStream columns = new ByteArrayOutputStream();
+    private int columnCount;
+
+    /**
+     * @param rows number of rows of every column
+     */
+    public ColumnarWriter(int rows) {
+        this.rows = rows;
+    }
+
+    public ColumnarWriter stringColumn(String name, String[] values) {
+        startColumn(name, TYPE_STRING, values.length);
+        Map<String, Integer> dictionary = new HashMap<>();
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        int[] positions = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            Integer position = dictionary.get(values[i]);
+            if (position == null) {
+                position = Integer.valueOf(dictionary.size() + 1);
+                dictionary.put(values[i], position);
+                writeString(entries, values[i]);
+            }
+            positions[i] = position.intValue();
+        }
+        writeVarint(this.columns, dictionary.size());
+        byte[] strings = entries.toByteArray();
+        this.columns.write(strings, 0, strings.length);
+        for (int position : positions) {
+            writeVarint(this.columns, position);
+        }
+        return this;
+    }
+
+    public ColumnarWriter integerColumn(String name, long[] values) {
+        startColumn(name, TYPE_INTEGER, values.length);
+        writeDeltas(values);
+        return this;
+    }
+
+    /**
+     * Values are kept to 6 decimal places, about 0.1 m for coordinates in degrees.
+     */
+    public ColumnarWriter decimal6Column(String name, double[] values) {
+        startColumn(name, TYPE_DECIMAL6, values.length);
+        long[] scaled = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            scaled[i] = Math.round(values[i] * DECIMAL6_SCALE);
+        }
+        writeDeltas(scaled);
+        return this;
+    }
+
+    public ColumnarWriter doubleColumn(String name, double[] values) {
+        startColumn(name, TYPE_DOUBLE, values.length);
+        for (double value : values) {
+            long bits = Double.doubleToLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                this.columns.write((int) (bits >>> shift));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @param deflate whether the body is compressed
+     * @return the whole response
+     */
+    public byte[] toByteArray(boolean deflate) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(this.columns.size() + 10);
+        writeVarint(body, this.rows);
+        writeVarint(body, this.columnCount);
+        try {
+            this.columns.writeTo(body);
+
+            ByteArrayOutputStream response = new ByteArrayOutputStream((deflate ? body.size() / 3 : body.size()) + 16);
+            response.write(MAGIC);
+            response.write(VERSION);
+            response.write(deflate ? FLAG_DEFLATED : 0);
+            writeVarint(response, body.size());
+            if (deflate) {
+                Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+                try (DeflaterOutputStream output = new DeflaterOutputStream(response, deflater)) {
+                    body.writeTo(output);
+                } finally {
+                    deflater.end();
+                }
+            } else {
+                body.writeTo(response);
+            }
+            return response.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("can not write in memory columns", e);
+        }
+    }
+
+    private void startColumn(String name, int type, int length) {
+        if (length != this.rows) {
+            throw new IllegalArgumentException(String.format("column %s has %d values for %d rows", name,
+                    Integer.valueOf(length), Integer.valueOf(this.rows)));
+        }
+        writeString(this.columns, name);
+        this.columns.write(type);
+        this.columnCount++;
+    }
+
+    private void writeDeltas(long[] values) {
+        long previous = 0;
+        for (long value : values) {
+            writeVarint(this.columns, zigzag(value - previous));
+            previous = value;
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void writeString(ByteArrayOutputStream output, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarint(output, bytes.length);
+        output.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream output, long value) {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            output.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        output.write((int) remaining);
+    }
+}
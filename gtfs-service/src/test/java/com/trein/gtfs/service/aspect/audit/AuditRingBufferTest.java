@@ -0,0 +1,130 @@
+package com.trein.gtfs.service.aspect.audit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Testing the multiple producers, single consumer ring buffer backing the audit sink.
+ *
+ * @author trein
+ */
+public class AuditRingBufferTest {
+
+    @Test
+    public void shouldRoundCapacityUpToPowerOfTwo() {
+        assertThat(new AuditRingBuffer<Integer>(1).capacity(), is(1));
+        assertThat(new AuditRingBuffer<Integer>(5).capacity(), is(8));
+        assertThat(new AuditRingBuffer<Integer>(8).capacity(), is(8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectEmptyCapacity() {
+        new AuditRingBuffer<Integer>(0);
+    }
+
+    @Test
+    public void shouldRefuseElementsWhenFull() {
+        AuditRingBuffer<Integer> buffer = new AuditRingBuffer<Integer>(4);
+        for (int i = 0; i < 4; i++) {
+            assertThat(buffer.offer(i), is(true));
+        }
+
+        assertThat(buffer.offer(4), is(false));
+        assertThat(buffer.size(), is(4));
+
+        List<Integer> drained = new ArrayList<Integer>();
+        assertThat(buffer.drainTo(drained, 1), is(1));
+        assertThat(buffer.offer(4), is(true));
+        assertThat(buffer.offer(5), is(false));
+    }
+
+    @Test
+    public void shouldKeepOrderAcrossWraparound() {
+        AuditRingBuffer<Integer> buffer = new AuditRingBuffer<Integer>(4);
+        List<Integer> drained = new ArrayList<Integer>();
+        int next = 0;
+
+        // odd batch sizes, so that head and tail cross the end of the array at every position
+        for (int lap = 0; lap < 100; lap++) {
+            int count = 1 + (lap % 3);
+            for (int i = 0; i < count; i++) {
+                assertThat(buffer.offer(next++), is(true));
+            }
+            assertThat(buffer.drainTo(drained, 2), is(Math.min(2, count)));
+            buffer.drainTo(drained, 4);
+            assertThat(buffer.isEmpty(), is(true));
+        }
+
+        assertThat(drained.size(), is(next));
+        for (int i = 0; i < next; i++) {
+            assertThat(drained.get(i), is(i));
+        }
+    }
+
+    @Test
+    public void shouldDeliverEveryElementOfConcurrentProducers() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 100000;
+        final AuditRingBuffer<Integer> buffer = new AuditRingBuffer<Integer>(64);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger refused = new AtomicInteger();
+        Thread[] threads = new Thread[producers];
+
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perProducer; i++) {
+                        // the buffer is much smaller than the elements offered, so it fills up
+                        while (!buffer.offer((producer * perProducer) + i)) {
+                            refused.incrementAndGet();
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        start.countDown();
+
+        int[] lastSeen = new int[producers];
+        Arrays.fill(lastSeen, -1);
+        List<Integer> drained = new ArrayList<Integer>();
+        int total = 0;
+        while (total < (producers * perProducer)) {
+            drained.clear();
+            if (buffer.drainTo(drained, 16) == 0) {
+                Thread.yield();
+            }
+            for (int element : drained) {
+                int producer = element / perProducer;
+                int sequence = element % perProducer;
+                // elements of one producer come out in the order it offered them, none missing
+                assertThat(sequence, is(lastSeen[producer] + 1));
+                lastSeen[producer] = sequence;
+            }
+            total += drained.size();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(buffer.isEmpty(), is(true));
+        assertThat(refused.get() > 0, is(true));
+    }
+}
@@ -0,0 +1,130 @@
+package com.trein.gtfs.service.aspect.audit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.trein.gtfs.mongo.entity.app.Audit;
+
+/**
+ * Testing the overflow policies of the audit sink and its behaviour once stopped. Records are
+ * written to a writer held on a latch, so the buffer can be filled on purpose.
+ *
+ * @author trein
+ */
+public class AuditSinkTest {
+
+    private LatchedSink sink;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (this.sink != null) {
+            this.sink.release.countDown();
+            this.sink.stop();
+        }
+    }
+
+    @Test
+    public void shouldWriteSubmittedRecordsWithoutWaitingForFlushInterval() throws InterruptedException {
+        this.sink = new LatchedSink(8, 2, AuditOverflowPolicy.DROP);
+        this.sink.release.countDown();
+        this.sink.start();
+
+        this.sink.submit(new Audit());
+        this.sink.submit(new Audit());
+
+        // a full batch wakes the idle writer, well before the one hour flush interval
+        assertThat(this.sink.written.await(10, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void shouldDropRecordsWhenFull() throws InterruptedException {
+        this.sink = new LatchedSink(2, 1, AuditOverflowPolicy.DROP);
+        this.sink.start();
+        fill(this.sink);
+
+        assertThat(this.sink.submit(new Audit()), is(false));
+        assertThat(this.sink.getDropped(), is(1L));
+    }
+
+    @Test
+    public void shouldBlockUntilWriterFreesSlot() throws InterruptedException {
+        this.sink = new LatchedSink(2, 1, AuditOverflowPolicy.BLOCK);
+        this.sink.start();
+        fill(this.sink);
+
+        final AtomicBoolean accepted = new AtomicBoolean();
+        Thread producer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                accepted.set(AuditSinkTest.this.sink.submit(new Audit()));
+            }
+        });
+        producer.start();
+        producer.join(200);
+        assertThat(producer.isAlive(), is(true));
+
+        this.sink.release.countDown();
+        producer.join(10000);
+        assertThat(accepted.get(), is(true));
+        assertThat(this.sink.getDropped(), is(0L));
+
+        this.sink.stop();
+        assertThat(this.sink.getFlushed(), is(4L));
+    }
+
+    @Test
+    public void shouldDropRecordsSubmittedAfterStop() throws InterruptedException {
+        this.sink = new LatchedSink(8, 4, AuditOverflowPolicy.BLOCK);
+        this.sink.release.countDown();
+        this.sink.start();
+        this.sink.submit(new Audit());
+        this.sink.stop();
+
+        assertThat(this.sink.submit(new Audit()), is(false));
+        assertThat(this.sink.getFlushed(), is(1L));
+        assertThat(this.sink.getDropped(), is(1L));
+        assertThat(this.sink.getPending(), is(0));
+    }
+
+    /**
+     * Submits records until the writer holds one batch and the buffer is full.
+     */
+    private static void fill(LatchedSink sink) throws InterruptedException {
+        assertThat(sink.submit(new Audit()), is(true));
+        assertThat(sink.taken.await(10, TimeUnit.SECONDS), is(true));
+        for (int i = 0; i < 2; i++) {
+            assertThat(sink.submit(new Audit()), is(true));
+        }
+    }
+
+    private static class LatchedSink extends AuditSink {
+
+        final CountDownLatch taken = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch written = new CountDownLatch(1);
+
+        LatchedSink(int capacity, int batchSize, AuditOverflowPolicy policy) {
+            super(capacity, batchSize, 1, TimeUnit.HOURS, policy);
+        }
+
+        @Override
+        void write(List<Audit> batch) {
+            this.taken.countDown();
+            try {
+                this.release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.written.countDown();
+        }
+    }
+}
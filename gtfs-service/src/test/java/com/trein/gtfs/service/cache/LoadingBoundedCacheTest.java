@@ -0,0 +1,147 @@
+package com.trein.gtfs.service.cache;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Testing that concurrent misses of a key wait for a single load, and only those are counted as
+ * coalesced.
+ *
+ * @author trein
+ */
+public class LoadingBoundedCacheTest {
+
+    private static final int THREADS = 8;
+
+    @Test
+    public void shouldLoadKeyOnceForConcurrentMisses() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final List<Thread> loaders = new ArrayList<Thread>();
+        final LoadingBoundedCache<String> cache = newCache(new LoadingBoundedCache.Loader<String>() {
+
+            @Override
+            public String load(Object key) {
+                calls.incrementAndGet();
+                synchronized (loaders) {
+                    loaders.add(Thread.currentThread());
+                }
+                started.countDown();
+                await(release);
+                return "value of " + key;
+            }
+        });
+
+        final List<Thread> callers = new ArrayList<Thread>();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(new Callable<String>() {
+
+                    @Override
+                    public String call() {
+                        synchronized (callers) {
+                            callers.add(Thread.currentThread());
+                        }
+                        return cache.load("trip");
+                    }
+                }));
+            }
+            assertThat(started.await(10, TimeUnit.SECONDS), is(true));
+            awaitWaiting(callers, loaders);
+            release.countDown();
+
+            for (Future<String> result : results) {
+                assertThat(result.get(10, TimeUnit.SECONDS), is("value of trip"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(calls.get(), is(1));
+        assertThat(cache.getLoads(), is(1L));
+        assertThat(cache.getCoalesced(), is((long) (THREADS - 1)));
+
+        // callers arriving after the load finished are hits
+        assertThat(cache.load("trip"), is("value of trip"));
+        assertThat(calls.get(), is(1));
+        assertThat(cache.getCoalesced(), is((long) (THREADS - 1)));
+    }
+
+    @Test
+    public void shouldNotCountSequentialMissesAsCoalesced() {
+        final AtomicInteger calls = new AtomicInteger();
+        LoadingBoundedCache<String> cache = newCache(new LoadingBoundedCache.Loader<String>() {
+
+            @Override
+            public String load(Object key) {
+                calls.incrementAndGet();
+                return "stop".equals(key) ? null : "value of " + key;
+            }
+        });
+
+        assertThat(cache.load("trip"), is("value of trip"));
+        assertThat(cache.load("stop"), is(nullValue()));
+        assertThat(cache.load("stop"), is(nullValue()));
+        assertThat(cache.warmUp(Arrays.asList("trip", "route")), is(1));
+
+        assertThat(calls.get(), is(3));
+        assertThat(cache.getLoads(), is(3L));
+        assertThat(cache.getCoalesced(), is(0L));
+    }
+
+    private static LoadingBoundedCache<String> newCache(LoadingBoundedCache.Loader<String> loader) {
+        return new LoadingBoundedCache<String>("trip", 100, 1, 1, TimeUnit.HOURS, loader,
+                MoreExecutors.sameThreadExecutor());
+    }
+
+    /**
+     * Waits until every caller but the loading one is blocked, i.e. waiting for the load.
+     */
+    private static void awaitWaiting(List<Thread> callers, List<Thread> loaders) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            int waiting = 0;
+            synchronized (callers) {
+                for (Thread caller : callers) {
+                    Thread.State state = caller.getState();
+                    if (!loaders.contains(caller)
+                            && ((state == Thread.State.WAITING) || (state == Thread.State.BLOCKED))) {
+                        waiting++;
+                    }
+                }
+            }
+            if (waiting == (THREADS - 1)) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new IllegalStateException("callers did not wait for the load");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.trein.gtfs.service.component;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.trein.gtfs.mongo.entity.Stop;
+import com.trein.gtfs.service.endpoint.v1.bean.StopBean;
+
+/**
+ * Testing nearest stop searches of the k-d tree against a brute force scan of great circle
+ * distances, over random stops and around the places where latitude and longitude wrap.
+ *
+ * @author trein
+ */
+public class StopSpatialIndexTest {
+
+    private static final double EARTH_RADIUS_METERS = 6371008.8;
+    private static final double TOLERANCE_METERS = 1e-3;
+
+    private final Random random = new Random(20140721L);
+
+    @Test
+    public void shouldMatchBruteForceOverWholeGlobe() {
+        List<StopBean> stops = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            double latitude = Math.toDegrees(Math.asin((2 * this.random.nextDouble()) - 1));
+            stops.add(stop(i, latitude, (360 * this.random.nextDouble()) - 180));
+        }
+        StopSpatialIndex index = new StopSpatialIndex(stops);
+
+        for (int i = 0; i < 300; i++) {
+            double latitude = (180 * this.random.nextDouble()) - 90;
+            double longitude = (360 * this.random.nextDouble()) - 180;
+            double radius = Math.pow(10, 2 + (5.5 * this.random.nextDouble()));
+            int limit = 1 + this.random.nextInt(50);
+            assertNearest(index, stops, latitude, longitude, radius, limit);
+        }
+    }
+
+    @Test
+    public void shouldFindStopsAcrossAntimeridian() {
+        List<StopBean> stops = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            double longitude = 179.8 + (0.4 * this.random.nextDouble());
+            stops.add(stop(i, (0.4 * this.random.nextDouble()) - 0.2, (longitude > 180) ? (longitude - 360) : longitude));
+        }
+        stops.add(stop(500, 0, 180));
+        stops.add(stop(501, 0, -180));
+        StopSpatialIndex index = new StopSpatialIndex(stops);
+
+        for (double longitude : new double[] { 180, -180, 179.99, -179.99, 179.9, -179.9 }) {
+            for (int limit : new int[] { 1, 10, 100, 1000 }) {
+                assertNearest(index, stops, 0.01, longitude, 5000, limit);
+                assertNearest(index, stops, 0, longitude, 50000, limit);
+            }
+        }
+        // the same point, given with either longitude
+        List<StopBean> nearest = index.findNearest(0, 180, 1, 2);
+        assertThat(nearest.size(), is(2));
+    }
+
+    @Test
+    public void shouldFindStopsAroundPoles() {
+        List<StopBean> stops = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            double latitude = 89.8 + (0.2 * this.random.nextDouble());
+            double longitude = (360 * this.random.nextDouble()) - 180;
+            stops.add(stop(i, ((i % 2) == 0) ? latitude : -latitude, longitude));
+        }
+        stops.add(stop(500, 90, 0));
+        stops.add(stop(501, -90, 45));
+        StopSpatialIndex index = new StopSpatialIndex(stops);
+
+        for (double latitude : new double[] { 90, -90, 89.99, -89.99, 89.9, -89.9 }) {
+            for (double longitude : new double[] { -180, -90, 0, 37.5, 180 }) {
+                for (int limit : new int[] { 1, 10, 100, 1000 }) {
+                    assertNearest(index, stops, latitude, longitude, 5000, limit);
+                    assertNearest(index, stops, latitude, longitude, 30000, limit);
+                }
+            }
+        }
+        // every longitude meets at the pole
+        assertThat(index.findNearest(90, 123, 1, 1).get(0).getStopId(), is("500"));
+        assertThat(index.findNearest(-90, -77, 1, 1).get(0).getStopId(), is("501"));
+    }
+
+    @Test
+    public void shouldReturnNothingForEmptyIndexOrLimit() {
+        StopSpatialIndex empty = new StopSpatialIndex(Collections.<StopBean> emptyList());
+        assertThat(empty.findNearest(0, 0, 1000, 10).isEmpty(), is(true));
+
+        StopSpatialIndex index = new StopSpatialIndex(Arrays.asList(stop(1, 0, 0)));
+        assertThat(index.findNearest(0, 0, 1000, 0).isEmpty(), is(true));
+        assertThat(index.findNearest(0, 0, 1000, 10).size(), is(1));
+    }
+
+    /**
+     * Compares the distances of the stops found with the ones of a brute force scan. Distances are
+     * compared instead of stops, so that stops at the same distance may come in any order.
+     */
+    private static void assertNearest(StopSpatialIndex index, List<StopBean> stops, double latitude,
+            double longitude, double radius, int limit) {
+        List<Double> expected = new ArrayList<>();
+        for (StopBean stop : stops) {
+            double distance = distance(latitude, longitude, stop);
+            if (distance <= radius) {
+                expected.add(distance);
+            }
+        }
+        Collections.sort(expected);
+        expected = expected.subList(0, Math.min(limit, expected.size()));
+
+        List<StopBean> found = index.findNearest(latitude, longitude, radius, limit);
+        String query = String.format("%f,%f within %f m, limit %d", latitude, longitude, radius, limit);
+        assertThat(query, found.size(), is(expected.size()));
+        for (int i = 0; i < found.size(); i++) {
+            assertEquals(query, expected.get(i), distance(latitude, longitude, found.get(i)), TOLERANCE_METERS);
+        }
+    }
+
+    private static double distance(double latitude, double longitude, StopBean stop) {
+        double lat1 = Math.toRadians(latitude);
+        double lat2 = Math.toRadians(stop.getLocation()[0]);
+        double sinLat = Math.sin((lat2 - lat1) / 2);
+        double sinLon = Math.sin(Math.toRadians(stop.getLocation()[1] - longitude) / 2);
+        double a = (sinLat * sinLat) + (Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static StopBean stop(int id, double latitude, double longitude) {
+        return StopBean.fromStop(new Stop(String.valueOf(id), null, "stop " + id, null, new double[] { latitude,
+                longitude }, null, null, null, 0, null, null));
+    }
+}
@@ -0,0 +1,184 @@
+package com.trein.gtfs.service.endpoint.v1.columnar;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+import com.trein.gtfs.mongo.entity.Stop;
+import com.trein.gtfs.mongo.entity.TripSchedule;
+import com.trein.gtfs.service.endpoint.v1.bean.StopBean;
+import com.trein.gtfs.service.endpoint.v1.bean.StopTimeBean;
+
+/**
+ * Testing the bytes written for stop times against the layout documented in
+ * {@link ColumnarWriter}.
+ *
+ * @author trein
+ */
+public class ColumnarEncoderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] STOP_TIME_COLUMNS = { "stop.stop_id", "stop.name", "stop.location.lat",
+            "stop.location.lng", "arrival_time", "departure_time", "sequence", "headsign", "pickup_type",
+            "dropoff_type", "shape_distance_traveled" };
+    private static final int[] STOP_TIME_TYPES = { 1, 1, 3, 3, 2, 2, 2, 1, 2, 2, 4 };
+
+    @Test
+    public void shouldWriteHeaderAndZigzagVarintDeltas() {
+        byte[] response = new ColumnarWriter(4).integerColumn("t", new long[] { 0, 300, 150, 150 })
+                .toByteArray(false);
+
+        assertThat(response, is(bytes('G', 'T', 'F', 'C', 1, 0, 11,
+                // rows, columns, name, type
+                4, 1, 1, 't', 2,
+                // 0, +300 and -150 zigzag encoded as 0, 600 and 299, then no change
+                0, 0xD8, 0x04, 0xAB, 0x02, 0)));
+    }
+
+    @Test
+    public void shouldEncodeKnownTrip() throws IOException {
+        StopBean mercado = stop("S1", "Mercado", -30.0277, -51.2287);
+        StopBean borges = stop("S2", "Borges", -30.031, -51.228);
+        TripSchedule schedule = new TripSchedule("T1", new String[] { "S1", "S2" }, new int[] { 28800, 29130 },
+                new int[] { 28830, 29160 }, new int[] { 1, 2 }, new String[] { "Centro", "Centro" },
+                new int[] { 0, 1 }, new int[] { 0, 0 }, new double[] { 0, 412.5 });
+        List<StopTimeBean> stopTimes = Arrays.asList(StopTimeBean.fromSchedule(schedule, 0, mercado),
+                StopTimeBean.fromSchedule(schedule, 1, borges));
+
+        Layout expected = new Layout().varint(2).varint(11);
+        expected.column(0).varint(2).string("S1").string("S2").varint(1).varint(2);
+        expected.column(1).varint(2).string("Mercado").string("Borges").varint(1).varint(2);
+        expected.column(2).zigzag(-30027700).zigzag(-3300);
+        expected.column(3).zigzag(-51228700).zigzag(700);
+        expected.column(4).zigzag(28800).zigzag(330);
+        expected.column(5).zigzag(28830).zigzag(330);
+        expected.column(6).zigzag(1).zigzag(1);
+        // repeated strings point to the same dictionary entry
+        expected.column(7).varint(1).string("Centro").varint(1).varint(1);
+        expected.column(8).zigzag(0).zigzag(1);
+        expected.column(9).zigzag(0).zigzag(0);
+        expected.column(10).float64(0).float64(412.5);
+
+        assertThat(body(ColumnarEncoder.encodeStopTimes(stopTimes)), is(expected.toByteArray()));
+    }
+
+    @Test
+    public void shouldEncodeEmptyTrip() throws IOException {
+        Layout expected = new Layout().varint(0).varint(11);
+        for (int column = 0; column < STOP_TIME_COLUMNS.length; column++) {
+            expected.column(column);
+            if (STOP_TIME_TYPES[column] == ColumnarWriter.TYPE_STRING) {
+                // empty dictionary
+                expected.varint(0);
+            }
+        }
+
+        assertThat(body(ColumnarEncoder.encodeStopTimes(Collections.<StopTimeBean> emptyList())),
+                is(expected.toByteArray()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectColumnWithWrongRowCount() {
+        new ColumnarWriter(2).integerColumn("sequence", new long[] { 1 });
+    }
+
+    /**
+     * Checks the header of a deflated response and returns its inflated body.
+     */
+    private static byte[] body(byte[] response) throws IOException {
+        InputStream input = new ByteArrayInputStream(response);
+        byte[] header = new byte[6];
+        assertThat(input.read(header), is(6));
+        assertThat(header, is(bytes('G', 'T', 'F', 'C', ColumnarWriter.VERSION, ColumnarWriter.FLAG_DEFLATED)));
+        long length = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = input.read();
+            length |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        InputStream inflater = new InflaterInputStream(input);
+        for (int read = inflater.read(); read >= 0; read = inflater.read()) {
+            body.write(read);
+        }
+        assertThat((long) body.size(), is(length));
+        return body.toByteArray();
+    }
+
+    private static StopBean stop(String id, String name, double latitude, double longitude) {
+        return StopBean.fromStop(new Stop(id, null, name, null, new double[] { latitude, longitude }, null, null,
+                null, 0, null, null));
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    /**
+     * Expected body, written value by value as documented.
+     */
+    private static final class Layout {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Layout column(int column) {
+            return string(STOP_TIME_COLUMNS[column]).raw(STOP_TIME_TYPES[column]);
+        }
+
+        Layout varint(long value) {
+            long remaining = value;
+            while (remaining >= 0x80) {
+                raw((int) (remaining & 0x7F) | 0x80);
+                remaining >>>= 7;
+            }
+            return raw((int) remaining);
+        }
+
+        Layout zigzag(long value) {
+            return varint((value < 0) ? ((-2 * value) - 1) : (2 * value));
+        }
+
+        Layout string(String value) {
+            byte[] utf8 = value.getBytes(UTF_8);
+            varint(utf8.length);
+            this.bytes.write(utf8, 0, utf8.length);
+            return this;
+        }
+
+        Layout float64(double value) {
+            long bits = Double.doubleToLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                raw((int) (bits >>> shift) & 0xFF);
+            }
+            return this;
+        }
+
+        Layout raw(int value) {
+            this.bytes.write(value);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return this.bytes.toByteArray();
+        }
+    }
+}